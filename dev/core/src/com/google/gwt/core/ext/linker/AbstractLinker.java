@@ -19,8 +19,8 @@ import com.google.gwt.core.ext.Linker;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.dev.util.Util;
+import com.google.gwt.util.tools.Utility;
 
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
 /**
@@ -67,9 +67,7 @@ public abstract class AbstractLinker extends Linker {
    */
   protected final SyntheticArtifact emitInputStream(TreeLogger logger,
       InputStream what, String partialPath) throws UnableToCompleteException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    Util.copy(logger, what, out);
-    return emitBytes(logger, out.toByteArray(), partialPath);
+    return emitInputStream(logger, what, partialPath, System.currentTimeMillis());
   }
 
   /**
@@ -85,9 +83,15 @@ public abstract class AbstractLinker extends Linker {
   protected final SyntheticArtifact emitInputStream(TreeLogger logger,
       InputStream what, String partialPath, long lastModified)
       throws UnableToCompleteException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    Util.copy(logger, what, out);
-    return emitBytes(logger, out.toByteArray(), partialPath, lastModified);
+    try {
+      // Stream straight into the disk cache rather than through a byte[].
+      return new SyntheticArtifact(getClass(), partialPath, what, lastModified);
+    } catch (RuntimeException e) {
+      logger.log(TreeLogger.ERROR, "Unable to read contents of " + partialPath, e);
+      throw new UnableToCompleteException();
+    } finally {
+      Utility.close(what);
+    }
   }
 
   /**
@@ -43,6 +43,24 @@ public abstract class CompilationResult extends Artifact<CompilationResult> {
    */
   public abstract String[] getJavaScript();
 
+  /**
+   * Returns the JavaScript of a single fragment; equivalent to
+   * <code>getJavaScript()[fragment]</code>. Linkers that process fragments
+   * one at a time should prefer this method, since implementations may then
+   * avoid loading every fragment into memory at once.
+   */
+  public String getJavaScript(int fragment) {
+    return getJavaScript()[fragment];
+  }
+
+  /**
+   * Returns the number of fragments in the compilation; equivalent to
+   * <code>getJavaScript().length</code>.
+   */
+  public int getFragmentCount() {
+    return getJavaScript().length;
+  }
+
   /**
    * Returns the permutation ID.
    */
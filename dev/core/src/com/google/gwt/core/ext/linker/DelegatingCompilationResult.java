@@ -34,11 +34,21 @@ public class DelegatingCompilationResult extends CompilationResult {
     this.delegate = compilationResult;
   }
 
+  @Override
+  public int getFragmentCount() {
+    return delegate.getFragmentCount();
+  }
+
   @Override
   public String[] getJavaScript() {
     return delegate.getJavaScript();
   }
 
+  @Override
+  public String getJavaScript(int fragment) {
+    return delegate.getJavaScript(fragment);
+  }
+
   @Override
   public int getPermutationId() {
     return delegate.getPermutationId();
@@ -49,6 +49,22 @@ public class SyntheticArtifact extends EmittedArtifact {
     this.token = diskCache.writeByteArray(data);
   }
 
+  /**
+   * Creates an artifact from the remaining contents of <code>data</code>,
+   * which are copied directly into the disk cache without being buffered in
+   * memory. Does not close <code>data</code>.
+   * 
+   * @throws RuntimeException wrapping an <code>IOException</code> if
+   *           <code>data</code> cannot be read
+   */
+  public SyntheticArtifact(Class<? extends Linker> linkerType,
+      String partialPath, InputStream data, long lastModified) {
+    super(linkerType, partialPath);
+    assert data != null;
+    this.lastModified = lastModified;
+    this.token = diskCache.transferFromStream(data);
+  }
+
   @Override
   public InputStream getContents(TreeLogger logger)
       throws UnableToCompleteException {
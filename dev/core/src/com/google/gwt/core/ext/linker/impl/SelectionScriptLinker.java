@@ -244,20 +244,17 @@ public abstract class SelectionScriptLinker extends AbstractLinker {
   protected Collection<Artifact<?>> doEmitCompilation(TreeLogger logger,
       LinkerContext context, CompilationResult result, ArtifactSet artifacts)
       throws UnableToCompleteException {
-    String[] js = result.getJavaScript();
-    byte[][] bytes = new byte[js.length][];
-    bytes[0] = generatePrimaryFragment(logger, context, result, js, artifacts);
-
-    for (int i = 1; i < js.length; i++) {
-      bytes[i] = Util.getBytes(generateDeferredFragment(logger, context, i, js[i], artifacts,
-          result));
-    }
-
+    // Fragments are loaded, wrapped and emitted one at a time, so that only
+    // one fragment's text is held in memory at once.
+    int fragmentCount = result.getFragmentCount();
     Collection<Artifact<?>> toReturn = new ArrayList<Artifact<?>>();
-    toReturn.add(emitBytes(logger, bytes[0], result.getStrongName()
+    toReturn.add(emitBytes(logger, generatePrimaryFragment(logger, context, result,
+        result.getJavaScript(0), fragmentCount, artifacts), result.getStrongName()
         + getCompilationExtension(logger, context)));
-    for (int i = 1; i < js.length; i++) {
-      toReturn.add(emitBytes(logger, bytes[i], FRAGMENT_SUBDIR + File.separator
+    for (int i = 1; i < fragmentCount; i++) {
+      byte[] bytes = Util.getBytes(generateDeferredFragment(logger, context, i,
+          result.getJavaScript(i), artifacts, result));
+      toReturn.add(emitBytes(logger, bytes, FRAGMENT_SUBDIR + File.separator
           + result.getStrongName() + File.separator + i + FRAGMENT_EXTENSION));
     }
 
@@ -347,11 +344,22 @@ public abstract class SelectionScriptLinker extends AbstractLinker {
   protected byte[] generatePrimaryFragment(TreeLogger logger,
       LinkerContext context, CompilationResult result, String[] js,
       ArtifactSet artifacts) throws UnableToCompleteException {
+    return generatePrimaryFragment(logger, context, result, js[0], js.length, artifacts);
+  }
+
+  /**
+   * Generate the primary fragment from the code of fragment 0 only, where
+   * <code>fragmentCount</code> is the total number of fragments in the
+   * compilation.
+   */
+  protected byte[] generatePrimaryFragment(TreeLogger logger,
+      LinkerContext context, CompilationResult result, String primaryJs,
+      int fragmentCount, ArtifactSet artifacts) throws UnableToCompleteException {
     TextOutput to = new DefaultTextOutput(context.isOutputCompact());
-    String temp = splitPrimaryJavaScript(result.getStatementRanges()[0], js[0],
+    String temp = splitPrimaryJavaScript(result.getStatementRanges()[0], primaryJs,
         charsPerChunk(context, logger), getScriptChunkSeparator(logger, context), context);
     to.print(generatePrimaryFragmentString(
-        logger, context, result, temp, js.length, artifacts));
+        logger, context, result, temp, fragmentCount, artifacts));
     return Util.getBytes(to.toString());
   }
 
@@ -122,6 +122,11 @@ public class StandardCompilationResult extends CompilationResult {
         softPermutations.size(), propertyMap));
   }
 
+  @Override
+  public int getFragmentCount() {
+    return jsToken.length;
+  }
+
   @Override
   public String[] getJavaScript() {
     String[] js = new String[jsToken.length];
@@ -131,6 +136,11 @@ public class StandardCompilationResult extends CompilationResult {
     return js;
   }
 
+  @Override
+  public String getJavaScript(int fragment) {
+    return diskCache.readString(jsToken[fragment]);
+  }
+
   @Override
   public int getPermutationId() {
     return permutationId;
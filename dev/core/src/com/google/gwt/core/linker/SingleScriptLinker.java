@@ -63,7 +63,7 @@ public class SingleScriptLinker extends SelectionScriptLinker {
   protected Collection<Artifact<?>> doEmitCompilation(TreeLogger logger,
       LinkerContext context, CompilationResult result, ArtifactSet artifacts)
       throws UnableToCompleteException {
-    if (result.getJavaScript().length != 1) {
+    if (result.getFragmentCount() != 1) {
       logger.branch(TreeLogger.ERROR,
           "The module must not have multiple fragments when using the "
               + getDescription() + " Linker.", null);
@@ -112,14 +112,13 @@ public class SingleScriptLinker extends SelectionScriptLinker {
     out.print("var $strongName = '" + result.getStrongName() + "';");
     out.newlineOpt();
 
-    String[] js = result.getJavaScript();
-    if (js.length != 1) {
+    if (result.getFragmentCount() != 1) {
       logger.log(TreeLogger.ERROR,
           "The module must not have multiple fragments when using the "
               + getDescription() + " Linker.", null);
       throw new UnableToCompleteException();
     }
-    out.print(js[0]);
+    out.print(result.getJavaScript(0));
 
     // Generate the call to tell the bootstrap code that we're ready to go.
     out.newlineOpt();
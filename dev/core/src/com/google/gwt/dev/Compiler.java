@@ -42,7 +42,9 @@ import com.google.gwt.util.tools.Utility;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.FutureTask;
 
 /**
@@ -185,10 +187,35 @@ public class Compiler {
 
   private final CompilerOptionsImpl options;
 
+  /**
+   * Generator results kept between runs, keyed by module name. Only used when
+   * the same Compiler instance is run repeatedly.
+   */
+  private Map<String, Map<String, RebindCache>> rebindCaches;
+
   public Compiler(CompilerOptions options) {
     this.options = new CompilerOptionsImpl(options);
   }
 
+  /**
+   * Discards any generator results kept for the given module, for instance
+   * because its module definition changed.
+   */
+  void clearRebindCache(String moduleName) {
+    if (rebindCaches != null) {
+      rebindCaches.remove(moduleName);
+    }
+  }
+
+  /**
+   * Keep generator results from one run to the next, so that generators which
+   * support {@link com.google.gwt.core.ext.CachedGeneratorResult} can skip
+   * regenerating unchanged output on later runs.
+   */
+  void setRetainRebindResults(boolean retain) {
+    rebindCaches = retain ? new HashMap<String, Map<String, RebindCache>>() : null;
+  }
+
   public boolean run(TreeLogger logger) throws UnableToCompleteException {
     ModuleDef[] modules = new ModuleDef[options.getModuleNames().size()];
     int i = 0;
@@ -230,7 +257,7 @@ public class Compiler {
           // Optimize early since permutation compiles will run in process.
           options.setOptimizePrecompile(true);
           Precompilation precompilation = Precompile.precompile(branch,
-              options, module, options.getGenDir());
+              options, module, options.getGenDir(), getRebindCaches(moduleName));
           if (precompilation == null) {
             return false;
           }
@@ -284,4 +311,16 @@ public class Compiler {
     }
     return true;
   }
+
+  private Map<String, RebindCache> getRebindCaches(String moduleName) {
+    if (rebindCaches == null) {
+      return null;
+    }
+    Map<String, RebindCache> caches = rebindCaches.get(moduleName);
+    if (caches == null) {
+      caches = new HashMap<String, RebindCache>();
+      rebindCaches.put(moduleName, caches);
+    }
+    return caches;
+  }
 }
@@ -36,6 +36,8 @@ import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -52,12 +54,27 @@ class DistillerRebindPermutationOracle implements RebindPermutationOracle {
   public DistillerRebindPermutationOracle(ModuleDef module,
       CompilationState compilationState, ArtifactSet generatorArtifacts,
       PropertyPermutations perms, File genDir) {
+    this(module, compilationState, generatorArtifacts, perms, genDir, null);
+  }
+
+  /**
+   * Creates an oracle which reuses generator results across compiles.
+   * 
+   * @param rebindCaches generator results from previous compiles of the same
+   *          module, keyed by permutation property values; new entries are
+   *          added as needed. If <code>null</code>, generator result caching
+   *          is disabled.
+   */
+  public DistillerRebindPermutationOracle(ModuleDef module,
+      CompilationState compilationState, ArtifactSet generatorArtifacts,
+      PropertyPermutations perms, File genDir, Map<String, RebindCache> rebindCaches) {
     this.compilationState = compilationState;
     permutations = new Permutation[perms.size()];
     propertyOracles = new StaticPropertyOracle[perms.size()];
     rebindOracles = new RebindOracle[perms.size()];
     generatorContext = new StandardGeneratorContext(compilationState, module,
         genDir, generatorArtifacts, true);
+    generatorContext.setGeneratorResultCachingEnabled(rebindCaches != null);
     BindingProperty[] orderedProps = perms.getOrderedProperties();
     SortedSet<ConfigurationProperty> configPropSet = module.getProperties().getConfigurationProperties();
     ConfigurationProperty[] configProps = configPropSet.toArray(new ConfigurationProperty[configPropSet.size()]);
@@ -66,8 +83,22 @@ class DistillerRebindPermutationOracle implements RebindPermutationOracle {
       String[] orderedPropValues = perms.getOrderedPropertyValues(i);
       propertyOracles[i] = new StaticPropertyOracle(orderedProps,
           orderedPropValues, configProps);
-      rebindOracles[i] = new StandardRebindOracle(propertyOracles[i], rules,
+      StandardRebindOracle rebindOracle = new StandardRebindOracle(propertyOracles[i], rules,
           generatorContext);
+      if (rebindCaches != null) {
+        /*
+         * Generators may answer differently for each permutation, so each set
+         * of property values gets its own cache.
+         */
+        String key = Arrays.toString(orderedPropValues);
+        RebindCache rebindCache = rebindCaches.get(key);
+        if (rebindCache == null) {
+          rebindCache = new RebindCache();
+          rebindCaches.put(key, rebindCache);
+        }
+        rebindOracle.setRebindCache(rebindCache);
+      }
+      rebindOracles[i] = rebindOracle;
       permutations[i] = new Permutation(i, propertyOracles[i]);
     }
   }
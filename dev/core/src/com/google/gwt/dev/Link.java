@@ -511,11 +511,9 @@ public class Link {
       return;
     }
 
-    String[] javaScript = compilation.getJavaScript();
-
-    int[] jsLengths = new int[javaScript.length];
-    for (int i = 0; i < javaScript.length; i++) {
-      jsLengths[i] = javaScript[i].length();
+    int[] jsLengths = new int[compilation.getFragmentCount()];
+    for (int i = 0; i < jsLengths.length; i++) {
+      jsLengths[i] = compilation.getJavaScript(i).length();
     }
 
     int totalSize = CodeSplitter.totalScriptSize(jsLengths);
@@ -523,7 +521,7 @@ public class Link {
     if (logger.isLoggable(TreeLogger.TRACE)) {
       logger.log(TreeLogger.TRACE, "Permutation " + permId + " (strong name "
           + compilation.getStrongName() + ") has an initial download size of "
-          + javaScript[0].length() + " and total script size of " + totalSize);
+          + jsLengths[0] + " and total script size of " + totalSize);
     }
   }
 
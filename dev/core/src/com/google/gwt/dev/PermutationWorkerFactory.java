@@ -24,6 +24,7 @@ import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
 import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -31,6 +32,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a factory for implementations of an endpoint that will invoke
@@ -40,11 +42,32 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public abstract class PermutationWorkerFactory {
 
+  /**
+   * One worker's attempt at some {@link Work}, and the file it writes to.
+   */
+  static class Attempt {
+    private final FileBackedObject<PermutationResult> file;
+    private final Work work;
+
+    public Attempt(Work work, FileBackedObject<PermutationResult> file) {
+      this.work = work;
+      this.file = file;
+    }
+
+    public FileBackedObject<PermutationResult> getFile() {
+      return file;
+    }
+
+    public Work getWork() {
+      return work;
+    }
+  }
+
   /**
    * Coordinates the actions of a set of {@link PermutationWorker}s, running
    * each in its own thread.
    */
-  private static class Manager {
+  static class Manager {
 
     private static enum Result {
       SUCCESS, FAIL, WORKER_DEATH
@@ -64,25 +87,47 @@ public abstract class PermutationWorkerFactory {
         Result threadDeathResult = Result.FAIL;
         try {
           while (true) {
-            Work work = workQueue.take();
-            if (work == POISON_PILL) {
+            Attempt attempt = takeAttempt();
+            if (attempt == null) {
               return;
             }
+            Work work = attempt.getWork();
+            FileBackedObject<PermutationResult> attemptFile = attempt.getFile();
             TreeLogger logger = work.getLogger();
             try {
-              worker.compile(logger, work.getPerm(), work.getResultFile());
-              logger.log(TreeLogger.DEBUG, "Successfully compiled permutation");
-              resultsQueue.put(Result.SUCCESS);
+              worker.compile(logger, work.getPerm(), attemptFile);
+              if (work.finish(logger, attemptFile)) {
+                logger.log(TreeLogger.DEBUG, "Successfully compiled permutation");
+                resultsQueue.put(Result.SUCCESS);
+              } else {
+                logger.log(TreeLogger.DEBUG,
+                    "Permutation was already compiled by another worker");
+              }
             } catch (TransientWorkerException e) {
-              logger.log(TreeLogger.DEBUG,
-                  "Worker died, will retry Permutation", e);
-              workQueue.add(work);
+              work.abandonAttempt(attemptFile);
+              if (work.isDone()) {
+                logger.log(TreeLogger.DEBUG,
+                    "Worker died, but Permutation was already compiled", e);
+              } else {
+                logger.log(TreeLogger.DEBUG,
+                    "Worker died, will retry Permutation", e);
+                workQueue.add(work);
+              }
               threadDeathResult = Result.WORKER_DEATH;
               return;
             } catch (UnableToCompleteException e) {
-              logger.log(TreeLogger.ERROR,
-                  "Unrecoverable exception, shutting down", e);
+              work.abandonAttempt(attemptFile);
+              if (work.isDone()) {
+                // A duplicate lost the race and was interrupted at shutdown.
+                logger.log(TreeLogger.DEBUG, "Abandoned duplicate permutation compile", e);
+                threadDeathResult = Result.WORKER_DEATH;
+              } else {
+                logger.log(TreeLogger.ERROR,
+                    "Unrecoverable exception, shutting down", e);
+              }
               return;
+            } finally {
+              inFlight.remove(work);
             }
           }
         } catch (InterruptedException e) {
@@ -99,9 +144,15 @@ public abstract class PermutationWorkerFactory {
 
     private static final Work POISON_PILL = new Work(null, null, null);
 
+    /**
+     * How long an idle worker waits for queued work before looking for a
+     * running permutation to duplicate.
+     */
+    private static final long SPECULATION_POLL_MILLIS = 500;
+
     public static void run(TreeLogger logger, List<Work> work,
         List<PermutationWorker> workers) throws UnableToCompleteException {
-      new Manager().doRun(logger, work, workers);
+      new Manager(Boolean.getBoolean(SPECULATIVE_PROPERTY)).doRun(logger, work, workers);
     }
 
     /**
@@ -114,10 +165,54 @@ public abstract class PermutationWorkerFactory {
      */
     BlockingQueue<Result> resultsQueue;
 
-    private Manager() {
+    /**
+     * Work currently being compiled by at least one worker, in the order it
+     * was started.
+     */
+    private final List<Work> inFlight = Collections.synchronizedList(new ArrayList<Work>());
+
+    private final boolean speculateEnabled;
+
+    Manager(boolean speculateEnabled) {
+      this.speculateEnabled = speculateEnabled;
+    }
+
+    /**
+     * Starts an attempt at the next queued work item. Once the queue is empty
+     * and speculation is enabled, an idle worker instead duplicates the
+     * longest-running permutation that has only one attempt, so a single slow
+     * permutation doesn't leave the remaining workers idle.
+     *
+     * @return the attempt to run, or <code>null</code> if the worker should
+     *         exit
+     */
+    private Attempt takeAttempt() throws InterruptedException {
+      while (true) {
+        Work work = speculateEnabled
+            ? workQueue.poll(SPECULATION_POLL_MILLIS, TimeUnit.MILLISECONDS) : workQueue.take();
+        if (work == POISON_PILL) {
+          return null;
+        }
+        if (work != null) {
+          Attempt attempt = work.startAttempt(speculateEnabled);
+          inFlight.add(work);
+          return attempt;
+        }
+        synchronized (inFlight) {
+          for (Work candidate : inFlight) {
+            Attempt duplicate = candidate.startDuplicate();
+            if (duplicate != null) {
+              candidate.getLogger().log(TreeLogger.DEBUG,
+                  "Idle worker duplicating slow permutation " + candidate.getPerm().getId());
+              inFlight.add(candidate);
+              return duplicate;
+            }
+          }
+        }
+      }
     }
 
-    private void doRun(TreeLogger logger, List<Work> work,
+    void doRun(TreeLogger logger, List<Work> work,
         List<PermutationWorker> workers) throws UnableToCompleteException {
 
       // Initialize state.
@@ -177,9 +272,13 @@ public abstract class PermutationWorkerFactory {
   }
 
   /**
-   * Represents work to do.
+   * Represents work to do. When speculation is enabled, the same work may be
+   * attempted by more than one worker; each attempt writes to its own file and
+   * the first to finish moves its file into place.
    */
-  private static class Work {
+  static class Work {
+    private int attempts;
+    private boolean done;
     private final TreeLogger logger;
     private final Permutation perm;
     private final FileBackedObject<PermutationResult> resultFile;
@@ -191,6 +290,41 @@ public abstract class PermutationWorkerFactory {
       this.resultFile = resultFile;
     }
 
+    /**
+     * Deletes the output of a failed or superseded attempt.
+     */
+    public void abandonAttempt(FileBackedObject<PermutationResult> attemptFile) {
+      if (attemptFile != resultFile) {
+        attemptFile.getFile().delete();
+      }
+    }
+
+    /**
+     * Records a successful attempt.
+     * 
+     * @return <code>true</code> if this attempt was the first to finish
+     */
+    public boolean finish(TreeLogger logger, FileBackedObject<PermutationResult> attemptFile)
+        throws UnableToCompleteException {
+      synchronized (this) {
+        if (done) {
+          abandonAttempt(attemptFile);
+          return false;
+        }
+        done = true;
+      }
+      if (attemptFile != resultFile) {
+        File target = resultFile.getFile();
+        target.delete();
+        if (!attemptFile.getFile().renameTo(target)) {
+          logger.log(TreeLogger.ERROR, "Unable to move " + attemptFile.getFile() + " to "
+              + target);
+          throw new UnableToCompleteException();
+        }
+      }
+      return true;
+    }
+
     public TreeLogger getLogger() {
       return logger;
     }
@@ -202,6 +336,39 @@ public abstract class PermutationWorkerFactory {
     public FileBackedObject<PermutationResult> getResultFile() {
       return resultFile;
     }
+
+    public synchronized boolean isDone() {
+      return done;
+    }
+
+    /**
+     * Starts an attempt.
+     *
+     * @param speculative whether other attempts may run at the same time, in
+     *          which case the attempt writes to a file of its own
+     */
+    public synchronized Attempt startAttempt(boolean speculative) {
+      ++attempts;
+      if (!speculative) {
+        return new Attempt(this, resultFile);
+      }
+      File file = resultFile.getFile();
+      return new Attempt(this, new FileBackedObject<PermutationResult>(PermutationResult.class,
+          new File(file.getParentFile(), file.getName() + ".attempt" + attempts)));
+    }
+
+    /**
+     * Starts a second attempt, unless the work is done or was already
+     * attempted more than once.
+     *
+     * @return the new attempt, or <code>null</code>
+     */
+    public synchronized Attempt startDuplicate() {
+      if (done || attempts != 1) {
+        return null;
+      }
+      return startAttempt(true);
+    }
   }
 
   /**
@@ -209,6 +376,13 @@ public abstract class PermutationWorkerFactory {
    */
   public static final String FACTORY_IMPL_PROPERTY = "gwt.jjs.permutationWorkerFactory";
 
+  /**
+   * A Java system property which, when <code>true</code>, lets idle workers
+   * start a duplicate compile of a permutation that another worker is still
+   * compiling. Whichever finishes first provides the result.
+   */
+  public static final String SPECULATIVE_PROPERTY = "gwt.jjs.speculativePermutations";
+
   /**
    * This value can be passed into {@link #setLocalWorkers(int)} to indicate
    * that a heuristic should be used to determine the total number of local
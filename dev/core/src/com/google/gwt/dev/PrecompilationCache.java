@@ -0,0 +1,342 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.ModuleDef;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.util.tools.Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent cache of {@link Precompile} results, so that a rebuild whose
+ * inputs have not changed can go straight to {@link CompilePerms}. Enabled by
+ * setting the {@value #CACHE_DIR_PROPERTY} system property to a directory,
+ * which may be shared by successive builds (for example, between CI jobs).
+ * <p>
+ * Entries are keyed on a fingerprint of:
+ * <ul>
+ * <li>the GWT version and the precompile options;</li>
+ * <li><code>gwt.*</code> system properties;</li>
+ * <li>the module's name, properties, and the paths of its source and public
+ * resources;</li>
+ * <li>the content of every entry of the module's class path, which covers the
+ * resources themselves, the <code>.gwt.xml</code> files, and the generators
+ * and whatever they read from the class path.</li>
+ * </ul>
+ * The fingerprint does not depend on where the class path lives on disk, so
+ * builds from different checkouts of the same sources share entries. Jar files
+ * are fingerprinted using the CRC and size of each entry, which are stored in
+ * the jar's directory, so they need not be read in full.
+ * <p>
+ * Generators which read inputs from outside the class path (files, the
+ * network, the clock) defeat the fingerprint; don't enable the cache for
+ * modules that use them. Entries are never evicted; delete the cache
+ * directory to reclaim space.
+ */
+class PrecompilationCache {
+
+  /**
+   * A Java system property naming the directory where precompilation results
+   * are cached.
+   */
+  static final String CACHE_DIR_PROPERTY = "gwt.precompile.cacheDir";
+
+  /**
+   * Returns the cache named by {@value #CACHE_DIR_PROPERTY}, or
+   * <code>null</code> if the property is not set.
+   */
+  static PrecompilationCache fromSystemProperty() {
+    String cacheDir = System.getProperty(CACHE_DIR_PROPERTY);
+    if (cacheDir == null || cacheDir.length() == 0) {
+      return null;
+    }
+    return new PrecompilationCache(new File(cacheDir));
+  }
+
+  /**
+   * Computes a key covering every input of a precompilation except the
+   * content of the class path: the GWT version, the precompile options,
+   * <code>gwt.*</code> system properties, and the module's name, properties
+   * and resource paths.
+   */
+  static String computeSettingsKey(ModuleDef module, PrecompileTaskOptions options)
+      throws IOException {
+    MessageDigest digest = newDigest();
+    hashSettings(digest, module, options);
+    return Util.toHexString(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Error initializing MD5", e);
+    }
+  }
+
+  /**
+   * Hashes a string, followed by a separator so that consecutive strings
+   * can't run together.
+   */
+  private static void update(MessageDigest digest, String value) {
+    digest.update(Util.getBytes(value));
+    digest.update((byte) 0);
+  }
+
+  private final File cacheDir;
+
+  PrecompilationCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Computes the key under which the precompilation of <code>module</code>
+   * is cached.
+   *
+   * @return the key, or <code>null</code> if the inputs could not be read, in
+   *         which case the cache should not be used
+   */
+  String computeKey(TreeLogger logger, ModuleDef module, PrecompileTaskOptions options) {
+    MessageDigest digest = newDigest();
+    try {
+      hashSettings(digest, module, options);
+      for (URL entry : module.getResourceLoader().getClassPath()) {
+        hashClassPathEntry(digest, entry);
+      }
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to fingerprint module " + module.getName()
+          + "; not using the precompilation cache", e);
+      return null;
+    }
+    return Util.toHexString(digest.digest());
+  }
+
+  /**
+   * Copies a cached precompilation, if there is one, into place.
+   *
+   * @return <code>true</code> if the cache held an entry for <code>key</code>
+   */
+  boolean restore(TreeLogger logger, String key, File precompilationFile, File permCountFile) {
+    File entryDir = new File(cacheDir, key);
+    File cachedPrecompilation = new File(entryDir, precompilationFile.getName());
+    File cachedPermCount = new File(entryDir, permCountFile.getName());
+    if (!cachedPrecompilation.isFile() || !cachedPermCount.isFile()) {
+      return false;
+    }
+    try {
+      copy(cachedPrecompilation, precompilationFile);
+      copy(cachedPermCount, permCountFile);
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to read precompilation cache entry " + entryDir, e);
+      precompilationFile.delete();
+      permCountFile.delete();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Adds a precompilation to the cache. Failures are logged and otherwise
+   * ignored, since the cache is only an optimization.
+   */
+  void store(TreeLogger logger, String key, File precompilationFile, File permCountFile) {
+    File entryDir = new File(cacheDir, key);
+    if (entryDir.exists()) {
+      return;
+    }
+    // Build the entry under a temporary name so readers never see half of it.
+    File tempDir = null;
+    try {
+      tempDir = Utility.makeTemporaryDirectory(cacheDir, key + "-");
+      copy(precompilationFile, new File(tempDir, precompilationFile.getName()));
+      copy(permCountFile, new File(tempDir, permCountFile.getName()));
+      if (tempDir.renameTo(entryDir)) {
+        logger.log(TreeLogger.DEBUG, "Cached precompilation as " + key);
+        return;
+      }
+      // Another build stored the same entry first.
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to write precompilation cache entry " + entryDir, e);
+    }
+    if (tempDir != null) {
+      Util.recursiveDelete(tempDir, false);
+    }
+  }
+
+  private void copy(File from, File to) throws IOException {
+    InputStream in = new FileInputStream(from);
+    try {
+      Util.copy(in, new FileOutputStream(to));
+    } finally {
+      Utility.close(in);
+    }
+  }
+
+  private void hashClassPathEntry(MessageDigest digest, URL entry) throws IOException {
+    if (!"file".equals(entry.getProtocol())) {
+      update(digest, entry.toExternalForm());
+      return;
+    }
+    File file;
+    try {
+      file = new File(entry.toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException("Malformed class path entry " + entry + ": " + e.getMessage());
+    }
+    if (file.isDirectory()) {
+      update(digest, "dir");
+      hashDirectory(digest, file, "");
+    } else if (file.isFile()) {
+      String name = file.getName().toLowerCase();
+      if (name.endsWith(".jar") || name.endsWith(".zip")) {
+        update(digest, "jar");
+        hashJar(digest, file);
+      } else {
+        update(digest, "file");
+        hashFile(digest, file);
+      }
+    } else {
+      update(digest, "missing");
+    }
+  }
+
+  private void hashDirectory(MessageDigest digest, File dir, String prefix) throws IOException {
+    String[] children = dir.list();
+    if (children == null) {
+      throw new IOException("Unable to list " + dir);
+    }
+    Arrays.sort(children);
+    for (String child : children) {
+      File file = new File(dir, child);
+      String path = prefix + child;
+      if (file.isDirectory()) {
+        hashDirectory(digest, file, path + "/");
+      } else {
+        update(digest, path);
+        hashFile(digest, file);
+      }
+    }
+  }
+
+  private void hashFile(MessageDigest digest, File file) throws IOException {
+    update(digest, String.valueOf(file.length()));
+    InputStream in = new FileInputStream(file);
+    byte[] buf = Util.takeThreadLocalBuf();
+    try {
+      int count;
+      while ((count = in.read(buf)) != -1) {
+        digest.update(buf, 0, count);
+      }
+    } finally {
+      Util.releaseThreadLocalBuf(buf);
+      Utility.close(in);
+    }
+  }
+
+  private void hashJar(MessageDigest digest, File file) throws IOException {
+    ZipFile zip = new ZipFile(file);
+    try {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        update(digest, entry.getName());
+        update(digest, entry.getCrc() + ":" + entry.getSize());
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  private static void hashModule(MessageDigest digest, ModuleDef module) {
+    update(digest, module.getName());
+    update(digest, module.getCanonicalName());
+    for (BindingProperty prop : module.getProperties().getBindingProperties()) {
+      update(digest, prop.getName());
+      update(digest, Arrays.toString(prop.getDefinedValues()));
+      update(digest, Arrays.toString(prop.getAllowedValues(prop.getRootCondition())));
+      update(digest, String.valueOf(prop.getCollapsedValues()));
+    }
+    for (ConfigurationProperty prop : module.getProperties().getConfigurationProperties()) {
+      update(digest, prop.getName());
+      update(digest, String.valueOf(prop.getValues()));
+    }
+    // Where each resource comes from is covered by the class path content.
+    String[] sourceFiles = module.getAllSourceFiles();
+    Arrays.sort(sourceFiles);
+    update(digest, "source");
+    for (String path : sourceFiles) {
+      update(digest, path);
+    }
+    String[] publicFiles = module.getAllPublicFiles();
+    Arrays.sort(publicFiles);
+    update(digest, "public");
+    for (String path : publicFiles) {
+      update(digest, path);
+    }
+  }
+
+  private static void hashOptions(MessageDigest digest, PrecompileTaskOptions options)
+      throws IOException {
+    PrecompileTaskOptionsImpl copy = new PrecompileTaskOptionsImpl(options);
+    // None of these affect the precompilation itself.
+    copy.setLogLevel(null);
+    copy.setUseGuiLogger(false);
+    copy.setWorkDir(null);
+    copy.setModuleNames(Collections.<String> emptyList());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Util.writeObjectToStream(bytes, copy);
+    digest.update(bytes.toByteArray());
+  }
+
+  private static void hashSettings(MessageDigest digest, ModuleDef module,
+      PrecompileTaskOptions options) throws IOException {
+    update(digest, About.getGwtVersionNum());
+    hashOptions(digest, options);
+    hashSystemProperties(digest);
+    hashModule(digest, module);
+  }
+
+  private static void hashSystemProperties(MessageDigest digest) {
+    Map<String, String> gwtProperties = new TreeMap<String, String>();
+    for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+      String name = String.valueOf(entry.getKey());
+      if (name.startsWith("gwt.") && !name.equals(CACHE_DIR_PROPERTY)) {
+        gwtProperties.put(name, String.valueOf(entry.getValue()));
+      }
+    }
+    update(digest, gwtProperties.toString());
+  }
+}
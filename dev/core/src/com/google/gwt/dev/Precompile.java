@@ -59,7 +59,8 @@ import java.util.concurrent.FutureTask;
 
 /**
  * Performs the first phase of compilation, generating the set of permutations
- * to compile, and a ready-to-compile AST.
+ * to compile, and a ready-to-compile AST. Results can be reused across builds
+ * with identical inputs; see {@link PrecompilationCache}.
  */
 public class Precompile {
   /**
@@ -136,9 +137,29 @@ public class Precompile {
    */
   public static Precompilation precompile(TreeLogger logger, JJSOptions jjsOptions,
       ModuleDef module, File genDir) {
+    return precompile(logger, jjsOptions, module, genDir, null);
+  }
+
+  /**
+   * Precompiles the given module, reusing generator results from earlier
+   * compiles of the same module.
+   * 
+   * @param logger a logger to use
+   * @param jjsOptions a set of compiler options
+   * @param module the module to compile
+   * @param genDir optional directory to dump generated source, may be
+   *          <code>null</code>
+   * @param rebindCaches generator results keyed by permutation, which are
+   *          updated by this compile; may be <code>null</code> to disable
+   *          generator result caching
+   * @return the precompilation
+   */
+  public static Precompilation precompile(TreeLogger logger, JJSOptions jjsOptions,
+      ModuleDef module, File genDir, Map<String, RebindCache> rebindCaches) {
     PropertyPermutations allPermutations =
         new PropertyPermutations(module.getProperties(), module.getActiveLinkerNames());
-    return precompile(logger, jjsOptions, module, 0, allPermutations, genDir);
+    return precompile(logger, jjsOptions, module, 0, allPermutations, genDir,
+        ManagementFactory.getRuntimeMXBean().getStartTime(), rebindCaches);
   }
 
   /**
@@ -233,6 +254,13 @@ public class Precompile {
   static Precompilation precompile(TreeLogger logger, JJSOptions jjsOptions, ModuleDef module,
       int permutationBase, PropertyPermutations allPermutations, File genDir,
       long startTimeMilliseconds) {
+    return precompile(logger, jjsOptions, module, permutationBase, allPermutations, genDir,
+        startTimeMilliseconds, null);
+  }
+
+  static Precompilation precompile(TreeLogger logger, JJSOptions jjsOptions, ModuleDef module,
+      int permutationBase, PropertyPermutations allPermutations, File genDir,
+      long startTimeMilliseconds, Map<String, RebindCache> rebindCaches) {
 
     Event precompileEvent = SpeedTracerLogger.start(CompilerEventType.PRECOMPILE);
 
@@ -269,7 +297,7 @@ public class Precompile {
       ArtifactSet generatedArtifacts = new ArtifactSet();
       DistillerRebindPermutationOracle rpo =
           new DistillerRebindPermutationOracle(module, compilationState, generatedArtifacts,
-              allPermutations, genDir);
+              allPermutations, genDir, rebindCaches);
       // Allow GC later.
       compilationState = null;
       PrecompilationMetricsArtifact precompilationMetrics =
@@ -312,6 +340,10 @@ public class Precompile {
           merged.put(key, permutation);
         }
       }
+      if (logger.isLoggable(TreeLogger.DEBUG)) {
+        logger.log(TreeLogger.DEBUG, allPermutations.size() + " property combinations reduced to "
+            + merged.size() + " distinct permutations");
+      }
       if (jjsOptions.isCompilerMetricsEnabled()) {
         int[] ids = new int[allPermutations.size()];
         for (int i = 0; i < allPermutations.size(); i++) {
@@ -401,6 +433,7 @@ public class Precompile {
     // Avoid early optimizations since permutation compiles will run
     // separately.
     options.setOptimizePrecompile(false);
+    PrecompilationCache cache = PrecompilationCache.fromSystemProperty();
 
     for (String moduleName : options.getModuleNames()) {
       File compilerWorkDir = options.getCompilerWorkDir(moduleName);
@@ -466,6 +499,19 @@ public class Precompile {
         } else {
           TreeLogger branch =
               logger.branch(TreeLogger.INFO, "Precompiling module " + module.getName());
+          File permCountFile = new File(compilerWorkDir, PERM_COUNT_FILENAME);
+
+          // Generated sources are only written on a real precompile.
+          String cacheKey = null;
+          if (cache != null && options.getGenDir() == null) {
+            cacheKey = cache.computeKey(branch, module, options);
+            if (cacheKey != null
+                && cache.restore(branch, cacheKey, precompilationFile, permCountFile)) {
+              branch.log(TreeLogger.INFO, "Inputs unchanged; reusing cached precompilation "
+                  + cacheKey);
+              continue;
+            }
+          }
 
           Precompilation precompilation = precompile(branch, options, module, options.getGenDir());
           if (precompilation == null) {
@@ -475,12 +521,14 @@ public class Precompile {
           Util.writeObjectAsFile(logger, precompilationFile, precompilation);
 
           int permsPrecompiled = precompilation.getPermutations().length;
-          Util.writeStringAsFile(logger, new File(compilerWorkDir, PERM_COUNT_FILENAME), String
-              .valueOf(permsPrecompiled));
+          Util.writeStringAsFile(logger, permCountFile, String.valueOf(permsPrecompiled));
           if (branch.isLoggable(TreeLogger.INFO)) {
             branch.log(TreeLogger.INFO, "Precompilation succeeded, number of permutations: "
                 + permsPrecompiled);
           }
+          if (cacheKey != null) {
+            cache.store(branch, cacheKey, precompilationFile, permCountFile);
+          }
         }
       }
     }
@@ -15,7 +15,11 @@
  */
 package com.google.gwt.dev;
 
+import com.google.gwt.core.ext.BadPropertyValueException;
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
 import com.google.gwt.dev.util.StringKey;
+import com.google.gwt.dev.util.Util;
 
 import java.util.Map;
 import java.util.SortedMap;
@@ -24,8 +28,8 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 /**
- * Creates a string representation of live rebound types to all possible
- * answers.
+ * Identifies the permutations which would compile to identical output. Built
+ * from a string representation of live rebound types to all possible answers:
  * 
  * <pre>
  * {
@@ -33,9 +37,23 @@ import java.util.TreeSet;
  *   Bundle = [ Bundle_EN, Bundle_FR ]  // A "soft" rebind
  * }
  * </pre>
+ * 
+ * followed by the values of the selection properties in
+ * {@link #COMPILER_PROPERTIES}, which the compiler reads directly rather than
+ * through a rebind. The key itself is a strong hash of that canonical form, so
+ * comparing keys stays cheap no matter how many rebinds a module has.
  */
 class RebindAnswersPermutationKey extends StringKey {
-  private static String collapse(Permutation permutation,
+
+  /**
+   * Selection properties that the compiler consults directly and that must
+   * have a single value within one compiled permutation. Properties that the
+   * compiler treats conservatively across merged permutations (for example,
+   * <code>user.agent</code> in JsCoerceIntShift) are not included.
+   */
+  static final String[] COMPILER_PROPERTIES = {"compiler.stackMode"};
+
+  static String canonicalForm(Permutation permutation,
       SortedSet<String> liveRebindRequests) {
     // Accumulates state
     SortedMap<String, SortedSet<String>> answers = new TreeMap<String, SortedSet<String>>();
@@ -60,12 +78,25 @@ class RebindAnswersPermutationKey extends StringKey {
       }
     }
 
+    SortedMap<String, SortedSet<String>> properties = new TreeMap<String, SortedSet<String>>();
+    for (String name : COMPILER_PROPERTIES) {
+      SortedSet<String> values = new TreeSet<String>();
+      for (StaticPropertyOracle oracle : permutation.getPropertyOracles()) {
+        try {
+          values.add(oracle.getSelectionProperty(TreeLogger.NULL, name).getCurrentValue());
+        } catch (BadPropertyValueException e) {
+          // Not defined in this module
+        }
+      }
+      properties.put(name, values);
+    }
+
     // Create string
-    return answers.toString();
+    return answers.toString() + properties.toString();
   }
 
   public RebindAnswersPermutationKey(Permutation permutation,
       SortedSet<String> liveRebindRequests) {
-    super(collapse(permutation, liveRebindRequests));
+    super(Util.computeStrongName(Util.getBytes(canonicalForm(permutation, liveRebindRequests))));
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.CompileTaskRunner.CompileTask;
+import com.google.gwt.dev.Compiler.ArgProcessor;
+import com.google.gwt.dev.Compiler.CompilerOptionsImpl;
+import com.google.gwt.dev.cfg.ModuleDef;
+import com.google.gwt.dev.cfg.ModuleDefLoader;
+import com.google.gwt.dev.resource.Resource;
+import com.google.gwt.dev.util.Memory;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
+import com.google.gwt.util.tools.Utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A long-lived variant of {@link Compiler} which compiles its modules, then
+ * watches their sources and recompiles a module whenever one of its source
+ * files changes.
+ * <p>
+ * Staying in one JVM lets each recompile reuse what earlier compiles built:
+ * <ul>
+ * <li>the in-memory unit cache, so JDT only recompiles changed compilation
+ * units and the units that depend on them (see
+ * {@link com.google.gwt.dev.javac.CompilationStateBuilder});</li>
+ * <li>the loaded module definitions, until a <code>.gwt.xml</code> file
+ * changes;</li>
+ * <li>generator results for generators which support
+ * {@link com.google.gwt.core.ext.CachedGeneratorResult}.</li>
+ * </ul>
+ * The unified AST itself is rebuilt on every recompile, since the optimizers
+ * rewrite it destructively.
+ * <p>
+ * Accepts the same arguments as {@link Compiler}. The
+ * {@value #POLL_MILLIS_PROPERTY} system property sets how often sources are
+ * checked for changes.
+ */
+public class RecompileDaemon {
+
+  /**
+   * A Java system property which sets how many milliseconds to wait between
+   * checks for changed sources.
+   */
+  public static final String POLL_MILLIS_PROPERTY = "gwt.recompile.pollMillis";
+
+  private static final long DEFAULT_POLL_MILLIS = 1000;
+
+  public static void main(String[] args) {
+    Memory.initialize();
+    SpeedTracerLogger.init();
+
+    final CompilerOptions options = new CompilerOptionsImpl();
+    if (new ArgProcessor(options).processArgs(args)) {
+      CompileTask task = new CompileTask() {
+        @Override
+        public boolean run(TreeLogger logger) throws UnableToCompleteException {
+          try {
+            new RecompileDaemon(options).run(logger);
+          } catch (InterruptedException e) {
+            logger.log(TreeLogger.INFO, "Recompile daemon interrupted; exiting");
+          }
+          return true;
+        }
+      };
+      if (CompileTaskRunner.runWithAppropriateLogger(options, task)) {
+        System.exit(0);
+      }
+    }
+    System.exit(1);
+  }
+
+  private Compiler compiler;
+
+  /**
+   * The inputs of each module as of its last compile, keyed by module name.
+   * See {@link #computeFingerprint(ModuleDef)}.
+   */
+  private final Map<String, Map<String, String>> fingerprints =
+      new HashMap<String, Map<String, String>>();
+
+  private final Map<String, ModuleDef> modules = new LinkedHashMap<String, ModuleDef>();
+
+  private final CompilerOptionsImpl options;
+
+  private final long pollMillis = Long.getLong(POLL_MILLIS_PROPERTY, DEFAULT_POLL_MILLIS);
+
+  public RecompileDaemon(CompilerOptions options) {
+    this.options = new CompilerOptionsImpl(options);
+  }
+
+  /**
+   * Compiles every module once, then recompiles modules as their sources
+   * change until interrupted.
+   */
+  public void run(TreeLogger logger) throws InterruptedException, UnableToCompleteException {
+    if (options.getWorkDir() == null) {
+      // Compiler would otherwise delete its temporary work dir after each run.
+      try {
+        final File workDir = Utility.makeTemporaryDirectory(null, "gwtc");
+        // The daemon usually stops by being killed, so delete it on the way out.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+          public void run() {
+            Util.recursiveDelete(workDir, false);
+          }
+        }));
+        options.setWorkDir(workDir);
+      } catch (IOException e) {
+        logger.log(TreeLogger.ERROR, "Unable to create compiler work directory", e);
+        throw new UnableToCompleteException();
+      }
+    }
+    compiler = new Compiler(options);
+    compiler.setRetainRebindResults(true);
+
+    while (!Thread.currentThread().isInterrupted()) {
+      recompileChangedModules(logger);
+      Thread.sleep(pollMillis);
+    }
+    throw new InterruptedException();
+  }
+
+  /**
+   * Recompiles each module that was never compiled or whose sources changed
+   * since it was last compiled.
+   *
+   * @return the number of modules that were compiled
+   */
+  int recompileChangedModules(TreeLogger logger) {
+    int compiled = 0;
+    for (String moduleName : options.getModuleNames()) {
+      try {
+        ModuleDef module = getModule(logger, moduleName);
+        Map<String, String> fingerprint = computeFingerprint(logger, module);
+        if (fingerprint == null) {
+          // Already logged; compile every time rather than risk stale output.
+          fingerprints.remove(moduleName);
+        } else if (fingerprint.equals(fingerprints.get(moduleName))) {
+          continue;
+        }
+        if (fingerprint != null) {
+          // Whatever the outcome, don't retry until something changes.
+          fingerprints.put(moduleName, fingerprint);
+        }
+        long start = System.currentTimeMillis();
+        boolean success;
+        try {
+          success = compile(logger, module);
+        } catch (UnableToCompleteException e) {
+          // Already logged.
+          success = false;
+        }
+        compiled++;
+        if (success) {
+          if (logger.isLoggable(TreeLogger.INFO)) {
+            logger.log(TreeLogger.INFO, "Recompiled " + moduleName + " in "
+                + (System.currentTimeMillis() - start) + " ms; waiting for changes");
+          }
+        } else {
+          logger.log(TreeLogger.WARN, "Compile of " + moduleName
+              + " failed; waiting for changes");
+        }
+      } catch (UnableToCompleteException e) {
+        // The module failed to load; already logged. Reload on the next poll.
+        modules.remove(moduleName);
+      }
+    }
+    return compiled;
+  }
+
+  /**
+   * Forgets the generator results retained for a module whose definition
+   * changed. Visible for testing.
+   */
+  void clearRebindCache(String moduleName) {
+    compiler.clearRebindCache(moduleName);
+  }
+
+  /**
+   * Compiles one module. Visible for testing.
+   */
+  boolean compile(TreeLogger logger, ModuleDef module) throws UnableToCompleteException {
+    return compiler.run(logger, module);
+  }
+
+  /**
+   * Loads a module definition. Visible for testing.
+   */
+  ModuleDef loadModule(TreeLogger logger, String moduleName) throws UnableToCompleteException {
+    return ModuleDefLoader.loadFromClassPath(logger, moduleName, true);
+  }
+
+  /**
+   * Records what a compile of <code>module</code> depends on: the compiler
+   * options, <code>gwt.*</code> system properties and module properties (see
+   * {@link PrecompilationCache#computeSettingsKey}), and the last modified
+   * time of each source file, public file, and resource on the source path
+   * which generators may read.
+   * 
+   * @return the fingerprint, or <code>null</code> if it could not be computed
+   */
+  private Map<String, String> computeFingerprint(TreeLogger logger, ModuleDef module) {
+    module.refresh();
+    Map<String, String> fingerprint = new HashMap<String, String>();
+    try {
+      fingerprint.put("settings", PrecompilationCache.computeSettingsKey(module, options));
+    } catch (IOException e) {
+      logger.log(TreeLogger.WARN, "Unable to fingerprint the options of module "
+          + module.getName(), e);
+      return null;
+    }
+    for (String path : module.getAllSourceFiles()) {
+      putLastModified(fingerprint, "source:" + path, module.findSourceFile(path));
+    }
+    for (String path : module.getAllPublicFiles()) {
+      putLastModified(fingerprint, "public:" + path, module.findPublicFile(path));
+    }
+    for (Map.Entry<String, Resource> entry : module.getResourcesOracle().getResourceMap()
+        .entrySet()) {
+      putLastModified(fingerprint, "resource:" + entry.getKey(), entry.getValue());
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Returns the cached module definition, reloading it if any of its
+   * <code>.gwt.xml</code> files changed.
+   */
+  private ModuleDef getModule(TreeLogger logger, String moduleName)
+      throws UnableToCompleteException {
+    ModuleDef module = modules.get(moduleName);
+    if (module == null || module.isGwtXmlFileStale()) {
+      if (module != null) {
+        logger.log(TreeLogger.INFO, "Module definition for " + moduleName
+            + " changed; reloading");
+        clearRebindCache(moduleName);
+        fingerprints.remove(moduleName);
+      }
+      module = loadModule(logger, moduleName);
+      modules.put(moduleName, module);
+    }
+    return module;
+  }
+
+  private void putLastModified(Map<String, String> fingerprint, String key, Resource resource) {
+    if (resource != null) {
+      fingerprint.put(key, String.valueOf(resource.getLastModified()));
+    }
+  }
+}
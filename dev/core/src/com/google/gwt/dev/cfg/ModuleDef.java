@@ -414,6 +414,13 @@ public class ModuleDef {
     return properties;
   }
 
+  /**
+   * Returns the loader through which this module's resources are found.
+   */
+  public ResourceLoader getResourceLoader() {
+    return resources;
+  }
+
   public synchronized ResourceOracle getResourcesOracle() {
     if (lazyResourcesOracle == null) {
       lazyResourcesOracle = new ResourceOracleImpl(TreeLogger.NULL, resources);
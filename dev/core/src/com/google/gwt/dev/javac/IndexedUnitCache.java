@@ -0,0 +1,669 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.jjs.impl.GwtAstBuilder;
+import com.google.gwt.dev.util.log.speedtracer.DevModeEventType;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
+import com.google.gwt.util.tools.Utility;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent {@link UnitCache} that keeps an on-disk index of cached units,
+ * keyed by {@link ContentId} and resource path, and only deserializes a
+ * {@link CompilationUnit} the first time it is looked up.
+ * <p>
+ * Each generation of the cache consists of two files: a data file holding
+ * one independently serialized unit per record, and an append-only index
+ * file describing where each record lives. On startup both files are
+ * memory-mapped and only the index is parsed, so the startup cost is
+ * proportional to the number of index entries rather than to the size of the
+ * units. Newly compiled units are appended to both files by a background
+ * thread.
+ * <p>
+ * Replacing a unit leaves its old record in the data file. When
+ * {@link #cleanup(TreeLogger)} finds that superseded records outnumber live
+ * ones, the live records are copied byte for byte into a new generation and
+ * the old files are removed.
+ * <p>
+ * Enabled with the <code>gwt.persistentunitcacheindexed</code> system property
+ * (see {@link UnitCacheFactory}).
+ */
+class IndexedUnitCache extends MemoryUnitCache {
+
+  /**
+   * Location and identity of one serialized unit in the data file.
+   */
+  private static class IndexEntry {
+    private final String contentId;
+    private final long lastModified;
+    private final int length;
+    private final long offset;
+    private final String resourcePath;
+
+    public IndexEntry(String resourcePath, String contentId, long lastModified, long offset,
+        int length) {
+      this.resourcePath = resourcePath;
+      this.contentId = contentId;
+      this.lastModified = lastModified;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  static final String CACHE_DIR_NAME = PersistentUnitCache.UNIT_CACHE_PREFIX + "-indexed";
+
+  static final String DATA_FILE_PREFIX = "data-";
+
+  static final String INDEX_FILE_PREFIX = "index-";
+
+  /**
+   * Identifies an index file, followed by a format version.
+   */
+  static final int INDEX_MAGIC = 0x47554958;
+
+  static final int INDEX_VERSION = 1;
+
+  /**
+   * Don't bother compacting until there are at least this many superseded
+   * records.
+   */
+  static final int MIN_SUPERSEDED_FOR_COMPACTION = 100;
+
+  private static final String UTF8 = "UTF-8";
+
+  /**
+   * Reads a length-prefixed UTF-8 string written by
+   * {@link #writeString(DataOutputStream, String)}.
+   */
+  private static String readString(ByteBuffer buffer) throws IOException {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IOException("Corrupt string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private final File cacheDirectory;
+
+  private RandomAccessFile dataFile;
+
+  private long dataLength;
+
+  private int generation;
+
+  /**
+   * All live index entries, keyed by {@link ContentId#get()}.
+   */
+  private final Map<String, IndexEntry> indexByContentId = new HashMap<String, IndexEntry>();
+
+  /**
+   * All live index entries, keyed by resource path.
+   */
+  private final Map<String, IndexEntry> indexByResourcePath = new HashMap<String, IndexEntry>();
+
+  private RandomAccessFile indexFile;
+
+  private final TreeLogger logger;
+
+  /**
+   * The portion of the data file that existed at startup. Records appended
+   * later are read through {@link #dataFile} instead.
+   */
+  private MappedByteBuffer mappedData;
+
+  /**
+   * Number of records in the data file that are no longer reachable through
+   * the index.
+   */
+  private int supersededCount;
+
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "IndexedUnitCacheWriter");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
+
+  private final Thread shutdownHook = new Thread() {
+    @Override
+    public void run() {
+      try {
+        doShutdown();
+      } catch (InterruptedException ex) {
+        // ignore
+      }
+    }
+  };
+
+  IndexedUnitCache(TreeLogger logger, File cacheDir) throws UnableToCompleteException {
+    assert cacheDir != null;
+    this.logger = logger;
+    this.cacheDirectory = new File(cacheDir, CACHE_DIR_NAME);
+    if (logger.isLoggable(TreeLogger.TRACE)) {
+      logger.log(TreeLogger.TRACE, "Indexed unit cache dir set to: "
+          + cacheDirectory.getAbsolutePath());
+    }
+
+    if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+      logger.log(TreeLogger.WARN, "Unable to initialize cache. Couldn't create directory "
+          + cacheDirectory.getAbsolutePath() + ".");
+      throw new UnableToCompleteException();
+    }
+
+    Event loadEvent = SpeedTracerLogger.start(DevModeEventType.LOAD_PERSISTENT_UNIT_CACHE);
+    try {
+      openLatestGeneration();
+    } catch (IOException ex) {
+      logger.log(TreeLogger.WARN, "Unable to open unit cache in "
+          + cacheDirectory.getAbsolutePath() + ".", ex);
+      closeFiles();
+      throw new UnableToCompleteException();
+    } finally {
+      loadEvent.end();
+    }
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Adds the unit to memory and queues it to be appended to the cache files.
+   */
+  @Override
+  public void add(CompilationUnit newUnit) {
+    super.add(newUnit);
+    synchronized (this) {
+      IndexEntry old = indexByResourcePath.get(newUnit.getResourcePath());
+      if (old != null) {
+        removeFromIndex(old);
+      }
+    }
+    if (!newUnit.shouldBePersisted()) {
+      return;
+    }
+    final CompilationUnit unit = newUnit;
+    writer.execute(new Runnable() {
+      public void run() {
+        try {
+          append(unit);
+        } catch (IOException ex) {
+          if (logger.isLoggable(TreeLogger.TRACE)) {
+            logger.log(TreeLogger.TRACE, "Error saving unit " + unit.getResourcePath()
+                + " to " + cacheDirectory.getAbsolutePath(), ex);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Compacts the cache files on the background thread if enough records have
+   * been superseded.
+   */
+  @Override
+  public void cleanup(TreeLogger logger) {
+    writer.execute(new Runnable() {
+      public void run() {
+        maybeCompact();
+      }
+    });
+  }
+
+  @Override
+  public CompilationUnit find(ContentId contentId) {
+    CompilationUnit unit = super.find(contentId);
+    if (unit != null) {
+      return unit;
+    }
+    IndexEntry entry;
+    synchronized (this) {
+      entry = indexByContentId.get(contentId.get());
+    }
+    return entry == null ? null : materialize(entry);
+  }
+
+  @Override
+  public CompilationUnit find(String resourcePath) {
+    UnitCacheEntry cached = unitMap.get(resourcePath);
+    IndexEntry entry;
+    synchronized (this) {
+      entry = indexByResourcePath.get(resourcePath);
+    }
+    if (cached != null) {
+      /*
+       * Prefer what is in memory, unless it came from an archive that is
+       * older than what was persisted.
+       */
+      if (entry == null || cached.getOrigin() != UnitOrigin.ARCHIVE
+          || entry.lastModified < cached.getUnit().getLastModified()) {
+        return cached.getUnit();
+      }
+    }
+    return entry == null ? null : materialize(entry);
+  }
+
+  @Override
+  public void remove(CompilationUnit unit) {
+    super.remove(unit);
+    synchronized (this) {
+      IndexEntry entry = indexByContentId.get(unit.getContentId().get());
+      if (entry != null) {
+        removeFromIndex(entry);
+      }
+    }
+  }
+
+  /**
+   * Finds all files in the cache directory.
+   */
+  File[] getCacheFiles() {
+    File[] files = cacheDirectory.listFiles();
+    return files == null ? new File[0] : files;
+  }
+
+  /**
+   * For unit testing - the number of records no longer reachable through the
+   * index.
+   */
+  synchronized int getSupersededCount() {
+    return supersededCount;
+  }
+
+  /**
+   * For unit testing - shutdown the cache after pending writes complete.
+   */
+  void shutdown() throws InterruptedException {
+    doShutdown();
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException ex) {
+      // ignore.
+    }
+  }
+
+  /**
+   * Serializes a unit on its own, so it can be read back without replaying
+   * the rest of the data file, and appends it to the current generation.
+   */
+  private void append(CompilationUnit unit) throws IOException {
+    CachedCompilationUnit cachedUnit = unit.asCachedCompilationUnit();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(cachedUnit);
+    out.close();
+
+    synchronized (this) {
+      if (dataFile == null) {
+        return;
+      }
+      IndexEntry entry =
+          new IndexEntry(cachedUnit.getResourcePath(), cachedUnit.getContentId().get(),
+              cachedUnit.getLastModified(), dataLength, bytes.size());
+      dataFile.seek(dataLength);
+      dataFile.write(bytes.toByteArray());
+      dataLength += entry.length;
+      indexFile.seek(indexFile.length());
+      indexFile.write(toIndexRecord(entry, cachedUnit.getTypesSerializedVersion()));
+
+      /*
+       * Only make the record visible if the unit is still the current one for
+       * its path; a newer version may have been added while this one was
+       * waiting to be written.
+       */
+      UnitCacheEntry current = unitMap.get(entry.resourcePath);
+      if (current == null || current.getUnit().getContentId().get().equals(entry.contentId)) {
+        IndexEntry old = indexByResourcePath.get(entry.resourcePath);
+        if (old != null) {
+          removeFromIndex(old);
+        }
+        addToIndex(entry);
+      } else {
+        supersededCount++;
+      }
+    }
+  }
+
+  private void addToIndex(IndexEntry entry) {
+    indexByResourcePath.put(entry.resourcePath, entry);
+    indexByContentId.put(entry.contentId, entry);
+  }
+
+  private synchronized void closeFiles() {
+    mappedData = null;
+    Utility.close(dataFile);
+    Utility.close(indexFile);
+    dataFile = null;
+    indexFile = null;
+  }
+
+  private void doShutdown() throws InterruptedException {
+    writer.shutdown();
+    writer.awaitTermination(5000, TimeUnit.MILLISECONDS);
+    closeFiles();
+  }
+
+  /**
+   * Maps as much of the data file as a single buffer can address.
+   */
+  private void mapData() throws IOException {
+    mappedData = null;
+    if (dataLength > 0) {
+      long size = Math.min(dataLength, Integer.MAX_VALUE);
+      mappedData = dataFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  private File getDataFile(int gen) {
+    return new File(cacheDirectory, DATA_FILE_PREFIX + String.format("%08X", gen));
+  }
+
+  private File getIndexFile(int gen) {
+    return new File(cacheDirectory, INDEX_FILE_PREFIX + String.format("%08X", gen));
+  }
+
+  /**
+   * Parses the memory-mapped index. Later records for the same resource path
+   * replace earlier ones. A truncated trailing record, left behind by a crash
+   * in the middle of a write, is dropped.
+   */
+  private void loadIndex(long validDataLength) throws IOException {
+    FileChannel channel = indexFile.getChannel();
+    long length = channel.size();
+    if (length == 0) {
+      indexFile.seek(0);
+      indexFile.writeInt(INDEX_MAGIC);
+      indexFile.writeInt(INDEX_VERSION);
+      return;
+    }
+
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    if (buffer.getInt() != INDEX_MAGIC || buffer.getInt() != INDEX_VERSION) {
+      throw new IOException("Unrecognized index format in " + getIndexFile(generation));
+    }
+    long serializationVersion = GwtAstBuilder.getSerializationVersion();
+    int validPosition = buffer.position();
+    try {
+      while (buffer.hasRemaining()) {
+        long typesVersion = buffer.getLong();
+        String resourcePath = readString(buffer);
+        String contentId = readString(buffer);
+        long lastModified = buffer.getLong();
+        long offset = buffer.getLong();
+        int recordLength = buffer.getInt();
+
+        if (offset + recordLength > validDataLength) {
+          // The index got ahead of the data; cut off this record and the rest.
+          break;
+        }
+        validPosition = buffer.position();
+        IndexEntry old = indexByResourcePath.get(resourcePath);
+        if (old != null) {
+          removeFromIndex(old);
+        }
+        if (typesVersion == serializationVersion) {
+          addToIndex(new IndexEntry(resourcePath, contentId, lastModified, offset, recordLength));
+        } else {
+          supersededCount++;
+        }
+      }
+    } catch (BufferUnderflowException ex) {
+      // Truncated record.
+    } catch (IOException ex) {
+      // Corrupt record.
+    }
+    if (validPosition < length) {
+      channel.truncate(validPosition);
+    }
+  }
+
+  /**
+   * Deserializes a unit straight out of the mapped data file, and remembers
+   * it so later lookups are served from memory.
+   */
+  private CompilationUnit materialize(IndexEntry entry) {
+    byte[] bytes = new byte[entry.length];
+    try {
+      synchronized (this) {
+        if (dataFile == null) {
+          return null;
+        }
+        if (mappedData != null && entry.offset + entry.length <= mappedData.capacity()) {
+          ByteBuffer slice = mappedData.duplicate();
+          slice.position((int) entry.offset);
+          slice.get(bytes);
+        } else {
+          dataFile.seek(entry.offset);
+          dataFile.readFully(bytes);
+        }
+      }
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      CachedCompilationUnit unit = (CachedCompilationUnit) in.readObject();
+      UnitCacheEntry cacheEntry = new UnitCacheEntry(unit, UnitOrigin.PERSISTENT);
+      UnitCacheEntry existing = unitMap.get(unit.getResourcePath());
+      if (existing != null) {
+        super.remove(existing.getUnit());
+      }
+      unitMap.put(unit.getResourcePath(), cacheEntry);
+      unitMapByContentId.put(unit.getContentId(), cacheEntry);
+      return unit;
+    } catch (IOException ex) {
+      forget(entry, ex);
+    } catch (ClassNotFoundException ex) {
+      forget(entry, ex);
+    } catch (ClassCastException ex) {
+      forget(entry, ex);
+    }
+    return null;
+  }
+
+  /**
+   * Copies the live records into a new generation when superseded records
+   * outnumber them. Records are copied as raw bytes; nothing is deserialized.
+   */
+  private synchronized void maybeCompact() {
+    if (dataFile == null || supersededCount < MIN_SUPERSEDED_FOR_COMPACTION
+        || supersededCount < indexByResourcePath.size()) {
+      return;
+    }
+
+    Event compactEvent = SpeedTracerLogger.start(DevModeEventType.DELETE_CACHE);
+    int oldGeneration = generation;
+    int newGeneration = generation + 1;
+    RandomAccessFile newData = null;
+    RandomAccessFile newIndex = null;
+    try {
+      newData = new RandomAccessFile(getDataFile(newGeneration), "rw");
+      newIndex = new RandomAccessFile(getIndexFile(newGeneration), "rw");
+      newData.setLength(0);
+      newIndex.setLength(0);
+
+      ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+      DataOutputStream indexOut = new DataOutputStream(indexBytes);
+      indexOut.writeInt(INDEX_MAGIC);
+      indexOut.writeInt(INDEX_VERSION);
+
+      List<IndexEntry> compacted = new ArrayList<IndexEntry>();
+      FileChannel from = dataFile.getChannel();
+      FileChannel to = newData.getChannel();
+      long serializationVersion = GwtAstBuilder.getSerializationVersion();
+      long position = 0;
+      for (IndexEntry entry : indexByResourcePath.values()) {
+        long copied = 0;
+        while (copied < entry.length) {
+          copied +=
+              from.transferTo(entry.offset + copied, entry.length - copied, to);
+        }
+        IndexEntry moved =
+            new IndexEntry(entry.resourcePath, entry.contentId, entry.lastModified, position,
+                entry.length);
+        indexOut.write(toIndexRecord(moved, serializationVersion));
+        compacted.add(moved);
+        position += entry.length;
+      }
+      indexOut.flush();
+      newIndex.write(indexBytes.toByteArray());
+      newData.getFD().sync();
+      newIndex.getFD().sync();
+
+      closeFiles();
+      dataFile = newData;
+      indexFile = newIndex;
+      newData = null;
+      newIndex = null;
+      generation = newGeneration;
+      dataLength = position;
+      mapData();
+      indexByContentId.clear();
+      indexByResourcePath.clear();
+      for (IndexEntry entry : compacted) {
+        addToIndex(entry);
+      }
+      supersededCount = 0;
+
+      // Best effort; a mapped file may not be deletable until the JVM exits.
+      getDataFile(oldGeneration).delete();
+      getIndexFile(oldGeneration).delete();
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Compacted unit cache to " + compacted.size() + " units");
+      }
+    } catch (IOException ex) {
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Unable to compact unit cache in "
+            + cacheDirectory.getAbsolutePath(), ex);
+      }
+      Utility.close(newData);
+      Utility.close(newIndex);
+      getDataFile(newGeneration).delete();
+      getIndexFile(newGeneration).delete();
+    } finally {
+      compactEvent.end();
+    }
+  }
+
+  private void forget(IndexEntry entry, Exception ex) {
+    if (logger.isLoggable(TreeLogger.TRACE)) {
+      logger.log(TreeLogger.TRACE, "Ignoring cached unit " + entry.resourcePath
+          + " due to read error.", ex);
+    }
+    synchronized (this) {
+      if (indexByContentId.get(entry.contentId) == entry) {
+        removeFromIndex(entry);
+      }
+    }
+  }
+
+  /**
+   * Opens the newest complete generation in the cache directory and deletes
+   * any older ones.
+   */
+  private synchronized void openLatestGeneration() throws IOException {
+    generation = 0;
+    for (File file : getCacheFiles()) {
+      String name = file.getName();
+      if (name.startsWith(INDEX_FILE_PREFIX)) {
+        try {
+          int gen = Integer.parseInt(name.substring(INDEX_FILE_PREFIX.length()), 16);
+          if (gen > generation && getDataFile(gen).isFile()) {
+            generation = gen;
+          }
+        } catch (NumberFormatException ex) {
+          // Not one of ours.
+        }
+      }
+    }
+    for (File file : getCacheFiles()) {
+      if (!file.equals(getDataFile(generation)) && !file.equals(getIndexFile(generation))) {
+        file.delete();
+      }
+    }
+
+    dataFile = new RandomAccessFile(getDataFile(generation), "rw");
+    indexFile = new RandomAccessFile(getIndexFile(generation), "rw");
+    dataLength = dataFile.length();
+    mapData();
+    try {
+      loadIndex(dataLength);
+    } catch (IOException ex) {
+      // Start over with an empty cache rather than failing.
+      if (logger.isLoggable(TreeLogger.TRACE)) {
+        logger.log(TreeLogger.TRACE, "Discarding unreadable unit cache index", ex);
+      }
+      indexByContentId.clear();
+      indexByResourcePath.clear();
+      supersededCount = 0;
+      mappedData = null;
+      dataFile.setLength(0);
+      indexFile.setLength(0);
+      dataLength = 0;
+      loadIndex(0);
+    }
+    if (logger.isLoggable(TreeLogger.TRACE)) {
+      logger.log(TreeLogger.TRACE, "Indexed " + indexByResourcePath.size()
+          + " units in persistent store.");
+    }
+  }
+
+  private void removeFromIndex(IndexEntry entry) {
+    indexByResourcePath.remove(entry.resourcePath);
+    indexByContentId.remove(entry.contentId);
+    supersededCount++;
+  }
+
+  private byte[] toIndexRecord(IndexEntry entry, long typesVersion) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(typesVersion);
+    writeString(out, entry.resourcePath);
+    writeString(out, entry.contentId);
+    out.writeLong(entry.lastModified);
+    out.writeLong(entry.offset);
+    out.writeInt(entry.length);
+    out.flush();
+    return bytes.toByteArray();
+  }
+}
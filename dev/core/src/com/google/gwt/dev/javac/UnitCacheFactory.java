@@ -32,6 +32,10 @@ public class UnitCacheFactory {
       "true");
   private static final boolean usePersistent = configPropertyValue.length() == 0
       || Boolean.parseBoolean(configPropertyValue);
+  /**
+   * Selects the indexed, lazily loaded cache format instead of replaying logs.
+   */
+  private static final boolean useIndexed = Boolean.getBoolean("gwt.persistentunitcacheindexed");
   private static UnitCache instance = null;
 
   /**
@@ -56,7 +60,11 @@ public class UnitCacheFactory {
         }
         if (cacheDir != null) {
           try {
-            instance = new PersistentUnitCache(logger, cacheDir);
+            if (useIndexed) {
+              instance = new IndexedUnitCache(logger, cacheDir);
+            } else {
+              instance = new PersistentUnitCache(logger, cacheDir);
+            }
             return instance;
           } catch (UnableToCompleteException ignored) {
           }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs;
+
+import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.json.JsonArray;
+import com.google.gwt.dev.json.JsonObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Records the wall time, CPU time and allocated bytes of each phase of a
+ * permutation compile, together with the change counts of the optimizer passes,
+ * and renders them as JSON so that compiler performance can be tracked across
+ * builds.
+ * <p>
+ * CPU time and allocation are measured for the compiling thread only; work
+ * handed to helper threads (see
+ * {@link com.google.gwt.dev.jjs.impl.ParallelTypeOptimizer}) shows up in wall
+ * time alone. Values the JVM cannot measure are reported as <code>-1</code>.
+ */
+public class CompilerPhaseMetrics {
+
+  /**
+   * A phase which has been started but not yet ended.
+   */
+  public final class Phase {
+    private final long startAllocated;
+    private final long startCpu;
+    private final long startWall;
+    private final String name;
+
+    private Phase(String name) {
+      this.name = name;
+      this.startWall = enabled ? System.nanoTime() : 0;
+      this.startCpu = enabled ? getCurrentThreadCpuTime() : 0;
+      this.startAllocated = enabled ? getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Ends the phase and records its measurements.
+     */
+    public void end() {
+      if (!enabled) {
+        return;
+      }
+      JsonObject phase = new JsonObject();
+      phase.put("name", name);
+      phase.put("wallMillis", (System.nanoTime() - startWall) / 1000000L);
+      phase.put("cpuMillis", delta(startCpu, getCurrentThreadCpuTime()) / 1000000L);
+      phase.put("allocatedBytes", delta(startAllocated, getCurrentThreadAllocatedBytes()));
+      phases.add(phase);
+    }
+  }
+
+  /**
+   * <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes(long)</code>,
+   * when available.
+   */
+  private static final Method getThreadAllocatedBytes;
+
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  static {
+    Method method = null;
+    try {
+      Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+      if (sunBean.isInstance(threadBean)) {
+        method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+      }
+    } catch (ClassNotFoundException e) {
+      // Not a Sun-derived JVM.
+    } catch (NoSuchMethodException e) {
+      // Older JVM.
+    }
+    getThreadAllocatedBytes = method;
+  }
+
+  private static long delta(long start, long end) {
+    return (start < 0 || end < 0) ? -1 : end - start;
+  }
+
+  private static long getCurrentThreadAllocatedBytes() {
+    if (getThreadAllocatedBytes == null) {
+      return -1;
+    }
+    try {
+      return (Long) getThreadAllocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static long getCurrentThreadCpuTime() {
+    if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+      return -1;
+    }
+    return threadBean.getCurrentThreadCpuTime();
+  }
+
+  private static JsonObject toJson(OptimizerStats stats) {
+    JsonObject json = new JsonObject();
+    json.put("name", stats.getName());
+    json.put("mods", stats.getNumMods());
+    json.put("visits", stats.getNumVisits());
+    if (!stats.getChildren().isEmpty()) {
+      JsonArray children = new JsonArray();
+      for (OptimizerStats child : stats.getChildren()) {
+        children.add(toJson(child));
+      }
+      json.put("children", children);
+    }
+    return json;
+  }
+
+  private final boolean enabled;
+
+  private final JsonObject optimizers = new JsonObject();
+
+  private final int permutationId;
+
+  private final JsonArray phases = new JsonArray();
+
+  /**
+   * @param permutationId the permutation being compiled
+   * @param enabled if <code>false</code>, nothing is measured or recorded
+   */
+  public CompilerPhaseMetrics(int permutationId, boolean enabled) {
+    this.permutationId = permutationId;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Records the stats of each pass of an optimization loop.
+   *
+   * @param loopName the name of the optimization loop, e.g. "java"
+   * @param passes the stats of each pass, in order
+   */
+  public void addOptimizerStats(String loopName, List<OptimizerStats> passes) {
+    if (!enabled) {
+      return;
+    }
+    JsonArray json = new JsonArray();
+    for (OptimizerStats pass : passes) {
+      json.add(toJson(pass));
+    }
+    optimizers.put(loopName, json);
+  }
+
+  /**
+   * Starts measuring a phase; call {@link Phase#end()} when it is done.
+   */
+  public Phase start(String name) {
+    return new Phase(name);
+  }
+
+  public JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    json.put("permutationId", permutationId);
+    json.put("phases", phases);
+    json.put("optimizers", optimizers);
+    return json;
+  }
+
+  public String toJsonString() {
+    StringWriter writer = new StringWriter();
+    try {
+      toJson().write(writer);
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected IOException writing to a StringWriter", e);
+    }
+    return writer.toString();
+  }
+}
@@ -89,6 +89,7 @@ import com.google.gwt.dev.jjs.impl.MakeCallsStatic;
 import com.google.gwt.dev.jjs.impl.MethodCallTightener;
 import com.google.gwt.dev.jjs.impl.MethodInliner;
 import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.jjs.impl.ParallelTypeOptimizer;
 import com.google.gwt.dev.jjs.impl.PostOptimizationCompoundAssignmentNormalizer;
 import com.google.gwt.dev.jjs.impl.Pruner;
 import com.google.gwt.dev.jjs.impl.RecordRebinds;
@@ -156,6 +157,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -236,6 +241,13 @@ public class JavaToJavaScriptCompiler {
     }
   }
 
+  /**
+   * A Java system property that sets the number of threads used to generate
+   * the JavaScript text of a permutation's fragments. Values less than two
+   * generate fragments one at a time. The output is the same either way.
+   */
+  public static final String CODEGEN_THREADS_PROPERTY = "gwt.jjs.codegenThreads";
+
   private static final String ENUM_NAME_OBFUSCATION_PROPERTY = "compiler.enum.obfuscate.names";
 
   /**
@@ -280,16 +292,23 @@ public class JavaToJavaScriptCompiler {
       Map<StandardSymbolData, JsName> symbolTable =
           new TreeMap<StandardSymbolData, JsName>(new SymbolData.ClassIdentComparator());
 
+      CompilerPhaseMetrics metrics =
+          new CompilerPhaseMetrics(permutationId, options.isCompilerMetricsEnabled());
+      CompilerPhaseMetrics.Phase phase = metrics.start("resolveRebinds");
       ResolveRebinds.exec(jprogram, permutation.getOrderedRebindAnswers());
+      phase.end();
 
       // (4) Optimize the normalized Java AST for each permutation.
+      phase = metrics.start("optimize");
       int optimizationLevel = options.getOptimizationLevel();
       if (optimizationLevel == OptionOptimize.OPTIMIZE_LEVEL_DRAFT) {
         draftOptimize(jprogram);
       } else {
-        optimize(options, jprogram);
+        metrics.addOptimizerStats("java", optimize(options, jprogram));
       }
+      phase.end();
 
+      phase = metrics.start("normalize");
       RemoveEmptySuperCalls.exec(jprogram);
 
       // (5) "Normalize" the high-level Java tree into a lower-level tree more
@@ -309,8 +328,10 @@ public class JavaToJavaScriptCompiler {
       Pruner.exec(jprogram, false);
       // prune all Object.getClass() overrides and replace with inline field ref
       ReplaceGetClassOverrides.exec(jprogram);
+      phase.end();
 
       // (7) Generate a JavaScript code DOM from the Java type declarations
+      phase = metrics.start("generateJsAst");
       jprogram.typeOracle.recomputeAfterOptimizations();
       JavaToJavaScriptMap jjsmap =
           GenerateJavaScriptAST.exec(jprogram, jsProgram, options.getOutput(), symbolTable,
@@ -323,10 +344,12 @@ public class JavaToJavaScriptCompiler {
       JsSymbolResolver.exec(jsProgram);
       // Move all function definitions to a top-level scope, to reduce weirdness
       EvalFunctionsAtTopScope.exec(jsProgram, jjsmap);
+      phase.end();
 
       // (9) Optimize the JS AST.
+      phase = metrics.start("optimizeJs");
       if (optimizationLevel > OptionOptimize.OPTIMIZE_LEVEL_DRAFT) {
-        optimizeJs(options, jsProgram);
+        metrics.addOptimizerStats("js", optimizeJs(options, jsProgram));
 
         /*
          * Coalesce redundant labels in switch statements.
@@ -345,8 +368,10 @@ public class JavaToJavaScriptCompiler {
        * No shifts may be generated after this point.
        */
       JsCoerceIntShift.exec(jsProgram, logger, propertyOracles);
+      phase.end();
 
       // (10) Split up the program into fragments
+      phase = metrics.start("codeSplitter");
       SyntheticArtifact dependencies = null;
       if (options.isRunAsyncEnabled()) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -361,6 +386,7 @@ public class JavaToJavaScriptCompiler {
                   + ".xml.gz", baos.toByteArray());
         }
       }
+      phase.end();
 
       // detect if browser is ie6 or not known
       boolean isIE6orUnknown = findBooleanProperty(propertyOracles, logger, "user.agent", "ie6",
@@ -369,6 +395,7 @@ public class JavaToJavaScriptCompiler {
       boolean isSourceMapsEnabled = findBooleanProperty(propertyOracles, logger,
           "compiler.useSourceMaps", "true", true, false, false);
       // (10.5) Obfuscate
+      phase = metrics.start("obfuscate");
       Map<JsName, String> obfuscateMap = Maps.create();
       switch (options.getOutput()) {
         case OBFUSCATED:
@@ -416,8 +443,10 @@ public class JavaToJavaScriptCompiler {
         JsIEBlockSizeVisitor.exec(jsProgram);
       }
       JsBreakUpLargeVarStatements.exec(jsProgram, propertyOracles);
+      phase.end();
 
       // (12) Generate the final output text.
+      phase = metrics.start("generateJs");
       String[] js = new String[jsProgram.getFragmentCount()];
       StatementRanges[] ranges = new StatementRanges[js.length];
       SizeBreakdown[] sizeBreakdowns =
@@ -426,6 +455,7 @@ public class JavaToJavaScriptCompiler {
       List<Map<Range, SourceInfo>> sourceInfoMaps = new ArrayList<Map<Range, SourceInfo>>();
       generateJavaScriptCode(options, jprogram, jsProgram, jjsmap, js, ranges,
           sizeBreakdowns, sourceInfoMaps, splitBlocks, isSourceMapsEnabled);
+      phase.end();
 
       PermutationResult toReturn =
           new PermutationResultImpl(js, permutation, makeSymbolMap(symbolTable, jsProgram), ranges);
@@ -445,10 +475,20 @@ public class JavaToJavaScriptCompiler {
 
       // TODO: enable this when ClosureCompiler is enabled
       if (!options.isClosureCompilerEnabled()) {
+        phase = metrics.start("soyc");
         toReturn.addArtifacts(makeSoycArtifacts(logger, permutationId, jprogram, js, sizeBreakdowns,
             options.isSoycExtra() ? sourceInfoMaps : null, dependencies, jjsmap, obfuscateMap,
             unifiedAst.getModuleMetrics(), unifiedAst.getPrecompilationMetrics(), compilationMetrics,
             options.isSoycHtmlDisabled()));
+        phase.end();
+      }
+
+      if (options.isCompilerMetricsEnabled()) {
+        SyntheticArtifact phaseMetrics =
+            new SyntheticArtifact(SoycReportLinker.class, "compilerPhases" + permutationId
+                + ".json", Util.getBytes(metrics.toJsonString()));
+        phaseMetrics.setVisibility(Visibility.Private);
+        toReturn.addArtifacts(Lists.create(phaseMetrics));
       }
 
       // TODO: enable this when ClosureCompiler is enabled
@@ -685,7 +725,13 @@ public class JavaToJavaScriptCompiler {
     draftOptimizeEvent.end();
   }
 
-  protected static void optimize(JJSOptions options, JProgram jprogram) throws InterruptedException {
+  /**
+   * Runs the Java optimization loop until it stops making changes.
+   *
+   * @return the stats of each pass
+   */
+  protected static List<OptimizerStats> optimize(JJSOptions options, JProgram jprogram)
+      throws InterruptedException {
     Event optimizeEvent = SpeedTracerLogger.start(CompilerEventType.OPTIMIZE);
 
     List<OptimizerStats> allOptimizerStats = new ArrayList<OptimizerStats>();
@@ -724,9 +770,15 @@ public class JavaToJavaScriptCompiler {
     }
 
     optimizeEvent.end();
+    return allOptimizerStats;
   }
 
-  protected static void optimizeJs(JJSOptions options, JsProgram jsProgram)
+  /**
+   * Runs the JavaScript optimization loop until it stops making changes.
+   *
+   * @return the stats of each pass
+   */
+  protected static List<OptimizerStats> optimizeJs(JJSOptions options, JsProgram jsProgram)
       throws InterruptedException {
     List<OptimizerStats> allOptimizerStats = new ArrayList<OptimizerStats>();
     int counter = 0;
@@ -765,6 +817,7 @@ public class JavaToJavaScriptCompiler {
         System.out.println(stats.prettyPrint());
       }
     }
+    return allOptimizerStats;
   }
 
   protected static OptimizerStats optimizeLoop(String passName, JProgram jprogram,
@@ -806,7 +859,13 @@ public class JavaToJavaScriptCompiler {
     stats.add(MethodCallTightener.exec(jprogram).recordVisits(numNodes));
 
     // dead code removal??
-    stats.add(DeadCodeElimination.exec(jprogram).recordVisits(numNodes));
+    if (ParallelTypeOptimizer.isEnabled()) {
+      // method-local, so each type can be cleaned up independently
+      stats.add(ParallelTypeOptimizer.exec(jprogram, DeadCodeElimination.NAME,
+          ParallelTypeOptimizer.DEAD_CODE_ELIMINATION).recordVisits(numNodes));
+    } else {
+      stats.add(DeadCodeElimination.exec(jprogram).recordVisits(numNodes));
+    }
 
     // inlining
     stats.add(MethodInliner.exec(jprogram).recordVisits(numNodes));
@@ -998,61 +1057,138 @@ public class JavaToJavaScriptCompiler {
       return;
     }
 
-    for (int i = 0; i < js.length; i++) {
-      DefaultTextOutput out = new DefaultTextOutput(options.getOutput().shouldMinimize());
-      JsSourceGenerationVisitorWithSizeBreakdown v;
+    int numThreads = Math.min(Integer.getInteger(CODEGEN_THREADS_PROPERTY, 1), js.length);
+    generateJavaScriptFragments(numThreads, options, jsProgram, jjsMap, js, ranges,
+        sizeBreakdowns, sourceInfoMaps, splitBlocks, sourceMapsEnabled);
+  }
 
-      if (sourceInfoMaps != null) {
-        v = new JsReportGenerationVisitor(out, jjsMap);
-      } else {
-        v = new JsSourceGenerationVisitorWithSizeBreakdown(out, jjsMap);
+  /**
+   * Generates the JavaScript code of every fragment, using up to
+   * <code>numThreads</code> threads. Visible for testing.
+   */
+  static void generateJavaScriptFragments(int numThreads, JJSOptions options,
+      JsProgram jsProgram, JavaToJavaScriptMap jjsMap, String[] js, StatementRanges[] ranges,
+      SizeBreakdown[] sizeBreakdowns, List<Map<Range, SourceInfo>> sourceInfoMaps,
+      boolean splitBlocks, boolean sourceMapsEnabled) {
+    // Each fragment is rendered into its own slot, so the result does not
+    // depend on the order in which fragments finish.
+    List<Map<Range, SourceInfo>> fragmentInfoMaps = (sourceInfoMaps == null) ? null
+        : new ArrayList<Map<Range, SourceInfo>>(Collections.<Map<Range, SourceInfo>> nCopies(
+            js.length, null));
+    if (numThreads > 1) {
+      generateJavaScriptFragmentsInParallel(numThreads, options, jsProgram, jjsMap, js, ranges,
+          sizeBreakdowns, fragmentInfoMaps, splitBlocks, sourceMapsEnabled);
+    } else {
+      for (int i = 0; i < js.length; i++) {
+        generateJavaScriptFragment(i, options, jsProgram, jjsMap, js, ranges, sizeBreakdowns,
+            fragmentInfoMaps, splitBlocks, sourceMapsEnabled);
       }
-      v.accept(jsProgram.getFragmentBlock(i));
+    }
+    if (sourceInfoMaps != null) {
+      sourceInfoMaps.addAll(fragmentInfoMaps);
+    }
+  }
 
-      StatementRanges statementRanges = v.getStatementRanges();
-      String code = out.toString();
-      Map<Range, SourceInfo> infoMap = (sourceInfoMaps != null) ? v.getSourceInfoMap() : null;
+  /**
+   * Generates the JavaScript code of a single fragment, storing the results
+   * at index <code>i</code> of the given arrays. Only reads the JavaScript
+   * AST, so distinct fragments may be generated concurrently.
+   */
+  private static void generateJavaScriptFragment(int i, JJSOptions options,
+      JsProgram jsProgram, JavaToJavaScriptMap jjsMap, String[] js, StatementRanges[] ranges,
+      SizeBreakdown[] sizeBreakdowns, List<Map<Range, SourceInfo>> sourceInfoMaps,
+      boolean splitBlocks, boolean sourceMapsEnabled) {
+    DefaultTextOutput out = new DefaultTextOutput(options.getOutput().shouldMinimize());
+    JsSourceGenerationVisitorWithSizeBreakdown v;
 
-      JsAbstractTextTransformer transformer =
-          new JsAbstractTextTransformer(code, statementRanges, infoMap) {
-            @Override
-            public void exec() {
-            }
+    if (sourceInfoMaps != null) {
+      v = new JsReportGenerationVisitor(out, jjsMap);
+    } else {
+      v = new JsSourceGenerationVisitorWithSizeBreakdown(out, jjsMap);
+    }
+    v.accept(jsProgram.getFragmentBlock(i));
 
-            @Override
-            protected void updateSourceInfoMap() {
-            }
-          };
+    StatementRanges statementRanges = v.getStatementRanges();
+    String code = out.toString();
+    Map<Range, SourceInfo> infoMap = (sourceInfoMaps != null) ? v.getSourceInfoMap() : null;
 
-      /**
-       * Reorder function decls to improve compression ratios. Also restructures
-       * the top level blocks into sub-blocks if they exceed 32767 statements.
-       */
-      Event functionClusterEvent = SpeedTracerLogger.start(CompilerEventType.FUNCTION_CLUSTER);
-      // TODO(cromwellian) move to the Js AST, re-enable sourcemaps + clustering
-      if (!sourceMapsEnabled
-          && options.isAggressivelyOptimize()
-          // only cluster for obfuscated mode
-          && options.getOutput() == JsOutputOption.OBFUSCATED) {
-        transformer = new JsFunctionClusterer(transformer);
-        transformer.exec();
-      }
-      functionClusterEvent.end();
+    JsAbstractTextTransformer transformer =
+        new JsAbstractTextTransformer(code, statementRanges, infoMap) {
+          @Override
+          public void exec() {
+          }
 
-      // rewrite top-level blocks to limit the number of statements
-      if (!sourceMapsEnabled && splitBlocks) {
-        transformer = new JsIEBlockTextTransformer(transformer);
-        transformer.exec();
-      }
+          @Override
+          protected void updateSourceInfoMap() {
+          }
+        };
+
+    /**
+     * Reorder function decls to improve compression ratios. Also restructures
+     * the top level blocks into sub-blocks if they exceed 32767 statements.
+     */
+    Event functionClusterEvent = SpeedTracerLogger.start(CompilerEventType.FUNCTION_CLUSTER);
+    // TODO(cromwellian) move to the Js AST, re-enable sourcemaps + clustering
+    if (!sourceMapsEnabled
+        && options.isAggressivelyOptimize()
+        // only cluster for obfuscated mode
+        && options.getOutput() == JsOutputOption.OBFUSCATED) {
+      transformer = new JsFunctionClusterer(transformer);
+      transformer.exec();
+    }
+    functionClusterEvent.end();
 
-      js[i] = transformer.getJs();
-      ranges[i] = transformer.getStatementRanges();
-      if (sizeBreakdowns != null) {
-        sizeBreakdowns[i] = v.getSizeBreakdown();
+    // rewrite top-level blocks to limit the number of statements
+    if (!sourceMapsEnabled && splitBlocks) {
+      transformer = new JsIEBlockTextTransformer(transformer);
+      transformer.exec();
+    }
+
+    js[i] = transformer.getJs();
+    ranges[i] = transformer.getStatementRanges();
+    if (sizeBreakdowns != null) {
+      sizeBreakdowns[i] = v.getSizeBreakdown();
+    }
+    if (sourceInfoMaps != null) {
+      sourceInfoMaps.set(i, transformer.getSourceInfoMap());
+    }
+  }
+
+  private static void generateJavaScriptFragmentsInParallel(int numThreads,
+      final JJSOptions options, final JsProgram jsProgram, final JavaToJavaScriptMap jjsMap,
+      final String[] js, final StatementRanges[] ranges, final SizeBreakdown[] sizeBreakdowns,
+      final List<Map<Range, SourceInfo>> sourceInfoMaps, final boolean splitBlocks,
+      final boolean sourceMapsEnabled) {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<?>> results = new ArrayList<Future<?>>(js.length);
+      for (int i = 0; i < js.length; i++) {
+        final int fragment = i;
+        results.add(executor.submit(new Runnable() {
+          public void run() {
+            generateJavaScriptFragment(fragment, options, jsProgram, jjsMap, js, ranges,
+                sizeBreakdowns, sourceInfoMaps, splitBlocks, sourceMapsEnabled);
+          }
+        }));
       }
-      if (sourceInfoMaps != null) {
-        sourceInfoMaps.add(transformer.getSourceInfoMap());
+      // Future.get() also publishes each fragment's results to this thread.
+      for (Future<?> result : results) {
+        result.get();
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalCompilerException("Interrupted while generating JavaScript", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new InternalCompilerException("Unexpected failure generating JavaScript", cause);
+    } finally {
+      executor.shutdownNow();
     }
   }
 
@@ -525,9 +525,16 @@ public class MethodInliner {
       }
 
       // Run a cleanup on the methods we just modified
-      for (JMethod method : inliner.modifiedMethods) {
-        OptimizerStats innerStats = DeadCodeElimination.exec(program, method);
+      if (ParallelTypeOptimizer.isEnabled()) {
+        OptimizerStats innerStats =
+            ParallelTypeOptimizer.exec(program, DeadCodeElimination.NAME,
+                ParallelTypeOptimizer.DEAD_CODE_ELIMINATION, inliner.modifiedMethods);
         stats.recordModified(innerStats.getNumMods());
+      } else {
+        for (JMethod method : inliner.modifiedMethods) {
+          OptimizerStats innerStats = DeadCodeElimination.exec(program, method);
+          stats.recordModified(innerStats.getNumMods());
+        }
       }
     }
     return stats;
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.InternalCompilerException;
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JNode;
+import com.google.gwt.dev.jjs.ast.JProgram;
+import com.google.gwt.dev.util.log.speedtracer.CompilerEventType;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger;
+import com.google.gwt.dev.util.log.speedtracer.SpeedTracerLogger.Event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs method-local optimizations concurrently, partitioned by
+ * {@link JDeclaredType}. Each type is handed to exactly one worker thread, so a
+ * local pass only ever rewrites method bodies owned by the type it was given.
+ * Global passes such as {@link Pruner} or {@link TypeTightener} must still run
+ * serially; callers use this class between them, and each call acts as a
+ * barrier that returns only once every type has been processed.
+ *
+ * <p>
+ * Disabled by default; set the {@value #THREADS_PROPERTY} system property to a
+ * value greater than one to enable it.
+ */
+public class ParallelTypeOptimizer {
+
+  /**
+   * A method-local optimization which can safely be applied to the members of
+   * one type without touching the bodies of any other type.
+   */
+  public interface LocalOptimizer {
+    OptimizerStats exec(JProgram program, JNode node);
+  }
+
+  /**
+   * Runs {@link DeadCodeElimination} over a single node.
+   */
+  public static final LocalOptimizer DEAD_CODE_ELIMINATION = new LocalOptimizer() {
+    public OptimizerStats exec(JProgram program, JNode node) {
+      return DeadCodeElimination.exec(program, node);
+    }
+  };
+
+  public static final String NAME = ParallelTypeOptimizer.class.getSimpleName();
+
+  /**
+   * A Java system property that sets the number of threads used to run local
+   * optimizations. Values less than two disable the parallel mode.
+   */
+  public static final String THREADS_PROPERTY = "gwt.jjs.optimizerThreads";
+
+  private static ExecutorService executor;
+
+  private static final int numThreads = Integer.getInteger(THREADS_PROPERTY, 1);
+
+  /**
+   * Runs <code>optimizer</code> over every declared type in the program.
+   */
+  public static OptimizerStats exec(JProgram program, String name, LocalOptimizer optimizer) {
+    return exec(program, name, optimizer, getExecutor());
+  }
+
+  /**
+   * Runs <code>optimizer</code> over the given methods, grouping them by
+   * enclosing type so that all methods of a type are processed by the same
+   * worker.
+   */
+  public static OptimizerStats exec(JProgram program, String name, LocalOptimizer optimizer,
+      Collection<JMethod> methods) {
+    Map<JDeclaredType, List<JNode>> partitions = new LinkedHashMap<JDeclaredType, List<JNode>>();
+    for (JMethod method : methods) {
+      List<JNode> nodes = partitions.get(method.getEnclosingType());
+      if (nodes == null) {
+        nodes = new ArrayList<JNode>();
+        partitions.put(method.getEnclosingType(), nodes);
+      }
+      nodes.add(method);
+    }
+    return execImpl(program, name, optimizer, partitions, getExecutor());
+  }
+
+  /**
+   * Returns <code>true</code> if local optimizations should be run in
+   * parallel.
+   */
+  public static boolean isEnabled() {
+    return numThreads > 1;
+  }
+
+  /**
+   * Runs <code>optimizer</code> over every declared type in the program, on the
+   * given pool. Visible for testing.
+   */
+  static OptimizerStats exec(JProgram program, String name, LocalOptimizer optimizer,
+      ExecutorService pool) {
+    Map<JDeclaredType, List<JNode>> partitions = new LinkedHashMap<JDeclaredType, List<JNode>>();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      List<JNode> nodes = new ArrayList<JNode>(1);
+      nodes.add(type);
+      partitions.put(type, nodes);
+    }
+    return execImpl(program, name, optimizer, partitions, pool);
+  }
+
+  private static OptimizerStats execImpl(final JProgram program, String name,
+      final LocalOptimizer optimizer, Map<JDeclaredType, List<JNode>> partitions,
+      ExecutorService pool) {
+    Event optimizeEvent =
+        SpeedTracerLogger.start(CompilerEventType.OPTIMIZE, "optimizer", name, "parallel",
+            String.valueOf(numThreads));
+    OptimizerStats stats = new OptimizerStats(name);
+
+    List<Future<OptimizerStats>> results =
+        new ArrayList<Future<OptimizerStats>>(partitions.size());
+    for (final List<JNode> nodes : partitions.values()) {
+      results.add(pool.submit(new Callable<OptimizerStats>() {
+        public OptimizerStats call() {
+          int numMods = 0;
+          for (JNode node : nodes) {
+            numMods += optimizer.exec(program, node).getNumMods();
+          }
+          return new OptimizerStats(NAME).recordModified(numMods);
+        }
+      }));
+    }
+
+    // Wait for every partition, which makes this call a barrier.
+    try {
+      for (Future<OptimizerStats> result : results) {
+        stats.recordModified(result.get().getNumMods());
+      }
+    } catch (InterruptedException e) {
+      cancelAll(results);
+      Thread.currentThread().interrupt();
+      throw new InternalCompilerException("Interrupted while running " + name, e);
+    } catch (ExecutionException e) {
+      cancelAll(results);
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new InternalCompilerException("Unexpected failure in " + name, cause);
+    }
+
+    optimizeEvent.end("didChange", "" + stats.didChange());
+    return stats;
+  }
+
+  private static void cancelAll(List<Future<OptimizerStats>> results) {
+    for (Future<OptimizerStats> result : results) {
+      result.cancel(true);
+    }
+  }
+
+  /**
+   * The pool is shared by all permutations compiled in this JVM, so the
+   * total number of optimizer threads stays bounded by
+   * {@value #THREADS_PROPERTY}.
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, NAME + "-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+}
@@ -19,16 +19,22 @@ import com.google.gwt.dev.jjs.impl.gflow.TransformationFunction.Transformation;
 import com.google.gwt.dev.util.Preconditions;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A solver to solve all kinds of analyses defined in the package.
- * Uses iterative worklist algorithm. 
+ * Uses iterative worklist algorithm. The worklist is a bit set over nodes
+ * numbered in reverse postorder (in the direction of the analysis), and the
+ * lowest numbered pending node is always processed first. This way a node is
+ * usually interpreted only after all of its predecessors, and loops converge
+ * in few passes.
  * 
  * Solver might be forward or backwards working. Both directions will always 
  * produce a valid fixed point, which depends on direction. As a rule, 
@@ -237,14 +243,54 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     return didChange;
   }
 
-  private LinkedHashSet<N> buildInitialWorklist(G g) {
-    ArrayList<N> nodes = new ArrayList<N>(g.getNodes());
-    LinkedHashSet<N> worklist = new LinkedHashSet<N>(nodes.size());
+  /**
+   * Orders the graph nodes in reverse postorder, starting from the graph's
+   * entry edges (for a forward solver) or exit edges (for a backwards one).
+   * Nodes not reachable that way follow in their original order.
+   */
+  private List<N> buildNodeOrder(G g) {
+    List<N> postorder = new ArrayList<N>(g.getNodes().size());
+    Set<N> visited = new HashSet<N>();
+    // Explicit stacks, since method bodies can be deep enough to overflow
+    // the Java stack.
+    List<N> nodeStack = new ArrayList<N>();
+    List<Iterator<E>> edgeStack = new ArrayList<Iterator<E>>();
+
+    for (E rootEdge : forward ? g.getGraphInEdges() : g.getGraphOutEdges()) {
+      N root = forward ? g.getEnd(rootEdge) : g.getStart(rootEdge);
+      if (root == null || !visited.add(root)) {
+        continue;
+      }
+      nodeStack.add(root);
+      edgeStack.add(getSuccessorEdges(g, root).iterator());
+      while (!nodeStack.isEmpty()) {
+        int top = nodeStack.size() - 1;
+        Iterator<E> edges = edgeStack.get(top);
+        if (edges.hasNext()) {
+          E edge = edges.next();
+          N next = forward ? g.getEnd(edge) : g.getStart(edge);
+          if (next != null && visited.add(next)) {
+            nodeStack.add(next);
+            edgeStack.add(getSuccessorEdges(g, next).iterator());
+          }
+        } else {
+          postorder.add(nodeStack.remove(top));
+          edgeStack.remove(top);
+        }
+      }
+    }
+    Collections.reverse(postorder);
+
+    List<N> nodes = new ArrayList<N>(g.getNodes());
     if (!forward) {
       Collections.reverse(nodes);
-    } 
-    worklist.addAll(nodes);
-    return worklist;
+    }
+    for (N node : nodes) {
+      if (visited.add(node)) {
+        postorder.add(node);
+      }
+    }
+    return postorder;
   }
 
   @SuppressWarnings("unchecked")
@@ -252,6 +298,10 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
     return (A) graph.getEdgeData(edge);
   }
 
+  private List<E> getSuccessorEdges(G g, N node) {
+    return forward ? g.getOutEdges(node) : g.getInEdges(node);
+  }
+
   private void initGraphAssumptions(Analysis<N, E, G, A> analysis, final G graph) {
     analysis.setInitialGraphAssumptions(graph, new AssumptionMap<E, A>() {
       public A getAssumption(E edge) {
@@ -347,14 +397,19 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
   private void solveImpl(final G graph, Analysis<N, E, G, A> analysis) {
     FlowFunction<N, E, G, A> flowFunction = analysis.getFlowFunction();
 
-    final LinkedHashSet<N> worklist = buildInitialWorklist(graph);
+    final List<N> order = buildNodeOrder(graph);
+    final Map<N, Integer> orderIndex = new HashMap<N, Integer>(order.size() * 2);
+    for (int i = 0; i < order.size(); ++i) {
+      orderIndex.put(order.get(i), i);
+    }
+    final BitSet worklist = new BitSet(order.size());
+    worklist.set(0, order.size());
     resetEdgeData(graph);
     initGraphAssumptions(analysis, graph);
 
-    while (!worklist.isEmpty()) {
-      Iterator<N> iterator = worklist.iterator();
-      final N node = iterator.next();
-      iterator.remove();
+    for (int i = worklist.nextSetBit(0); i >= 0; i = worklist.nextSetBit(0)) {
+      worklist.clear(i);
+      final N node = order.get(i);
 
       flowFunction.interpret(node, graph, new AssumptionMap<E, A>() {
         public A getAssumption(E edge) {
@@ -373,11 +428,11 @@ public class AnalysisSolver<N, E, T, G extends Graph<N, E, T>,
 
             if (start == node) {
               if (end != null) {
-                worklist.add(end);
+                worklist.set(orderIndex.get(end));
               }
             } else if (end == node) {
               if (start != null) {
-                worklist.add(start);
+                worklist.set(orderIndex.get(start));
               }
             } else {
               throw new IllegalStateException();
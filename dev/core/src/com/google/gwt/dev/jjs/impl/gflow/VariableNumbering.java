@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl.gflow;
+
+import com.google.gwt.dev.jjs.ast.JVariable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense, zero-based numbers to the variables seen by one analysis, so
+ * that assumptions can store sets of variables as bit sets or arrays indexed
+ * by variable number instead of hash maps. Numbers are assigned on first use
+ * and never change; one instance should be shared by all assumptions of a
+ * single method.
+ */
+public class VariableNumbering {
+  private final Map<JVariable, Integer> numbers = new IdentityHashMap<JVariable, Integer>();
+  private final List<JVariable> variables = new ArrayList<JVariable>();
+
+  /**
+   * Returns the number of <code>variable</code>, assigning the next free one
+   * if the variable has not been seen before.
+   */
+  public int getNumber(JVariable variable) {
+    Integer number = numbers.get(variable);
+    if (number == null) {
+      number = variables.size();
+      numbers.put(variable, number);
+      variables.add(variable);
+    }
+    return number;
+  }
+
+  public JVariable getVariable(int number) {
+    return variables.get(number);
+  }
+
+  /**
+   * Returns the number of <code>variable</code>, or <code>-1</code> if it has
+   * not been numbered yet.
+   */
+  public int lookupNumber(JVariable variable) {
+    Integer number = numbers.get(variable);
+    return number == null ? -1 : number;
+  }
+
+  public int size() {
+    return variables.size();
+  }
+}
@@ -17,17 +17,17 @@ package com.google.gwt.dev.jjs.impl.gflow.liveness;
 
 import com.google.gwt.dev.jjs.ast.JVariable;
 import com.google.gwt.dev.jjs.impl.gflow.Assumption;
-import com.google.gwt.dev.util.collect.IdentityHashSet;
+import com.google.gwt.dev.jjs.impl.gflow.VariableNumbering;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Assumption for LivenessAnalysis. Contains set of all live (=used after) 
- * variables.
+ * variables, stored as a bit set indexed by {@link VariableNumbering}.
  */
 public class LivenessAssumption implements Assumption<LivenessAssumption> {
   /**
@@ -36,9 +36,11 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
   public static class Updater {
     private LivenessAssumption assumption;
     private boolean copied = false;
+    private final VariableNumbering numbering;
     
-    public Updater(LivenessAssumption assumption) {
+    public Updater(LivenessAssumption assumption, VariableNumbering numbering) {
       this.assumption = assumption;
+      this.numbering = numbering;
     }
 
     public void kill(JVariable target) {
@@ -63,25 +65,28 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
 
     private void copyIfNeeded() {
       if (!copied) {
-        assumption = new LivenessAssumption(assumption);
+        assumption = assumption == null ? new LivenessAssumption(numbering)
+            : new LivenessAssumption(assumption);
         copied = true;
       }
     }
   }
   
   /**
-   * Set of all live variables.
+   * Set of all live variables, by variable number.
    */
-  private final Set<JVariable> liveVariables = new IdentityHashSet<JVariable>();
-  
-  public LivenessAssumption() {
-    super();
-  }
+  private final BitSet liveVariables;
+
+  private final VariableNumbering numbering;
 
   public LivenessAssumption(LivenessAssumption assumptions) {
-    if (assumptions != null) {
-      this.liveVariables.addAll(assumptions.liveVariables);
-    }
+    this.numbering = assumptions.numbering;
+    this.liveVariables = (BitSet) assumptions.liveVariables.clone();
+  }
+
+  public LivenessAssumption(VariableNumbering numbering) {
+    this.numbering = numbering;
+    this.liveVariables = new BitSet(numbering.size());
   }
 
   @Override
@@ -105,7 +110,8 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
   }
 
   public boolean isLive(JVariable variable) {
-    return liveVariables.contains(variable);
+    int number = numbering.lookupNumber(variable);
+    return number >= 0 && liveVariables.get(number);
   }
 
   /**
@@ -119,7 +125,7 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
       return value;
     }
     LivenessAssumption result = new LivenessAssumption(this);
-    result.liveVariables.addAll(value.liveVariables);
+    result.liveVariables.or(value.liveVariables);
     return result;
   }
 
@@ -127,7 +133,10 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
     StringBuffer result = new StringBuffer();
     
     result.append("{");
-    List<JVariable> vars = new ArrayList<JVariable>(liveVariables);
+    List<JVariable> vars = new ArrayList<JVariable>(liveVariables.cardinality());
+    for (int i = liveVariables.nextSetBit(0); i >= 0; i = liveVariables.nextSetBit(i + 1)) {
+      vars.add(numbering.getVariable(i));
+    }
     Collections.sort(vars, new Comparator<JVariable>() {
       public int compare(JVariable o1, JVariable o2) {
         return o1.getName().compareTo(o2.getName());
@@ -150,10 +159,13 @@ public class LivenessAssumption implements Assumption<LivenessAssumption> {
   }
 
   private void kill(JVariable variable) {
-    liveVariables.remove(variable);
+    int number = numbering.lookupNumber(variable);
+    if (number >= 0) {
+      liveVariables.clear(number);
+    }
   }
 
   private void use(JVariable variable) {
-    liveVariables.add(variable);
+    liveVariables.set(numbering.getNumber(variable));
   }
 }
@@ -22,6 +22,7 @@ import com.google.gwt.dev.jjs.impl.gflow.AssumptionMap;
 import com.google.gwt.dev.jjs.impl.gflow.AssumptionUtil;
 import com.google.gwt.dev.jjs.impl.gflow.IntegratedFlowFunction;
 import com.google.gwt.dev.jjs.impl.gflow.TransformationFunction.Transformation;
+import com.google.gwt.dev.jjs.impl.gflow.VariableNumbering;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.Cfg;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgEdge;
 import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgNode;
@@ -34,7 +35,11 @@ import com.google.gwt.dev.jjs.impl.gflow.cfg.CfgWriteNode;
 public class LivenessIntegratedFlowFunction implements
     IntegratedFlowFunction<CfgNode<?>, CfgEdge, CfgTransformer, Cfg, 
     LivenessAssumption> {
-  private final LivenessFlowFunction flowFunction = new LivenessFlowFunction();
+  private final LivenessFlowFunction flowFunction;
+
+  public LivenessIntegratedFlowFunction(VariableNumbering numbering) {
+    flowFunction = new LivenessFlowFunction(numbering);
+  }
   
   public Transformation<CfgTransformer, Cfg> 
   interpretOrReplace(CfgNode<?> node, Cfg graph,
@@ -396,7 +396,9 @@ public class GWTShellServlet extends HttpServlet {
    * Fetch a file and return it as the HTTP response, setting the cache-related
    * headers according to the name of the file (see
    * {@link #getCacheTime(String)}). This function honors If-Modified-Since to
-   * minimize the impact of limiting caching of files for development.
+   * minimize the impact of limiting caching of files for development. Files
+   * written by the linkers are sent by {@link StaticFileResponder}, which also
+   * sends their precompressed copies.
    * 
    * @param request the HTTP request
    * @param response the HTTP response
@@ -424,6 +426,7 @@ public class GWTShellServlet extends HttpServlet {
     }
 
     URL foundResource = null;
+    File foundFile = null;
     try {
       // Look for the requested file on the public path.
       //
@@ -438,9 +441,10 @@ public class GWTShellServlet extends HttpServlet {
           // Look for public generated files
           File shellDir = getShellWorkDirs().getShellPublicGenDir(moduleDef);
           File requestedFile = new File(shellDir, partialPath);
-          if (requestedFile.exists()) {
+          if (StaticFileResponder.exists(requestedFile)) {
             try {
               foundResource = requestedFile.toURI().toURL();
+              foundFile = requestedFile;
             } catch (MalformedURLException e) {
               // ignore since it was speculative anyway
             }
@@ -455,9 +459,10 @@ public class GWTShellServlet extends HttpServlet {
       if (foundResource == null) {
         File moduleDir = getShellWorkDirs().getCompilerOutputDir(moduleDef);
         File requestedFile = new File(moduleDir, partialPath);
-        if (requestedFile.exists()) {
+        if (StaticFileResponder.exists(requestedFile)) {
           try {
             foundResource = requestedFile.toURI().toURL();
+            foundFile = requestedFile;
           } catch (MalformedURLException e) {
             // ignore since it was speculative anyway
           }
@@ -503,6 +508,13 @@ public class GWTShellServlet extends HttpServlet {
 
     maybeIssueXhtmlWarning(logger, mimeType, partialPath);
 
+    if (foundFile != null) {
+      // Linker output, which may have been precompressed.
+      StaticFileResponder.send(request, response, foundFile, mimeType,
+          DEFAULT_CACHE_SECONDS);
+      return;
+    }
+
     long cacheSeconds = getCacheTime(path);
 
     InputStream is = null;
@@ -568,22 +580,19 @@ public class GWTShellServlet extends HttpServlet {
 
   /**
    * Get the length of time a given file should be cacheable. If the path
-   * contains *.nocache.*, it is never cacheable; if it contains *.cache.*, it
-   * is infinitely cacheable; anything else gets a default time.
+   * ends in *.nocache.*, it is never cacheable; if it ends in *.cache.*, it
+   * is infinitely cacheable; anything else gets a default time. The same rule
+   * is applied by {@link StaticFileResponder}.
    * 
    * @return cache time in seconds, or 0 if the file is not cacheable at all
    */
   private long getCacheTime(String path) {
-    int lastDot = path.lastIndexOf('.');
-    if (lastDot >= 0) {
-      String prefix = path.substring(0, lastDot);
-      if (prefix.endsWith(".cache")) {
-        // RFC2616 says to never give a cache time of more than a year
-        // http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.21
-        return HttpHeaders.SEC_YR;
-      } else if (prefix.endsWith(".nocache")) {
-        return 0;
-      }
+    if (StaticFileResponder.isCacheable(path)) {
+      // RFC2616 says to never give a cache time of more than a year
+      // http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.21
+      return HttpHeaders.SEC_YR;
+    } else if (StaticFileResponder.isNoCache(path)) {
+      return 0;
     }
     return DEFAULT_CACHE_SECONDS;
   }
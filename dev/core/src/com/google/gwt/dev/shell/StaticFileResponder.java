@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.shell;
+
+import com.google.gwt.dev.util.HttpHeaders;
+import com.google.gwt.util.tools.Utility;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends the static files of a compiled module, such as those written by the
+ * linkers into the war directory. A file may have a gzipped copy beside it,
+ * named by appending {@value #GZIP_SUFFIX}, as the precompress linker leaves;
+ * the copy is sent to browsers which accept gzip, and decompressed for those
+ * which do not if the original was removed.
+ * <p>
+ * Strong-named <code>*.cache.*</code> files are cacheable for a year.
+ * <code>*.nocache.*</code> files are revalidated
+ * on every use by their ETag. Other files are cacheable for the time given by
+ * the caller and revalidated by their modification time.
+ */
+public final class StaticFileResponder {
+
+  /**
+   * The suffix of the gzipped copy of a file.
+   */
+  public static final String GZIP_SUFFIX = ".gz";
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  /**
+   * Returns <code>true</code> if an <code>Accept-Encoding</code> header allows
+   * a gzipped response.
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    boolean anyAccepted = false;
+    for (String coding : acceptEncoding.split(",")) {
+      String name = coding;
+      float quality = 1;
+      int semi = coding.indexOf(';');
+      if (semi >= 0) {
+        name = coding.substring(0, semi);
+        String params = coding.substring(semi + 1).trim();
+        if (params.startsWith("q=")) {
+          try {
+            quality = Float.parseFloat(params.substring(2).trim());
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      name = name.trim().toLowerCase();
+      if (name.equals("gzip") || name.equals("x-gzip")) {
+        return quality > 0;
+      } else if (name.equals("*")) {
+        anyAccepted = quality > 0;
+      }
+    }
+    return anyAccepted;
+  }
+
+  /**
+   * Returns <code>true</code> if the file, or its gzipped copy, exists.
+   */
+  public static boolean exists(File file) {
+    return file.isFile() || getGzippedFile(file).isFile();
+  }
+
+  /**
+   * Returns <code>true</code> if the name is that of a strong-named file,
+   * which never changes: <code>.cache</code> comes right before its last
+   * extension.
+   */
+  public static boolean isCacheable(String path) {
+    return hasMarker(path, ".cache");
+  }
+
+  /**
+   * Returns <code>true</code> if the name is that of a file which may change
+   * without its name changing, such as a selection script:
+   * <code>.nocache</code> comes right before its last extension.
+   */
+  public static boolean isNoCache(String path) {
+    return hasMarker(path, ".nocache");
+  }
+
+  /**
+   * Sends a file, or its gzipped copy, as the response to a GET or HEAD
+   * request, or answers that the client's copy is still valid.
+   *
+   * @param request the HTTP request
+   * @param response the HTTP response
+   * @param file the requested file, which need not exist if its gzipped copy
+   *          does
+   * @param mimeType the content type of the file
+   * @param defaultCacheSeconds the number of seconds for which files which are
+   *          neither <code>*.cache.*</code> nor <code>*.nocache.*</code> may
+   *          be cached
+   * @throws IOException if the file cannot be read or sent
+   */
+  public static void send(HttpServletRequest request,
+      HttpServletResponse response, File file, String mimeType,
+      long defaultCacheSeconds) throws IOException {
+    File gzippedFile = getGzippedFile(file);
+    boolean hasOriginal = file.isFile();
+    // An older copy is left over from a previous compile.
+    boolean hasGzipped = gzippedFile.isFile()
+        && (!hasOriginal || gzippedFile.lastModified() >= file.lastModified());
+    if (!hasOriginal && !hasGzipped) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    boolean sendGzipped = hasGzipped
+        && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    File source = hasOriginal && !sendGzipped ? file : gzippedFile;
+    String name = file.getName();
+    long lastModified = source.lastModified();
+    long cacheSeconds;
+    String etag = null;
+    if (isCacheable(name)) {
+      cacheSeconds = HttpHeaders.SEC_YR;
+    } else if (isNoCache(name)) {
+      cacheSeconds = 0;
+      etag = "\"" + Long.toHexString(lastModified) + "-"
+          + Long.toHexString(source.length()) + "\"";
+    } else {
+      cacheSeconds = defaultCacheSeconds;
+    }
+
+    if (hasGzipped) {
+      response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    if (etag != null) {
+      response.setHeader(HttpHeaders.ETAG, etag);
+    }
+    setResponseCacheHeaders(response, cacheSeconds);
+
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    boolean notModified = ifNoneMatch != null ? matchesETag(ifNoneMatch, etag)
+        : isNotModified(request.getHeader(HttpHeaders.IF_MODIFIED_SINCE), lastModified);
+    if (notModified) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setHeader(HttpHeaders.DATE,
+        HttpHeaders.toInternetDateFormat(new Date().getTime()));
+    response.setHeader(HttpHeaders.LAST_MODIFIED,
+        HttpHeaders.toInternetDateFormat(lastModified));
+    if (mimeType != null) {
+      response.setContentType(mimeType);
+    }
+    boolean decompress = source == gzippedFile && !sendGzipped;
+    if (sendGzipped) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING,
+          HttpHeaders.CONTENT_ENCODING_GZIP);
+    }
+    if (!decompress) {
+      response.setHeader(HttpHeaders.CONTENT_LENGTH,
+          Long.toString(source.length()));
+    }
+    if ("HEAD".equals(request.getMethod())) {
+      return;
+    }
+
+    InputStream in = new FileInputStream(source);
+    try {
+      if (decompress) {
+        in = new GZIPInputStream(in);
+      }
+      streamOut(in, response.getOutputStream());
+    } finally {
+      Utility.close(in);
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if an <code>If-None-Match</code> header matches
+   * the given ETag.
+   */
+  static boolean matchesETag(String ifNoneMatch, String etag) {
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*")) {
+        return etag != null;
+      }
+      // Weak comparison is enough for a GET.
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasMarker(String path, String marker) {
+    int lastDot = path.lastIndexOf('.');
+    return lastDot >= 0 && path.substring(0, lastDot).endsWith(marker);
+  }
+
+  private static File getGzippedFile(File file) {
+    return new File(file.getPath() + GZIP_SUFFIX);
+  }
+
+  private static boolean isNotModified(String ifModifiedSince, long lastModified) {
+    if (ifModifiedSince == null) {
+      return false;
+    }
+    // Rip off any additional stuff at the end, such as "; length=".
+    int lastSemi = ifModifiedSince.lastIndexOf(';');
+    if (lastSemi != -1) {
+      ifModifiedSince = ifModifiedSince.substring(0, lastSemi);
+    }
+    // Milliseconds are not part of the date format.
+    return HttpHeaders.fromInternetDateFormat(ifModifiedSince)
+        >= lastModified - (lastModified % 1000);
+  }
+
+  private static void setResponseCacheHeaders(HttpServletResponse response,
+      long cacheSeconds) {
+    long expires;
+    if (cacheSeconds > 0) {
+      expires = new Date().getTime() + cacheSeconds * HttpHeaders.MS_SEC;
+      response.setHeader(HttpHeaders.CACHE_CONTROL,
+          HttpHeaders.CACHE_CONTROL_PUBLIC + ", "
+              + HttpHeaders.CACHE_CONTROL_MAXAGE + cacheSeconds);
+    } else {
+      // A time in the past, allowing for time zone conversion.
+      expires = HttpHeaders.SEC_DAY * HttpHeaders.MS_SEC;
+      response.setHeader(HttpHeaders.CACHE_CONTROL,
+          HttpHeaders.CACHE_CONTROL_MAXAGE + "0, "
+              + HttpHeaders.CACHE_CONTROL_MUST_REVALIDATE);
+    }
+    response.setHeader(HttpHeaders.EXPIRES,
+        HttpHeaders.toInternetDateFormat(expires));
+  }
+
+  private static void streamOut(InputStream in, OutputStream out)
+      throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int bytesRead;
+    while ((bytesRead = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, bytesRead);
+    }
+    out.flush();
+  }
+
+  private StaticFileResponder() {
+  }
+}
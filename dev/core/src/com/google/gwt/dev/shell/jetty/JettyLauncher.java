@@ -19,6 +19,7 @@ import com.google.gwt.core.ext.ServletContainer;
 import com.google.gwt.core.ext.ServletContainerLauncher;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.shell.StaticFileResponder;
 import com.google.gwt.dev.util.InstalledHelpInfo;
 import com.google.gwt.dev.util.Util;
 
@@ -32,6 +33,8 @@ import org.mortbay.jetty.HttpFields.Field;
 import org.mortbay.jetty.handler.RequestLogHandler;
 import org.mortbay.jetty.nio.SelectChannelConnector;
 import org.mortbay.jetty.security.SslSocketConnector;
+import org.mortbay.jetty.servlet.DefaultServlet;
+import org.mortbay.jetty.servlet.ServletHolder;
 import org.mortbay.jetty.webapp.WebAppClassLoader;
 import org.mortbay.jetty.webapp.WebAppContext;
 import org.mortbay.log.Log;
@@ -47,6 +50,9 @@ import java.net.URLConnection;
 import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -281,6 +287,72 @@ public class JettyLauncher extends ServletContainerLauncher {
     }
   }
 
+  /**
+   * Takes the place of the web app's default servlet to serve the files
+   * written by the linkers, <code>*.cache.*</code> and <code>*.nocache.*</code>,
+   * with {@link StaticFileResponder}, which sends their precompressed copies to
+   * browsers accepting gzip and sets far-future or revalidating cache headers.
+   * Since it is the default servlet, it only sees the requests which pass the
+   * web app's filters and security constraints and are not mapped to another
+   * servlet; it leaves other files to Jetty's {@link DefaultServlet}.
+   */
+  protected static class StaticFileServlet extends DefaultServlet {
+    private final File appRootDir;
+
+    public StaticFileServlet(File appRootDir) {
+      this.appRootDir = appRootDir;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request,
+        HttpServletResponse response) throws IOException, ServletException {
+      File file = findFile(request);
+      if (file == null) {
+        super.doGet(request, response);
+        return;
+      }
+      String mimeType = getServletContext().getMimeType(file.getName());
+      StaticFileResponder.send(request, response, file, mimeType, 0);
+    }
+
+    /**
+     * Returns the linker output file requested, or <code>null</code> if the
+     * request is for anything else.
+     */
+    private File findFile(HttpServletRequest request) throws IOException {
+      String method = request.getMethod();
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        return null;
+      }
+      if (request.getAttribute("javax.servlet.include.request_uri") != null) {
+        // Leave includes to Jetty.
+        return null;
+      }
+      String target = request.getServletPath();
+      if (request.getPathInfo() != null) {
+        target += request.getPathInfo();
+      }
+      String name = target.substring(target.lastIndexOf('/') + 1);
+      if (!StaticFileResponder.isCacheable(name)
+          && !StaticFileResponder.isNoCache(name)) {
+        return null;
+      }
+      for (String segment : target.split("/")) {
+        if (segment.equals("..") || segment.equalsIgnoreCase("WEB-INF")
+            || segment.equalsIgnoreCase("META-INF")) {
+          return null;
+        }
+      }
+      File file = new File(appRootDir, target);
+      if (!file.getCanonicalPath().startsWith(
+          appRootDir.getCanonicalPath() + File.separator)
+          || !StaticFileResponder.exists(file)) {
+        return null;
+      }
+      return file;
+    }
+  }
+
   /**
    * A {@link WebAppContext} tailored to GWT hosted mode. Features hot-reload
    * with a new {@link WebAppClassLoader} to pick up disk changes. The default
@@ -434,6 +506,8 @@ public class JettyLauncher extends ServletContainerLauncher {
      * classes. We would just use <code>null</code> for the parent ClassLoader
      * except this makes Jetty unhappy.
      */
+    private final File appRootDir;
+
     private final ClassLoader bootStrapOnlyClassLoader = new ClassLoader(null) {
     };
 
@@ -452,6 +526,7 @@ public class JettyLauncher extends ServletContainerLauncher {
         String contextPath) {
       super(webApp, contextPath);
       this.logger = logger;
+      this.appRootDir = new File(webApp);
 
       // Prevent file locking on Windows; pick up file changes.
       getInitParams().put(
@@ -479,6 +554,23 @@ public class JettyLauncher extends ServletContainerLauncher {
       setClassLoader(null);
       classLoader.destroy();
     }
+
+    /**
+     * Replaces Jetty's default servlet, once the web app is configured, with a
+     * {@link StaticFileServlet}.
+     */
+    @Override
+    protected void startContext() throws Exception {
+      super.startContext();
+      ServletHolder holder = getServletHandler().getServlet("default");
+      if (holder != null
+          && DefaultServlet.class.getName().equals(holder.getClassName())) {
+        // Restarted with the same init parameters.
+        holder.stop();
+        holder.setServlet(new StaticFileServlet(appRootDir));
+        holder.start();
+      }
+    }
   }
 
   /**
@@ -37,6 +37,8 @@ public final class HttpHeaders {
   public static final long SEC_DAY = SEC_HR * 24;
   public static final long SEC_YR = SEC_DAY * 365;
 
+  public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
   public static final String CACHE_CONTROL = "Cache-Control";
   public static final String CACHE_CONTROL_MAXAGE = "max-age=";
   public static final String CACHE_CONTROL_MUST_REVALIDATE = "must-revalidate";
@@ -60,6 +62,7 @@ public final class HttpHeaders {
   public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
   public static final String IF_NONE_MATCH = "If-None-Match";
   public static final String LAST_MODIFIED = "Last-Modified";
+  public static final String VARY = "Vary";
 
   /**
    * The Internet date format for HTTP.
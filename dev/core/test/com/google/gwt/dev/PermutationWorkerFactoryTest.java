@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.PermutationWorkerFactory.Attempt;
+import com.google.gwt.dev.PermutationWorkerFactory.Manager;
+import com.google.gwt.dev.PermutationWorkerFactory.Work;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+import com.google.gwt.dev.jjs.PermutationResult;
+import com.google.gwt.dev.util.FileBackedObject;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.util.tools.Utility;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests speculative compiles in {@link PermutationWorkerFactory}.
+ */
+public class PermutationWorkerFactoryTest extends TestCase {
+
+  /**
+   * Writes its name as the result. The first attempt doesn't return until
+   * another attempt has produced the final result.
+   */
+  private class SlowFirstWorker implements PermutationWorker {
+    private final String name;
+
+    SlowFirstWorker(String name) {
+      this.name = name;
+    }
+
+    public void compile(TreeLogger logger, Permutation permutation,
+        FileBackedObject<PermutationResult> resultFile) throws UnableToCompleteException {
+      int attempt = attempts.incrementAndGet();
+      assertTrue(Util.writeStringAsFile(resultFile.getFile(), name));
+      if (attempt == 1) {
+        try {
+          while (!result.getFile().exists()) {
+            Thread.sleep(10);
+          }
+        } catch (InterruptedException e) {
+          throw new UnableToCompleteException();
+        }
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void shutdown() {
+    }
+  }
+
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  private FileBackedObject<PermutationResult> result;
+
+  private File tempDir;
+
+  @Override
+  public void setUp() throws IOException {
+    tempDir = Utility.makeTemporaryDirectory(null, "permutationWorkerFactoryTest");
+    result = new FileBackedObject<PermutationResult>(PermutationResult.class, new File(tempDir,
+        "result"));
+  }
+
+  @Override
+  public void tearDown() {
+    Util.recursiveDelete(tempDir, false);
+  }
+
+  public void testFirstAttemptWins() throws UnableToCompleteException {
+    Work work = new Work(TreeLogger.NULL, makePermutation(), result);
+    Attempt first = work.startAttempt(true);
+    Attempt duplicate = work.startDuplicate();
+    assertNotNull(duplicate);
+    assertFalse(first.getFile().getFile().equals(duplicate.getFile().getFile()));
+    assertNull(work.startDuplicate());
+
+    assertTrue(Util.writeStringAsFile(first.getFile().getFile(), "first"));
+    assertTrue(Util.writeStringAsFile(duplicate.getFile().getFile(), "duplicate"));
+    assertTrue(work.finish(TreeLogger.NULL, duplicate.getFile()));
+    assertFalse(work.finish(TreeLogger.NULL, first.getFile()));
+
+    assertEquals("duplicate", Util.readFileAsString(result.getFile()));
+    assertFalse(first.getFile().getFile().exists());
+    assertFalse(duplicate.getFile().getFile().exists());
+  }
+
+  public void testIdleWorkersStartOneDuplicate() throws InterruptedException,
+      UnableToCompleteException {
+    List<PermutationWorker> workers = new ArrayList<PermutationWorker>();
+    for (int i = 0; i < 3; i++) {
+      workers.add(new SlowFirstWorker("worker" + i));
+    }
+    Work work = new Work(TreeLogger.NULL, makePermutation(), result);
+    new Manager(true).doRun(TreeLogger.NULL, Collections.singletonList(work), workers);
+
+    // Two idle workers, but only one duplicate.
+    assertEquals(2, attempts.get());
+    String winner = Util.readFileAsString(result.getFile());
+    assertTrue(winner.startsWith("worker"));
+
+    // The slow attempt is discarded once it returns or is interrupted.
+    File loser = new File(tempDir, "result.attempt1");
+    for (int i = 0; i < 500 && loser.exists(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(loser.exists());
+    assertEquals(winner, Util.readFileAsString(result.getFile()));
+    assertEquals(Collections.singletonList("result"), Arrays.asList(tempDir.list()));
+  }
+
+  public void testNoDuplicateOnceDone() throws UnableToCompleteException {
+    Work work = new Work(TreeLogger.NULL, makePermutation(), result);
+    Attempt only = work.startAttempt(true);
+    assertTrue(work.finish(TreeLogger.NULL, only.getFile()));
+    assertNull(work.startDuplicate());
+  }
+
+  public void testNotSpeculative() {
+    Work work = new Work(TreeLogger.NULL, makePermutation(), result);
+    assertSame(result, work.startAttempt(false).getFile());
+  }
+
+  private Permutation makePermutation() {
+    return new Permutation(0, (StaticPropertyOracle) null);
+  }
+}
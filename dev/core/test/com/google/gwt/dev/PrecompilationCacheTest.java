@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.cfg.ModuleDef;
+import com.google.gwt.dev.cfg.ModuleDefLoader;
+import com.google.gwt.dev.cfg.ResourceLoader;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.util.tools.Utility;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link PrecompilationCache}.
+ */
+public class PrecompilationCacheTest extends TestCase {
+
+  /**
+   * Loads resources from a single directory only.
+   */
+  static class DirectoryLoader implements ResourceLoader {
+    private final File dir;
+
+    public DirectoryLoader(File dir) {
+      this.dir = dir;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof DirectoryLoader && dir.equals(((DirectoryLoader) other).dir);
+    }
+
+    public List<URL> getClassPath() {
+      return Collections.singletonList(Util.toURL(dir));
+    }
+
+    public URL getResource(String resourceName) {
+      File file = new File(dir, resourceName);
+      try {
+        return file.exists() ? file.toURI().toURL() : null;
+      } catch (MalformedURLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return dir.hashCode();
+    }
+  }
+
+  private File tempDir;
+
+  @Override
+  public void setUp() throws IOException {
+    tempDir = Utility.makeTemporaryDirectory(null, "precompilationCacheTest");
+  }
+
+  @Override
+  public void tearDown() {
+    Util.recursiveDelete(tempDir, false);
+  }
+
+  public void testKeyFollowsContent() throws IOException, UnableToCompleteException {
+    TreeLogger logger = TreeLogger.NULL;
+    PrecompilationCache cache = new PrecompilationCache(new File(tempDir, "cache"));
+    PrecompileTaskOptions options = new PrecompileTaskOptionsImpl();
+
+    File checkout1 = makeClassPath("checkout1", "class Foo {}");
+    String key = cache.computeKey(logger, makeModule(checkout1), options);
+    assertNotNull(key);
+    assertEquals(key, cache.computeKey(logger, makeModule(checkout1), options));
+
+    // The same content elsewhere on disk.
+    File checkout2 = makeClassPath("checkout2", "class Foo {}");
+    assertEquals(key, cache.computeKey(logger, makeModule(checkout2), options));
+
+    // Different content.
+    File checkout3 = makeClassPath("checkout3", "class Foo { int i; }");
+    assertFalse(key.equals(cache.computeKey(logger, makeModule(checkout3), options)));
+
+    // Different options.
+    PrecompileTaskOptions otherOptions = new PrecompileTaskOptionsImpl();
+    otherOptions.setEnableAssertions(true);
+    assertFalse(key.equals(cache.computeKey(logger, makeModule(checkout1), otherOptions)));
+
+    // Options which don't affect the result.
+    PrecompileTaskOptions sameOptions = new PrecompileTaskOptionsImpl();
+    sameOptions.setWorkDir(new File(tempDir, "work"));
+    sameOptions.addModuleName("com.example.Foo");
+    assertEquals(key, cache.computeKey(logger, makeModule(checkout1), sameOptions));
+  }
+
+  public void testStoreAndRestore() throws IOException {
+    TreeLogger logger = TreeLogger.NULL;
+    PrecompilationCache cache = new PrecompilationCache(new File(tempDir, "cache"));
+    File workDir1 = new File(tempDir, "work1");
+    assertTrue(workDir1.mkdirs());
+    File precompilationFile = new File(workDir1, Precompile.PRECOMPILE_FILENAME);
+    File permCountFile = new File(workDir1, Precompile.PERM_COUNT_FILENAME);
+
+    File workDir2 = new File(tempDir, "work2");
+    assertTrue(workDir2.mkdirs());
+    File restoredPrecompilation = new File(workDir2, Precompile.PRECOMPILE_FILENAME);
+    File restoredPermCount = new File(workDir2, Precompile.PERM_COUNT_FILENAME);
+    assertFalse(cache.restore(logger, "key", restoredPrecompilation, restoredPermCount));
+
+    assertTrue(Util.writeStringAsFile(precompilationFile, "precompilation"));
+    assertTrue(Util.writeStringAsFile(permCountFile, "3"));
+    cache.store(logger, "key", precompilationFile, permCountFile);
+    // Storing again is harmless.
+    cache.store(logger, "key", precompilationFile, permCountFile);
+
+    assertTrue(cache.restore(logger, "key", restoredPrecompilation, restoredPermCount));
+    assertEquals("precompilation", Util.readFileAsString(restoredPrecompilation));
+    assertEquals("3", Util.readFileAsString(restoredPermCount));
+    assertFalse(cache.restore(logger, "otherKey", restoredPrecompilation, restoredPermCount));
+  }
+
+  private File makeClassPath(String name, String fooSource) {
+    File dir = new File(tempDir, name);
+    File foo = new File(dir, "com/example/client/Foo.java");
+    assertTrue(foo.getParentFile().mkdirs());
+    assertTrue(Util.writeStringAsFile(foo, fooSource));
+    assertTrue(Util.writeStringAsFile(new File(dir, "com/example/Foo.gwt.xml"),
+        "<module><source path='client'/></module>"));
+    return dir;
+  }
+
+  private ModuleDef makeModule(File classPath) throws UnableToCompleteException {
+    ModuleDefLoader.clearModuleCache();
+    return ModuleDefLoader.loadFromResources(TreeLogger.NULL, "com.example.Foo",
+        new DirectoryLoader(classPath), false);
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.dev.cfg.BindingProperty;
+import com.google.gwt.dev.cfg.ConfigurationProperty;
+import com.google.gwt.dev.cfg.StaticPropertyOracle;
+
+import junit.framework.TestCase;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Tests {@link RebindAnswersPermutationKey}.
+ */
+public class RebindAnswersPermutationKeyTest extends TestCase {
+
+  private final BindingProperty locale = new BindingProperty("locale");
+  private final BindingProperty stackMode = new BindingProperty("compiler.stackMode");
+  private final SortedSet<String> live = new TreeSet<String>();
+
+  @Override
+  protected void setUp() throws Exception {
+    locale.addDefinedValue(locale.getRootCondition(), "en");
+    locale.addDefinedValue(locale.getRootCondition(), "fr");
+    stackMode.addDefinedValue(stackMode.getRootCondition(), "native");
+    stackMode.addDefinedValue(stackMode.getRootCondition(), "emulated");
+    live.add("Foo");
+  }
+
+  public void testDeadRebindsIgnored() {
+    Permutation a = createPermutation(0, "en", "native");
+    a.putRebindAnswer("Foo", "FooImpl");
+    a.putRebindAnswer("Dead", "DeadEn");
+    Permutation b = createPermutation(1, "fr", "native");
+    b.putRebindAnswer("Foo", "FooImpl");
+    b.putRebindAnswer("Dead", "DeadFr");
+
+    assertEquals(new RebindAnswersPermutationKey(a, live),
+        new RebindAnswersPermutationKey(b, live));
+  }
+
+  public void testDifferentAnswers() {
+    Permutation a = createPermutation(0, "en", "native");
+    a.putRebindAnswer("Foo", "FooEn");
+    Permutation b = createPermutation(1, "fr", "native");
+    b.putRebindAnswer("Foo", "FooFr");
+
+    assertFalse(new RebindAnswersPermutationKey(a, live).equals(
+        new RebindAnswersPermutationKey(b, live)));
+  }
+
+  public void testStackModeKeptApart() {
+    Permutation a = createPermutation(0, "en", "native");
+    a.putRebindAnswer("Foo", "FooImpl");
+    Permutation b = createPermutation(1, "en", "emulated");
+    b.putRebindAnswer("Foo", "FooImpl");
+
+    assertFalse(new RebindAnswersPermutationKey(a, live).equals(
+        new RebindAnswersPermutationKey(b, live)));
+  }
+
+  private Permutation createPermutation(int id, String localeValue, String stackModeValue) {
+    return new Permutation(id, new StaticPropertyOracle(new BindingProperty[] {
+        locale, stackMode}, new String[] {localeValue, stackModeValue},
+        new ConfigurationProperty[0]));
+  }
+}
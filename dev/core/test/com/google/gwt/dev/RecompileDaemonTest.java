@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.Compiler.CompilerOptionsImpl;
+import com.google.gwt.dev.PrecompilationCacheTest.DirectoryLoader;
+import com.google.gwt.dev.cfg.ModuleDef;
+import com.google.gwt.dev.cfg.ModuleDefLoader;
+import com.google.gwt.dev.resource.Resource;
+import com.google.gwt.dev.util.Util;
+import com.google.gwt.util.tools.Utility;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link RecompileDaemon}.
+ */
+public class RecompileDaemonTest extends TestCase {
+
+  /**
+   * Loads modules from a single directory and records what it is asked to do
+   * instead of running the compiler.
+   */
+  private class TestDaemon extends RecompileDaemon {
+    final List<String> clearedRebindCaches = new ArrayList<String>();
+    final Map<String, ModuleDef> compiled = new HashMap<String, ModuleDef>();
+
+    TestDaemon() {
+      super(makeOptions());
+    }
+
+    @Override
+    void clearRebindCache(String moduleName) {
+      clearedRebindCaches.add(moduleName);
+    }
+
+    @Override
+    boolean compile(TreeLogger logger, ModuleDef module) {
+      compiled.put(module.getName(), module);
+      return true;
+    }
+
+    @Override
+    ModuleDef loadModule(TreeLogger logger, String moduleName)
+        throws UnableToCompleteException {
+      return ModuleDefLoader.loadFromResources(logger, moduleName, new DirectoryLoader(
+          classPath), true);
+    }
+
+    /**
+     * Polls once and returns the names of the modules which were compiled.
+     */
+    List<String> poll() {
+      compiled.clear();
+      int count = recompileChangedModules(TreeLogger.NULL);
+      assertEquals(count, compiled.size());
+      List<String> names = new ArrayList<String>(compiled.keySet());
+      Collections.sort(names);
+      return names;
+    }
+  }
+
+  private static final String MODULE_A = "com.example.A";
+
+  private static final String MODULE_B = "com.example.B";
+
+  private static final String TEST_PROPERTY = "gwt.recompileDaemonTest";
+
+  private static CompilerOptions makeOptions() {
+    CompilerOptions options = new CompilerOptionsImpl();
+    options.addModuleName(MODULE_A);
+    options.addModuleName(MODULE_B);
+    return options;
+  }
+
+  private File classPath;
+
+  @Override
+  public void setUp() throws IOException {
+    classPath = Utility.makeTemporaryDirectory(null, "recompileDaemonTest");
+    writeModule("A", "class A {}");
+    writeModule("B", "class B {}");
+    ModuleDefLoader.clearModuleCache();
+  }
+
+  @Override
+  public void tearDown() {
+    ModuleDefLoader.clearModuleCache();
+    Util.recursiveDelete(classPath, false);
+  }
+
+  public void testRecompilesOnlyChangedModule() throws IOException {
+    TestDaemon daemon = new TestDaemon();
+    assertEquals(Arrays.asList(MODULE_A, MODULE_B), daemon.poll());
+    ModuleDef moduleA = daemon.compiled.get(MODULE_A);
+    ModuleDef moduleB = daemon.compiled.get(MODULE_B);
+
+    // Nothing changed.
+    assertEquals(Collections.emptyList(), daemon.poll());
+
+    File source = new File(classPath, "com/example/a/A.java");
+    long lastModified = source.lastModified();
+    assertTrue(Util.writeStringAsFile(source, "class A { int i; }"));
+    assertTrue(source.setLastModified(lastModified + 2000));
+    assertEquals(Collections.singletonList(MODULE_A), daemon.poll());
+
+    // The loaded module definition is reused and sees the new source.
+    assertSame(moduleA, daemon.compiled.get(MODULE_A));
+    Resource resource = moduleA.findSourceFile("com/example/a/A.java");
+    assertEquals("class A { int i; }", Util.readStreamAsString(resource.openContents()));
+    assertTrue(daemon.clearedRebindCaches.isEmpty());
+
+    assertEquals(Collections.emptyList(), daemon.poll());
+
+    // B is recompiled from the module definition it was first loaded with.
+    File otherSource = new File(classPath, "com/example/b/B.java");
+    assertTrue(Util.writeStringAsFile(otherSource, "class B { int j; }"));
+    assertTrue(otherSource.setLastModified(lastModified + 2000));
+    assertEquals(Collections.singletonList(MODULE_B), daemon.poll());
+    assertSame(moduleB, daemon.compiled.get(MODULE_B));
+  }
+
+  public void testRecompilesOnChangedResource() {
+    File resource = new File(classPath, "com/example/a/A.txt");
+    assertTrue(Util.writeStringAsFile(resource, "before"));
+    TestDaemon daemon = new TestDaemon();
+    assertEquals(Arrays.asList(MODULE_A, MODULE_B), daemon.poll());
+
+    // Generators may read resources from the source path.
+    long lastModified = resource.lastModified();
+    assertTrue(Util.writeStringAsFile(resource, "after"));
+    assertTrue(resource.setLastModified(lastModified + 2000));
+    assertEquals(Collections.singletonList(MODULE_A), daemon.poll());
+    assertEquals(Collections.emptyList(), daemon.poll());
+  }
+
+  public void testRecompilesOnChangedSettings() {
+    TestDaemon daemon = new TestDaemon();
+    assertEquals(Arrays.asList(MODULE_A, MODULE_B), daemon.poll());
+    System.setProperty(TEST_PROPERTY, "changed");
+    try {
+      assertEquals(Arrays.asList(MODULE_A, MODULE_B), daemon.poll());
+      assertEquals(Collections.emptyList(), daemon.poll());
+    } finally {
+      System.clearProperty(TEST_PROPERTY);
+    }
+  }
+
+  public void testReloadsChangedModuleDefinition() {
+    TestDaemon daemon = new TestDaemon();
+    assertEquals(Arrays.asList(MODULE_A, MODULE_B), daemon.poll());
+    ModuleDef moduleA = daemon.compiled.get(MODULE_A);
+
+    File gwtXml = new File(classPath, "com/example/A.gwt.xml");
+    assertTrue(gwtXml.setLastModified(System.currentTimeMillis() + 10000));
+    // Only A is reloaded and recompiled; B keeps its module and rebind cache.
+    assertEquals(Collections.singletonList(MODULE_A), daemon.poll());
+    assertNotSame(moduleA, daemon.compiled.get(MODULE_A));
+    assertEquals(Collections.singletonList(MODULE_A), daemon.clearedRebindCaches);
+  }
+
+  private void writeModule(String name, String source) {
+    String packageName = name.toLowerCase();
+    File file = new File(classPath, "com/example/" + packageName + "/" + name + ".java");
+    assertTrue(file.getParentFile().mkdirs());
+    assertTrue(Util.writeStringAsFile(file, source));
+    assertTrue(Util.writeStringAsFile(new File(classPath, "com/example/" + name + ".gwt.xml"),
+        "<module><source path='" + packageName + "'/></module>"));
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.javac;
+
+import com.google.gwt.core.ext.TreeLogger;
+import com.google.gwt.core.ext.UnableToCompleteException;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit test for {@link IndexedUnitCache}.
+ */
+public class IndexedUnitCacheTest extends TestCase {
+
+  File lastCacheDir = null;
+
+  @Override
+  public void tearDown() {
+    if (lastCacheDir != null) {
+      Util.recursiveDelete(lastCacheDir, false);
+    }
+    lastCacheDir = null;
+  }
+
+  /**
+   * A corrupt index should be discarded rather than prevent startup.
+   */
+  public void testCorruptIndex() throws IOException, UnableToCompleteException,
+      InterruptedException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = mkCacheDir();
+    File unitCacheDir = new File(cacheDir, IndexedUnitCache.CACHE_DIR_NAME);
+    assertTrue(unitCacheDir.mkdirs());
+    FileOutputStream out =
+        new FileOutputStream(new File(unitCacheDir, IndexedUnitCache.INDEX_FILE_PREFIX
+            + "00000000"));
+    out.write(Util.getBytes("not an index"));
+    out.close();
+    new FileOutputStream(new File(unitCacheDir, IndexedUnitCache.DATA_FILE_PREFIX + "00000000"))
+        .close();
+
+    IndexedUnitCache cache = new IndexedUnitCache(logger, cacheDir);
+    assertNull(cache.find("com/example/Foo.java"));
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source");
+    cache.add(foo);
+    cache.shutdown();
+
+    cache = new IndexedUnitCache(logger, cacheDir);
+    CompilationUnit result = cache.find(foo.getContentId());
+    assertNotNull(result);
+    assertEquals(foo.getContentId(), result.getContentId());
+    cache.shutdown();
+  }
+
+  /**
+   * Superseded records are dropped once they outnumber live ones.
+   */
+  public void testCompaction() throws IOException, UnableToCompleteException,
+      InterruptedException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = mkCacheDir();
+
+    IndexedUnitCache cache = new IndexedUnitCache(logger, cacheDir);
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source");
+    cache.add(bar);
+    MockCompilationUnit lastFoo = null;
+    for (int i = 0; i <= IndexedUnitCache.MIN_SUPERSEDED_FOR_COMPACTION; ++i) {
+      lastFoo = new MockCompilationUnit("com.example.Foo", "Foo: source" + i);
+      cache.add(lastFoo);
+    }
+    cache.shutdown();
+
+    cache = new IndexedUnitCache(logger, cacheDir);
+    assertTrue(cache.getSupersededCount() >= IndexedUnitCache.MIN_SUPERSEDED_FOR_COMPACTION);
+    cache.cleanup(logger);
+    cache.shutdown();
+
+    cache = new IndexedUnitCache(logger, cacheDir);
+    assertEquals(0, cache.getSupersededCount());
+    // One data file and one index file.
+    assertEquals(2, cache.getCacheFiles().length);
+    CompilationUnit result = cache.find("com/example/Foo.java");
+    assertNotNull(result);
+    assertEquals(lastFoo.getContentId(), result.getContentId());
+    result = cache.find(bar.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Bar", result.getTypeName());
+    cache.shutdown();
+  }
+
+  /**
+   * An index record whose data was lost is cut off, so that records appended
+   * after it are found on the next startup.
+   */
+  public void testIndexAheadOfData() throws IOException, UnableToCompleteException,
+      InterruptedException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = mkCacheDir();
+
+    IndexedUnitCache cache = new IndexedUnitCache(logger, cacheDir);
+    MockCompilationUnit foo = new MockCompilationUnit("com.example.Foo", "Foo: source");
+    cache.add(foo);
+    MockCompilationUnit bar = new MockCompilationUnit("com.example.Bar", "Bar: source");
+    cache.add(bar);
+    cache.shutdown();
+
+    // Lose the end of Bar's data, as a crash between the two writes would.
+    File dataFile =
+        new File(new File(cacheDir, IndexedUnitCache.CACHE_DIR_NAME),
+            IndexedUnitCache.DATA_FILE_PREFIX + "00000000");
+    RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+    data.setLength(data.length() - 1);
+    data.close();
+
+    cache = new IndexedUnitCache(logger, cacheDir);
+    assertNull(cache.find(bar.getContentId()));
+    assertNotNull(cache.find(foo.getContentId()));
+    MockCompilationUnit baz = new MockCompilationUnit("com.example.Baz", "Baz: source");
+    cache.add(baz);
+    cache.shutdown();
+
+    cache = new IndexedUnitCache(logger, cacheDir);
+    assertNull(cache.find(bar.getContentId()));
+    assertNotNull(cache.find(foo.getContentId()));
+    CompilationUnit result = cache.find(baz.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Baz", result.getTypeName());
+    cache.shutdown();
+  }
+
+  public void testIndexedCache() throws IOException, UnableToCompleteException,
+      InterruptedException {
+    TreeLogger logger = TreeLogger.NULL;
+    File cacheDir = lastCacheDir = mkCacheDir();
+
+    IndexedUnitCache cache = new IndexedUnitCache(logger, cacheDir);
+    MockCompilationUnit foo1 = new MockCompilationUnit("com.example.Foo", "Foo: source1");
+    cache.add(foo1);
+    MockCompilationUnit bar1 = new MockCompilationUnit("com.example.Bar", "Bar: source1");
+    cache.add(bar1);
+
+    CompilationUnit result = cache.find(foo1.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Foo", result.getTypeName());
+
+    // Replace Foo with a new version
+    MockCompilationUnit foo2 = new MockCompilationUnit("com.example.Foo", "Foo: source2");
+    cache.add(foo2);
+    assertNull(cache.find(foo1.getContentId()));
+    result = cache.find("com/example/Foo.java");
+    assertNotNull(result);
+    assertEquals(foo2.getContentId(), result.getContentId());
+    cache.cleanup(logger);
+    cache.shutdown();
+
+    // Reopen; units come back lazily from the index.
+    cache = new IndexedUnitCache(logger, cacheDir);
+    result = cache.find(foo1.getContentId());
+    assertNull(result);
+    result = cache.find(foo2.getContentId());
+    assertNotNull(result);
+    assertEquals("com.example.Foo", result.getTypeName());
+    assertEquals(foo2.getContentId(), result.getContentId());
+    result = cache.find("com/example/Bar.java");
+    assertNotNull(result);
+    assertEquals("com.example.Bar", result.getTypeName());
+    assertEquals(bar1.getContentId(), result.getContentId());
+
+    // Removing a unit hides it for the rest of the session.
+    cache.remove(result);
+    assertNull(cache.find(bar1.getContentId()));
+    cache.shutdown();
+  }
+
+  private File mkCacheDir() throws IOException {
+    File cacheDir = File.createTempFile("indexedCacheTest", "");
+    assertTrue(cacheDir.delete());
+    assertTrue(cacheDir.mkdirs());
+    return cacheDir;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs;
+
+import com.google.gwt.dev.jjs.impl.OptimizerStats;
+import com.google.gwt.dev.json.JsonArray;
+import com.google.gwt.dev.json.JsonObject;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link CompilerPhaseMetrics}.
+ */
+public class CompilerPhaseMetricsTest extends TestCase {
+
+  public void testDisabled() throws Exception {
+    CompilerPhaseMetrics metrics = new CompilerPhaseMetrics(3, false);
+    metrics.start("optimize").end();
+    metrics.addOptimizerStats("java", new ArrayList<OptimizerStats>());
+
+    JsonObject json = parse(metrics);
+    assertEquals(0, json.get("phases").asArray().getLength());
+    assertTrue(json.get("optimizers").asObject().isEmpty());
+  }
+
+  public void testPhasesAndOptimizers() throws Exception {
+    CompilerPhaseMetrics metrics = new CompilerPhaseMetrics(3, true);
+    CompilerPhaseMetrics.Phase phase = metrics.start("optimize");
+    List<OptimizerStats> passes = new ArrayList<OptimizerStats>();
+    OptimizerStats pass = new OptimizerStats("Pass 1");
+    pass.add(new OptimizerStats("Pruner").recordModified(4).recordVisits(10));
+    passes.add(pass);
+    metrics.addOptimizerStats("java", passes);
+    phase.end();
+    metrics.start("generateJs").end();
+
+    JsonObject json = parse(metrics);
+    assertEquals(3, json.get("permutationId").asNumber().getInteger());
+
+    JsonArray phases = json.get("phases").asArray();
+    assertEquals(2, phases.getLength());
+    JsonObject optimize = phases.get(0).asObject();
+    assertEquals("optimize", optimize.get("name").asString().getString());
+    assertTrue(optimize.get("wallMillis").asNumber().getInteger() >= 0);
+    assertNotNull(optimize.get("cpuMillis"));
+    assertNotNull(optimize.get("allocatedBytes"));
+    assertEquals("generateJs", phases.get(1).asObject().get("name").asString().getString());
+
+    JsonObject javaPass = json.get("optimizers").asObject().get("java").asArray().get(0).asObject();
+    assertEquals("Pass 1", javaPass.get("name").asString().getString());
+    assertEquals(4, javaPass.get("mods").asNumber().getInteger());
+    JsonObject pruner = javaPass.get("children").asArray().get(0).asObject();
+    assertEquals("Pruner", pruner.get("name").asString().getString());
+    assertEquals(10, pruner.get("visits").asNumber().getInteger());
+  }
+
+  private static JsonObject parse(CompilerPhaseMetrics metrics) throws Exception {
+    return JsonObject.parse(new StringReader(metrics.toJsonString()));
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs;
+
+import com.google.gwt.core.ext.linker.StatementRanges;
+import com.google.gwt.core.ext.soyc.Range;
+import com.google.gwt.dev.jjs.ast.JClassType;
+import com.google.gwt.dev.jjs.ast.JField;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.impl.JavaToJavaScriptMap;
+import com.google.gwt.dev.js.JsParser;
+import com.google.gwt.dev.js.JsParserException;
+import com.google.gwt.dev.js.SizeBreakdown;
+import com.google.gwt.dev.js.ast.JsName;
+import com.google.gwt.dev.js.ast.JsProgram;
+import com.google.gwt.dev.js.ast.JsStatement;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link JavaToJavaScriptCompiler}.
+ */
+public class JavaToJavaScriptCompilerTest extends TestCase {
+
+  /**
+   * Everything generated for the fragments of one program.
+   */
+  private static class GeneratedJs {
+    final String[] js;
+    final StatementRanges[] ranges;
+    final SizeBreakdown[] sizeBreakdowns;
+    final List<Map<Range, SourceInfo>> sourceInfoMaps = new ArrayList<Map<Range, SourceInfo>>();
+
+    GeneratedJs(int fragments) {
+      js = new String[fragments];
+      ranges = new StatementRanges[fragments];
+      sizeBreakdowns = new SizeBreakdown[fragments];
+    }
+  }
+
+  /**
+   * A map for a program which wasn't translated from Java.
+   */
+  private static final JavaToJavaScriptMap EMPTY_MAP = new JavaToJavaScriptMap() {
+    public JsName nameForMethod(JMethod method) {
+      return null;
+    }
+
+    public JsName nameForType(JClassType type) {
+      return null;
+    }
+
+    public JField nameToField(JsName name) {
+      return null;
+    }
+
+    public JMethod nameToMethod(JsName name) {
+      return null;
+    }
+
+    public JClassType nameToType(JsName name) {
+      return null;
+    }
+
+    public JClassType typeForStatement(JsStatement stat) {
+      return null;
+    }
+
+    public JMethod vtableInitToMethod(JsStatement stat) {
+      return null;
+    }
+  };
+
+  private static final int FRAGMENTS = 8;
+
+  public void testParallelFragmentsMatchSerial() throws IOException, JsParserException {
+    JsProgram program = makeProgram();
+    for (JsOutputOption output : JsOutputOption.values()) {
+      JJSOptionsImpl options = new JJSOptionsImpl();
+      options.setAggressivelyOptimize(true);
+      options.setOutput(output);
+      for (boolean splitBlocks : new boolean[] {false, true}) {
+        GeneratedJs serial = generate(1, options, program, splitBlocks);
+        // Repeat, since a race would only show up some of the time.
+        for (int i = 0; i < 10; i++) {
+          assertSameOutput(serial, generate(4, options, program, splitBlocks));
+        }
+      }
+    }
+  }
+
+  private void assertSameOutput(GeneratedJs expected, GeneratedJs actual) {
+    for (int i = 0; i < FRAGMENTS; i++) {
+      assertEquals(expected.js[i], actual.js[i]);
+
+      StatementRanges expectedRanges = expected.ranges[i];
+      StatementRanges actualRanges = actual.ranges[i];
+      assertEquals(expectedRanges.numStatements(), actualRanges.numStatements());
+      for (int j = 0; j < expectedRanges.numStatements(); j++) {
+        assertEquals(expectedRanges.start(j), actualRanges.start(j));
+        assertEquals(expectedRanges.end(j), actualRanges.end(j));
+      }
+
+      assertEquals(expected.sizeBreakdowns[i].getSize(), actual.sizeBreakdowns[i].getSize());
+      assertEquals(expected.sizeBreakdowns[i].getSizeMap(),
+          actual.sizeBreakdowns[i].getSizeMap());
+    }
+    assertEquals(expected.sourceInfoMaps, actual.sourceInfoMaps);
+  }
+
+  private GeneratedJs generate(int numThreads, JJSOptions options, JsProgram program,
+      boolean splitBlocks) {
+    GeneratedJs generated = new GeneratedJs(FRAGMENTS);
+    JavaToJavaScriptCompiler.generateJavaScriptFragments(numThreads, options, program,
+        EMPTY_MAP, generated.js, generated.ranges, generated.sizeBreakdowns,
+        generated.sourceInfoMaps, splitBlocks, false);
+    return generated;
+  }
+
+  /**
+   * Makes a program whose fragments differ in content and size.
+   */
+  private JsProgram makeProgram() throws IOException, JsParserException {
+    JsProgram program = new JsProgram();
+    program.setFragmentCount(FRAGMENTS);
+    for (int i = 0; i < FRAGMENTS; i++) {
+      StringBuilder js = new StringBuilder();
+      for (int j = 0; j <= i * 5; j++) {
+        js.append("var v" + i + "_" + j + " = " + j + ";\n");
+        js.append("function f" + i + "_" + j + "(a, b) { return a + b * " + j + "; }\n");
+        js.append("function g" + i + "_" + j + "(a) { return f" + i + "_" + j
+            + "(a, v" + i + "_" + j + "); }\n");
+      }
+      List<JsStatement> statements =
+          JsParser.parse(SourceOrigin.UNKNOWN, program.getScope(), new StringReader(js
+              .toString()));
+      program.getFragmentBlock(i).getStatements().addAll(statements);
+    }
+    return program;
+  }
+}
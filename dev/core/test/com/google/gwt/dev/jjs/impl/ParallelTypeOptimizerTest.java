@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.jjs.impl;
+
+import com.google.gwt.dev.jjs.ast.JDeclaredType;
+import com.google.gwt.dev.jjs.ast.JMethod;
+import com.google.gwt.dev.jjs.ast.JMethodBody;
+import com.google.gwt.dev.jjs.ast.JProgram;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests {@link ParallelTypeOptimizer}.
+ */
+public class ParallelTypeOptimizerTest extends OptimizerTestBase {
+
+  @Override
+  public void setUp() throws Exception {
+    addSnippetClassDecl("static volatile boolean b;");
+    addSnippetClassDecl("static volatile int i;");
+    addSnippetClassDecl("static int foo() { if (true) return 1; return 0; }");
+  }
+
+  public void testDeadCodeEliminationPerMethod() throws Exception {
+    optimize("int", "if (true) return 1; return 0;").into("return 1;");
+    optimize("int", "if (false) return 1; else return 2;").into("return 2;");
+    optimize("boolean", "return b ? true : false;").into("return b;");
+  }
+
+  public void testDeadCodeEliminationWholeProgram() throws Exception {
+    JProgram program = compileSnippet("int", "if (false) return i; return foo();");
+    OptimizerStats stats =
+        ParallelTypeOptimizer.exec(program, DeadCodeElimination.NAME,
+            ParallelTypeOptimizer.DEAD_CODE_ELIMINATION);
+    assertTrue(stats.didChange());
+    JMethodBody fooBody = (JMethodBody) findMethod(program, "foo").getBody();
+    assertEquals("return 1;", fooBody.getStatements().get(0).toSource().trim());
+    JMethodBody mainBody = (JMethodBody) findMainMethod(program).getBody();
+    assertEquals(1, mainBody.getStatements().size());
+
+    // Converges in a single pass, just like the serial version.
+    assertFalse(ParallelTypeOptimizer.exec(program, DeadCodeElimination.NAME,
+        ParallelTypeOptimizer.DEAD_CODE_ELIMINATION).didChange());
+  }
+
+  public void testMultipleThreadsMatchSingleThread() throws Exception {
+    for (int i = 0; i < 16; i++) {
+      addSnippetClassDecl("static class T" + i + " {",
+          "  static int f() { if (true) return " + i + "; return 0; }",
+          "  static boolean g() { return b ? true : false; }",
+          "  static int h() { if (false) return f(); else return i; }", "}");
+    }
+    String snippet = "if (false) return i; return foo();";
+    ExecutorService singleThread = Executors.newSingleThreadExecutor();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      JProgram expected = compileSnippet("int", snippet);
+      OptimizerStats expectedStats =
+          ParallelTypeOptimizer.exec(expected, DeadCodeElimination.NAME,
+              ParallelTypeOptimizer.DEAD_CODE_ELIMINATION, singleThread);
+      assertTrue(expectedStats.didChange());
+
+      // Repeat, since a race would only show up some of the time.
+      for (int i = 0; i < 10; i++) {
+        JProgram actual = compileSnippet("int", snippet);
+        OptimizerStats actualStats =
+            ParallelTypeOptimizer.exec(actual, DeadCodeElimination.NAME,
+                ParallelTypeOptimizer.DEAD_CODE_ELIMINATION, pool);
+        assertEquals(expectedStats.getNumMods(), actualStats.getNumMods());
+        assertEquals(toSource(expected), toSource(actual));
+      }
+    } finally {
+      singleThread.shutdown();
+      pool.shutdown();
+    }
+  }
+
+  @Override
+  protected boolean optimizeMethod(JProgram program, JMethod method) {
+    OptimizerStats result =
+        ParallelTypeOptimizer.exec(program, DeadCodeElimination.NAME,
+            ParallelTypeOptimizer.DEAD_CODE_ELIMINATION, Collections.singleton(method));
+    return result.didChange();
+  }
+
+  private String toSource(JProgram program) {
+    StringBuilder source = new StringBuilder();
+    for (JDeclaredType type : program.getDeclaredTypes()) {
+      source.append(type.toSource());
+    }
+    return source.toString();
+  }
+}
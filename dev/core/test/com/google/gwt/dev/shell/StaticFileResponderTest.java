@@ -0,0 +1,205 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.dev.shell;
+
+import com.google.gwt.dev.util.HttpHeaders;
+import com.google.gwt.dev.util.Util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Tests {@link StaticFileResponder}.
+ */
+public class StaticFileResponderTest extends TestCase {
+
+  /**
+   * Records what is sent to a {@link HttpServletResponse}.
+   */
+  private static class ResponseRecorder implements InvocationHandler {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final Map<String, String> headers = new HashMap<String, String>();
+    int status;
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String name = method.getName();
+      if (name.equals("setHeader")) {
+        headers.put((String) args[0], (String) args[1]);
+      } else if (name.equals("setContentType")) {
+        headers.put(HttpHeaders.CONTENT_TYPE, (String) args[0]);
+      } else if (name.equals("setStatus") || name.equals("sendError")) {
+        status = (Integer) args[0];
+      } else if (name.equals("getOutputStream")) {
+        return new ServletOutputStream() {
+          @Override
+          public void write(int b) {
+            body.write(b);
+          }
+        };
+      }
+      return null;
+    }
+  }
+
+  private static final String SCRIPT = "function a(){return 'precompressed';}";
+
+  private File dir;
+
+  public void testAcceptsGzip() {
+    assertFalse(StaticFileResponder.acceptsGzip(null));
+    assertFalse(StaticFileResponder.acceptsGzip("identity"));
+    assertTrue(StaticFileResponder.acceptsGzip("gzip, deflate"));
+    assertTrue(StaticFileResponder.acceptsGzip("deflate, GZIP;q=0.5"));
+    assertFalse(StaticFileResponder.acceptsGzip("gzip;q=0, *"));
+    assertTrue(StaticFileResponder.acceptsGzip("*"));
+    assertFalse(StaticFileResponder.acceptsGzip("*;q=0"));
+  }
+
+  public void testCacheableNames() {
+    assertTrue(StaticFileResponder.isCacheable("ABCD.cache.js"));
+    assertTrue(StaticFileResponder.isCacheable("dir/ABCD.cache.html"));
+    assertFalse(StaticFileResponder.isCacheable("ABCD.cache.js.map"));
+    assertFalse(StaticFileResponder.isCacheable("my.cache.dir/module.js"));
+    assertFalse(StaticFileResponder.isCacheable("module.nocache.js"));
+    assertTrue(StaticFileResponder.isNoCache("module.nocache.js"));
+    assertFalse(StaticFileResponder.isNoCache("module.nocache.js.bak"));
+    assertFalse(StaticFileResponder.isNoCache("ABCD.cache.js"));
+  }
+
+  public void testCacheable() throws IOException {
+    File file = new File(dir, "ABCD.cache.js");
+    Util.writeStringAsFile(file, SCRIPT);
+    writeGzipped(file);
+
+    ResponseRecorder recorder = send(file, "gzip", null, null);
+    assertEquals(HttpServletResponse.SC_OK, recorder.status);
+    assertEquals("gzip", recorder.headers.get(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(HttpHeaders.ACCEPT_ENCODING, recorder.headers.get(HttpHeaders.VARY));
+    assertEquals("public, max-age=" + HttpHeaders.SEC_YR,
+        recorder.headers.get(HttpHeaders.CACHE_CONTROL));
+    assertEquals(Long.toString(new File(file.getPath() + ".gz").length()),
+        recorder.headers.get(HttpHeaders.CONTENT_LENGTH));
+
+    recorder = send(file, null, null, null);
+    assertNull(recorder.headers.get(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(SCRIPT, recorder.body.toString("UTF-8"));
+  }
+
+  public void testGzippedOnly() throws IOException {
+    File file = new File(dir, "ABCD.cache.js");
+    Util.writeStringAsFile(file, SCRIPT);
+    writeGzipped(file);
+    file.delete();
+    assertTrue(StaticFileResponder.exists(file));
+
+    ResponseRecorder recorder = send(file, "identity", null, null);
+    assertEquals(HttpServletResponse.SC_OK, recorder.status);
+    assertNull(recorder.headers.get(HttpHeaders.CONTENT_ENCODING));
+    assertNull(recorder.headers.get(HttpHeaders.CONTENT_LENGTH));
+    assertEquals(SCRIPT, recorder.body.toString("UTF-8"));
+  }
+
+  public void testNoCacheETag() throws IOException {
+    File file = new File(dir, "module.nocache.js");
+    Util.writeStringAsFile(file, SCRIPT);
+
+    ResponseRecorder recorder = send(file, null, null, null);
+    assertEquals(HttpServletResponse.SC_OK, recorder.status);
+    String etag = recorder.headers.get(HttpHeaders.ETAG);
+    assertNotNull(etag);
+    assertEquals("max-age=0, must-revalidate",
+        recorder.headers.get(HttpHeaders.CACHE_CONTROL));
+
+    recorder = send(file, null, "\"other\", " + etag, null);
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, recorder.status);
+    assertEquals(0, recorder.body.size());
+
+    recorder = send(file, null, "W/" + etag, null);
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, recorder.status);
+
+    // A changed file has another ETag, even if the If-Modified-Since matches.
+    Util.writeStringAsFile(file, SCRIPT + SCRIPT);
+    recorder = send(file, null, etag,
+        HttpHeaders.toInternetDateFormat(System.currentTimeMillis() + HttpHeaders.MS_DAY));
+    assertEquals(HttpServletResponse.SC_OK, recorder.status);
+  }
+
+  public void testNotFound() throws IOException {
+    ResponseRecorder recorder = send(new File(dir, "missing.cache.js"), "gzip", null, null);
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, recorder.status);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = File.createTempFile("static", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Util.recursiveDelete(dir, false);
+  }
+
+  private ResponseRecorder send(File file, String acceptEncoding,
+      String ifNoneMatch, String ifModifiedSince) throws IOException {
+    final Map<String, String> requestHeaders = new HashMap<String, String>();
+    requestHeaders.put(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    requestHeaders.put(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    requestHeaders.put(HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince);
+    HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getHeader")) {
+              return requestHeaders.get(args[0]);
+            } else if (method.getName().equals("getMethod")) {
+              return "GET";
+            }
+            return null;
+          }
+        });
+    ResponseRecorder recorder = new ResponseRecorder();
+    HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {HttpServletResponse.class}, recorder);
+    StaticFileResponder.send(request, response, file, "text/javascript", 0);
+    return recorder;
+  }
+
+  private void writeGzipped(File file) throws IOException {
+    GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file.getPath()
+        + StaticFileResponder.GZIP_SUFFIX));
+    try {
+      out.write(Util.readFileAsBytes(file));
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -149,7 +149,9 @@ public class Request {
 
   /**
    * Only used for building a
-   * {@link com.google.gwt.user.client.rpc.impl.FailedRequest}.
+   * {@link com.google.gwt.user.client.rpc.impl.FailedRequest}, and the
+   * requests of calls batched by
+   * {@link com.google.gwt.user.client.rpc.BatchingRpcRequestBuilder}.
    */
   protected Request() {
     timeoutMillis = 0;
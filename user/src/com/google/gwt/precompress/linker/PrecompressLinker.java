@@ -30,8 +30,9 @@ import com.google.gwt.dev.util.collect.HashSet;
 import com.google.gwt.util.regexfilter.RegexFilter;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
@@ -59,6 +60,33 @@ import java.util.zip.GZIPOutputStream;
 @Shardable
 @LinkerOrder(Order.POST)
 public class PrecompressLinker extends AbstractLinker {
+  /**
+   * Counts the uncompressed bytes written through to the compressor.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    public CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+  }
+
   private static class PrecompressFilter extends RegexFilter {
     public PrecompressFilter(TreeLogger logger, List<String> regexes)
         throws UnableToCompleteException {
@@ -76,12 +104,6 @@ public class PrecompressLinker extends AbstractLinker {
     }
   }
 
-  /**
-   * Buffer size to use when streaming data from artifacts and through
-   * {@link GZIPOutputStream}.
-   */
-  private static final int BUF_SIZE = 10000;
-
   private static final String PROP_LEAVE_ORIGINALS = "precompress.leave.originals";
 
   private static final String PROP_PATH_REGEXES = "precompress.path.regexes";
@@ -126,9 +148,6 @@ public class PrecompressLinker extends AbstractLinker {
     }
 
     try {
-      // Buffer for streaming data to be compressed
-      byte[] buf = new byte[BUF_SIZE];
-
       ArtifactSet updated = new ArtifactSet(artifacts);
       for (EmittedArtifact art : artifacts.find(EmittedArtifact.class)) {
         if (art.getVisibility() != Visibility.Public) {
@@ -151,20 +170,16 @@ public class PrecompressLinker extends AbstractLinker {
         TreeLogger compressBranch = logger.branch(TreeLogger.TRACE,
             "Compressing " + art.getPartialPath());
 
-        InputStream originalBytes = art.getContents(compressBranch);
+        // Stream the original straight into the compressor; only the
+        // (much smaller) compressed form is buffered.
         ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
-        GZIPOutputStream gzip = new GZIPOutputStream(compressedBytes);
-
-        int originalLength = 0;
-        int n;
-        while ((n = originalBytes.read(buf)) > 0) {
-          originalLength += n;
-          gzip.write(buf, 0, n);
-        }
+        CountingOutputStream gzip =
+            new CountingOutputStream(new GZIPOutputStream(compressedBytes));
+        art.writeTo(compressBranch, gzip);
         gzip.close();
 
         byte[] compressed = compressedBytes.toByteArray();
-        if (compressed.length < originalLength) {
+        if (compressed.length < gzip.getCount()) {
           updated.add(emitBytes(compressBranch, compressed,
               art.getPartialPath() + ".gz"));
           if (!leaveOriginals) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.client;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * EXPERIMENTAL and subject to change. Do not use this in production code.
+ * <p>
+ * Indicates that the requests made through an {@link RpcService} should be
+ * sent in the compact format written by
+ * {@link com.google.gwt.rpc.client.impl.BinaryPayloadSink BinaryPayloadSink}.
+ * Browsers without typed arrays send the default format instead.
+ * <p>
+ * Responses are written in the same format: Development Mode clients decode
+ * them like the server decodes requests, and compiled clients decode them into
+ * the values the default JavaScript response would have produced. After a
+ * two-character header, the bytes are packed seven bits to a character, so the
+ * payload is ASCII and takes one byte per character on the wire. Runs of
+ * doubles which all hold ints are written as varints.
+ * <p>
+ * Every service of a module can be switched to this format by setting the
+ * <code>gwt.rpc.binaryPayload</code> property to <code>true</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface BinaryPayload {
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.client.impl;
+
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.VERSION;
+
+import com.google.gwt.typedarrays.shared.ArrayBuffer;
+import com.google.gwt.typedarrays.shared.DataView;
+import com.google.gwt.typedarrays.shared.TypedArrays;
+import com.google.gwt.typedarrays.shared.Uint8Array;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the bytes of a binary payload written by {@link BinaryPayloadWriter}.
+ * The payload is unpacked into an {@link ArrayBuffer} up front.
+ */
+public class BinaryPayloadReader {
+  private final Uint8Array bytes;
+  private int idx;
+  private final List<String> strings = new ArrayList<String>();
+  private final DataView view;
+
+  /**
+   * @throws RuntimeException if <code>payload</code> is not a binary payload of
+   *           the current version
+   */
+  public BinaryPayloadReader(CharSequence payload) {
+    if (!BinaryPayloadSink.isBinaryPayload(payload) || payload.length() < 2) {
+      throw new RuntimeException("Not a binary payload");
+    }
+    int version = payload.charAt(1);
+    if (version != VERSION) {
+      throw new RuntimeException("Unsupported binary payload version " + version);
+    }
+
+    ArrayBuffer buffer = TypedArrays.createArrayBuffer((payload.length() - 2) * 7 / 8);
+    bytes = TypedArrays.createUint8Array(buffer);
+    view = TypedArrays.createDataView(buffer);
+
+    int pending = 0;
+    int pendingBits = 0;
+    for (int i = 2, j = 0, n = payload.length(); i < n; i++) {
+      char c = payload.charAt(i);
+      if (c > 0x7F) {
+        throw new RuntimeException("Invalid character " + (int) c + " at " + i);
+      }
+      pending = (pending << 7) | c;
+      pendingBits += 7;
+      if (pendingBits >= 8) {
+        pendingBits -= 8;
+        bytes.set(j++, pending >>> pendingBits);
+        pending &= (1 << pendingBits) - 1;
+      }
+    }
+  }
+
+  /**
+   * Returns the offset of the next byte, for error messages.
+   */
+  public int getPosition() {
+    return idx;
+  }
+
+  /**
+   * Returns <code>true</code> if there are bytes left to read.
+   */
+  public boolean hasRemaining() {
+    return idx < bytes.length();
+  }
+
+  public int readByte() {
+    if (idx >= bytes.length()) {
+      throw new RuntimeException("Overran payload");
+    }
+    return bytes.get(idx++);
+  }
+
+  public double readDouble() {
+    checkRemaining(8);
+    double value = view.getFloat64(idx, true);
+    idx += 8;
+    return value;
+  }
+
+  public float readFloat() {
+    checkRemaining(4);
+    float value = view.getFloat32(idx, true);
+    idx += 4;
+    return value;
+  }
+
+  public int readSignedVarint() {
+    int zigZag = readVarint();
+    return (zigZag >>> 1) ^ -(zigZag & 1);
+  }
+
+  public long readSignedVarint64() {
+    long zigZag = 0;
+    for (int shift = 0;; shift += 7) {
+      if (shift > 63) {
+        throw new RuntimeException("Malformed long at " + idx);
+      }
+      int b = readByte();
+      zigZag |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      }
+    }
+    return (zigZag >>> 1) ^ -(zigZag & 1);
+  }
+
+  /**
+   * Reads a string table reference.
+   */
+  public String readString() {
+    int index = readVarint();
+    if (index == 0) {
+      int length = readVarint();
+      StringBuilder sb = new StringBuilder(Math.min(length, bytes.length() - idx));
+      for (int i = 0; i < length; i++) {
+        sb.append((char) readVarint());
+      }
+      String value = sb.toString();
+      strings.add(value);
+      return value;
+    }
+    if (index > strings.size()) {
+      throw new RuntimeException("Unknown string " + index);
+    }
+    return strings.get(index - 1);
+  }
+
+  public int readVarint() {
+    int value = 0;
+    for (int shift = 0;; shift += 7) {
+      if (shift > 31) {
+        throw new RuntimeException("Malformed integer at " + idx);
+      }
+      int b = readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  private void checkRemaining(int length) {
+    if (idx + length > bytes.length()) {
+      throw new RuntimeException("Overran payload");
+    }
+  }
+}
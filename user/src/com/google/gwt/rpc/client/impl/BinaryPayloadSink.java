@@ -0,0 +1,331 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.client.impl;
+
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ARRAY_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BACKREF_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BOOLEAN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BYTE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.CHAR_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ENUM_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.FLOAT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INVOKE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.LONG_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.OBJECT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.RETURN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.SHORT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.STRING_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.THROW_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.VOID_TYPE;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.rpc.client.ast.ArrayValueCommand;
+import com.google.gwt.rpc.client.ast.BooleanValueCommand;
+import com.google.gwt.rpc.client.ast.ByteValueCommand;
+import com.google.gwt.rpc.client.ast.CharValueCommand;
+import com.google.gwt.rpc.client.ast.CommandSink;
+import com.google.gwt.rpc.client.ast.DoubleValueCommand;
+import com.google.gwt.rpc.client.ast.EnumValueCommand;
+import com.google.gwt.rpc.client.ast.FloatValueCommand;
+import com.google.gwt.rpc.client.ast.InstantiateCommand;
+import com.google.gwt.rpc.client.ast.IntValueCommand;
+import com.google.gwt.rpc.client.ast.InvokeCustomFieldSerializerCommand;
+import com.google.gwt.rpc.client.ast.LongValueCommand;
+import com.google.gwt.rpc.client.ast.NullValueCommand;
+import com.google.gwt.rpc.client.ast.ReturnCommand;
+import com.google.gwt.rpc.client.ast.RpcCommand;
+import com.google.gwt.rpc.client.ast.RpcCommandVisitor;
+import com.google.gwt.rpc.client.ast.SetCommand;
+import com.google.gwt.rpc.client.ast.ShortValueCommand;
+import com.google.gwt.rpc.client.ast.StringValueCommand;
+import com.google.gwt.rpc.client.ast.ThrowCommand;
+import com.google.gwt.rpc.client.ast.ValueCommand;
+import com.google.gwt.typedarrays.shared.DataView;
+import com.google.gwt.typedarrays.shared.TypedArrays;
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This implementation of CommandSink encodes RpcCommands in a compact binary
+ * format that can be interpreted by the server, and by Development Mode
+ * clients. Compiled clients are answered in the variant written by
+ * {@link com.google.gwt.rpc.server.WebModeBinaryPayloadSink
+ * WebModeBinaryPayloadSink}. The commands are those of
+ * {@link SimplePayloadSink}, each introduced by its type byte, but:
+ * <ul>
+ * <li>integers are written as variable-length quantities of seven bits per
+ * byte, zig-zag encoded if they may be negative;</li>
+ * <li>floats and doubles are written as their little-endian IEEE 754 bits,
+ * obtained through {@link DataView}, and doubles which hold an
+ * <code>int</code> are written as one;</li>
+ * <li>class names, field names, and string values are written once and
+ * thereafter referred to by their index in a string table;</li>
+ * <li>arrays of primitives are written as a run of bare values, and a run of
+ * doubles is written as ints if every one of them holds an int.</li>
+ * </ul>
+ * The bytes are packed seven bits to a character by {@link BinaryPayloadWriter},
+ * so that the payload is ASCII text.
+ */
+public class BinaryPayloadSink extends CommandSink {
+
+  private class Visitor extends RpcCommandVisitor {
+
+    @Override
+    public void endVisit(BooleanValueCommand x, Context ctx) {
+      appendType(BOOLEAN_TYPE);
+      out.writeByte(x.getValue() ? 1 : 0);
+    }
+
+    @Override
+    public void endVisit(ByteValueCommand x, Context ctx) {
+      appendType(BYTE_TYPE);
+      out.writeByte(x.getValue());
+    }
+
+    @Override
+    public void endVisit(CharValueCommand x, Context ctx) {
+      appendType(CHAR_TYPE);
+      out.writeVarint(x.getValue());
+    }
+
+    @Override
+    public void endVisit(DoubleValueCommand x, Context ctx) {
+      /*
+       * Compiled clients write every number as a double, so that most of them
+       * hold an int.
+       */
+      double value = x.getValue();
+      if (BinaryPayloadWriter.isInt(value)) {
+        appendType(INTEGRAL_DOUBLE_TYPE);
+        out.writeSignedVarint((int) value);
+      } else {
+        appendType(DOUBLE_TYPE);
+        out.writeDouble(value);
+      }
+    }
+
+    @Override
+    public void endVisit(EnumValueCommand x, Context ctx) {
+      // ETypeSeedName Ordinal
+      if (appendIdentity(x)) {
+        appendType(ENUM_TYPE);
+        out.writeString(x.getValue().getDeclaringClass().getName());
+        // use ordinal (and not name), since name might have been obfuscated
+        out.writeVarint(x.getValue().ordinal());
+      }
+    }
+
+    @Override
+    public void endVisit(FloatValueCommand x, Context ctx) {
+      appendType(FLOAT_TYPE);
+      out.writeFloat(x.getValue());
+    }
+
+    @Override
+    public void endVisit(IntValueCommand x, Context ctx) {
+      appendType(INT_TYPE);
+      out.writeSignedVarint(x.getValue());
+    }
+
+    @Override
+    public void endVisit(LongValueCommand x, Context ctx) {
+      appendType(LONG_TYPE);
+      out.writeSignedVarint64(x.getValue());
+    }
+
+    @Override
+    public void endVisit(NullValueCommand x, Context ctx) {
+      appendType(VOID_TYPE);
+    }
+
+    @Override
+    public void endVisit(ShortValueCommand x, Context ctx) {
+      appendType(SHORT_TYPE);
+      out.writeSignedVarint(x.getValue());
+    }
+
+    @Override
+    public void endVisit(StringValueCommand x, Context ctx) {
+      // "String
+      appendType(STRING_TYPE);
+      out.writeString(x.getValue());
+    }
+
+    @Override
+    public boolean visit(ArrayValueCommand x, Context ctx) {
+      /*
+       * Encoded as (leafType, dimensions, length, .... ), where the values of a
+       * one-dimensional array of primitives are packed.
+       */
+      if (appendIdentity(x)) {
+        int dims = 1;
+        Class<?> leaf = x.getComponentType();
+        while (leaf.getComponentType() != null) {
+          dims++;
+          leaf = leaf.getComponentType();
+        }
+
+        appendType(ARRAY_TYPE);
+        out.writeString(leaf.getName());
+        out.writeVarint(dims);
+        out.writeVarint(x.getComponentValues().size());
+        if (dims == 1 && leaf.isPrimitive()) {
+          out.writePacked(leaf, x.getComponentValues());
+          return false;
+        }
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public boolean visit(InstantiateCommand x, Context ctx) {
+      // LTypeSeedName 3 ... N-many setters ...
+      if (appendIdentity(x)) {
+        appendType(OBJECT_TYPE);
+        out.writeString(x.getTargetClass().getName());
+        out.writeVarint(x.getSetters().size());
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public boolean visit(InvokeCustomFieldSerializerCommand x, Context ctx) {
+      // !TypeSeedName Number of objects written by CFS ...CFS objects...
+      // Number of extra fields ...N-many setters...
+      if (appendIdentity(x)) {
+        appendType(INVOKE_TYPE);
+        out.writeString(x.getTargetClass().getName());
+        out.writeVarint(x.getValues().size());
+        accept(x.getValues());
+        out.writeVarint(x.getSetters().size());
+        accept(x.getSetters());
+      }
+      return false;
+    }
+
+    @Override
+    public boolean visit(ReturnCommand x, Context ctx) {
+      // R4 ...values...
+      appendType(RETURN_TYPE);
+      out.writeVarint(x.getValues().size());
+      return true;
+    }
+
+    @Override
+    public boolean visit(SetCommand x, Context ctx) {
+      /*
+       * As in SimplePayloadSink, the field's declaring class is only written
+       * in Development Mode.
+       *
+       * DeclaringClassName FieldName ...value...
+       */
+      if (!GWT.isScript()) {
+        out.writeString(x.getFieldDeclClass().getName());
+      }
+      out.writeString(x.getField());
+      return true;
+    }
+
+    @Override
+    public boolean visit(ThrowCommand x, Context ctx) {
+      // T...value...
+      appendType(THROW_TYPE);
+      return true;
+    }
+
+    private boolean appendIdentity(ValueCommand x) {
+      Integer backRef = backRefs.get(x);
+      if (backRef != null) {
+        appendType(BACKREF_TYPE);
+        out.writeVarint(backRef);
+        return false;
+      } else {
+        backRefs.put(x, backRefs.size());
+        return true;
+      }
+    }
+
+    private void appendType(char type) {
+      out.writeByte(type);
+    }
+  }
+
+  /**
+   * The first character of every binary payload, which cannot begin a simple
+   * payload.
+   */
+  public static final char BINARY_PAYLOAD_MARKER = '\0';
+
+  /**
+   * Introduces a double which holds an int.
+   */
+  public static final char INTEGRAL_DOUBLE_TYPE = 'd';
+
+  /**
+   * The version of the format, which follows {@link #BINARY_PAYLOAD_MARKER}.
+   */
+  public static final int VERSION = 2;
+
+  /**
+   * Returns <code>true</code> if <code>payload</code> was written by a
+   * BinaryPayloadSink.
+   */
+  public static boolean isBinaryPayload(CharSequence payload) {
+    return payload.length() > 0 && payload.charAt(0) == BINARY_PAYLOAD_MARKER;
+  }
+
+  /**
+   * Returns <code>true</code> if the binary format can be written in this
+   * environment.
+   */
+  public static boolean isSupported() {
+    return TypedArrays.isSupported();
+  }
+
+  private final Map<ValueCommand, Integer> backRefs = new HashMap<ValueCommand, Integer>();
+
+  private final BinaryPayloadWriter out;
+
+  /**
+   * Writes the payload header to <code>buffer</code>.
+   */
+  public BinaryPayloadSink(Appendable buffer) throws IOException {
+    out = new BinaryPayloadWriter(buffer);
+  }
+
+  @Override
+  public void accept(RpcCommand command) throws SerializationException {
+    (new Visitor()).accept(command);
+  }
+
+  /**
+   * Writes the last bits of the payload, which is incomplete until this is
+   * called.
+   */
+  @Override
+  public void finish() throws SerializationException {
+    out.finish();
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.client.impl;
+
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.BINARY_PAYLOAD_MARKER;
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.INTEGRAL_DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.VERSION;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BOOLEAN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BYTE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.CHAR_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.FLOAT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.LONG_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.SHORT_TYPE;
+
+import com.google.gwt.rpc.client.ast.ScalarValueCommand;
+import com.google.gwt.rpc.client.ast.ValueCommand;
+import com.google.gwt.typedarrays.shared.DataView;
+import com.google.gwt.typedarrays.shared.TypedArrays;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the bytes of a binary payload, which are read back by
+ * {@link BinaryPayloadReader}. After the two header characters, the bytes are
+ * packed seven bits to a character, so that the payload is ASCII and takes one
+ * byte per character when it is sent as UTF-8.
+ */
+public class BinaryPayloadWriter {
+
+  /**
+   * Returns the type byte of a primitive type.
+   */
+  public static char getPrimitiveType(Class<?> type) {
+    if (type == boolean.class) {
+      return BOOLEAN_TYPE;
+    } else if (type == byte.class) {
+      return BYTE_TYPE;
+    } else if (type == char.class) {
+      return CHAR_TYPE;
+    } else if (type == double.class) {
+      return DOUBLE_TYPE;
+    } else if (type == float.class) {
+      return FLOAT_TYPE;
+    } else if (type == int.class) {
+      return INT_TYPE;
+    } else if (type == long.class) {
+      return LONG_TYPE;
+    } else if (type == short.class) {
+      return SHORT_TYPE;
+    }
+    throw new IllegalArgumentException(type.getName());
+  }
+
+  /**
+   * Returns <code>true</code> if <code>value</code> can be written as an
+   * <code>int</code> without loss, which excludes negative zero.
+   */
+  public static boolean isInt(double value) {
+    int intValue = (int) value;
+    return intValue == value && (intValue != 0 || 1 / value > 0);
+  }
+
+  private static double doubleValue(ValueCommand value) {
+    return ((Number) ((ScalarValueCommand) value).getValue()).doubleValue();
+  }
+
+  private final Appendable out;
+
+  /**
+   * Bits which have not been written yet because they do not fill a character.
+   */
+  private int pending;
+
+  /**
+   * The number of bits in {@link #pending}.
+   */
+  private int pendingBits;
+
+  /**
+   * Used to obtain the bits of floats and doubles.
+   */
+  private DataView scratch;
+
+  private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+  /**
+   * Writes the payload header to <code>out</code>.
+   */
+  public BinaryPayloadWriter(Appendable out) throws IOException {
+    this.out = out;
+    out.append(BINARY_PAYLOAD_MARKER).append((char) VERSION);
+  }
+
+  /**
+   * Writes the bits that are still pending, padded with zeros.
+   */
+  public void finish() {
+    if (pendingBits > 0) {
+      append(pending << (7 - pendingBits));
+      pending = 0;
+      pendingBits = 0;
+    }
+  }
+
+  public void writeByte(int b) {
+    pending = (pending << 8) | (b & 0xff);
+    pendingBits += 8;
+    while (pendingBits >= 7) {
+      pendingBits -= 7;
+      append(pending >>> pendingBits);
+    }
+    pending &= (1 << pendingBits) - 1;
+  }
+
+  /**
+   * Writes the little-endian IEEE 754 bits of <code>value</code>.
+   */
+  public void writeDouble(double value) {
+    DataView view = getScratch();
+    view.setFloat64(0, value, true);
+    writeScratch(view, 8);
+  }
+
+  /**
+   * Writes the little-endian IEEE 754 bits of <code>value</code>.
+   */
+  public void writeFloat(float value) {
+    DataView view = getScratch();
+    view.setFloat32(0, value, true);
+    writeScratch(view, 4);
+  }
+
+  /**
+   * Writes the values of a one-dimensional array of primitives, without their
+   * types. Compiled clients represent most of them as doubles, so a run of
+   * doubles is introduced by {@link BinaryPayloadSink#INTEGRAL_DOUBLE_TYPE} and
+   * written as varints if every one of them holds an int, and introduced by
+   * {@link SimplePayloadSink#DOUBLE_TYPE} and written as bits otherwise.
+   */
+  public void writePacked(Class<?> type, List<ValueCommand> values) {
+    if (type == double.class) {
+      boolean integral = true;
+      for (ValueCommand value : values) {
+        if (!isInt(doubleValue(value))) {
+          integral = false;
+          break;
+        }
+      }
+      writeByte(integral ? INTEGRAL_DOUBLE_TYPE : DOUBLE_TYPE);
+      for (ValueCommand value : values) {
+        double d = doubleValue(value);
+        if (integral) {
+          writeSignedVarint((int) d);
+        } else {
+          writeDouble(d);
+        }
+      }
+      return;
+    }
+
+    for (ValueCommand value : values) {
+      Object o = ((ScalarValueCommand) value).getValue();
+      if (type == boolean.class) {
+        writeByte(Boolean.TRUE.equals(o) ? 1 : 0);
+      } else if (type == char.class) {
+        writeVarint(o instanceof Character ? (Character) o : ((Number) o).intValue());
+      } else if (type == float.class) {
+        writeFloat(((Number) o).floatValue());
+      } else if (type == long.class) {
+        writeSignedVarint64(((Number) o).longValue());
+      } else {
+        // byte, short, int
+        writeSignedVarint(((Number) o).intValue());
+      }
+    }
+  }
+
+  /**
+   * Writes a zig-zag encoded varint.
+   */
+  public void writeSignedVarint(int value) {
+    writeVarint((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Writes a zig-zag encoded varint of up to ten bytes.
+   */
+  public void writeSignedVarint64(long value) {
+    long zigZag = (value << 1) ^ (value >> 63);
+    while ((zigZag & ~0x7FL) != 0) {
+      writeByte(((int) zigZag & 0x7F) | 0x80);
+      zigZag >>>= 7;
+    }
+    writeByte((int) zigZag);
+  }
+
+  /**
+   * Writes a string table reference, which is the index of the string plus
+   * one, or zero followed by the length and characters of a new string.
+   */
+  public void writeString(String value) {
+    Integer index = strings.get(value);
+    if (index != null) {
+      writeVarint(index + 1);
+    } else {
+      strings.put(value, strings.size());
+      writeVarint(0);
+      writeVarint(value.length());
+      for (int i = 0, j = value.length(); i < j; i++) {
+        writeVarint(value.charAt(i));
+      }
+    }
+  }
+
+  /**
+   * Writes a variable-length quantity of seven bits per byte, where the high
+   * bit of each byte but the last is set.
+   */
+  public void writeVarint(int value) {
+    while ((value & ~0x7F) != 0) {
+      writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    writeByte(value);
+  }
+
+  private void append(int sevenBits) {
+    try {
+      out.append((char) (sevenBits & 0x7F));
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to write payload", e);
+    }
+  }
+
+  private DataView getScratch() {
+    if (scratch == null) {
+      scratch = TypedArrays.createDataView(TypedArrays.createArrayBuffer(8));
+    }
+    return scratch;
+  }
+
+  private void writeScratch(DataView view, int length) {
+    for (int i = 0; i < length; i++) {
+      writeByte(view.getUint8(i));
+    }
+  }
+}
@@ -16,6 +16,8 @@
 package com.google.gwt.rpc.client.impl;
 
 import com.google.gwt.rpc.client.ast.CommandSink;
+import com.google.gwt.rpc.client.ast.ValueCommand;
+import com.google.gwt.rpc.server.BinaryPayloadDecoder;
 import com.google.gwt.rpc.server.CommandServerSerializationStreamReader;
 import com.google.gwt.rpc.server.CommandServerSerializationStreamWriter;
 import com.google.gwt.rpc.server.HostedModeClientOracle;
@@ -26,6 +28,7 @@ import com.google.gwt.user.client.rpc.SerializationStreamReader;
 import com.google.gwt.user.client.rpc.SerializationStreamWriter;
 
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Isolates client code from swapping out the command factory in hosted versus
@@ -36,16 +39,27 @@ public class ClientWriterFactory {
 
   public static SerializationStreamReader createReader(String payload)
       throws IncompatibleRemoteServiceException, RemoteException {
-    SimplePayloadDecoder decoder;
+    List<ValueCommand> values;
+    ValueCommand thrownValue;
     try {
-      decoder = new SimplePayloadDecoder(new HostedModeClientOracle(), payload);
+      if (BinaryPayloadSink.isBinaryPayload(payload)) {
+        BinaryPayloadDecoder decoder = new BinaryPayloadDecoder(
+            new HostedModeClientOracle(), payload);
+        values = decoder.getValues();
+        thrownValue = decoder.getThrownValue();
+      } else {
+        SimplePayloadDecoder decoder = new SimplePayloadDecoder(
+            new HostedModeClientOracle(), payload);
+        values = decoder.getValues();
+        thrownValue = decoder.getThrownValue();
+      }
     } catch (ClassNotFoundException e) {
       throw new IncompatibleRemoteServiceException(
           "Client does not have a type sent by the server", e);
     }
     CommandServerSerializationStreamReader reader = new CommandServerSerializationStreamReader();
-    if (decoder.getThrownValue() != null) {
-      reader.prepareToRead(Collections.singletonList(decoder.getThrownValue()));
+    if (thrownValue != null) {
+      reader.prepareToRead(Collections.singletonList(thrownValue));
       try {
         throw new RemoteException((Throwable) reader.readObject());
       } catch (ClassCastException e) {
@@ -57,7 +71,7 @@ public class ClientWriterFactory {
             e);
       }
     } else {
-      reader.prepareToRead(decoder.getValues());
+      reader.prepareToRead(values);
     }
     return reader;
   }
@@ -96,6 +96,15 @@ public class CommandClientSerializationStreamReader implements
     }
   }
 
+  /**
+   * Prepares to read values which have already been decoded, such as those of
+   * a binary payload.
+   */
+  void prepareToRead(JsArray<JavaScriptObject> values) {
+    payload = values;
+    idx = 0;
+  }
+
   public boolean readBoolean() throws SerializationException {
     assert idx < payload.length() : "Attempting to read beyond end of payload";
     return readBoolean0(payload, idx++);
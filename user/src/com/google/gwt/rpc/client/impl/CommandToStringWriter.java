@@ -22,16 +22,24 @@ import com.google.gwt.rpc.client.ast.ValueCommand;
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.SerializationStreamWriter;
 
+import java.io.IOException;
+
 /**
  * Existing code assumes that a SerializationStreamWriter will export its
  * payload via the toString() method. This uses an internal CommandSink and
- * creates a string payload on-demand.
+ * creates a string payload on-demand, in the format of either
+ * {@link SimplePayloadSink} or {@link BinaryPayloadSink}.
  */
 public class CommandToStringWriter implements SerializationStreamWriter {
 
   private static class ToStringCommandSink extends CommandSink {
+    private final boolean binaryPayload;
     private final ReturnCommand retCommand = new ReturnCommand();
 
+    ToStringCommandSink(boolean binaryPayload) {
+      this.binaryPayload = binaryPayload;
+    }
+
     @Override
     public void accept(RpcCommand command) throws SerializationException {
       retCommand.addValue((ValueCommand) command);
@@ -44,10 +52,13 @@ public class CommandToStringWriter implements SerializationStreamWriter {
     @Override
     public String toString() {
       StringBuilder sb = new StringBuilder();
-      SimplePayloadSink sink = new SimplePayloadSink(sb);
       try {
+        CommandSink sink = binaryPayload ? new BinaryPayloadSink(sb)
+            : new SimplePayloadSink(sb);
         sink.accept(retCommand);
         sink.finish();
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to create payload", e);
       } catch (SerializationException e) {
         throw new RuntimeException("Unable to create payload", e);
       }
@@ -55,10 +66,20 @@ public class CommandToStringWriter implements SerializationStreamWriter {
     }
   }
 
-  private final ToStringCommandSink commandSink = new ToStringCommandSink();
+  private final ToStringCommandSink commandSink;
   private final SerializationStreamWriter writer;
 
   public CommandToStringWriter(TypeOverrides overrides) {
+    this(overrides, false);
+  }
+
+  /**
+   * @param binaryPayload <code>true</code> to write the payload with a
+   *          {@link BinaryPayloadSink}, which the caller must have checked is
+   *          {@link BinaryPayloadSink#isSupported() supported}
+   */
+  public CommandToStringWriter(TypeOverrides overrides, boolean binaryPayload) {
+    commandSink = new ToStringCommandSink(binaryPayload);
     writer = ClientWriterFactory.createWriter(overrides, commandSink);
   }
 
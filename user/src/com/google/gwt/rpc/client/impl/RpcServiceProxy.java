@@ -29,13 +29,25 @@ import com.google.gwt.user.client.rpc.impl.RpcStatsContext;
  * The base type for RPC proxies.
  */
 public class RpcServiceProxy extends RemoteServiceProxy {
+  private final boolean binaryPayload;
   private final TypeOverrides typeOverrides;
 
   protected RpcServiceProxy(String moduleBaseURL,
       String remoteServiceRelativePath, TypeOverrides typeOverrides) {
+    this(moduleBaseURL, remoteServiceRelativePath, typeOverrides, false);
+  }
+
+  /**
+   * @param binaryPayload <code>true</code> if the service is annotated with
+   *          {@link com.google.gwt.rpc.client.BinaryPayload BinaryPayload}
+   */
+  protected RpcServiceProxy(String moduleBaseURL,
+      String remoteServiceRelativePath, TypeOverrides typeOverrides,
+      boolean binaryPayload) {
     super(moduleBaseURL, remoteServiceRelativePath,
         GWT.getPermutationStrongName(), null);
     this.typeOverrides = typeOverrides;
+    this.binaryPayload = binaryPayload;
   }
 
   @Override
@@ -46,7 +58,8 @@ public class RpcServiceProxy extends RemoteServiceProxy {
 
   @Override
   public SerializationStreamWriter createStreamWriter() {
-    return new CommandToStringWriter(typeOverrides);
+    return new CommandToStringWriter(typeOverrides, binaryPayload
+        && BinaryPayloadSink.isSupported());
   }
 
   @Override
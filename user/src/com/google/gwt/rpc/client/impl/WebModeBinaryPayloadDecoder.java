@@ -0,0 +1,359 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.client.impl;
+
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.INTEGRAL_DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ARRAY_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BACKREF_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BOOLEAN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BYTE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.CHAR_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ENUM_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.FLOAT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INVOKE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.LONG_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.OBJECT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.RETURN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.SHORT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.STRING_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.THROW_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.VOID_TYPE;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.UnsafeNativeLong;
+import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+
+/**
+ * Decodes, in a compiled client, the binary payload written by
+ * {@link com.google.gwt.rpc.server.WebModeBinaryPayloadSink
+ * WebModeBinaryPayloadSink}. The bytes are unpacked into a typed array by
+ * {@link BinaryPayloadReader}, and the values are built as the script written
+ * by {@link com.google.gwt.rpc.server.WebModePayloadSink WebModePayloadSink}
+ * would build them, so that they can be read by a
+ * {@link CommandClientSerializationStreamReader}. The identifiers named in the
+ * payload are evaluated in the module's scope.
+ */
+public class WebModeBinaryPayloadDecoder {
+
+  /**
+   * Identifiers which have been evaluated, keyed by a prefixed identifier.
+   * Identifiers whose value is undefined, such as a class literal in a
+   * fragment which has not been loaded yet, are evaluated again.
+   */
+  private static final JavaScriptObject RESOLVED = JavaScriptObject.createObject();
+
+  /**
+   * Returns the values of <code>payload</code>.
+   *
+   * @throws IncompatibleRemoteServiceException if the payload cannot be
+   *           decoded
+   * @throws RemoteException if the payload contains a thrown value
+   */
+  public static JsArray<JavaScriptObject> decode(String payload)
+      throws IncompatibleRemoteServiceException, RemoteException {
+    WebModeBinaryPayloadDecoder decoder;
+    try {
+      decoder = new WebModeBinaryPayloadDecoder(payload);
+    } catch (RuntimeException e) {
+      throw new IncompatibleRemoteServiceException("Unable to decode payload",
+          e);
+    }
+
+    if (decoder.thrown != null) {
+      try {
+        throw new RemoteException((Throwable) toObject(decoder.thrown));
+      } catch (ClassCastException e) {
+        throw new RemoteException(
+            "The remote end threw something other than a Throwable", e);
+      }
+    }
+    return decoder.values;
+  }
+
+  private static native JavaScriptObject construct(JavaScriptObject ctor) /*-{
+    return new ctor();
+  }-*/;
+
+  private static native JavaScriptObject eval(String payload) /*-{
+    return eval(payload);
+  }-*/;
+
+  private static native JavaScriptObject fromBoolean(boolean value) /*-{
+    return value;
+  }-*/;
+
+  private static native JavaScriptObject fromDouble(double value) /*-{
+    return value;
+  }-*/;
+
+  @UnsafeNativeLong
+  private static native JavaScriptObject fromLong(long value) /*-{
+    return value;
+  }-*/;
+
+  private static native JavaScriptObject fromObject(Object value) /*-{
+    return value;
+  }-*/;
+
+  private static native JavaScriptObject get(JavaScriptObject map, String key) /*-{
+    return map[':' + key];
+  }-*/;
+
+  private static native JavaScriptObject initValues(JavaScriptObject fn,
+      JavaScriptObject classLit, JavaScriptObject castableTypeMap, int queryId,
+      JavaScriptObject array) /*-{
+    return fn(classLit, castableTypeMap, queryId, array);
+  }-*/;
+
+  private static native JavaScriptObject invoke(JavaScriptObject fn,
+      JavaScriptObject arg) /*-{
+    return fn(arg);
+  }-*/;
+
+  private static native void invoke(JavaScriptObject fn,
+      JavaScriptObject arg1, JavaScriptObject arg2) /*-{
+    fn(arg1, arg2);
+  }-*/;
+
+  private static native JavaScriptObject newInstance(
+      JavaScriptObject getSeedFunction, JavaScriptObject classLit) /*-{
+    return new (getSeedFunction(classLit));
+  }-*/;
+
+  private static native void put(JavaScriptObject map, String key,
+      JavaScriptObject value) /*-{
+    map[':' + key] = value;
+  }-*/;
+
+  /**
+   * Evaluates <code>js</code> once it has a value.
+   */
+  private static JavaScriptObject resolve(String js) {
+    JavaScriptObject value = get(RESOLVED, js);
+    if (value == null) {
+      value = eval(js);
+      if (value != null) {
+        put(RESOLVED, js, value);
+      }
+    }
+    return value;
+  }
+
+  private static native void set(JavaScriptObject obj, String field,
+      JavaScriptObject value) /*-{
+    obj[field] = value;
+  }-*/;
+
+  private static native Object toObject(JavaScriptObject value) /*-{
+    return value;
+  }-*/;
+
+  private final JsArray<JavaScriptObject> backRefs = JavaScriptObject.createArray().cast();
+  private final BinaryPayloadReader in;
+  private JavaScriptObject thrown;
+  private JsArray<JavaScriptObject> values;
+
+  private WebModeBinaryPayloadDecoder(String payload) {
+    in = new BinaryPayloadReader(payload);
+    while (values == null && thrown == null) {
+      int command = in.readByte();
+      if (command == RETURN_TYPE) {
+        // R4 ...values...
+        values = readValues(in.readVarint());
+      } else if (command == THROW_TYPE) {
+        // T...value...
+        thrown = readValue();
+      } else {
+        throw new RuntimeException("Unknown command " + command + " at "
+            + (in.getPosition() - 1));
+      }
+    }
+  }
+
+  /**
+   * Reads the values of an array, which are packed if <code>type</code> is a
+   * primitive type.
+   */
+  private void readArrayValues(JsArray<JavaScriptObject> array, int type,
+      int length) {
+    switch (type) {
+      case BOOLEAN_TYPE:
+        for (int i = 0; i < length; i++) {
+          array.push(fromBoolean(in.readByte() != 0));
+        }
+        break;
+      case CHAR_TYPE:
+        for (int i = 0; i < length; i++) {
+          array.push(fromDouble(in.readVarint()));
+        }
+        break;
+      case DOUBLE_TYPE: {
+        // Preceded by the type of the whole run
+        int runType = in.readByte();
+        if (runType != INTEGRAL_DOUBLE_TYPE && runType != DOUBLE_TYPE) {
+          throw new RuntimeException("Unknown type of double run " + runType);
+        }
+        for (int i = 0; i < length; i++) {
+          array.push(fromDouble(runType == INTEGRAL_DOUBLE_TYPE
+              ? in.readSignedVarint() : in.readDouble()));
+        }
+        break;
+      }
+      case FLOAT_TYPE:
+        for (int i = 0; i < length; i++) {
+          array.push(fromDouble(in.readFloat()));
+        }
+        break;
+      case LONG_TYPE:
+        for (int i = 0; i < length; i++) {
+          array.push(fromLong(in.readSignedVarint64()));
+        }
+        break;
+      case BYTE_TYPE:
+      case INT_TYPE:
+      case SHORT_TYPE:
+        for (int i = 0; i < length; i++) {
+          array.push(fromDouble(in.readSignedVarint()));
+        }
+        break;
+      case VOID_TYPE:
+        for (int i = 0; i < length; i++) {
+          array.push(readValue());
+        }
+        break;
+      default:
+        throw new RuntimeException("Unknown array type " + type);
+    }
+  }
+
+  /**
+   * Format is (count, (field, value)...).
+   */
+  private void readSetters(JavaScriptObject obj) {
+    int length = in.readVarint();
+    for (int i = 0; i < length; i++) {
+      String field = in.readString();
+      set(obj, field, readValue());
+    }
+  }
+
+  /**
+   * Reads one value from the stream.
+   */
+  private JavaScriptObject readValue() {
+    int type = in.readByte();
+    switch (type) {
+      case BOOLEAN_TYPE:
+        return fromBoolean(in.readByte() != 0);
+      case BYTE_TYPE:
+        return fromDouble((byte) in.readByte());
+      case CHAR_TYPE:
+        return fromDouble(in.readVarint());
+      case DOUBLE_TYPE:
+        return fromDouble(in.readDouble());
+      case INTEGRAL_DOUBLE_TYPE:
+        return fromDouble(in.readSignedVarint());
+      case FLOAT_TYPE:
+        return fromDouble(in.readFloat());
+      case INT_TYPE:
+      case SHORT_TYPE:
+        return fromDouble(in.readSignedVarint());
+      case LONG_TYPE:
+        return fromLong(in.readSignedVarint64());
+      case STRING_TYPE:
+        return fromObject(in.readString());
+      case VOID_TYPE:
+        return null;
+      case ENUM_TYPE: {
+        // (clinit(), field)
+        String clinit = in.readString();
+        String field = in.readString();
+        JavaScriptObject x = resolve("(" + clinit + "()," + field + ")");
+        backRefs.push(x);
+        return x;
+      }
+      case ARRAY_TYPE: {
+        // initValues(classLit, castableTypeData, queryId, [values])
+        JavaScriptObject initValues = resolve(in.readString());
+        JavaScriptObject classLit = resolve(in.readString());
+        JavaScriptObject castableTypeMap = resolve("(" + in.readString() + ")");
+        int queryId = in.readSignedVarint();
+        int arrayType = in.readByte();
+        int length = in.readVarint();
+
+        JsArray<JavaScriptObject> array = JavaScriptObject.createArray().cast();
+        backRefs.push(array);
+        readArrayValues(array, arrayType, length);
+        return initValues(initValues, classLit, castableTypeMap, queryId, array);
+      }
+      case OBJECT_TYPE: {
+        // new (getSeedFunction(classLit)), then the fields
+        JavaScriptObject getSeedFunction = resolve(in.readString());
+        JavaScriptObject classLit = resolve(in.readString());
+        JavaScriptObject x = newInstance(getSeedFunction, classLit);
+        backRefs.push(x);
+        readSetters(x);
+        return x;
+      }
+      case INVOKE_TYPE: {
+        // x = instantiate(reader) or new constructor, deserialize(reader, x)
+        String instantiate = in.readString();
+        String constructor = in.readString();
+        String deserialize = in.readString();
+
+        // The object is created once the reader's values have been read
+        int backRef = backRefs.length();
+        backRefs.push(null);
+        CommandClientSerializationStreamReader reader = new CommandClientSerializationStreamReader();
+        reader.prepareToRead(readValues(in.readVarint()));
+
+        JavaScriptObject x;
+        if (instantiate.length() > 0) {
+          x = invoke(resolve(instantiate), fromObject(reader));
+        } else {
+          x = construct(resolve(constructor));
+        }
+        backRefs.set(backRef, x);
+        if (deserialize.length() > 0) {
+          invoke(resolve(deserialize), fromObject(reader), x);
+        }
+        readSetters(x);
+        return x;
+      }
+      case BACKREF_TYPE: {
+        int backRef = in.readVarint();
+        if (backRef >= backRefs.length()) {
+          throw new RuntimeException("Unknown backreference " + backRef);
+        }
+        return backRefs.get(backRef);
+      }
+      default:
+        throw new RuntimeException("Unknown command " + type + " at "
+            + (in.getPosition() - 1));
+    }
+  }
+
+  private JsArray<JavaScriptObject> readValues(int length) {
+    JsArray<JavaScriptObject> toReturn = JavaScriptObject.createArray().cast();
+    for (int i = 0; i < length; i++) {
+      toReturn.push(readValue());
+    }
+    return toReturn;
+  }
+}
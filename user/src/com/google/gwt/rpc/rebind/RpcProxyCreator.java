@@ -19,7 +19,9 @@ import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.impl.ArtificialRescue;
 import com.google.gwt.core.client.impl.Impl;
 import com.google.gwt.core.client.impl.ArtificialRescue.Rescue;
+import com.google.gwt.core.ext.BadPropertyValueException;
 import com.google.gwt.core.ext.GeneratorContext;
+import com.google.gwt.core.ext.RebindResult;
 import com.google.gwt.core.ext.TreeLogger;
 import com.google.gwt.core.ext.UnableToCompleteException;
 import com.google.gwt.core.ext.typeinfo.JArrayType;
@@ -31,6 +33,7 @@ import com.google.gwt.core.ext.typeinfo.JPrimitiveType;
 import com.google.gwt.core.ext.typeinfo.JType;
 import com.google.gwt.core.ext.typeinfo.TypeOracle;
 import com.google.gwt.dev.util.collect.Lists;
+import com.google.gwt.rpc.client.BinaryPayload;
 import com.google.gwt.rpc.client.impl.CommandToStringWriter;
 import com.google.gwt.rpc.client.impl.RpcServiceProxy;
 import com.google.gwt.rpc.client.impl.TypeOverrides;
@@ -59,12 +62,34 @@ import java.util.Set;
  * Generates async proxy implementations using the RPC system.
  */
 public class RpcProxyCreator extends ProxyCreator {
+  /**
+   * The deferred binding property which makes every service send its requests
+   * in the binary format, as if it were annotated with {@link BinaryPayload}.
+   */
+  private static final String BINARY_PAYLOAD_PROPERTY = "gwt.rpc.binaryPayload";
+
+  private boolean binaryPayload;
   private String typeOverrideName;
 
   public RpcProxyCreator(JClassType type) {
     super(type);
   }
 
+  @Override
+  public RebindResult create(TreeLogger logger, GeneratorContext context)
+      throws UnableToCompleteException {
+    binaryPayload = serviceIntf.isAnnotationPresent(BinaryPayload.class);
+    if (!binaryPayload) {
+      try {
+        binaryPayload = Boolean.valueOf(context.getPropertyOracle().getSelectionProperty(
+            logger, BINARY_PAYLOAD_PROPERTY).getCurrentValue());
+      } catch (BadPropertyValueException e) {
+        // Not defined by the module
+      }
+    }
+    return super.create(logger, context);
+  }
+
   @Override
   protected String computeTypeNameExpression(JType paramType) {
     if (paramType.isClass() != null) {
@@ -90,7 +115,11 @@ public class RpcProxyCreator extends ProxyCreator {
     srcWriter.println("super(GWT.getModuleBaseURL(),");
     srcWriter.indent();
     srcWriter.println(getRemoteServiceRelativePath() + ",");
-    srcWriter.println("OVERRIDES);");
+    if (binaryPayload) {
+      srcWriter.println("OVERRIDES, true);");
+    } else {
+      srcWriter.println("OVERRIDES);");
+    }
     srcWriter.outdent();
     srcWriter.outdent();
     srcWriter.println("}");
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.server;
+
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.INTEGRAL_DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ARRAY_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BACKREF_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BOOLEAN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BYTE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.CHAR_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ENUM_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.FLOAT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INVOKE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.LONG_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.OBJECT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.RETURN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.SHORT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.STRING_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.THROW_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.VOID_TYPE;
+
+import com.google.gwt.rpc.client.ast.ArrayValueCommand;
+import com.google.gwt.rpc.client.ast.BooleanValueCommand;
+import com.google.gwt.rpc.client.ast.ByteValueCommand;
+import com.google.gwt.rpc.client.ast.CharValueCommand;
+import com.google.gwt.rpc.client.ast.DoubleValueCommand;
+import com.google.gwt.rpc.client.ast.EnumValueCommand;
+import com.google.gwt.rpc.client.ast.FloatValueCommand;
+import com.google.gwt.rpc.client.ast.HasSetters;
+import com.google.gwt.rpc.client.ast.InstantiateCommand;
+import com.google.gwt.rpc.client.ast.IntValueCommand;
+import com.google.gwt.rpc.client.ast.InvokeCustomFieldSerializerCommand;
+import com.google.gwt.rpc.client.ast.LongValueCommand;
+import com.google.gwt.rpc.client.ast.NullValueCommand;
+import com.google.gwt.rpc.client.ast.ReturnCommand;
+import com.google.gwt.rpc.client.ast.RpcCommand;
+import com.google.gwt.rpc.client.ast.ShortValueCommand;
+import com.google.gwt.rpc.client.ast.StringValueCommand;
+import com.google.gwt.rpc.client.ast.ValueCommand;
+import com.google.gwt.rpc.client.impl.BinaryPayloadReader;
+import com.google.gwt.rpc.client.impl.BinaryPayloadSink;
+import com.google.gwt.user.server.rpc.impl.SerializabilityUtil;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the binary payload written by {@link BinaryPayloadSink}.
+ */
+public class BinaryPayloadDecoder {
+  private static final String OBFUSCATED_CLASS_PREFIX = "Class$ ";
+  private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<String, Class<?>>();
+
+  static {
+    // Obfuscated when class metadata is disabled
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + BOOLEAN_TYPE, boolean.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + BYTE_TYPE, byte.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + CHAR_TYPE, char.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + DOUBLE_TYPE, double.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + FLOAT_TYPE, float.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + INT_TYPE, int.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + LONG_TYPE, long.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + SHORT_TYPE, short.class);
+    PRIMITIVE_TYPES.put(OBFUSCATED_CLASS_PREFIX + VOID_TYPE, void.class);
+
+    // Regular
+    PRIMITIVE_TYPES.put(boolean.class.getName(), boolean.class);
+    PRIMITIVE_TYPES.put(byte.class.getName(), byte.class);
+    PRIMITIVE_TYPES.put(char.class.getName(), char.class);
+    PRIMITIVE_TYPES.put(double.class.getName(), double.class);
+    PRIMITIVE_TYPES.put(float.class.getName(), float.class);
+    PRIMITIVE_TYPES.put(int.class.getName(), int.class);
+    PRIMITIVE_TYPES.put(long.class.getName(), long.class);
+    PRIMITIVE_TYPES.put(short.class.getName(), short.class);
+    PRIMITIVE_TYPES.put(void.class.getName(), void.class);
+  }
+
+  private final List<ValueCommand> backRefs = new ArrayList<ValueCommand>();
+  private final Map<String, Class<?>> classCache = new HashMap<String, Class<?>>(
+      PRIMITIVE_TYPES);
+  private final ClientOracle clientOracle;
+  private final BinaryPayloadReader in;
+  private ReturnCommand toReturn;
+  private ValueCommand toThrow;
+
+  /**
+   * Construct a new BinaryPayloadDecoder. This will consume the entire payload
+   * which will be made available through {@link #getValues}. If the payload
+   * stream contains an embedded exception, processing will end early and the
+   * Throwable will be available via {@link #getThrownValue()}.
+   *
+   * @throws ClassNotFoundException
+   */
+  public BinaryPayloadDecoder(ClientOracle clientOracle, CharSequence payload)
+      throws ClassNotFoundException {
+    this.clientOracle = clientOracle;
+    in = new BinaryPayloadReader(payload);
+    while (toReturn == null && toThrow == null && in.hasRemaining()) {
+      readCommand();
+    }
+  }
+
+  /**
+   * Returns the thrown value, if any.
+   */
+  public ValueCommand getThrownValue() {
+    return toThrow;
+  }
+
+  /**
+   * Returns the values encoded in the payload.
+   */
+  public List<ValueCommand> getValues() {
+    return toReturn == null ? Collections.<ValueCommand> emptyList()
+        : toReturn.getValues();
+  }
+
+  /**
+   * Uses the ClientOracle to decode a type name.
+   */
+  private Class<?> findClass(String token) throws ClassNotFoundException {
+    Class<?> clazz = classCache.get(token);
+    if (clazz != null) {
+      return clazz;
+    }
+
+    String className = clientOracle.getTypeName(token);
+    if (className == null) {
+      // Probably a regular class name
+      className = token;
+    }
+
+    if (className.contains("[]")) {
+      // Array types are annoying to construct
+      int firstIndex = -1;
+      int j = -1;
+      int dims = 0;
+      while ((j = className.indexOf("[", j + 1)) != -1) {
+        if (dims++ == 0) {
+          firstIndex = j;
+        }
+      }
+      Class<?> componentType = findClass(className.substring(0, firstIndex));
+      assert componentType != null : "Could not determine component type with "
+          + className.substring(0, firstIndex);
+      clazz = Array.newInstance(componentType, new int[dims]).getClass();
+    } else {
+      // Ensure that we use the bridge classloader in CCL
+      ClassLoader myCCL = getClass().getClassLoader();
+      clazz = Class.forName(className, false, myCCL);
+    }
+    classCache.put(token, clazz);
+    return clazz;
+  }
+
+  /**
+   * Read one command from the stream.
+   */
+  private RpcCommand readCommand() throws ClassNotFoundException {
+    char command = (char) in.readByte();
+    switch (command) {
+      case BOOLEAN_TYPE:
+        return new BooleanValueCommand(in.readByte() != 0);
+      case BYTE_TYPE:
+        return new ByteValueCommand((byte) in.readByte());
+      case CHAR_TYPE:
+        return new CharValueCommand((char) in.readVarint());
+      case DOUBLE_TYPE:
+        return new DoubleValueCommand(in.readDouble());
+      case INTEGRAL_DOUBLE_TYPE:
+        return new DoubleValueCommand((double) in.readSignedVarint());
+      case FLOAT_TYPE:
+        return new FloatValueCommand(in.readFloat());
+      case INT_TYPE:
+        return new IntValueCommand(in.readSignedVarint());
+      case LONG_TYPE:
+        return new LongValueCommand(in.readSignedVarint64());
+      case VOID_TYPE:
+        return NullValueCommand.INSTANCE;
+      case SHORT_TYPE:
+        return new ShortValueCommand((short) in.readSignedVarint());
+      case STRING_TYPE:
+        return new StringValueCommand(in.readString());
+      case ENUM_TYPE: {
+        // ETypeSeedName Ordinal
+        EnumValueCommand x = new EnumValueCommand();
+        backRefs.add(x);
+
+        @SuppressWarnings("rawtypes")
+        Class<? extends Enum> clazz = findClass(in.readString()).asSubclass(Enum.class);
+        // use ordinal (and not name), since name might have been obfuscated
+        int ordinal = in.readVarint();
+        Enum<?> enumConstants[] = clazz.getEnumConstants();
+        if (ordinal >= enumConstants.length) {
+          throw new RuntimeException("Unknown ordinal " + ordinal + " of "
+              + clazz.getName());
+        }
+        x.setValue(enumConstants[ordinal]);
+        return x;
+      }
+      case ARRAY_TYPE: {
+        // Encoded as (leafType, dimensions, length, .... )
+        Class<?> leaf = findClass(in.readString());
+
+        int numDims = in.readVarint();
+        Class<?> clazz;
+        if (numDims > 1) {
+          int[] dims = new int[numDims - 1];
+          clazz = Array.newInstance(leaf, dims).getClass();
+        } else {
+          clazz = leaf;
+        }
+
+        ArrayValueCommand x = new ArrayValueCommand(clazz);
+        backRefs.add(x);
+        int length = in.readVarint();
+        if (numDims == 1 && leaf == double.class) {
+          // Preceded by the type of the whole run
+          boolean integral = readDoubleRunType();
+          for (int i = 0; i < length; i++) {
+            x.add(new DoubleValueCommand(integral ? in.readSignedVarint()
+                : in.readDouble()));
+          }
+        } else if (numDims == 1 && leaf.isPrimitive()) {
+          for (int i = 0; i < length; i++) {
+            x.add(readPacked(leaf));
+          }
+        } else {
+          for (int i = 0; i < length; i++) {
+            x.add(readValue());
+          }
+        }
+        return x;
+      }
+      case OBJECT_TYPE: {
+        // LTypeSeedName 3 ... N-many setters ...
+        Class<?> clazz = findClass(in.readString());
+        InstantiateCommand x = new InstantiateCommand(clazz);
+        backRefs.add(x);
+        readSetters(clazz, x);
+        return x;
+      }
+      case INVOKE_TYPE: {
+        // !TypeSeedName Number of objects written by CFS ...CFS objects...
+        // Number of extra fields ...N-many setters...
+        Class<?> clazz = findClass(in.readString());
+        Class<?> serializerClass = null;
+
+        // The custom serializer type might be for a supertype
+        Class<?> manualType = clazz;
+        while (manualType != null) {
+          serializerClass = SerializabilityUtil.hasCustomFieldSerializer(manualType);
+          if (serializerClass != null) {
+            break;
+          }
+          manualType = manualType.getSuperclass();
+        }
+
+        InvokeCustomFieldSerializerCommand x = new InvokeCustomFieldSerializerCommand(
+            clazz, serializerClass, manualType);
+        backRefs.add(x);
+
+        int length = in.readVarint();
+        for (int i = 0; i < length; i++) {
+          x.addValue(readValue());
+        }
+        readSetters(clazz, x);
+        return x;
+      }
+      case RETURN_TYPE: {
+        // R4 ...values...
+        ReturnCommand x = new ReturnCommand();
+        int toRead = in.readVarint();
+        for (int i = 0; i < toRead; i++) {
+          x.addValue(readValue());
+        }
+        toReturn = x;
+        return x;
+      }
+      case THROW_TYPE: {
+        // T...value...
+        toThrow = readValue();
+        return null;
+      }
+      case BACKREF_TYPE: {
+        int backRef = in.readVarint();
+        if (backRef >= backRefs.size()) {
+          throw new RuntimeException("Unknown backreference " + backRef);
+        }
+        return backRefs.get(backRef);
+      }
+      default:
+        throw new RuntimeException("Unknown command " + (int) command + " at "
+            + (in.getPosition() - 1));
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if a run of doubles is written as ints.
+   */
+  private boolean readDoubleRunType() {
+    int type = in.readByte();
+    if (type != INTEGRAL_DOUBLE_TYPE && type != DOUBLE_TYPE) {
+      throw new RuntimeException("Unknown type of double run " + type);
+    }
+    return type == INTEGRAL_DOUBLE_TYPE;
+  }
+
+  /**
+   * Reads one of the untyped values of a one-dimensional array of primitives.
+   */
+  private ValueCommand readPacked(Class<?> type) {
+    if (type == boolean.class) {
+      return new BooleanValueCommand(in.readByte() != 0);
+    } else if (type == byte.class) {
+      return new ByteValueCommand((byte) in.readSignedVarint());
+    } else if (type == char.class) {
+      return new CharValueCommand((char) in.readVarint());
+    } else if (type == float.class) {
+      return new FloatValueCommand(in.readFloat());
+    } else if (type == int.class) {
+      return new IntValueCommand(in.readSignedVarint());
+    } else if (type == long.class) {
+      return new LongValueCommand(in.readSignedVarint64());
+    } else if (type == short.class) {
+      return new ShortValueCommand((short) in.readSignedVarint());
+    }
+    throw new RuntimeException("Cannot read an array of " + type.getName());
+  }
+
+  /**
+   * Format is (fieldDeclClassName, fieldId, value). fieldDeclClassName is only
+   * present in Development Mode.
+   */
+  private void readSetter(Class<?> clazz, HasSetters x)
+      throws ClassNotFoundException {
+    // Only used by Development Mode to handle shadowing
+    if (!clientOracle.isScript()) {
+      clazz = findClass(in.readString());
+    }
+    String fieldId = in.readString();
+
+    Pair<Class<?>, String> data = clientOracle.getFieldName(clazz, fieldId);
+    Class<?> fieldDeclClass = data.getA();
+    String fieldName = data.getB();
+    ValueCommand value = readValue();
+    x.set(fieldDeclClass, fieldName, value);
+  }
+
+  /**
+   * Format is (count, setter...).
+   */
+  private void readSetters(Class<?> clazz, HasSetters x)
+      throws ClassNotFoundException {
+    int length = in.readVarint();
+    for (int i = 0; i < length; i++) {
+      readSetter(clazz, x);
+    }
+  }
+
+  /**
+   * Reads one value from the stream.
+   */
+  private ValueCommand readValue() throws ClassNotFoundException {
+    RpcCommand command = readCommand();
+    if (!(command instanceof ValueCommand)) {
+      throw new RuntimeException("Expecting a value at " + in.getPosition());
+    }
+    return (ValueCommand) command;
+  }
+}
@@ -20,6 +20,8 @@ import com.google.gwt.rpc.client.ast.HasValues;
 import com.google.gwt.rpc.client.ast.ReturnCommand;
 import com.google.gwt.rpc.client.ast.RpcCommand;
 import com.google.gwt.rpc.client.ast.ThrowCommand;
+import com.google.gwt.rpc.client.ast.ValueCommand;
+import com.google.gwt.rpc.client.impl.BinaryPayloadSink;
 import com.google.gwt.rpc.client.impl.HasValuesCommandSink;
 import com.google.gwt.rpc.client.impl.RemoteException;
 import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
@@ -37,6 +39,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,16 +83,27 @@ public class RPC {
     ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
     try {
-      SimplePayloadDecoder decoder;
+      List<ValueCommand> values;
+      ValueCommand thrownValue;
       try {
-        decoder = new SimplePayloadDecoder(clientOracle, encodedRequest);
+        if (BinaryPayloadSink.isBinaryPayload(encodedRequest)) {
+          BinaryPayloadDecoder decoder = new BinaryPayloadDecoder(clientOracle,
+              encodedRequest);
+          values = decoder.getValues();
+          thrownValue = decoder.getThrownValue();
+        } else {
+          SimplePayloadDecoder decoder = new SimplePayloadDecoder(clientOracle,
+              encodedRequest);
+          values = decoder.getValues();
+          thrownValue = decoder.getThrownValue();
+        }
       } catch (ClassNotFoundException e) {
         throw new IncompatibleRemoteServiceException(
             "Client does not have a type sent by the server", e);
       }
       CommandServerSerializationStreamReader streamReader = new CommandServerSerializationStreamReader();
-      if (decoder.getThrownValue() != null) {
-        streamReader.prepareToRead(Collections.singletonList(decoder.getThrownValue()));
+      if (thrownValue != null) {
+        streamReader.prepareToRead(Collections.singletonList(thrownValue));
         try {
           throw new RemoteException((Throwable) streamReader.readObject());
         } catch (ClassCastException e) {
@@ -101,7 +115,7 @@ public class RPC {
               e);
         }
       } else {
-        streamReader.prepareToRead(decoder.getValues());
+        streamReader.prepareToRead(values);
       }
 
       // Read the name of the RemoteService interface
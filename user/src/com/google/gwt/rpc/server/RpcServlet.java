@@ -17,6 +17,8 @@ package com.google.gwt.rpc.server;
 
 import static com.google.gwt.user.client.rpc.RpcRequestBuilder.MODULE_BASE_HEADER;
 
+import com.google.gwt.rpc.client.ast.CommandSink;
+import com.google.gwt.rpc.client.impl.BinaryPayloadSink;
 import com.google.gwt.rpc.client.impl.RemoteException;
 import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
 import com.google.gwt.user.client.rpc.SerializationException;
@@ -24,10 +26,12 @@ import com.google.gwt.user.server.rpc.AbstractRemoteServiceServlet;
 import com.google.gwt.user.server.rpc.RPCRequest;
 import com.google.gwt.user.server.rpc.RPCServletUtils;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.ref.SoftReference;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
@@ -50,6 +54,39 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class RpcServlet extends AbstractRemoteServiceServlet {
 
+  /**
+   * Answers a client which sent a binary request in the binary format.
+   * Development Mode clients decode the response in the JVM, and compiled
+   * clients decode the variant written by {@link WebModeBinaryPayloadSink}.
+   */
+  private static class BinaryResponseClientOracle extends DelegatingClientOracle {
+    public BinaryResponseClientOracle(ClientOracle delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public CommandSink createCommandSink(OutputStream out) throws IOException {
+      if (isScript()) {
+        return new WebModeBinaryPayloadSink(this, out);
+      }
+
+      final BufferedWriter buffer = new BufferedWriter(new OutputStreamWriter(
+          out, "UTF-8"));
+
+      return new BinaryPayloadSink(buffer) {
+        @Override
+        public void finish() throws SerializationException {
+          super.finish();
+          try {
+            buffer.flush();
+          } catch (IOException e) {
+            throw new SerializationException("Could not flush buffer", e);
+          }
+        }
+      };
+    }
+  }
+
   protected static final String CLIENT_ORACLE_EXTENSION = ".gwt.rpc";
   private static final boolean DUMP_PAYLOAD = Boolean.getBoolean("gwt.rpc.dumpPayload");
 
@@ -165,6 +202,10 @@ public class RpcServlet extends AbstractRemoteServiceServlet {
     assert payload != null : "payload";
     assert stream != null : "stream";
 
+    if (BinaryPayloadSink.isBinaryPayload(payload)) {
+      clientOracle = new BinaryResponseClientOracle(clientOracle);
+    }
+
     try {
       RPCRequest rpcRequest = RPC.decodeRequest(payload, delegate.getClass(),
           clientOracle);
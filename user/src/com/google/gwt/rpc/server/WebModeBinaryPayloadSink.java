@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.server;
+
+import static com.google.gwt.rpc.client.impl.BinaryPayloadSink.INTEGRAL_DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ARRAY_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BACKREF_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BOOLEAN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.BYTE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.CHAR_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.DOUBLE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.ENUM_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.FLOAT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.INVOKE_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.LONG_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.OBJECT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.RETURN_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.SHORT_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.STRING_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.THROW_TYPE;
+import static com.google.gwt.rpc.client.impl.SimplePayloadSink.VOID_TYPE;
+
+import com.google.gwt.rpc.client.ast.ArrayValueCommand;
+import com.google.gwt.rpc.client.ast.BooleanValueCommand;
+import com.google.gwt.rpc.client.ast.ByteValueCommand;
+import com.google.gwt.rpc.client.ast.CharValueCommand;
+import com.google.gwt.rpc.client.ast.CommandSink;
+import com.google.gwt.rpc.client.ast.DoubleValueCommand;
+import com.google.gwt.rpc.client.ast.EnumValueCommand;
+import com.google.gwt.rpc.client.ast.FloatValueCommand;
+import com.google.gwt.rpc.client.ast.InstantiateCommand;
+import com.google.gwt.rpc.client.ast.IntValueCommand;
+import com.google.gwt.rpc.client.ast.InvokeCustomFieldSerializerCommand;
+import com.google.gwt.rpc.client.ast.LongValueCommand;
+import com.google.gwt.rpc.client.ast.NullValueCommand;
+import com.google.gwt.rpc.client.ast.ReturnCommand;
+import com.google.gwt.rpc.client.ast.RpcCommand;
+import com.google.gwt.rpc.client.ast.RpcCommandVisitor;
+import com.google.gwt.rpc.client.ast.SetCommand;
+import com.google.gwt.rpc.client.ast.ShortValueCommand;
+import com.google.gwt.rpc.client.ast.StringValueCommand;
+import com.google.gwt.rpc.client.ast.ThrowCommand;
+import com.google.gwt.rpc.client.ast.ValueCommand;
+import com.google.gwt.rpc.client.impl.BinaryPayloadSink;
+import com.google.gwt.rpc.client.impl.BinaryPayloadWriter;
+import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A CommandSink that answers a compiled client in the binary format. The
+ * payload has the header, bit packing, varints and string table of
+ * {@link BinaryPayloadSink}, but where that format names classes and fields,
+ * this one names the JavaScript identifiers which {@link WebModePayloadSink}
+ * would write into its script. The client decodes the payload with
+ * {@link com.google.gwt.rpc.client.impl.WebModeBinaryPayloadDecoder
+ * WebModeBinaryPayloadDecoder}, which resolves those identifiers in the
+ * module's scope. The values are:
+ * <ul>
+ * <li>primitives, strings and backreferences as in
+ * {@link BinaryPayloadSink};</li>
+ * <li>enums as (clinit, field);</li>
+ * <li>arrays as (initValues, classLit, castableTypeData, queryId, packed type
+ * or {@link com.google.gwt.rpc.client.impl.SimplePayloadSink#VOID_TYPE
+ * VOID_TYPE}, length, values);</li>
+ * <li>objects as (getSeedFunction, classLit, setter count, (field, value)...);
+ * </li>
+ * <li>objects with a custom field serializer as (instantiate, constructor,
+ * deserialize, value count, values..., setter count, (field, value)...), where
+ * an empty string stands for a missing method.</li>
+ * </ul>
+ */
+public class WebModeBinaryPayloadSink extends CommandSink {
+
+  private class Visitor extends RpcCommandVisitor {
+
+    @Override
+    public void endVisit(BooleanValueCommand x, Context ctx) {
+      appendType(BOOLEAN_TYPE);
+      out.writeByte(x.getValue() ? 1 : 0);
+    }
+
+    @Override
+    public void endVisit(ByteValueCommand x, Context ctx) {
+      appendType(BYTE_TYPE);
+      out.writeByte(x.getValue());
+    }
+
+    @Override
+    public void endVisit(CharValueCommand x, Context ctx) {
+      appendType(CHAR_TYPE);
+      out.writeVarint(x.getValue());
+    }
+
+    @Override
+    public void endVisit(DoubleValueCommand x, Context ctx) {
+      double value = x.getValue();
+      if (BinaryPayloadWriter.isInt(value)) {
+        appendType(INTEGRAL_DOUBLE_TYPE);
+        out.writeSignedVarint((int) value);
+      } else {
+        appendType(DOUBLE_TYPE);
+        out.writeDouble(value);
+      }
+    }
+
+    @Override
+    public void endVisit(EnumValueCommand x, Context ctx) {
+      if (appendIdentity(x)) {
+        String fieldName = clientOracle.getFieldId(x.getValue());
+        if (fieldName == null) {
+          throw new IncompatibleRemoteServiceException(
+              "The client cannot accept " + x.getValue().name());
+        }
+        String clinitName = clientOracle.getMethodId(
+            x.getValue().getDeclaringClass(), "$clinit");
+        assert clinitName != null;
+
+        appendType(ENUM_TYPE);
+        out.writeString(clinitName);
+        out.writeString(fieldName);
+      }
+    }
+
+    @Override
+    public void endVisit(FloatValueCommand x, Context ctx) {
+      appendType(FLOAT_TYPE);
+      out.writeFloat(x.getValue());
+    }
+
+    @Override
+    public void endVisit(IntValueCommand x, Context ctx) {
+      appendType(INT_TYPE);
+      out.writeSignedVarint(x.getValue());
+    }
+
+    @Override
+    public void endVisit(LongValueCommand x, Context ctx) {
+      appendType(LONG_TYPE);
+      out.writeSignedVarint64(x.getValue());
+    }
+
+    @Override
+    public void endVisit(NullValueCommand x, Context ctx) {
+      appendType(VOID_TYPE);
+    }
+
+    @Override
+    public void endVisit(ShortValueCommand x, Context ctx) {
+      appendType(SHORT_TYPE);
+      out.writeSignedVarint(x.getValue());
+    }
+
+    @Override
+    public void endVisit(StringValueCommand x, Context ctx) {
+      appendType(STRING_TYPE);
+      out.writeString(x.getValue());
+    }
+
+    @Override
+    public boolean visit(ArrayValueCommand x, Context ctx) {
+      if (!appendIdentity(x)) {
+        return false;
+      }
+
+      Class<?> componentType = x.getComponentType();
+      Class<?> targetClass = Array.newInstance(componentType, 0).getClass();
+
+      String initValuesId = clientOracle.getMethodId(
+          "com.google.gwt.lang.Array", "initValues", "Ljava/lang/Class;",
+          "Lcom/google/gwt/core/client/JavaScriptObject;", "I",
+          "Lcom/google/gwt/lang/Array;");
+      assert initValuesId != null : "Could not find initValues";
+
+      String classLitId = clientOracle.getFieldId(
+          "com.google.gwt.lang.ClassLiteralHolder",
+          WebModePayloadSink.getJavahSignatureName(componentType) + "_classLit");
+      assert classLitId != null : "No class literal for "
+          + componentType.getName();
+
+      // As in WebModePayloadSink, fall back to acting like an Object[]
+      CastableTypeData castableTypeData = clientOracle.getCastableTypeData(targetClass);
+      if (castableTypeData == null) {
+        castableTypeData = clientOracle.getCastableTypeData(Object[].class);
+      }
+
+      int queryId = clientOracle.getQueryId(componentType);
+      if (queryId == 0) {
+        queryId = clientOracle.getQueryId(Object.class);
+      }
+
+      appendType(ARRAY_TYPE);
+      out.writeString(initValuesId);
+      out.writeString(classLitId);
+      out.writeString(castableTypeData.toJs());
+      out.writeSignedVarint(queryId);
+      if (componentType.isPrimitive()) {
+        appendType(BinaryPayloadWriter.getPrimitiveType(componentType));
+        out.writeVarint(x.getComponentValues().size());
+        out.writePacked(componentType, x.getComponentValues());
+        return false;
+      }
+      appendType(VOID_TYPE);
+      out.writeVarint(x.getComponentValues().size());
+      return true;
+    }
+
+    @Override
+    public boolean visit(InstantiateCommand x, Context ctx) {
+      if (!appendIdentity(x)) {
+        return false;
+      }
+
+      String getSeedFunc = clientOracle.getMethodId("java.lang.Class",
+          "getSeedFunction", "Ljava/lang/Class;");
+      String classLitId = clientOracle.getFieldId(
+          "com.google.gwt.lang.ClassLiteralHolder",
+          WebModePayloadSink.getJavahSignatureName(x.getTargetClass())
+              + "_classLit");
+      assert classLitId != null : "No class literal for "
+          + x.getTargetClass().getName();
+
+      appendType(OBJECT_TYPE);
+      out.writeString(getSeedFunc);
+      out.writeString(classLitId);
+      out.writeVarint(x.getSetters().size());
+      return true;
+    }
+
+    @Override
+    public boolean visit(InvokeCustomFieldSerializerCommand x, Context ctx) {
+      if (!appendIdentity(x)) {
+        return false;
+      }
+
+      String instantiateIdent = clientOracle.getMethodId(
+          x.getSerializerClass(), "instantiate",
+          SerializationStreamReader.class);
+      String constructorIdent = null;
+      if (instantiateIdent == null) {
+        // No instantiate method, we'll have to invoke the constructor
+        String constructorMethodName;
+        if (x.getTargetClass().getEnclosingClass() == null) {
+          constructorMethodName = x.getTargetClass().getSimpleName();
+        } else {
+          String name = x.getTargetClass().getName();
+          constructorMethodName = name.substring(name.lastIndexOf('.') + 1);
+        }
+
+        constructorIdent = clientOracle.getMethodId(x.getTargetClass(),
+            constructorMethodName);
+        assert constructorIdent != null : "constructorIdent "
+            + constructorMethodName;
+      }
+      String deserializeIdent = clientOracle.getMethodId(
+          x.getSerializerClass(), "deserialize",
+          SerializationStreamReader.class, x.getManuallySerializedType());
+
+      appendType(INVOKE_TYPE);
+      out.writeString(instantiateIdent == null ? "" : instantiateIdent);
+      out.writeString(constructorIdent == null ? "" : constructorIdent);
+      out.writeString(deserializeIdent == null ? "" : deserializeIdent);
+      out.writeVarint(x.getValues().size());
+      accept(x.getValues());
+      out.writeVarint(x.getSetters().size());
+      accept(x.getSetters());
+      return false;
+    }
+
+    @Override
+    public boolean visit(ReturnCommand x, Context ctx) {
+      appendType(RETURN_TYPE);
+      out.writeVarint(x.getValues().size());
+      return true;
+    }
+
+    @Override
+    public boolean visit(SetCommand x, Context ctx) {
+      String fieldName = clientOracle.getFieldId(x.getFieldDeclClass(),
+          x.getField());
+      if (fieldName == null) {
+        throw new IncompatibleRemoteServiceException(
+            "The client does not have field " + x.getField() + " in type "
+                + x.getFieldDeclClass().getName());
+      }
+      out.writeString(fieldName);
+      return true;
+    }
+
+    @Override
+    public boolean visit(ThrowCommand x, Context ctx) {
+      appendType(THROW_TYPE);
+      return true;
+    }
+
+    private boolean appendIdentity(ValueCommand x) {
+      Integer backRef = backRefs.get(x);
+      if (backRef != null) {
+        appendType(BACKREF_TYPE);
+        out.writeVarint(backRef);
+        return false;
+      } else {
+        backRefs.put(x, backRefs.size());
+        return true;
+      }
+    }
+
+    private void appendType(char type) {
+      out.writeByte(type);
+    }
+  }
+
+  private final Map<ValueCommand, Integer> backRefs = new HashMap<ValueCommand, Integer>();
+  private final ClientOracle clientOracle;
+  private final BinaryPayloadWriter out;
+  private final Writer writer;
+
+  public WebModeBinaryPayloadSink(ClientOracle clientOracle, OutputStream out)
+      throws IOException {
+    this.clientOracle = clientOracle;
+    writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+    this.out = new BinaryPayloadWriter(writer);
+  }
+
+  @Override
+  public void accept(RpcCommand command) throws SerializationException {
+    (new Visitor()).accept(command);
+  }
+
+  /**
+   * The caller must close the stream.
+   */
+  @Override
+  public void finish() throws SerializationException {
+    out.finish();
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new SerializationException("Could not flush buffer", e);
+    }
+  }
+}
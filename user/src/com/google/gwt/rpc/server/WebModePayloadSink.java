@@ -683,33 +683,6 @@ public class WebModePayloadSink extends CommandSink {
       push(FUNCTION_BYTES);
     }
 
-    /**
-     * Keep in sync with JReferenceType implementations.
-     */
-    private String getJavahSignatureName(Class<?> clazz) {
-      if (clazz.isArray()) {
-        Class<?> leafType = clazz;
-        int dims = 0;
-        do {
-          dims++;
-          leafType = leafType.getComponentType();
-        } while (leafType.getComponentType() != null);
-        assert dims > 0;
-        // leafType cannot be null here
-
-        String s = getJavahSignatureName(leafType);
-        for (int i = 0; i < dims; ++i) {
-          s = "_3" + s;
-        }
-        return s;
-      } else if (clazz.isPrimitive()) {
-        return WebModeClientOracle.jsniName(clazz);
-      } else {
-        String name = clazz.getName();
-        return "L" + name.replaceAll("_", "_1").replace('.', '_') + "_2";
-      }
-    }
-
     private boolean isStarted(RpcCommand x) {
       return started.contains(x);
     }
@@ -863,6 +836,33 @@ public class WebModePayloadSink extends CommandSink {
     }
   }
 
+  /**
+   * Keep in sync with JReferenceType implementations.
+   */
+  static String getJavahSignatureName(Class<?> clazz) {
+    if (clazz.isArray()) {
+      Class<?> leafType = clazz;
+      int dims = 0;
+      do {
+        dims++;
+        leafType = leafType.getComponentType();
+      } while (leafType.getComponentType() != null);
+      assert dims > 0;
+      // leafType cannot be null here
+
+      String s = getJavahSignatureName(leafType);
+      for (int i = 0; i < dims; ++i) {
+        s = "_3" + s;
+      }
+      return s;
+    } else if (clazz.isPrimitive()) {
+      return WebModeClientOracle.jsniName(clazz);
+    } else {
+      String name = clazz.getName();
+      return "L" + name.replaceAll("_", "_1").replace('.', '_') + "_2";
+    }
+  }
+
   private final ClientOracle clientOracle;
   private boolean finished = false;
   private final OutputStream out;
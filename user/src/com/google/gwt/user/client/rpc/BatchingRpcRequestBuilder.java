@@ -0,0 +1,353 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.client.rpc;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.http.client.Header;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.user.client.rpc.impl.RpcBatchPayload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link RpcRequestBuilder} which sends the RPC calls made in one tick of
+ * the event loop to each service entry point as a single HTTP request. The
+ * calls are sent when the browser event loop regains control, and each
+ * {@link AsyncCallback} is called as though its call had been sent on its own.
+ * One instance may be shared by several service proxies, whose calls are
+ * batched together if their services are served by the same servlet:
+ *
+ * <pre>
+ * BatchingRpcRequestBuilder batcher = new BatchingRpcRequestBuilder();
+ * ((ServiceDefTarget) fooService).setRpcRequestBuilder(batcher);
+ * ((ServiceDefTarget) barService).setRpcRequestBuilder(batcher);
+ * </pre>
+ *
+ * <p>
+ * The servlet must be a
+ * {@link com.google.gwt.user.server.rpc.RemoteServiceServlet
+ * RemoteServiceServlet} which understands batches. The batch is sent with the
+ * headers of its calls, so only calls with the same headers and credentials
+ * are batched together; a call to which a header was added, for instance
+ * through the <code>RequestBuilder</code> returned by an asynchronous method,
+ * is batched only with calls which have the same header. A call which is
+ * alone in its batch is sent as an ordinary request.
+ * </p>
+ *
+ * @see Scheduler#scheduleFinally(ScheduledCommand)
+ */
+public class BatchingRpcRequestBuilder extends RpcRequestBuilder {
+
+  /**
+   * The {@link Request} returned for a call which is waiting to be sent or has
+   * been sent in a batch.
+   */
+  private static class BatchedRequest extends Request {
+    private final QueuedRequestBuilder builder;
+    private boolean pending = true;
+    private Request sentAlone;
+
+    BatchedRequest(QueuedRequestBuilder builder) {
+      this.builder = builder;
+    }
+
+    @Override
+    public void cancel() {
+      pending = false;
+      if (sentAlone != null) {
+        sentAlone.cancel();
+      }
+    }
+
+    @Override
+    public boolean isPending() {
+      return sentAlone == null ? pending : sentAlone.isPending();
+    }
+  }
+
+  /**
+   * The response to one call of a batch.
+   */
+  private static class BatchedResponse extends Response {
+    private final Response batchResponse;
+    private final String text;
+
+    BatchedResponse(Response batchResponse, String text) {
+      this.batchResponse = batchResponse;
+      this.text = text;
+    }
+
+    @Override
+    public String getHeader(String header) {
+      return batchResponse.getHeader(header);
+    }
+
+    @Override
+    public Header[] getHeaders() {
+      return batchResponse.getHeaders();
+    }
+
+    @Override
+    public String getHeadersAsString() {
+      return batchResponse.getHeadersAsString();
+    }
+
+    @Override
+    public int getStatusCode() {
+      return batchResponse.getStatusCode();
+    }
+
+    @Override
+    public String getStatusText() {
+      return batchResponse.getStatusText();
+    }
+
+    @Override
+    public String getText() {
+      return text;
+    }
+  }
+
+  /**
+   * Receives the response to a batch and passes each call its share.
+   */
+  private static class BatchCallback implements RequestCallback {
+    private final List<BatchedRequest> calls;
+
+    BatchCallback(List<BatchedRequest> calls) {
+      this.calls = calls;
+    }
+
+    public void onError(Request request, Throwable exception) {
+      RuntimeException thrown = null;
+      for (BatchedRequest call : calls) {
+        if (call.pending) {
+          call.pending = false;
+          try {
+            call.builder.getCallback().onError(call, exception);
+          } catch (RuntimeException e) {
+            thrown = thrown == null ? e : thrown;
+          }
+        }
+      }
+      if (thrown != null) {
+        throw thrown;
+      }
+    }
+
+    public void onResponseReceived(Request request, Response response) {
+      List<String> responses = null;
+      if (response.getStatusCode() == Response.SC_OK) {
+        try {
+          responses = RpcBatchPayload.split(response.getText());
+          if (responses.size() != calls.size()) {
+            throw new SerializationException("Expected " + calls.size()
+                + " responses in batch but got " + responses.size());
+          }
+        } catch (SerializationException e) {
+          onError(request, new InvocationException("Malformed batch response", e));
+          return;
+        }
+      }
+
+      RuntimeException thrown = null;
+      for (int i = 0, n = calls.size(); i < n; ++i) {
+        BatchedRequest call = calls.get(i);
+        if (!call.pending) {
+          // Canceled.
+          continue;
+        }
+        call.pending = false;
+        // Failures of the whole batch are passed to every call.
+        Response callResponse = responses == null ? response : new BatchedResponse(response,
+            responses.get(i));
+        try {
+          call.builder.getCallback().onResponseReceived(call, callResponse);
+        } catch (RuntimeException e) {
+          thrown = thrown == null ? e : thrown;
+        }
+      }
+      if (thrown != null) {
+        throw thrown;
+      }
+    }
+  }
+
+  /**
+   * A RequestBuilder which queues its request rather than sending it.
+   */
+  private class QueuedRequestBuilder extends RequestBuilder {
+    /**
+     * The headers set so far, which RequestBuilder does not expose.
+     */
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+    QueuedRequestBuilder(String url) {
+      super(RequestBuilder.POST, url);
+    }
+
+    @Override
+    public Request send() throws RequestException {
+      return enqueue(this);
+    }
+
+    @Override
+    public void setHeader(String header, String value) {
+      super.setHeader(header, value);
+      headers.put(header, value);
+    }
+
+    /**
+     * Returns what must be the same for calls to be sent together.
+     */
+    List<Object> getBatchKey() {
+      return Arrays.<Object> asList(getUrl(), headers, getUser(), getPassword());
+    }
+
+    Request sendAlone() throws RequestException {
+      return super.send();
+    }
+  }
+
+  /**
+   * Calls waiting to be sent, or <code>null</code> if none are.
+   */
+  private List<BatchedRequest> queue;
+
+  /**
+   * Returns the RequestBuilder with which to send a batch; visible for
+   * testing.
+   */
+  protected RequestBuilder createBatchRequestBuilder(String url) {
+    return new RequestBuilder(RequestBuilder.POST, url);
+  }
+
+  @Override
+  protected RequestBuilder doCreate(String serviceEntryPoint) {
+    return new QueuedRequestBuilder(serviceEntryPoint);
+  }
+
+  /**
+   * Returns the Scheduler used to send each tick's calls; visible for testing.
+   */
+  protected Scheduler getScheduler() {
+    return Scheduler.get();
+  }
+
+  private Request enqueue(QueuedRequestBuilder builder) {
+    if (builder.getCallback() == null) {
+      throw new NullPointerException("callback");
+    }
+    if (queue == null) {
+      queue = new ArrayList<BatchedRequest>();
+      getScheduler().scheduleFinally(new ScheduledCommand() {
+        public void execute() {
+          List<BatchedRequest> calls = queue;
+          queue = null;
+          send(calls);
+        }
+      });
+    }
+    BatchedRequest call = new BatchedRequest(builder);
+    queue.add(call);
+    return call;
+  }
+
+  private void send(List<BatchedRequest> calls) {
+    Map<List<Object>, List<BatchedRequest>> batches = new LinkedHashMap<List<Object>,
+        List<BatchedRequest>>();
+    for (BatchedRequest call : calls) {
+      if (!call.pending) {
+        // Canceled before it was sent.
+        continue;
+      }
+      List<Object> key = call.builder.getBatchKey();
+      List<BatchedRequest> batch = batches.get(key);
+      if (batch == null) {
+        batch = new ArrayList<BatchedRequest>();
+        batches.put(key, batch);
+      }
+      batch.add(call);
+    }
+
+    for (List<BatchedRequest> batch : batches.values()) {
+      if (batch.size() == 1) {
+        BatchedRequest call = batch.get(0);
+        try {
+          call.sentAlone = call.builder.sendAlone();
+        } catch (RequestException e) {
+          call.pending = false;
+          call.builder.getCallback().onError(call, new InvocationException(
+              "Unable to initiate the asynchronous service invocation -- check the network connection",
+              e));
+        }
+      } else {
+        sendBatch(batch);
+      }
+    }
+  }
+
+  private void sendBatch(List<BatchedRequest> batch) {
+    QueuedRequestBuilder first = batch.get(0).builder;
+    RequestBuilder rb = createBatchRequestBuilder(first.getUrl());
+    List<String> payloads = new ArrayList<String>(batch.size());
+    int timeoutMillis = 0;
+    for (BatchedRequest call : batch) {
+      payloads.add(call.builder.getRequestData());
+      int callTimeoutMillis = call.builder.getTimeoutMillis();
+      if (callTimeoutMillis == 0) {
+        timeoutMillis = -1;
+      } else if (timeoutMillis >= 0) {
+        timeoutMillis = Math.max(timeoutMillis, callTimeoutMillis);
+      }
+    }
+    if (timeoutMillis > 0) {
+      // The batch may take as long as its slowest call.
+      rb.setTimeoutMillis(timeoutMillis);
+    }
+    // Every call of the batch has the same headers and credentials.
+    for (Map.Entry<String, String> header : first.headers.entrySet()) {
+      rb.setHeader(header.getKey(), header.getValue());
+    }
+    if (first.getUser() != null) {
+      rb.setUser(first.getUser());
+    }
+    if (first.getPassword() != null) {
+      rb.setPassword(first.getPassword());
+    }
+    rb.setHeader(BATCH_HEADER, String.valueOf(batch.size()));
+    rb.setRequestData(RpcBatchPayload.join(payloads));
+
+    RequestCallback callback = new BatchCallback(batch);
+    rb.setCallback(callback);
+    try {
+      rb.send();
+    } catch (RequestException e) {
+      callback.onError(null, new InvocationException(
+          "Unable to initiate the asynchronous service invocation -- check the network connection",
+          e));
+    }
+  }
+}
@@ -27,6 +27,15 @@ import com.google.gwt.http.client.RequestCallback;
  * {@link ServiceDefTarget#setRpcRequestBuilder}.
  */
 public class RpcRequestBuilder {
+  /**
+   * Used by {@link BatchingRpcRequestBuilder} to mark a request which carries
+   * several calls; the value is the number of calls.
+   */
+  /*
+   * NB: Also used by RemoteServiceServlet.
+   */
+  public static final String BATCH_HEADER = "X-GWT-RPC-Batch";
+
   /**
    * Used by {@link #doSetContentType}.
    */
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.client.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs the payloads of several RPC requests, or of their responses, into one
+ * HTTP body, for
+ * {@link com.google.gwt.user.client.rpc.BatchingRpcRequestBuilder
+ * BatchingRpcRequestBuilder} and the servlet which answers it. Each payload is
+ * preceded by its length in characters and a colon.
+ */
+public final class RpcBatchPayload {
+
+  private static final char LENGTH_TERMINATOR = ':';
+
+  /**
+   * Packs payloads into one.
+   */
+  public static String join(List<String> payloads) {
+    int length = 0;
+    for (String payload : payloads) {
+      length += payload.length() + 8;
+    }
+    StringBuilder joined = new StringBuilder(length);
+    for (String payload : payloads) {
+      joined.append(payload.length()).append(LENGTH_TERMINATOR).append(payload);
+    }
+    return joined.toString();
+  }
+
+  /**
+   * Unpacks the payloads packed by {@link #join(List)}.
+   *
+   * @throws SerializationException if <code>joined</code> is malformed
+   */
+  public static List<String> split(String joined) throws SerializationException {
+    List<String> payloads = new ArrayList<String>();
+    int index = 0;
+    while (index < joined.length()) {
+      int terminator = joined.indexOf(LENGTH_TERMINATOR, index);
+      if (terminator == -1) {
+        throw new SerializationException("Missing length at offset " + index
+            + " of batched payload");
+      }
+      int length;
+      try {
+        length = Integer.parseInt(joined.substring(index, terminator));
+      } catch (NumberFormatException e) {
+        throw new SerializationException("Malformed length at offset " + index
+            + " of batched payload");
+      }
+      int start = terminator + 1;
+      if (length < 0 || length > joined.length() - start) {
+        throw new SerializationException("Invalid length " + length + " at offset " + index
+            + " of batched payload");
+      }
+      payloads.add(joined.substring(start, start + length));
+      index = start + length;
+    }
+    return payloads;
+  }
+
+  private RpcBatchPayload() {
+  }
+}
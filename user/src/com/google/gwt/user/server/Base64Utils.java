@@ -110,10 +110,17 @@ public class Base64Utils {
    * Decode a base64 string into a long value.
    */
   public static long longFromBase64(String value) {
-    int pos = 0;
+    return longFromBase64(value, 0, value.length());
+  }
+
+  /**
+   * Decode the base64 characters of <code>value</code> from <code>start</code>
+   * up to <code>end</code> into a long value, without copying them.
+   */
+  public static long longFromBase64(String value, int start, int end) {
+    int pos = start;
     long longVal = base64Values[value.charAt(pos++)];
-    int len = value.length();
-    while (pos < len) {
+    while (pos < end) {
       longVal <<= 6;
       longVal |= base64Values[value.charAt(pos++)];
     }
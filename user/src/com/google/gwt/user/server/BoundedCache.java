@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent cache which holds at most a fixed number of values, for caches
+ * whose values are expensive to compute but whose keys are not bounded, such
+ * as those of server-side reflection and of serialization policies.
+ * <p>
+ * Lookups take no locks. When the cache grows past its bound, its least
+ * recently used values are evicted one by one, so that the rest stay cached.
+ * Recency is only tracked between misses: the values used since the last value
+ * was cached all look equally recent, which keeps hits from contending on
+ * shared state.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values, which may not be <code>null</code>
+ */
+public final class BoundedCache<K, V> {
+
+  private static class Entry<K, V> {
+    final K key;
+    volatile long lastUsed;
+    final V value;
+
+    Entry(K key, V value, long lastUsed) {
+      this.key = key;
+      this.value = value;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  /**
+   * A logical clock which only advances when a value is cached. New entries
+   * are stamped with odd ticks, and entries used after them with the even tick
+   * which follows.
+   */
+  private final AtomicLong clock = new AtomicLong();
+
+  private final ConcurrentMap<K, Entry<K, V>> entries =
+      new ConcurrentHashMap<K, Entry<K, V>>();
+
+  /**
+   * Held by the thread evicting entries, so that others don't duplicate its
+   * work.
+   */
+  private final AtomicBoolean evicting = new AtomicBoolean();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final int maxSize;
+
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxSize the most values to hold, which must be positive
+   */
+  public BoundedCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Returns the value cached under <code>key</code>, or <code>null</code>.
+   */
+  public V get(K key) {
+    Entry<K, V> entry = entries.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    long now = clock.get();
+    if (entry.lastUsed != now) {
+      entry.lastUsed = now;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Returns the number of values evicted to keep the cache within its bound.
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Caches a value, evicting others if the cache is full.
+   */
+  public void put(K key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    entries.put(key, new Entry<K, V>(key, value, clock.addAndGet(2) - 1));
+    if (entries.size() > maxSize) {
+      evict();
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes the least recently used entries until the cache is back within its
+   * bound. Only values which were not cached get here, so the sort is rare
+   * once the cache has warmed up.
+   */
+  private void evict() {
+    if (!evicting.compareAndSet(false, true)) {
+      // The evicting thread will see this entry in its snapshot, or the next
+      // miss will evict again
+      return;
+    }
+    try {
+      List<Entry<K, V>> candidates = new ArrayList<Entry<K, V>>(entries.values());
+      int excess = candidates.size() - maxSize;
+      if (excess <= 0) {
+        return;
+      }
+      // Entries may be used during the sort, so decide on a snapshot of their ages
+      long[] lastUsed = new long[candidates.size()];
+      for (int i = 0; i < lastUsed.length; ++i) {
+        lastUsed[i] = candidates.get(i).lastUsed;
+      }
+      long[] sorted = lastUsed.clone();
+      Arrays.sort(sorted);
+      long cutoff = sorted[excess - 1];
+      for (int i = 0; i < lastUsed.length && excess > 0; ++i) {
+        if (lastUsed[i] <= cutoff) {
+          Entry<K, V> entry = candidates.get(i);
+          // Does nothing if the value was cached again since the snapshot
+          if (entries.remove(entry.key, entry)) {
+            evictions.incrementAndGet();
+          }
+          --excess;
+        }
+      }
+    } finally {
+      evicting.set(false);
+    }
+  }
+}
@@ -189,7 +189,7 @@ public abstract class AbstractRemoteServiceServlet extends HttpServlet {
    * from within a 'synchronized(this) {}' block in order to ensure that only
    * one thread creates the objects.
    */
-  private void validateThreadLocalData() {
+  void validateThreadLocalData() {
     if (perThreadRequest == null) {
       perThreadRequest = new ThreadLocal<HttpServletRequest>();
     }
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A handle on the response to an RPC call whose result is not known when the
+ * service method returns. A service method invoked by
+ * {@link RemoteServiceServlet} calls {@link #defer()}, starts the work
+ * elsewhere, and returns any value, which is ignored; the response is sent
+ * when {@link #complete(Object)} or {@link #fail(Throwable)} is called, from
+ * any thread.
+ *
+ * <pre>
+ * public String lookup(String key) {
+ *   final DeferredResponse&lt;String&gt; response = DeferredResponse.defer();
+ *   backend.lookup(key, new Callback() {
+ *     public void onResult(String value) {
+ *       response.complete(value);
+ *     }
+ *   });
+ *   return null;
+ * }
+ * </pre>
+ *
+ * <p>
+ * In a Servlet 3 container, and if the servlet is mapped with
+ * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>, the
+ * container thread is released while the response is pending, so that a small
+ * pool of threads can serve many slow calls. Otherwise the container thread
+ * waits for the response, as though the service method had blocked.
+ * </p>
+ * <p>
+ * When the container thread has been released, the response is serialized and
+ * written on the thread which completes it, where
+ * {@link AbstractRemoteServiceServlet#getThreadLocalRequest()} returns
+ * <code>null</code>; this affects
+ * {@link RemoteServiceServlet#onAfterResponseSerialized(String)}. Deferred
+ * responses are never cached by {@link RpcResponseCache}, and cannot be used
+ * when {@link RemoteServiceServlet#shouldStreamResponse} returns
+ * <code>true</code>.
+ * </p>
+ * <p>
+ * A response still pending after the servlet's
+ * {@link RemoteServiceServlet#DEFERRED_RESPONSE_TIMEOUT_PARAM timeout} is
+ * answered with the generic failure response, which the client reports as an
+ * {@link com.google.gwt.user.client.rpc.InvocationException
+ * InvocationException}; completing it afterwards has no effect.
+ * </p>
+ *
+ * @param <T> the return type of the service method
+ */
+public final class DeferredResponse<T> {
+
+  /**
+   * The call being processed by the current thread.
+   */
+  private static final ThreadLocal<DeferredResponse<?>> currentCall =
+      new ThreadLocal<DeferredResponse<?>>();
+
+  /*
+   * The asynchronous servlet API, looked up reflectively so as to run in
+   * Servlet 2.5 containers; null if it is not available.
+   */
+  private static final Method asyncContextAddListener;
+  private static final Method asyncContextComplete;
+  private static final Method asyncContextSetTimeout;
+  private static final Class<?> asyncListenerClass;
+  private static final Method requestIsAsyncSupported;
+  private static final Method requestStartAsync;
+
+  static {
+    Method addListener = null;
+    Method complete = null;
+    Method setTimeout = null;
+    Class<?> listenerClass = null;
+    Method isAsyncSupported = null;
+    Method startAsync = null;
+    try {
+      ClassLoader loader = ServletRequest.class.getClassLoader();
+      Class<?> asyncContextClass = Class.forName("javax.servlet.AsyncContext", false, loader);
+      listenerClass = Class.forName("javax.servlet.AsyncListener", false, loader);
+      addListener = asyncContextClass.getMethod("addListener", listenerClass);
+      complete = asyncContextClass.getMethod("complete");
+      setTimeout = asyncContextClass.getMethod("setTimeout", long.class);
+      isAsyncSupported = ServletRequest.class.getMethod("isAsyncSupported");
+      startAsync = ServletRequest.class.getMethod("startAsync");
+    } catch (ClassNotFoundException e) {
+      // A Servlet 2.5 container.
+      listenerClass = null;
+    } catch (NoSuchMethodException e) {
+      addListener = complete = setTimeout = isAsyncSupported = startAsync = null;
+    }
+    asyncContextAddListener = addListener;
+    asyncContextComplete = complete;
+    asyncContextSetTimeout = setTimeout;
+    asyncListenerClass = listenerClass;
+    requestIsAsyncSupported = isAsyncSupported;
+    requestStartAsync = startAsync;
+  }
+
+  /**
+   * Defers the response to the call being processed by the current thread.
+   *
+   * @param <T> the return type of the service method
+   * @return the handle with which to send the response
+   * @throws IllegalStateException if the current thread is not in a service
+   *           method invoked by
+   *           {@link RemoteServiceServlet#processPost(HttpServletRequest, HttpServletResponse)}
+   *           , or the response has already been deferred
+   */
+  public static <T> DeferredResponse<T> defer() {
+    DeferredResponse<?> call = currentCall.get();
+    if (call == null || call.rpcRequest == null) {
+      throw new IllegalStateException(
+          "Only service methods invoked by RemoteServiceServlet.processPost can defer their response");
+    }
+    if (call.deferred) {
+      throw new IllegalStateException("The response has already been deferred");
+    }
+    call.deferred = true;
+
+    // The result is checked against the method's return type when it is encoded.
+    @SuppressWarnings("unchecked")
+    DeferredResponse<T> response = (DeferredResponse<T>) call;
+    return response;
+  }
+
+  /**
+   * Starts processing a call on the current thread.
+   *
+   * @return the call which was being processed by the current thread, to be
+   *         passed to {@link #end(DeferredResponse)}
+   */
+  static DeferredResponse<?> begin(DeferredResponse<?> call) {
+    DeferredResponse<?> previous = currentCall.get();
+    currentCall.set(call);
+    return previous;
+  }
+
+  /**
+   * Finishes processing a call on the current thread.
+   */
+  static void end(DeferredResponse<?> previous) {
+    currentCall.set(previous);
+  }
+
+  /**
+   * Returns <code>true</code> if the service method invoked by the current
+   * thread has deferred its response.
+   */
+  static boolean isDeferred() {
+    DeferredResponse<?> call = currentCall.get();
+    return call != null && call.deferred;
+  }
+
+  /**
+   * Records the decoded request of the call being processed by the current
+   * thread, which is needed to encode its response.
+   */
+  static void setRpcRequest(RPCRequest rpcRequest) {
+    DeferredResponse<?> call = currentCall.get();
+    if (call != null) {
+      call.rpcRequest = rpcRequest;
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... args)
+      throws InvocationTargetException {
+    try {
+      return method.invoke(target, args);
+    } catch (IllegalAccessException e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  /**
+   * The container's AsyncContext, once the container thread has been
+   * released.
+   */
+  private Object asyncContext;
+
+  private Throwable caught;
+
+  private boolean deferred;
+
+  private boolean done;
+
+  private final HttpServletRequest request;
+
+  private final HttpServletResponse response;
+
+  private T result;
+
+  private RPCRequest rpcRequest;
+
+  private final RemoteServiceServlet servlet;
+
+  private boolean timedOut;
+
+  /**
+   * How long the response may remain pending, in milliseconds; zero if there
+   * is no limit.
+   */
+  private final long timeoutMillis;
+
+  DeferredResponse(RemoteServiceServlet servlet, HttpServletRequest request,
+      HttpServletResponse response, long timeoutMillis) {
+    this.servlet = servlet;
+    this.request = request;
+    this.response = response;
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Sends the result of the service method.
+   *
+   * @param result the value the service method would have returned, which
+   *          must be assignable to its return type
+   * @throws IllegalStateException if the response has already been sent,
+   *           other than because it timed out
+   */
+  public void complete(T result) {
+    finish(result, null);
+  }
+
+  /**
+   * Sends an exception thrown by the service method. Checked exceptions which
+   * are not declared by the service method, and unchecked exceptions which are
+   * not serializable, result in a generic failure response, as they would if
+   * the service method had thrown them.
+   *
+   * @param caught the exception
+   * @throws IllegalStateException if the response has already been sent,
+   *           other than because it timed out
+   */
+  public void fail(Throwable caught) {
+    if (caught == null) {
+      throw new NullPointerException("caught");
+    }
+    finish(null, caught);
+  }
+
+  /**
+   * Returns <code>true</code> once the response has been completed, failed or
+   * timed out.
+   */
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  /**
+   * Called on the container thread once the service method has returned,
+   * having deferred its response. Releases the thread if the container
+   * supports it, and otherwise waits for the response, or until it times out,
+   * and sends it.
+   */
+  void dispatch() throws InterruptedException, IOException, SerializationException {
+    synchronized (this) {
+      if (!done) {
+        asyncContext = startAsync();
+        if (asyncContext != null) {
+          // finish() or onTimeout() sends the response.
+          return;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!done) {
+          long remaining = deadline - System.currentTimeMillis();
+          if (timeoutMillis > 0 && remaining <= 0) {
+            timedOut = done = true;
+          } else {
+            // wait(0) waits indefinitely.
+            wait(timeoutMillis > 0 ? remaining : 0);
+          }
+        }
+      }
+    }
+    if (timedOut) {
+      sendTimeoutFailure();
+    } else {
+      send();
+    }
+  }
+
+  /**
+   * Called when a response other than the deferred one has been sent, which
+   * happens if the service method throws after deferring its response.
+   */
+  synchronized void discard() {
+    done = true;
+  }
+
+  private void completeAsync() {
+    try {
+      invoke(asyncContextComplete, asyncContext);
+    } catch (InvocationTargetException e) {
+      servlet.log("Unable to complete an asynchronous RPC response", e.getCause());
+    }
+  }
+
+  private void finish(T result, Throwable caught) {
+    synchronized (this) {
+      if (timedOut) {
+        // The call has already failed.
+        return;
+      }
+      if (done) {
+        throw new IllegalStateException("The response has already been sent");
+      }
+      this.result = result;
+      this.caught = caught;
+      done = true;
+      if (asyncContext == null) {
+        // The container thread is waiting for the response, or has yet to ask.
+        notifyAll();
+        return;
+      }
+    }
+
+    try {
+      send();
+    } catch (Throwable e) {
+      try {
+        response.reset();
+      } catch (IllegalStateException ex) {
+        // Part of the response has been sent; finish it as best we can.
+      }
+      RPCServletUtils.writeResponseForUnexpectedFailure(servlet.getServletContext(), response,
+          e);
+    } finally {
+      completeAsync();
+    }
+  }
+
+  /**
+   * Called on a container thread when an asynchronous response times out.
+   */
+  private void onTimeout() {
+    synchronized (this) {
+      if (done) {
+        // finish() is sending the response.
+        return;
+      }
+      timedOut = done = true;
+    }
+    try {
+      sendTimeoutFailure();
+    } finally {
+      completeAsync();
+    }
+  }
+
+  private void send() throws IOException, SerializationException {
+    String responsePayload;
+    if (caught == null) {
+      responsePayload = RPC.encodeResponseForSuccess(rpcRequest.getMethod(), result,
+          rpcRequest.getSerializationPolicy(), rpcRequest.getFlags());
+    } else {
+      responsePayload = RPC.encodeResponseForFailure(rpcRequest.getMethod(), caught,
+          rpcRequest.getSerializationPolicy(), rpcRequest.getFlags());
+    }
+    servlet.writeDeferredResponse(request, response, responsePayload);
+  }
+
+  private void sendTimeoutFailure() {
+    RPCServletUtils.writeResponseForUnexpectedFailure(servlet.getServletContext(), response,
+        new TimeoutException("No deferred RPC response within " + timeoutMillis + " ms"));
+  }
+
+  /**
+   * Puts the request into asynchronous mode, if possible.
+   *
+   * @return the AsyncContext, or <code>null</code> if the container thread
+   *         must wait for the response
+   */
+  private Object startAsync() {
+    if (requestStartAsync == null) {
+      return null;
+    }
+    try {
+      if (!(Boolean) invoke(requestIsAsyncSupported, request)) {
+        return null;
+      }
+      Object context = invoke(requestStartAsync, request);
+      Object listener = Proxy.newProxyInstance(asyncListenerClass.getClassLoader(),
+          new Class<?>[] {asyncListenerClass}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+              String name = method.getName();
+              if (name.equals("onTimeout")) {
+                onTimeout();
+              } else if (name.equals("equals")) {
+                return proxy == args[0];
+              } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+              } else if (name.equals("toString")) {
+                return "DeferredResponse listener";
+              }
+              // onComplete, onError and onStartAsync need no action.
+              return null;
+            }
+          });
+      invoke(asyncContextAddListener, context, listener);
+      // Zero disables the container's timeout, as it does ours.
+      invoke(asyncContextSetTimeout, context, timeoutMillis);
+      return context;
+    } catch (InvocationTargetException e) {
+      servlet.log("Unable to start asynchronous processing; waiting for the RPC response",
+          e.getCause());
+      return null;
+    }
+  }
+}
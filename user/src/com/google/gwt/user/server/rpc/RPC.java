@@ -27,6 +27,8 @@ import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamReader;
 import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter;
 import com.google.gwt.user.server.rpc.impl.TypeNameObfuscator;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
@@ -56,6 +58,35 @@ import java.util.Set;
  */
 public final class RPC {
 
+  /**
+   * A response which has been serialized but not yet rendered as text.
+   */
+  private static class SerializedResponse {
+    private final ServerSerializationStreamWriter stream;
+    private final boolean wasThrown;
+
+    public SerializedResponse(ServerSerializationStreamWriter stream, boolean wasThrown) {
+      this.stream = stream;
+      this.wasThrown = wasThrown;
+    }
+
+    @Override
+    public String toString() {
+      return getPrefix() + stream.toString();
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+      writer.write(getPrefix());
+      stream.writeTo(writer);
+    }
+
+    private String getPrefix() {
+      return wasThrown ? FAILURE_PREFIX : SUCCESS_PREFIX;
+    }
+  }
+
+  private static final String FAILURE_PREFIX = "//EX";
+
   /**
    * Maps primitive wrapper classes to their corresponding primitive class.
    */
@@ -68,6 +99,8 @@ public final class RPC {
    */
   private static Map<Class<?>, Set<String>> serviceToImplementedInterfacesMap;
 
+  private static final String SUCCESS_PREFIX = "//OK";
+
   private static final HashMap<String, Class<?>> TYPE_NAMES;
 
   static {
@@ -93,6 +126,14 @@ public final class RPC {
     serviceToImplementedInterfacesMap = new HashMap<Class<?>, Set<String>>();
   }
 
+  /**
+   * Returns <code>true</code> if an encoded response carries the return value
+   * of a service method, rather than an exception.
+   */
+  static boolean isSuccessResponse(String encodedResponse) {
+    return encodedResponse.startsWith(SUCCESS_PREFIX);
+  }
+
   /**
    * Returns an {@link RPCRequest} that is built by decoding the contents of an
    * encoded RPC request.
@@ -377,20 +418,21 @@ public final class RPC {
 
   public static String encodeResponseForFailure(Method serviceMethod, Throwable cause,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (cause == null) {
-      throw new NullPointerException("cause cannot be null");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    if (serviceMethod != null && !RPCServletUtils.isExpectedException(serviceMethod, cause)) {
-      throw new UnexpectedException("Service method '" + getSourceRepresentation(serviceMethod)
-          + "' threw an unexpected exception: " + cause.toString(), cause);
-    }
+    return serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags)
+        .toString();
+  }
 
-    return encodeResponse(cause.getClass(), cause, true, flags, serializationPolicy);
+  /**
+   * Like {@link #encodeResponseForFailure(Method, Throwable, SerializationPolicy, int)},
+   * but writes the encoded exception to <code>writer</code> rather than
+   * returning it. Nothing is written unless serialization succeeds.
+   * 
+   * @throws IOException if writing to <code>writer</code> fails
+   */
+  public static void encodeResponseForFailure(Method serviceMethod, Throwable cause,
+      SerializationPolicy serializationPolicy, int flags, Writer writer)
+      throws SerializationException, IOException {
+    serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags).writeTo(writer);
   }
 
   /**
@@ -444,31 +486,21 @@ public final class RPC {
 
   public static String encodeResponseForSuccess(Method serviceMethod, Object object,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
-    if (serviceMethod == null) {
-      throw new NullPointerException("serviceMethod cannot be null");
-    }
-
-    if (serializationPolicy == null) {
-      throw new NullPointerException("serializationPolicy");
-    }
-
-    Class<?> methodReturnType = serviceMethod.getReturnType();
-    if (methodReturnType != void.class && object != null) {
-      Class<?> actualReturnType;
-      if (methodReturnType.isPrimitive()) {
-        actualReturnType = getPrimitiveClassFromWrapper(object.getClass());
-      } else {
-        actualReturnType = object.getClass();
-      }
-
-      if (actualReturnType == null || !methodReturnType.isAssignableFrom(actualReturnType)) {
-        throw new IllegalArgumentException("Type '" + printTypeName(object.getClass())
-            + "' does not match the return type in the method's signature: '"
-            + getSourceRepresentation(serviceMethod) + "'");
-      }
-    }
+    return serializeResponseForSuccess(serviceMethod, object, serializationPolicy, flags)
+        .toString();
+  }
 
-    return encodeResponse(methodReturnType, object, false, flags, serializationPolicy);
+  /**
+   * Like {@link #encodeResponseForSuccess(Method, Object, SerializationPolicy, int)},
+   * but writes the encoded object to <code>writer</code> rather than returning
+   * it. Nothing is written unless serialization succeeds.
+   * 
+   * @throws IOException if writing to <code>writer</code> fails
+   */
+  public static void encodeResponseForSuccess(Method serviceMethod, Object object,
+      SerializationPolicy serializationPolicy, int flags, Writer writer)
+      throws SerializationException, IOException {
+    serializeResponseForSuccess(serviceMethod, object, serializationPolicy, flags).writeTo(writer);
   }
 
   /**
@@ -548,6 +580,30 @@ public final class RPC {
 
   public static String invokeAndEncodeResponse(Object target, Method serviceMethod, Object[] args,
       SerializationPolicy serializationPolicy, int flags) throws SerializationException {
+    return invokeAndSerializeResponse(target, serviceMethod, args, serializationPolicy, flags)
+        .toString();
+  }
+
+  /**
+   * Like {@link #invokeAndEncodeResponse(Object, Method, Object[], SerializationPolicy, int)},
+   * but writes the encoded response to <code>writer</code> rather than
+   * returning it. The response is written straight from the serialized tokens,
+   * so large responses are never held in memory as a single string. Nothing is
+   * written unless serialization succeeds, so the caller can still report a
+   * failure to the client.
+   * 
+   * @throws IOException if writing to <code>writer</code> fails
+   */
+  public static void invokeAndEncodeResponse(Object target, Method serviceMethod, Object[] args,
+      SerializationPolicy serializationPolicy, int flags, Writer writer)
+      throws SerializationException, IOException {
+    invokeAndSerializeResponse(target, serviceMethod, args, serializationPolicy, flags).writeTo(
+        writer);
+  }
+
+  private static SerializedResponse invokeAndSerializeResponse(Object target,
+      Method serviceMethod, Object[] args, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
     if (serviceMethod == null) {
       throw new NullPointerException("serviceMethod");
     }
@@ -556,11 +612,12 @@ public final class RPC {
       throw new NullPointerException("serializationPolicy");
     }
 
-    String responsePayload;
+    SerializedResponse responsePayload;
     try {
       Object result = serviceMethod.invoke(target, args);
 
-      responsePayload = encodeResponseForSuccess(serviceMethod, result, serializationPolicy, flags);
+      responsePayload =
+          serializeResponseForSuccess(serviceMethod, result, serializationPolicy, flags);
     } catch (IllegalAccessException e) {
       SecurityException securityException =
           new SecurityException(formatIllegalAccessErrorMessage(target, serviceMethod));
@@ -576,37 +633,87 @@ public final class RPC {
       //
       Throwable cause = e.getCause();
 
-      responsePayload = encodeResponseForFailure(serviceMethod, cause, serializationPolicy, flags);
+      responsePayload =
+          serializeResponseForFailure(serviceMethod, cause, serializationPolicy, flags);
     }
 
     return responsePayload;
   }
 
   /**
-   * Returns a string that encodes the results of an RPC call. Private overload
-   * that takes a flag signaling the preamble of the response payload.
+   * Serializes the results of an RPC call.
    * 
    * @param object the object that we wish to send back to the client
    * @param wasThrown if true, the object being returned was an exception thrown
    *          by the service method; if false, it was the result of the service
    *          method's invocation
-   * @return a string that encodes the response from a service method
+   * @return the serialized response from a service method
    * @throws SerializationException if the object cannot be serialized
    */
-  private static String encodeResponse(Class<?> responseClass, Object object, boolean wasThrown,
-      int flags, SerializationPolicy serializationPolicy) throws SerializationException {
+  private static SerializedResponse serializeResponse(Class<?> responseClass, Object object,
+      boolean wasThrown, int flags, SerializationPolicy serializationPolicy)
+      throws SerializationException {
 
     ServerSerializationStreamWriter stream =
         new ServerSerializationStreamWriter(serializationPolicy);
     stream.setFlags(flags);
+    stream.setValueEquivalence(serializationPolicy.getValueEquivalence());
 
     stream.prepareToWrite();
     if (responseClass != void.class) {
       stream.serializeValue(object, responseClass);
     }
 
-    String bufferStr = (wasThrown ? "//EX" : "//OK") + stream.toString();
-    return bufferStr;
+    return new SerializedResponse(stream, wasThrown);
+  }
+
+  private static SerializedResponse serializeResponseForFailure(Method serviceMethod,
+      Throwable cause, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (cause == null) {
+      throw new NullPointerException("cause cannot be null");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    if (serviceMethod != null && !RPCServletUtils.isExpectedException(serviceMethod, cause)) {
+      throw new UnexpectedException("Service method '" + getSourceRepresentation(serviceMethod)
+          + "' threw an unexpected exception: " + cause.toString(), cause);
+    }
+
+    return serializeResponse(cause.getClass(), cause, true, flags, serializationPolicy);
+  }
+
+  private static SerializedResponse serializeResponseForSuccess(Method serviceMethod,
+      Object object, SerializationPolicy serializationPolicy, int flags)
+      throws SerializationException {
+    if (serviceMethod == null) {
+      throw new NullPointerException("serviceMethod cannot be null");
+    }
+
+    if (serializationPolicy == null) {
+      throw new NullPointerException("serializationPolicy");
+    }
+
+    Class<?> methodReturnType = serviceMethod.getReturnType();
+    if (methodReturnType != void.class && object != null) {
+      Class<?> actualReturnType;
+      if (methodReturnType.isPrimitive()) {
+        actualReturnType = getPrimitiveClassFromWrapper(object.getClass());
+      } else {
+        actualReturnType = object.getClass();
+      }
+
+      if (actualReturnType == null || !methodReturnType.isAssignableFrom(actualReturnType)) {
+        throw new IllegalArgumentException("Type '" + printTypeName(object.getClass())
+            + "' does not match the return type in the method's signature: '"
+            + getSourceRepresentation(serviceMethod) + "'");
+      }
+    }
+
+    return serializeResponse(methodReturnType, object, false, flags, serializationPolicy);
   }
 
   private static String formatIllegalAccessErrorMessage(Object target, Method serviceMethod) {
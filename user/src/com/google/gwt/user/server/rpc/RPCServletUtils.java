@@ -15,9 +15,15 @@
  */
 package com.google.gwt.user.server.rpc;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.util.zip.GZIPOutputStream;
 
@@ -31,6 +37,59 @@ import javax.servlet.http.HttpServletResponse;
  * the RPC system.
  */
 public class RPCServletUtils {
+  /**
+   * Writes response content as it is produced. The headers are set and the
+   * response's output stream is opened on the first write, so a failure before
+   * then can still be reported with an error response.
+   */
+  private static class ResponseWriter extends Writer {
+    private final boolean gzipResponse;
+    private Writer out;
+    private final HttpServletResponse response;
+
+    public ResponseWriter(HttpServletResponse response, boolean gzipResponse) {
+      this.response = response;
+      this.gzipResponse = gzipResponse;
+    }
+
+    @Override
+    public void close() throws IOException {
+      getOut().close();
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out != null) {
+        out.flush();
+      }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      getOut().write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      getOut().write(str, off, len);
+    }
+
+    private Writer getOut() throws IOException {
+      if (out == null) {
+        response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
+        OutputStream stream = response.getOutputStream();
+        if (gzipResponse) {
+          setGzipEncodingHeader(response);
+          stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        out = new BufferedWriter(new OutputStreamWriter(stream, CHARSET_UTF8), BUFFER_SIZE);
+      }
+      return out;
+    }
+  }
+
   /**
    * Package protected for use in tests.
    */
@@ -43,7 +102,7 @@ public class RPCServletUtils {
   /**
    * Used both as expected request charset and encoded response charset.
    */
-  private static final String CHARSET_UTF8 = "UTF-8";
+  static final String CHARSET_UTF8 = "UTF-8";
 
   private static final String CONTENT_DISPOSITION = "Content-Disposition";
 
@@ -53,7 +112,7 @@ public class RPCServletUtils {
 
   private static final String CONTENT_TYPE_APPLICATION_JSON_UTF8 = "application/json; charset=utf-8";
 
-  private static final String GENERIC_FAILURE_MSG = "The call failed on the server; see server log for details";
+  static final String GENERIC_FAILURE_MSG = "The call failed on the server; see server log for details";
 
   private static final String GWT_RPC_CONTENT_TYPE = "text/x-gwt-rpc";
 
@@ -256,6 +315,57 @@ public class RPCServletUtils {
     response.setHeader(CONTENT_ENCODING, CONTENT_ENCODING_GZIP);
   }
 
+  /**
+   * Validates the content type of an {@link HttpServletRequest} as
+   * {@link #readContent} does, and returns a reader of its content, so that it
+   * need not be held in memory in full.
+   * 
+   * @param request the servlet request whose content we want to read
+   * @param expectedContentType the expected content (i.e. 'type/subtype' only)
+   *          in the Content-Type request header, or <code>null</code> if no
+   *          validation is to be performed
+   * @param expectedCharSet the expected request charset, or <code>null</code>
+   *          if no charset validation is to be performed and <code>UTF-8</code>
+   *          should be assumed
+   * @return a reader which decodes the content using
+   *         <code>expectedCharSet</code>, or <code>UTF-8</code> if
+   *         <code>expectedCharSet</code> is <code>null</code>
+   * @throws IOException if the request's input stream cannot be accessed
+   * @throws ServletException if the request's content type does not
+   *         equal the supplied <code>expectedContentType</code> or
+   *         <code>expectedCharSet</code>
+   */
+  public static Reader createContentReader(HttpServletRequest request,
+      String expectedContentType, String expectedCharSet)
+      throws IOException, ServletException {
+    if (expectedContentType != null) {
+      checkContentTypeIgnoreCase(request, expectedContentType);
+    }
+    if (expectedCharSet != null) {
+      checkCharacterEncodingIgnoreCase(request, expectedCharSet);
+    }
+    String contentCharSet = expectedCharSet != null
+        ? expectedCharSet : CHARSET_UTF8;
+    return new InputStreamReader(request.getInputStream(), contentCharSet);
+  }
+
+  /**
+   * Returns a {@link Writer} which sends its content as the response, gzipping
+   * it if <code>gzipResponse</code> is <code>true</code>. Unlike
+   * {@link #writeResponse}, the content is encoded and compressed as it is
+   * written, using bounded buffers, so it is never held in memory in full. The headers are set when
+   * the first character is written; close the writer to complete the response.
+   * 
+   * @param response response instance
+   * @param gzipResponse if <code>true</code> the response content will be gzip
+   *          encoded
+   * @return a writer for the response content
+   */
+  public static Writer createResponseWriter(HttpServletResponse response,
+      boolean gzipResponse) {
+    return new ResponseWriter(response, gzipResponse);
+  }
+
   /**
    * Returns <code>true</code> if the request accepts gzip encoding and the the
    * response content's estimated UTF-8 byte length exceeds 256 bytes.
@@ -321,13 +431,21 @@ public class RPCServletUtils {
       }
     }
 
-    // Send the reply.
-    //
-    response.setContentLength(responseBytes.length);
-    response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
-    response.setStatus(HttpServletResponse.SC_OK);
-    response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
-    response.getOutputStream().write(responseBytes);
+    writeResponseBytes(response, responseBytes);
+  }
+
+  /**
+   * Write the response content, which has already been gzipped, into the
+   * HttpServletResponse.
+   * 
+   * @param response response instance
+   * @param gzippedResponseContent the gzipped UTF-8 response content
+   * @throws IOException if writing the response's output stream fails
+   */
+  public static void writeGzippedResponse(HttpServletResponse response,
+      byte[] gzippedResponseContent) throws IOException {
+    setGzipEncodingHeader(response);
+    writeResponseBytes(response, gzippedResponseContent);
   }
 
   /**
@@ -430,6 +548,18 @@ public class RPCServletUtils {
     }
   }
 
+  /**
+   * Sends the reply.
+   */
+  private static void writeResponseBytes(HttpServletResponse response,
+      byte[] responseBytes) throws IOException {
+    response.setContentLength(responseBytes.length);
+    response.setContentType(CONTENT_TYPE_APPLICATION_JSON_UTF8);
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setHeader(CONTENT_DISPOSITION, ATTACHMENT);
+    response.getOutputStream().write(responseBytes);
+  }
+
   private RPCServletUtils() {
     // Not instantiable
   }
@@ -16,16 +16,33 @@
 package com.google.gwt.user.server.rpc;
 
 import com.google.gwt.user.client.rpc.IncompatibleRemoteServiceException;
+import com.google.gwt.user.client.rpc.RpcRequestBuilder;
 import com.google.gwt.user.client.rpc.RpcTokenException;
 import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.client.rpc.impl.RpcBatchPayload;
+import com.google.gwt.user.server.BoundedCache;
+import com.google.gwt.user.server.rpc.impl.ValueSharingSerializationPolicy;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -40,11 +57,83 @@ import javax.servlet.http.HttpServletResponse;
 public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     implements SerializationPolicyProvider {
 
+  /**
+   * A servlet or context initialization parameter giving the number of
+   * threads with which the calls in a batch sent by
+   * {@link com.google.gwt.user.client.rpc.BatchingRpcRequestBuilder
+   * BatchingRpcRequestBuilder} are processed in parallel. By default, the
+   * calls are processed one after another on the thread which received the
+   * batch. Service methods must then be safe to call concurrently with others
+   * of the same request.
+   */
+  public static final String BATCH_THREADS_PARAM = "gwt.rpc.batchThreads";
+
+  /**
+   * A servlet or context initialization parameter giving how long, in
+   * milliseconds, a {@link DeferredResponse} may remain pending before the call
+   * fails with the generic failure response; the default is
+   * {@value #DEFAULT_DEFERRED_RESPONSE_TIMEOUT_MILLIS}. Zero waits
+   * indefinitely.
+   */
+  public static final String DEFERRED_RESPONSE_TIMEOUT_PARAM = "gwt.rpc.deferredResponseTimeout";
+
+  /**
+   * A servlet or context initialization parameter which bounds how many
+   * serialization policies are cached; the default is
+   * {@value #DEFAULT_POLICY_CACHE_SIZE}.
+   */
+  public static final String POLICY_CACHE_SIZE_PARAM = "gwt.rpc.policyCacheSize";
+
+  /**
+   * A servlet or context initialization parameter listing the
+   * context-relative directories of modules, separated by commas, whose
+   * serialization policy files are loaded in the background when the servlet
+   * is initialized, so that the first requests after a deployment need not
+   * wait for them.
+   */
+  public static final String PRELOAD_POLICIES_PARAM = "gwt.rpc.preloadPolicies";
+
+  /**
+   * A servlet or context initialization parameter which bounds the memory, in
+   * bytes, used to cache the responses of {@link CacheableResponse} methods;
+   * the default is {@value #DEFAULT_RESPONSE_CACHE_BYTES}.
+   */
+  public static final String RESPONSE_CACHE_BYTES_PARAM = "gwt.rpc.responseCacheBytes";
+
+  static final long DEFAULT_DEFERRED_RESPONSE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+  static final int DEFAULT_POLICY_CACHE_SIZE = 256;
+
+  static final long DEFAULT_RESPONSE_CACHE_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * The cache entry of the response returned by the last call to
+   * {@link #processCall(String)} on each thread, if it was cached. Kept per
+   * thread rather than as a request attribute, since the calls of a batch may
+   * be processed in parallel.
+   */
+  private static final ThreadLocal<RpcResponseCache.Entry> cachedResponse =
+      new ThreadLocal<RpcResponseCache.Entry>();
+
   /**
    * Used by HybridServiceServlet.
    */
   static SerializationPolicy loadSerializationPolicy(HttpServlet servlet,
       HttpServletRequest request, String moduleBaseURL, String strongName) {
+    String serializationPolicyFilePath =
+        getSerializationPolicyFilePath(servlet, request, moduleBaseURL, strongName);
+    if (serializationPolicyFilePath == null) {
+      return null;
+    }
+    return loadSerializationPolicy(servlet, serializationPolicyFilePath);
+  }
+
+  /**
+   * Returns the context-relative path of the policy file for a strong name, or
+   * <code>null</code> if the module is not in the servlet's web application.
+   */
+  private static String getSerializationPolicyFilePath(HttpServlet servlet,
+      HttpServletRequest request, String moduleBaseURL, String strongName) {
     // The request can tell you the path of the web app relative to the
     // container root.
     String contextPath = request.getContextPath();
@@ -59,8 +148,6 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
       }
     }
 
-    SerializationPolicy serializationPolicy = null;
-
     /*
      * Check that the module path must be in the same web app as the servlet
      * itself. If you need to implement a scheme different than this, override
@@ -73,42 +160,52 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
           + contextPath
           + ".  Your module may not be properly configured or your client and server code maybe out of date.";
       servlet.log(message);
-    } else {
-      // Strip off the context path from the module base URL. It should be a
-      // strict prefix.
-      String contextRelativePath = modulePath.substring(contextPath.length());
+      return null;
+    }
 
-      String serializationPolicyFilePath = SerializationPolicyLoader.getSerializationPolicyFileName(contextRelativePath
-          + strongName);
+    // Strip off the context path from the module base URL. It should be a
+    // strict prefix.
+    String contextRelativePath = modulePath.substring(contextPath.length());
 
-      // Open the RPC resource file and read its contents.
-      InputStream is = servlet.getServletContext().getResourceAsStream(
-          serializationPolicyFilePath);
-      try {
-        if (is != null) {
-          try {
-            serializationPolicy = SerializationPolicyLoader.loadFromStream(is,
-                null);
-          } catch (ParseException e) {
-            servlet.log("ERROR: Failed to parse the policy file '"
-                + serializationPolicyFilePath + "'", e);
-          } catch (IOException e) {
-            servlet.log("ERROR: Could not read the policy file '"
-                + serializationPolicyFilePath + "'", e);
-          }
-        } else {
-          String message = "ERROR: The serialization policy file '"
-              + serializationPolicyFilePath
-              + "' was not found; did you forget to include it in this deployment?";
-          servlet.log(message);
+    return SerializationPolicyLoader.getSerializationPolicyFileName(contextRelativePath
+        + strongName);
+  }
+
+  /**
+   * Loads the policy file at a context-relative path, or returns
+   * <code>null</code> if it is missing or malformed.
+   */
+  private static SerializationPolicy loadSerializationPolicy(HttpServlet servlet,
+      String serializationPolicyFilePath) {
+    SerializationPolicy serializationPolicy = null;
+
+    // Open the RPC resource file and read its contents.
+    InputStream is = servlet.getServletContext().getResourceAsStream(
+        serializationPolicyFilePath);
+    try {
+      if (is != null) {
+        try {
+          serializationPolicy = SerializationPolicyLoader.loadFromStream(is,
+              null);
+        } catch (ParseException e) {
+          servlet.log("ERROR: Failed to parse the policy file '"
+              + serializationPolicyFilePath + "'", e);
+        } catch (IOException e) {
+          servlet.log("ERROR: Could not read the policy file '"
+              + serializationPolicyFilePath + "'", e);
         }
-      } finally {
-        if (is != null) {
-          try {
-            is.close();
-          } catch (IOException e) {
-            // Ignore this error
-          }
+      } else {
+        String message = "ERROR: The serialization policy file '"
+            + serializationPolicyFilePath
+            + "' was not found; did you forget to include it in this deployment?";
+        servlet.log(message);
+      }
+    } finally {
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException e) {
+          // Ignore this error
         }
       }
     }
@@ -116,11 +213,61 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return serializationPolicy;
   }
 
+  /**
+   * Processes the calls in batches in parallel, or <code>null</code> if they
+   * are processed one after another.
+   */
+  private volatile ExecutorService batchExecutor;
+
+  /**
+   * How long a {@link DeferredResponse} may remain pending, in milliseconds.
+   * Replaced in {@link #init()} if {@value #DEFERRED_RESPONSE_TIMEOUT_PARAM} is
+   * set.
+   */
+  private volatile long deferredResponseTimeoutMillis = DEFAULT_DEFERRED_RESPONSE_TIMEOUT_MILLIS;
+
+  /**
+   * Policies loaded by {@link #preloadSerializationPolicies(String)} but not
+   * yet requested, by context-relative policy file path.
+   */
+  private final Map<String, SerializationPolicy> preloadedPolicies =
+      new ConcurrentHashMap<String, SerializationPolicy>();
+
+  /**
+   * Loads policy files in the background, until they are all loaded or the
+   * servlet is destroyed.
+   */
+  private ExecutorService preloadExecutor;
+
+  /**
+   * Policy file paths queued for preloading which have not been requested
+   * yet. A preloaded policy is only kept while its path is still here, so a
+   * policy requested before it finished preloading is not kept twice.
+   */
+  private final Map<String, Boolean> pendingPreloads = new ConcurrentHashMap<String, Boolean>();
+
+  /**
+   * Responses of {@link CacheableResponse} methods. Replaced in {@link #init()}
+   * if {@value #RESPONSE_CACHE_BYTES_PARAM} is set.
+   */
+  private volatile RpcResponseCache responseCache =
+      new RpcResponseCache(DEFAULT_RESPONSE_CACHE_BYTES);
+
+  /**
+   * How long the response of each service method may be cached, in
+   * milliseconds; zero if it may not.
+   */
+  private final Map<Method, Long> responseMaxAges = new ConcurrentHashMap<Method, Long>();
+
   /**
    * A cache of moduleBaseURL and serialization policy strong name to
-   * {@link SerializationPolicy}.
+   * {@link SerializationPolicy}. The least recently used policies, which in
+   * practice are those of permutations from earlier deployments, are evicted
+   * once it is full. Replaced in {@link #init()} if
+   * {@value #POLICY_CACHE_SIZE_PARAM} is set.
    */
-  private final Map<String, SerializationPolicy> serializationPolicyCache = new HashMap<String, SerializationPolicy>();
+  private volatile BoundedCache<String, SerializationPolicy> serializationPolicyCache =
+      new BoundedCache<String, SerializationPolicy>(DEFAULT_POLICY_CACHE_SIZE);
 
   /**
    * The implementation of the service.
@@ -145,6 +292,103 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     this.delegate = delegate;
   }
 
+  /**
+   * Reads the {@value #BATCH_THREADS_PARAM},
+   * {@value #DEFERRED_RESPONSE_TIMEOUT_PARAM}, {@value #POLICY_CACHE_SIZE_PARAM},
+   * {@value #PRELOAD_POLICIES_PARAM} and {@value #RESPONSE_CACHE_BYTES_PARAM}
+   * parameters, from the servlet's configuration or else the servlet context.
+   * Subclasses which override this method must call <code>super.init()</code>
+   * for them to take effect.
+   */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    String cacheSize = getInitParameterValue(POLICY_CACHE_SIZE_PARAM);
+    if (cacheSize != null) {
+      try {
+        serializationPolicyCache =
+            new BoundedCache<String, SerializationPolicy>(Integer.parseInt(cacheSize.trim()));
+      } catch (IllegalArgumentException e) {
+        throw new ServletException("Invalid " + POLICY_CACHE_SIZE_PARAM + ": " + cacheSize, e);
+      }
+    }
+    String responseCacheBytes = getInitParameterValue(RESPONSE_CACHE_BYTES_PARAM);
+    if (responseCacheBytes != null) {
+      try {
+        responseCache = new RpcResponseCache(Long.parseLong(responseCacheBytes.trim()));
+      } catch (IllegalArgumentException e) {
+        throw new ServletException("Invalid " + RESPONSE_CACHE_BYTES_PARAM + ": "
+            + responseCacheBytes, e);
+      }
+    }
+    String deferredResponseTimeout = getInitParameterValue(DEFERRED_RESPONSE_TIMEOUT_PARAM);
+    if (deferredResponseTimeout != null) {
+      long timeoutMillis;
+      try {
+        timeoutMillis = Long.parseLong(deferredResponseTimeout.trim());
+      } catch (NumberFormatException e) {
+        throw new ServletException("Invalid " + DEFERRED_RESPONSE_TIMEOUT_PARAM + ": "
+            + deferredResponseTimeout, e);
+      }
+      if (timeoutMillis < 0) {
+        throw new ServletException("Invalid " + DEFERRED_RESPONSE_TIMEOUT_PARAM + ": "
+            + deferredResponseTimeout);
+      }
+      deferredResponseTimeoutMillis = timeoutMillis;
+    }
+    String batchThreads = getInitParameterValue(BATCH_THREADS_PARAM);
+    if (batchThreads != null) {
+      int threads;
+      try {
+        threads = Integer.parseInt(batchThreads.trim());
+      } catch (NumberFormatException e) {
+        throw new ServletException("Invalid " + BATCH_THREADS_PARAM + ": " + batchThreads, e);
+      }
+      if (threads > 0) {
+        batchExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RPC batch worker");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      }
+    }
+    String preloadDirectories = getInitParameterValue(PRELOAD_POLICIES_PARAM);
+    if (preloadDirectories != null) {
+      preloadSerializationPolicies(preloadDirectories);
+    }
+  }
+
+  /**
+   * Stops loading serialization policies in the background, and the threads
+   * processing batched calls, if need be. Subclasses which override this
+   * method must call <code>super.destroy()</code>.
+   */
+  @Override
+  public void destroy() {
+    synchronized (this) {
+      if (preloadExecutor != null) {
+        preloadExecutor.shutdownNow();
+        preloadExecutor = null;
+      }
+    }
+    ExecutorService executor = batchExecutor;
+    if (executor != null) {
+      executor.shutdownNow();
+      batchExecutor = null;
+    }
+    super.destroy();
+  }
+
+  /**
+   * Returns the cache of responses to {@link CacheableResponse} methods, for
+   * its statistics or to clear it.
+   */
+  public RpcResponseCache getResponseCache() {
+    return responseCache;
+  }
+
   public final SerializationPolicy getSerializationPolicy(String moduleBaseURL,
       String strongName) {
 
@@ -168,6 +412,12 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
       serializationPolicy = RPC.getDefaultSerializationPolicy();
     }
 
+    ValueEquivalence valueEquivalence = getValueEquivalence();
+    if (valueEquivalence != null) {
+      serializationPolicy = ValueSharingSerializationPolicy.wrap(serializationPolicy,
+          valueEquivalence);
+    }
+
     // This could cache null or an actual instance. Either way we will not
     // attempt to lookup the policy again.
     putCachedSerializationPolicy(moduleBaseURL, strongName, serializationPolicy);
@@ -187,6 +437,10 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    * {@link #getThreadLocalResponse()} methods.
    * </p>
    * This is public so that it can be unit tested easily without HTTP.
+   * </p>
+   * If the service method defers its response with
+   * {@link DeferredResponse#defer()}, the string returned encodes the value the
+   * service method returned, and is not sent.
    * 
    * @param payload the UTF-8 request payload
    * @return a string which encodes either the method's return, a checked
@@ -204,7 +458,31 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
 
     try {
       RPCRequest rpcRequest = RPC.decodeRequest(payload, delegate.getClass(), this);
+      DeferredResponse.setRpcRequest(rpcRequest);
       onAfterRequestDeserialized(rpcRequest);
+
+      // Requests are decoded and checked even when a response is cached.
+      long maxAgeMillis = getResponseMaxAgeMillis(rpcRequest.getMethod());
+      if (maxAgeMillis > 0) {
+        RpcResponseCache cache = responseCache;
+        RpcResponseCache.Entry cached = cache.get(payload);
+        if (cached == null) {
+          String response = RPC.invokeAndEncodeResponse(delegate, rpcRequest.getMethod(),
+              rpcRequest.getParameters(), rpcRequest.getSerializationPolicy(),
+              rpcRequest.getFlags());
+          if (!RPC.isSuccessResponse(response) || DeferredResponse.isDeferred()) {
+            // Failures may be transient, and deferred responses are yet to come.
+            return response;
+          }
+          cached = cache.put(payload, response, maxAgeMillis);
+        }
+        if (getThreadLocalRequest() != null) {
+          // Taken by processPost or processBatchedCall.
+          cachedResponse.set(cached);
+        }
+        return cached.getResponse();
+      }
+
       return RPC.invokeAndEncodeResponse(delegate, rpcRequest.getMethod(),
           rpcRequest.getParameters(), rpcRequest.getSerializationPolicy(),
           rpcRequest.getFlags());
@@ -220,6 +498,49 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     }
   }
 
+  /**
+   * Like {@link #processCall(String)}, but writes the encoded response to
+   * <code>writer</code> rather than returning it. Used instead of
+   * {@link #processCall(String)} when {@link #shouldStreamResponse} returns
+   * <code>true</code>.
+   * <p>
+   * Nothing is written unless the response is serialized successfully.
+   * </p>
+   * 
+   * @param payload the UTF-8 request payload
+   * @param writer receives the encoded response
+   * @throws SerializationException if we cannot serialize the response
+   * @throws UnexpectedException if the invocation throws a checked exception
+   *           that is not declared in the service method's signature
+   * @throws RuntimeException if the service method throws an unchecked
+   *           exception (the exception will be the one thrown by the service)
+   * @throws IOException if writing to <code>writer</code> fails
+   */
+  public void processCall(String payload, Writer writer) throws SerializationException,
+      IOException {
+    // First, check for possible XSRF situation
+    checkPermutationStrongName();
+
+    try {
+      RPCRequest rpcRequest = RPC.decodeRequest(payload, delegate.getClass(), this);
+      onAfterRequestDeserialized(rpcRequest);
+      RPC.invokeAndEncodeResponse(delegate, rpcRequest.getMethod(),
+          rpcRequest.getParameters(), rpcRequest.getSerializationPolicy(),
+          rpcRequest.getFlags(), writer);
+    } catch (IncompatibleRemoteServiceException ex) {
+      log(
+          "An IncompatibleRemoteServiceException was thrown while processing this call.",
+          ex);
+      RPC.encodeResponseForFailure(null, ex, RPC.getDefaultSerializationPolicy(),
+          AbstractSerializationStream.DEFAULT_FLAGS, writer);
+    } catch (RpcTokenException tokenException) {
+      log("An RpcTokenException was thrown while processing this call.",
+          tokenException);
+      RPC.encodeResponseForFailure(null, tokenException, RPC.getDefaultSerializationPolicy(),
+          AbstractSerializationStream.DEFAULT_FLAGS, writer);
+    }
+  }
+
   /**
    * Standard HttpServlet method: handle the POST.
    * 
@@ -238,14 +559,62 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     //
     String requestPayload = readContent(request);
 
+    if (request.getHeader(RpcRequestBuilder.BATCH_HEADER) != null) {
+      // Answer each call of the batch, and send the responses together.
+      //
+      String responsePayload = processBatch(request, response, requestPayload);
+      writeResponse(request, response, responsePayload, null);
+      return;
+    }
+
     // Let subclasses see the serialized request.
     //
     onBeforeRequestDeserialized(requestPayload);
 
+    if (shouldStreamResponse(request)) {
+      // Write the response as it is encoded.
+      //
+      Writer writer = RPCServletUtils.createResponseWriter(response,
+          RPCServletUtils.acceptsGzipEncoding(request));
+      processCall(requestPayload, writer);
+      writer.close();
+      return;
+    }
+
     // Invoke the core dispatching logic, which returns the serialized
     // result.
     //
-    String responsePayload = processCall(requestPayload);
+    DeferredResponse<Object> call = new DeferredResponse<Object>(this, request, response,
+        deferredResponseTimeoutMillis);
+    DeferredResponse<?> previousCall = DeferredResponse.begin(call);
+    String responsePayload;
+    boolean deferred;
+    RpcResponseCache.Entry cached;
+    try {
+      responsePayload = processCall(requestPayload);
+      deferred = DeferredResponse.isDeferred();
+    } finally {
+      DeferredResponse.end(previousCall);
+      cached = cachedResponse.get();
+      cachedResponse.remove();
+    }
+
+    if (deferred) {
+      if (RPC.isSuccessResponse(responsePayload)) {
+        // Send the real result when it is known.
+        //
+        try {
+          call.dispatch();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ServletException("Interrupted waiting for a deferred RPC response", e);
+        }
+        return;
+      }
+      // The service method threw after deferring; send what it threw.
+      //
+      call.discard();
+    }
 
     // Let subclasses see the serialized response.
     //
@@ -253,7 +622,7 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
 
     // Write the response.
     //
-    writeResponse(request, response, responsePayload);
+    writeResponse(request, response, responsePayload, cached);
   }
 
   /**
@@ -274,6 +643,21 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     }
   }
 
+  /**
+   * Waits for serialization policies to finish loading in the background.
+   * Visible for testing.
+   * 
+   * @return <code>false</code> if they are still loading after
+   *         <code>timeoutMillis</code>
+   */
+  boolean awaitPreloading(long timeoutMillis) throws InterruptedException {
+    ExecutorService executor;
+    synchronized (this) {
+      executor = preloadExecutor;
+    }
+    return executor == null || executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
   /**
    * Gets the {@link SerializationPolicy} for given module base URL and strong
    * name if there is one.
@@ -290,7 +674,42 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
    */
   protected SerializationPolicy doGetSerializationPolicy(
       HttpServletRequest request, String moduleBaseURL, String strongName) {
-    return loadSerializationPolicy(this, request, moduleBaseURL, strongName);
+    String serializationPolicyFilePath =
+        getSerializationPolicyFilePath(this, request, moduleBaseURL, strongName);
+    if (serializationPolicyFilePath == null) {
+      return null;
+    }
+    // From here on, the policy lives in serializationPolicyCache. Stop any
+    // preloading first, so that a policy published later is dropped.
+    pendingPreloads.remove(serializationPolicyFilePath);
+    SerializationPolicy serializationPolicy =
+        preloadedPolicies.remove(serializationPolicyFilePath);
+    if (serializationPolicy != null) {
+      return serializationPolicy;
+    }
+    return loadSerializationPolicy(this, serializationPolicyFilePath);
+  }
+
+  /**
+   * Returns the equivalence of the instances which responses may send only
+   * once, or <code>null</code>, the default, to send only identical instances
+   * once. It is applied to every {@link SerializationPolicy} of this servlet
+   * as it is cached, so it should not change once the servlet is in use.
+   * 
+   * Override this method to send value-equal instances of immutable types,
+   * such as those loaded afresh for each reference, as references to the
+   * first one written:
+   * 
+   * <pre>
+   * protected ValueEquivalence getValueEquivalence() {
+   *   return ValueEquivalence.byEquals(Currency.class, Unit.class);
+   * }
+   * </pre>
+   * 
+   * @return the equivalence of shareable instances, or <code>null</code>
+   */
+  protected ValueEquivalence getValueEquivalence() {
+    return null;
   }
 
   /**
@@ -334,26 +753,237 @@ public class RemoteServiceServlet extends AbstractRemoteServiceServlet
     return RPCServletUtils.exceedsUncompressedContentLengthLimit(responsePayload);
   }
 
+  /**
+   * Determines whether the response to a given servlet request should be
+   * written to the client as it is encoded, rather than first being built as a
+   * string. Streaming bounds the memory needed for large responses, but
+   * {@link #processCall(String, Writer)} is called instead of
+   * {@link #processCall(String)}, {@link #onAfterResponseSerialized(String)} is
+   * not called, and the response is compressed whenever the client accepts
+   * gzip.
+   * <p>
+   * This implementation returns <code>false</code>. Subclasses can override
+   * this logic.
+   * </p>
+   * 
+   * @param request the request being served
+   * @return <code>true</code> if the response should be streamed
+   */
+  protected boolean shouldStreamResponse(HttpServletRequest request) {
+    return false;
+  }
+
+  /**
+   * Sends a response completed by a {@link DeferredResponse}, possibly on a
+   * thread other than the one which received the request.
+   */
+  void writeDeferredResponse(HttpServletRequest request, HttpServletResponse response,
+      String responsePayload) throws IOException {
+    onAfterResponseSerialized(responsePayload);
+    writeResponse(request, response, responsePayload, null);
+  }
+
   private SerializationPolicy getCachedSerializationPolicy(
       String moduleBaseURL, String strongName) {
-    synchronized (serializationPolicyCache) {
-      return serializationPolicyCache.get(moduleBaseURL + strongName);
+    return serializationPolicyCache.get(moduleBaseURL + strongName);
+  }
+
+  /**
+   * Retrieves the named initialization parameter from the servlet's
+   * configuration, or else from the servlet context.
+   */
+  private String getInitParameterValue(String name) {
+    String paramValue = getServletConfig().getInitParameter(name);
+    if (paramValue == null) {
+      paramValue = getServletContext().getInitParameter(name);
     }
+    return paramValue;
+  }
+
+  /**
+   * Starts loading, in parallel, every policy file in the given
+   * comma-separated list of context-relative directories.
+   */
+  private void preloadSerializationPolicies(String directories) {
+    List<String> paths = new ArrayList<String>();
+    for (String directory : directories.split(",")) {
+      directory = directory.trim();
+      if (directory.length() == 0) {
+        continue;
+      }
+      if (!directory.startsWith("/")) {
+        directory = "/" + directory;
+      }
+      if (!directory.endsWith("/")) {
+        directory += "/";
+      }
+      Set<?> resourcePaths = getServletContext().getResourcePaths(directory);
+      if (resourcePaths == null) {
+        log("WARNING: No serialization policies to preload in '" + directory + "'");
+        continue;
+      }
+      for (Object path : resourcePaths) {
+        if (path.toString().endsWith(SerializationPolicyLoader.getSerializationPolicyFileName(""))) {
+          paths.add(path.toString());
+        }
+      }
+    }
+    if (paths.isEmpty()) {
+      return;
+    }
+
+    int threads = Math.min(paths.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "SerializationPolicy preloader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    for (final String path : paths) {
+      pendingPreloads.put(path, Boolean.TRUE);
+      executor.execute(new Runnable() {
+        public void run() {
+          if (!pendingPreloads.containsKey(path)) {
+            // Already requested and loaded.
+            return;
+          }
+          SerializationPolicy serializationPolicy = loadSerializationPolicy(
+              RemoteServiceServlet.this, path);
+          if (serializationPolicy != null) {
+            preloadedPolicies.put(path, serializationPolicy);
+            if (pendingPreloads.remove(path) == null) {
+              // Requested while loading; the request loaded its own copy.
+              preloadedPolicies.remove(path);
+            }
+          }
+        }
+      });
+    }
+    // Threads exit once the queue is drained.
+    executor.shutdown();
+    synchronized (this) {
+      preloadExecutor = executor;
+    }
+  }
+
+  /**
+   * Processes the calls of a batch, in parallel if
+   * {@value #BATCH_THREADS_PARAM} is set, and returns their responses packed
+   * together in order. A call which fails unexpectedly is answered with the
+   * generic failure message, which the client reports as an
+   * {@link com.google.gwt.user.client.rpc.InvocationException
+   * InvocationException}; the other calls are unaffected. Responses cannot be
+   * deferred within a batch.
+   */
+  private String processBatch(final HttpServletRequest request,
+      final HttpServletResponse response, String requestPayload) throws SerializationException {
+    List<String> calls = RpcBatchPayload.split(requestPayload);
+    List<String> responses = new ArrayList<String>(calls.size());
+    ExecutorService executor = batchExecutor;
+    if (executor == null || calls.size() < 2) {
+      for (String call : calls) {
+        responses.add(processBatchedCall(call));
+      }
+      return RpcBatchPayload.join(responses);
+    }
+
+    // This thread takes the first call while the others run in the pool.
+    List<Future<String>> futures = new ArrayList<Future<String>>(calls.size() - 1);
+    for (final String call : calls.subList(1, calls.size())) {
+      futures.add(executor.submit(new Callable<String>() {
+        public String call() {
+          synchronized (RemoteServiceServlet.this) {
+            validateThreadLocalData();
+          }
+          perThreadRequest.set(request);
+          perThreadResponse.set(response);
+          try {
+            return processBatchedCall(call);
+          } finally {
+            perThreadRequest.set(null);
+            perThreadResponse.set(null);
+          }
+        }
+      }));
+    }
+    responses.add(processBatchedCall(calls.get(0)));
+    for (Future<String> future : futures) {
+      try {
+        responses.add(future.get());
+      } catch (ExecutionException e) {
+        log("Exception while dispatching a batched RPC call", e.getCause());
+        responses.add(RPCServletUtils.GENERIC_FAILURE_MSG);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SerializationException("Interrupted waiting for batched RPC calls");
+      }
+    }
+    return RpcBatchPayload.join(responses);
+  }
+
+  /**
+   * Processes one call of a batch, and returns its response.
+   */
+  private String processBatchedCall(String requestPayload) {
+    try {
+      onBeforeRequestDeserialized(requestPayload);
+      String responsePayload = processCall(requestPayload);
+      onAfterResponseSerialized(responsePayload);
+      return responsePayload;
+    } catch (Throwable e) {
+      log("Exception while dispatching a batched RPC call", e);
+      return RPCServletUtils.GENERIC_FAILURE_MSG;
+    } finally {
+      // The batch response is sent as a whole.
+      cachedResponse.remove();
+    }
+  }
+
+  /**
+   * Returns how long, in milliseconds, responses of a service method may be
+   * reused for, as set by a {@link CacheableResponse} annotation on the method
+   * or its implementation; zero if they may not.
+   */
+  private long getResponseMaxAgeMillis(Method method) {
+    Long maxAgeMillis = responseMaxAges.get(method);
+    if (maxAgeMillis == null) {
+      CacheableResponse annotation = method.getAnnotation(CacheableResponse.class);
+      if (annotation == null) {
+        try {
+          annotation = delegate.getClass().getMethod(method.getName(),
+              method.getParameterTypes()).getAnnotation(CacheableResponse.class);
+        } catch (NoSuchMethodException e) {
+          // Not a public method of the delegate.
+        }
+      }
+      maxAgeMillis = annotation == null ? 0L : annotation.maxAgeSeconds() * 1000L;
+      responseMaxAges.put(method, maxAgeMillis);
+    }
+    return maxAgeMillis;
   }
 
   private void putCachedSerializationPolicy(String moduleBaseURL,
       String strongName, SerializationPolicy serializationPolicy) {
-    synchronized (serializationPolicyCache) {
-      serializationPolicyCache.put(moduleBaseURL + strongName,
-          serializationPolicy);
-    }
+    serializationPolicyCache.put(moduleBaseURL + strongName,
+        serializationPolicy);
   }
 
-  private void writeResponse(HttpServletRequest request,
-      HttpServletResponse response, String responsePayload) throws IOException {
+  /**
+   * Writes a response, which is the response of <code>cached</code> if that
+   * is not <code>null</code>.
+   */
+  private void writeResponse(HttpServletRequest request, HttpServletResponse response,
+      String responsePayload, RpcResponseCache.Entry cached) throws IOException {
     boolean gzipEncode = RPCServletUtils.acceptsGzipEncoding(request)
         && shouldCompressResponse(request, response, responsePayload);
 
+    if (gzipEncode && cached != null && cached.getResponse() == responsePayload) {
+      // Cached responses are compressed once, however often they are sent.
+      RPCServletUtils.writeGzippedResponse(response, responseCache.getGzippedResponse(cached));
+      return;
+    }
+
     RPCServletUtils.writeResponse(getServletContext(), response,
         responsePayload, gzipEncode);
   }
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The encoded responses of {@link CacheableResponse} methods, which
+ * {@link RemoteServiceServlet} keeps so that it can answer repeated requests
+ * without invoking the service. Responses are keyed on the whole request
+ * payload, which covers the method, the serialization policy's strong name and
+ * the arguments; requests carrying an
+ * {@link com.google.gwt.user.client.rpc.RpcToken RpcToken} therefore share
+ * responses only with requests carrying the same token.
+ * <p>
+ * Each response expires after its method's
+ * {@link CacheableResponse#maxAgeSeconds()}, and the least recently used
+ * responses are evicted when the cache grows past its size limit. A gzipped
+ * copy of each response is kept once one is first needed.
+ */
+public class RpcResponseCache {
+
+  /**
+   * A cached response.
+   */
+  static final class Entry {
+    private final long expires;
+    private byte[] gzippedResponse;
+    private final String request;
+    private final String response;
+    private long size;
+
+    Entry(String request, String response, long expires) {
+      this.request = request;
+      this.response = response;
+      this.expires = expires;
+      // Strings are stored as UTF-16.
+      this.size = 2L * (request.length() + response.length());
+    }
+
+    String getResponse() {
+      return response;
+    }
+  }
+
+  private static byte[] gzip(String content) throws IOException {
+    byte[] bytes = content.getBytes(RPCServletUtils.CHARSET_UTF8);
+    ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4);
+    GZIPOutputStream gzipOutputStream = new GZIPOutputStream(output);
+    gzipOutputStream.write(bytes);
+    gzipOutputStream.close();
+    return output.toByteArray();
+  }
+
+  /**
+   * Entries in order of use, least recent first.
+   */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+      0.75f, true);
+
+  private long evictionCount;
+
+  private long hitCount;
+
+  private final long maxBytes;
+
+  private long missCount;
+
+  private long sizeBytes;
+
+  /**
+   * @param maxBytes the approximate most memory, in bytes, for the cached
+   *          requests and responses
+   */
+  public RpcResponseCache(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Discards every cached response, for example after the data they were
+   * computed from has changed.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  /**
+   * Returns the number of responses currently cached.
+   */
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of responses evicted to make room for others.
+   */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the number of requests answered from the cache.
+   */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the number of requests for cacheable methods which had to be
+   * invoked, because no fresh response was cached.
+   */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * Returns the approximate memory, in bytes, used by the cached requests and
+   * responses.
+   */
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "RpcResponseCache[entries=" + entries.size() + ", bytes=" + sizeBytes + ", hits="
+        + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+  }
+
+  /**
+   * Returns the current time; visible for testing.
+   */
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the fresh response to <code>request</code>, or <code>null</code>.
+   */
+  synchronized Entry get(String request) {
+    Entry entry = entries.get(request);
+    if (entry != null && entry.expires <= currentTimeMillis()) {
+      remove(entry);
+      entry = null;
+    }
+    if (entry == null) {
+      ++missCount;
+    } else {
+      ++hitCount;
+    }
+    return entry;
+  }
+
+  /**
+   * Returns a response gzipped, compressing it the first time it is asked for.
+   */
+  byte[] getGzippedResponse(Entry entry) throws IOException {
+    synchronized (this) {
+      if (entry.gzippedResponse != null) {
+        return entry.gzippedResponse;
+      }
+    }
+    // Racing threads may both compress; the results are identical.
+    byte[] gzipped = gzip(entry.response);
+    synchronized (this) {
+      if (entry.gzippedResponse == null) {
+        entry.gzippedResponse = gzipped;
+        if (entries.get(entry.request) == entry) {
+          entry.size += gzipped.length;
+          sizeBytes += gzipped.length;
+          evict();
+        }
+      }
+      return entry.gzippedResponse;
+    }
+  }
+
+  /**
+   * Caches the response to a request.
+   *
+   * @return the new entry
+   */
+  synchronized Entry put(String request, String response, long maxAgeMillis) {
+    Entry entry = new Entry(request, response, currentTimeMillis() + maxAgeMillis);
+    if (entry.size > maxBytes) {
+      // Not worth evicting everything else for.
+      return entry;
+    }
+    Entry previous = entries.put(request, entry);
+    if (previous != null) {
+      sizeBytes -= previous.size;
+    }
+    sizeBytes += entry.size;
+    evict();
+    return entry;
+  }
+
+  /**
+   * Removes the least recently used entries until the cache fits in
+   * {@link #maxBytes}. Expired entries are not sought out; they are removed
+   * when they are next requested or fall out of use.
+   */
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    while (sizeBytes > maxBytes && it.hasNext()) {
+      Entry entry = it.next();
+      it.remove();
+      sizeBytes -= entry.size;
+      ++evictionCount;
+    }
+  }
+
+  private void remove(Entry entry) {
+    entries.remove(entry.request);
+    sizeBytes -= entry.size;
+  }
+}
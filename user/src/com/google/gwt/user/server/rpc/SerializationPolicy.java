@@ -41,6 +41,17 @@ public abstract class SerializationPolicy {
     return null;
   }
   
+  /**
+   * Returns the equivalence of the instances which responses serialized under
+   * this policy may send only once, or <code>null</code> if only identical
+   * instances are sent once.
+   * 
+   * @return the equivalence of shareable instances, or <code>null</code>
+   */
+  public ValueEquivalence getValueEquivalence() {
+    return null;
+  }
+
   /**
    * Returns <code>true</code> if the class' fields should be deserialized.
    * 
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which distinct but equal instances a GWT-RPC response may send only
+ * once. Each shareable instance which is equivalent to one already written is
+ * sent as a back-reference to it, so the client receives a single instance in
+ * place of the equal copies.
+ * <p>
+ * Only instances of immutable types should be shareable: the client cannot
+ * tell the copies apart, and a change made to one is seen through every
+ * reference to it.
+ *
+ * @see com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter#setValueEquivalence(ValueEquivalence)
+ * @see RemoteServiceServlet#getValueEquivalence()
+ */
+public abstract class ValueEquivalence {
+
+  /**
+   * Shares the instances of the given classes which are equal according to
+   * their {@link Object#equals(Object) equals} and {@link Object#hashCode()
+   * hashCode} methods. Instances of different classes are never equivalent,
+   * and subclasses of the given classes are not shared.
+   *
+   * @param immutableClasses the immutable classes whose instances may be shared
+   * @return an equivalence sharing equal instances of the given classes
+   */
+  public static ValueEquivalence byEquals(Class<?>... immutableClasses) {
+    final Set<Class<?>> classes = new HashSet<Class<?>>(Arrays.asList(immutableClasses));
+    return new ValueEquivalence() {
+      @Override
+      public boolean equivalent(Object a, Object b) {
+        return a.getClass() == b.getClass() && a.equals(b);
+      }
+
+      @Override
+      public int hash(Object instance) {
+        return instance.hashCode();
+      }
+
+      @Override
+      public boolean isShareable(Object instance) {
+        return classes.contains(instance.getClass());
+      }
+    };
+  }
+
+  /**
+   * Returns <code>true</code> if the two shareable instances may be sent as a
+   * single one.
+   *
+   * @param a a shareable instance
+   * @param b another shareable instance
+   * @return <code>true</code> if <code>b</code> may be sent as a reference to
+   *         <code>a</code>
+   */
+  public abstract boolean equivalent(Object a, Object b);
+
+  /**
+   * Returns a hash code for a shareable instance, equal for any two equivalent
+   * instances.
+   *
+   * @param instance a shareable instance
+   * @return the hash code of the instance
+   */
+  public abstract int hash(Object instance);
+
+  /**
+   * Returns <code>true</code> if the instance may be replaced by, or stand for,
+   * an equivalent one.
+   *
+   * @param instance an instance about to be serialized, never <code>null</code>
+   * @return <code>true</code> if the instance may be shared
+   */
+  public abstract boolean isShareable(Object instance);
+}
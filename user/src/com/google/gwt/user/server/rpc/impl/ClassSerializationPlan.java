@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything {@link ServerSerializationStreamWriter} and
+ * {@link ServerSerializationStreamReader} need to know to serialize the fields
+ * declared by one class under one {@link SerializationPolicy}: which fields the
+ * client knows about, their types, their setters, and whether the superclass's
+ * fields follow. Plans are computed once and cached, so that serializing an
+ * instance does no reflective lookups or policy checks.
+ * <p>
+ * Fields are still read and written through pre-opened {@link Field}s rather
+ * than generated accessors. Serializable fields are usually private, and often
+ * final, and RPC does not require getters or setters for them. A generated
+ * accessor class may not touch another class's private fields; only reflection
+ * with {@link Field#setAccessible} can.
+ */
+final class ClassSerializationPlan {
+
+  /**
+   * Plans by policy, then by class. Policies are held weakly since
+   * applications may discard them (for example, when a module is redeployed);
+   * as with the caches in {@link SerializabilityUtil}, classes are not.
+   */
+  private static final Map<SerializationPolicy, Map<Class<?>, ClassSerializationPlan>> plans =
+      Collections.synchronizedMap(
+          new WeakHashMap<SerializationPolicy, Map<Class<?>, ClassSerializationPlan>>());
+
+  /**
+   * Returns the plan for the fields declared by <code>instanceClass</code>
+   * under <code>policy</code>.
+   */
+  static ClassSerializationPlan get(Class<?> instanceClass, SerializationPolicy policy) {
+    Map<Class<?>, ClassSerializationPlan> policyPlans = plans.get(policy);
+    if (policyPlans == null) {
+      policyPlans = new ConcurrentHashMap<Class<?>, ClassSerializationPlan>();
+      plans.put(policy, policyPlans);
+    }
+    ClassSerializationPlan plan = policyPlans.get(instanceClass);
+    if (plan == null) {
+      // Racing threads compute identical plans; either may win.
+      plan = new ClassSerializationPlan(instanceClass, policy);
+      policyPlans.put(instanceClass, plan);
+    }
+    return plan;
+  }
+
+  /**
+   * Makes a field accessible if reflection would otherwise refuse to read or
+   * write it.
+   */
+  private static void makeAccessible(Field field) {
+    if (!field.isAccessible() && !Modifier.isPublic(field.getModifiers())) {
+      field.setAccessible(true);
+    }
+  }
+
+  /**
+   * The fields known to the client, in the order they are serialized.
+   */
+  final Field[] fields;
+
+  /**
+   * The generic type of each of {@link #fields}.
+   */
+  final Type[] fieldGenericTypes;
+
+  /**
+   * The type of each of {@link #fields}.
+   */
+  final Class<?>[] fieldTypes;
+
+  /**
+   * For enhanced classes, the setter to call to deserialize each of
+   * {@link #fields}, or <code>null</code> to set the field directly.
+   */
+  final Method[] fieldSetters;
+
+  /**
+   * Whether the fields of the superclass should be deserialized after these.
+   */
+  final boolean deserializeSuperclassFields;
+
+  /**
+   * Whether the fields of the superclass should be serialized after these.
+   */
+  final boolean serializeSuperclassFields;
+
+  /**
+   * For enhanced classes, the fields which exist only on the server; otherwise
+   * <code>null</code>.
+   */
+  final Field[] serverOnlyFields;
+
+  private ClassSerializationPlan(Class<?> instanceClass, SerializationPolicy policy) {
+    Set<String> clientFieldNames = policy.getClientFieldNamesForEnhancedClass(instanceClass);
+
+    List<Field> clientFields = new ArrayList<Field>();
+    List<Field> serverFields = new ArrayList<Field>();
+    for (Field field : SerializabilityUtil.applyFieldSerializationPolicy(instanceClass)) {
+      assert (field != null);
+      makeAccessible(field);
+      if (clientFieldNames == null || clientFieldNames.contains(field.getName())) {
+        clientFields.add(field);
+      } else {
+        serverFields.add(field);
+      }
+    }
+
+    fields = clientFields.toArray(new Field[clientFields.size()]);
+    fieldTypes = new Class<?>[fields.length];
+    fieldGenericTypes = new Type[fields.length];
+    fieldSetters = new Method[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      fieldTypes[i] = fields[i].getType();
+      fieldGenericTypes[i] = fields[i].getGenericType();
+      if (clientFieldNames != null) {
+        fieldSetters[i] = findSetter(instanceClass, fields[i]);
+      }
+    }
+    serverOnlyFields =
+        clientFieldNames == null ? null : serverFields.toArray(new Field[serverFields.size()]);
+
+    Class<?> superClass = instanceClass.getSuperclass();
+    serializeSuperclassFields = policy.shouldSerializeFields(superClass);
+    deserializeSuperclassFields = policy.shouldDeserializeFields(superClass);
+  }
+
+  /**
+   * Finds the public setter for a field. For persistence APIs such as JDO, the
+   * setter methods have been enhanced to manipulate additional object state,
+   * causing direct field writes to fail to update the object state properly.
+   */
+  private Method findSetter(Class<?> instanceClass, Field field) {
+    String fieldName = field.getName();
+    String setterName =
+        "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+    try {
+      return instanceClass.getMethod(setterName, field.getType());
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
@@ -35,15 +35,11 @@ import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * For internal use only. Used for server call serialization. This class is
@@ -356,6 +352,23 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   private static final Map<Class<?>, VectorReader> CLASS_TO_VECTOR_READER =
       new IdentityHashMap<Class<?>, VectorReader>();
 
+  /**
+   * Decimal integers with at most this many digits are exactly representable
+   * as doubles.
+   */
+  private static final int MAX_EXACT_DOUBLE_DIGITS = 15;
+
+  /**
+   * Enough digits for any int; longer tokens take the slow path.
+   */
+  private static final int MAX_INT_DIGITS = 10;
+
+  /**
+   * Returned by {@link #parseDigits} for tokens it can't parse; not a value it
+   * can return otherwise.
+   */
+  private static final long NOT_DIGITS = Long.MIN_VALUE;
+
   private final ClassLoader classLoader;
 
   private SerializationPolicy serializationPolicy = RPC.getDefaultSerializationPolicy();
@@ -363,17 +376,26 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   private final SerializationPolicyProvider serializationPolicyProvider;
 
   /**
-   * Used to look up setter methods of the form 'void Class.setXXX(T value)'
-   * given a Class type and a field name XXX corresponding to a field of type T.
+   * The request being read. Tokens are parsed in place; only string table
+   * entries are copied out as strings.
    */
-  private final Map<Class<?>, Map<String, Method>> settersByClass =
-      new HashMap<Class<?>, Map<String, Method>>();
+  private String encodedTokens;
 
   private String[] stringTable;
 
-  private final ArrayList<String> tokenList = new ArrayList<String>();
+  private int tokenCount;
 
-  private int tokenListIndex;
+  /**
+   * The end of the token most recently returned by {@link #nextToken()}.
+   */
+  private int tokenEnd;
+
+  private int tokenIndex;
+
+  /**
+   * The start of the next token.
+   */
+  private int tokenStart;
 
   {
     CLASS_TO_VECTOR_READER.put(boolean[].class, VectorReader.BOOLEAN_VECTOR);
@@ -427,7 +449,7 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   }
 
   public int getNumberOfTokens() {
-    return tokenList.size();
+    return tokenCount;
   }
 
   public SerializationPolicy getSerializationPolicy() {
@@ -436,14 +458,16 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public void prepareToRead(String encodedTokens) throws SerializationException {
-    tokenList.clear();
-    tokenListIndex = 0;
+    this.encodedTokens = encodedTokens;
+    tokenCount = 0;
+    tokenIndex = 0;
+    tokenStart = 0;
     stringTable = null;
 
+    // Count the tokens; each one is terminated by a separator.
     int idx = 0, nextIdx;
     while (-1 != (nextIdx = encodedTokens.indexOf(RPC_SEPARATOR_CHAR, idx))) {
-      String current = encodedTokens.substring(idx, nextIdx);
-      tokenList.add(current);
+      tokenCount++;
       idx = nextIdx + 1;
     }
     if (idx == 0) {
@@ -499,17 +523,13 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public boolean readBoolean() throws SerializationException {
-    return !extract().equals("0");
+    int start = nextToken();
+    return tokenEnd - start != 1 || encodedTokens.charAt(start) != '0';
   }
 
   @Override
   public byte readByte() throws SerializationException {
-    String value = extract();
-    try {
-      return Byte.parseByte(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "byte", Byte.MIN_VALUE, Byte.MAX_VALUE);
-    }
+    return (byte) readIntegral("byte", Byte.MIN_VALUE, Byte.MAX_VALUE);
   }
 
   @Override
@@ -520,22 +540,24 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public double readDouble() throws SerializationException {
-    return Double.parseDouble(extract());
+    int start = nextToken();
+    int end = tokenEnd;
+    // Most doubles sent by clients are integral; parse those in place.
+    long value = parseDigits(start, end, MAX_EXACT_DOUBLE_DIGITS);
+    if (value != NOT_DIGITS) {
+      return (value == 0 && encodedTokens.charAt(start) == '-') ? -0.0 : value;
+    }
+    return Double.parseDouble(encodedTokens.substring(start, end));
   }
 
   @Override
   public float readFloat() throws SerializationException {
-    return (float) Double.parseDouble(extract());
+    return (float) readDouble();
   }
 
   @Override
   public int readInt() throws SerializationException {
-    String value = extract();
-    try {
-      return Integer.parseInt(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "int", Integer.MIN_VALUE, Integer.MAX_VALUE);
-    }
+    return (int) readIntegral("int", Integer.MIN_VALUE, Integer.MAX_VALUE);
   }
 
   @Override
@@ -543,7 +565,12 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
     if (getVersion() == SERIALIZATION_STREAM_MIN_VERSION) {
       return (long) readDouble() + (long) readDouble();
     } else {
-      return Base64Utils.longFromBase64(extract());
+      int start = nextToken();
+      if (start == tokenEnd) {
+        // Fails just as it always has.
+        return Base64Utils.longFromBase64("");
+      }
+      return Base64Utils.longFromBase64(encodedTokens, start, tokenEnd);
     }
   }
 
@@ -569,12 +596,7 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
 
   @Override
   public short readShort() throws SerializationException {
-    String value = extract();
-    try {
-      return Short.parseShort(value);
-    } catch (NumberFormatException e) {
-      throw getNumberFormatException(value, "short", Short.MIN_VALUE, Short.MAX_VALUE);
-    }
+    return (short) readIntegral("short", Short.MIN_VALUE, Short.MAX_VALUE);
   }
 
   @Override
@@ -756,21 +778,13 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
       Type[] expectedParameterTypes, DequeMap<TypeVariable<?>, Type> resolvedTypes) throws
       SerializationException, IllegalAccessException, NoSuchMethodException,
       InvocationTargetException, ClassNotFoundException {
-    /**
-     * A map from field names to corresponding setter methods. The reference
-     * will be null for classes that do not require special handling for
-     * server-only fields.
-     */
-    Map<String, Method> setters = null;
+    ClassSerializationPlan plan = ClassSerializationPlan.get(instanceClass, serializationPolicy);
 
-    /**
-     * A list of fields of this class known to the client. If null, assume the
-     * class is not enhanced and don't attempt to deal with server-only fields.
+    /*
+     * If the class is enhanced, read and set server-only instance fields
+     * encoded in the RPC data.
      */
-    Set<String> clientFieldNames =
-        serializationPolicy.getClientFieldNamesForEnhancedClass(instanceClass);
-    if (clientFieldNames != null) {
-      // Read and set server-only instance fields encoded in the RPC data
+    if (plan.serverOnlyFields != null) {
       try {
         String encodedData = readString();
         if (encodedData != null) {
@@ -792,45 +806,29 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
       } catch (NoSuchFieldException e) {
         throw new SerializationException(e);
       }
-
-      setters = getSetters(instanceClass);
     }
 
-    Field[] serializableFields = SerializabilityUtil.applyFieldSerializationPolicy(instanceClass);
-    for (Field declField : serializableFields) {
-      assert (declField != null);
-      if ((clientFieldNames != null) && !clientFieldNames.contains(declField.getName())) {
-        continue;
-      }
-
-      Type declGenericType = declField.getGenericType();
-      Object value = deserializeValue(declField.getType(), declGenericType, resolvedTypes);
+    Field[] fields = plan.fields;
+    Class<?>[] fieldTypes = plan.fieldTypes;
+    Type[] fieldGenericTypes = plan.fieldGenericTypes;
+    Method[] fieldSetters = plan.fieldSetters;
+    for (int i = 0; i < fields.length; i++) {
+      Object value = deserializeValue(fieldTypes[i], fieldGenericTypes[i], resolvedTypes);
 
-      String fieldName = declField.getName();
-      Method setter;
       /*
-       * If setters is non-null and there is a setter method for the given
-       * field, call the setter. Otherwise, set the field value directly. For
-       * persistence APIs such as JDO, the setter methods have been enhanced to
-       * manipulate additional object state, causing direct field writes to fail
-       * to update the object state properly.
+       * For enhanced classes, call the field's setter if it has one; see
+       * ClassSerializationPlan.findSetter. Otherwise, set the field directly.
        */
-      if ((setters != null) && ((setter = setters.get(fieldName)) != null)) {
+      Method setter = fieldSetters[i];
+      if (setter != null) {
         setter.invoke(instance, value);
       } else {
-        boolean isAccessible = declField.isAccessible();
-        boolean needsAccessOverride = !isAccessible && !Modifier.isPublic(declField.getModifiers());
-        if (needsAccessOverride) {
-          // Override access restrictions
-          declField.setAccessible(true);
-        }
-
-        declField.set(instance, value);
+        fields[i].set(instance, value);
       }
     }
 
-    Class<?> superClass = instanceClass.getSuperclass();
-    if (serializationPolicy.shouldDeserializeFields(superClass)) {
+    if (plan.deserializeSuperclassFields) {
+      Class<?> superClass = instanceClass.getSuperclass();
       Type[] superParameterTypes = SerializabilityUtil.findExpectedParameterTypes(
           superClass, superClass, resolvedTypes);
       deserializeImpl(SerializabilityUtil.hasServerCustomFieldSerializer(superClass), superClass,
@@ -963,11 +961,8 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
   }
 
   private String extract() throws SerializationException {
-    try {
-      return tokenList.get(tokenListIndex++);
-    } catch (IndexOutOfBoundsException e) {
-      throw new SerializationException("Too few tokens in RPC request", e);
-    }
+    int start = nextToken();
+    return encodedTokens.substring(start, tokenEnd);
   }
 
   /**
@@ -1000,6 +995,74 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
         + value);
   }
 
+  /**
+   * Advances to the next token.
+   * 
+   * @return the offset of the token's first character; {@link #tokenEnd} is
+   *         set to the offset just past its last character
+   */
+  private int nextToken() throws SerializationException {
+    if (tokenIndex == tokenCount) {
+      throw new SerializationException("Too few tokens in RPC request");
+    }
+    tokenIndex++;
+    int start = tokenStart;
+    tokenEnd = encodedTokens.indexOf(RPC_SEPARATOR_CHAR, start);
+    tokenStart = tokenEnd + 1;
+    return start;
+  }
+
+  /**
+   * Parses an optionally negative run of decimal digits in place.
+   * 
+   * @return the value, or {@link #NOT_DIGITS} if the characters are not such a
+   *         run or it has more than <code>maxDigits</code> digits
+   */
+  private long parseDigits(int start, int end, int maxDigits) {
+    int pos = start;
+    boolean negative = pos < end && encodedTokens.charAt(pos) == '-';
+    if (negative) {
+      pos++;
+    }
+    if (pos == end || end - pos > maxDigits) {
+      return NOT_DIGITS;
+    }
+    long value = 0;
+    for (; pos < end; pos++) {
+      char c = encodedTokens.charAt(pos);
+      if (c < '0' || c > '9') {
+        return NOT_DIGITS;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Reads an integral token which must lie between <code>minValue</code> and
+   * <code>maxValue</code>.
+   */
+  private long readIntegral(String type, long minValue, long maxValue)
+      throws SerializationException {
+    int start = nextToken();
+    long value = parseDigits(start, tokenEnd, MAX_INT_DIGITS);
+    if (value != NOT_DIGITS && value >= minValue && value <= maxValue) {
+      return value;
+    }
+
+    // Anything unusual goes through the JRE, for identical behavior and errors.
+    String token = encodedTokens.substring(start, tokenEnd);
+    try {
+      value = Long.parseLong(token);
+    } catch (NumberFormatException e) {
+      throw getNumberFormatException(token, type, minValue, maxValue);
+    }
+    if (value < minValue || value > maxValue) {
+      throw getNumberFormatException(token, type, minValue, maxValue);
+    }
+    return value;
+  }
+
   /**
    * Returns a Map from a field name to the setter method for that field, for a
    * given class. The results are computed once for each class and cached.
@@ -1010,37 +1073,6 @@ public final class ServerSerializationStreamReader extends AbstractSerialization
    *         <code>void setXXX(T value)</code>, or null if no such method
    *         exists.
    */
-  private Map<String, Method> getSetters(Class<?> instanceClass) {
-    synchronized (settersByClass) {
-      Map<String, Method> setters = settersByClass.get(instanceClass);
-      if (setters == null) {
-        setters = new HashMap<String, Method>();
-
-        // Iterate over each field and locate a suitable setter method
-        Field[] fields = instanceClass.getDeclaredFields();
-        for (Field field : fields) {
-          // Consider non-final, non-static, non-transient (or @GwtTransient)
-          // fields only
-          if (SerializabilityUtil.isNotStaticTransientOrFinal(field)) {
-            String fieldName = field.getName();
-            String setterName =
-                "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            try {
-              Method setter = instanceClass.getMethod(setterName, field.getType());
-              setters.put(fieldName, setter);
-            } catch (NoSuchMethodException e) {
-              // Just leave this field out of the map
-            }
-          }
-        }
-
-        settersByClass.put(instanceClass, setters);
-      }
-
-      return setters;
-    }
-  }
-
   private Object instantiate(Class<?> customSerializer, Class<?> instanceClass,
       Type[] expectedParameterTypes, DequeMap<TypeVariable<?>, Type> resolvedTypes) throws
       InstantiationException, IllegalAccessException, IllegalArgumentException,
@@ -20,20 +20,20 @@ import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.impl.AbstractSerializationStreamWriter;
 import com.google.gwt.user.server.Base64Utils;
 import com.google.gwt.user.server.rpc.SerializationPolicy;
+import com.google.gwt.user.server.rpc.ValueEquivalence;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
-import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * For internal use only. Used for server call serialization. This class is
@@ -100,6 +100,88 @@ public final class ServerSerializationStreamWriter extends
     }
   }
 
+  /**
+   * Writes the same text as {@link LengthConstrainedArray} directly to a
+   * {@link Writer}, so that large arrays need not be built in memory.
+   */
+  private static class LengthConstrainedArrayWriter {
+    private int count = 0;
+    private boolean needsComma = false;
+    private final Writer out;
+    private int total = 0;
+
+    public LengthConstrainedArrayWriter(Writer out) throws IOException {
+      this.out = out;
+      out.write('[');
+    }
+
+    public void addToken(String token) throws IOException {
+      startToken();
+      out.write(String.valueOf(token));
+    }
+
+    public void close() throws IOException {
+      if (total > LengthConstrainedArray.MAXIMUM_ARRAY_LENGTH) {
+        out.write(LengthConstrainedArray.POSTLUDE);
+      } else {
+        out.write(']');
+      }
+    }
+
+    /**
+     * Writes whatever must precede the next token; the caller then writes the
+     * token itself.
+     */
+    public void startToken() throws IOException {
+      total++;
+      if (count++ == LengthConstrainedArray.MAXIMUM_ARRAY_LENGTH) {
+        if (total == LengthConstrainedArray.MAXIMUM_ARRAY_LENGTH + 1) {
+          out.write(LengthConstrainedArray.PRELUDE);
+        } else {
+          out.write("],[");
+        }
+        count = 0;
+        needsComma = false;
+      }
+
+      if (needsComma) {
+        out.write(',');
+      } else {
+        needsComma = true;
+      }
+    }
+  }
+
+  /**
+   * Compares shareable instances using a {@link ValueEquivalence}.
+   */
+  private static final class SharedValueKey {
+    private final ValueEquivalence equivalence;
+    private final int hashCode;
+    private final Object instance;
+
+    SharedValueKey(ValueEquivalence equivalence, Object instance) {
+      this.equivalence = equivalence;
+      this.hashCode = equivalence.hash(instance);
+      this.instance = instance;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SharedValueKey)) {
+        return false;
+      }
+      SharedValueKey other = (SharedValueKey) obj;
+      return hashCode == other.hashCode
+          && equivalence.equivalent(instance, other.instance);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
   /**
    * Enumeration used to provided typed instance writers.
    */
@@ -514,10 +596,18 @@ public final class ServerSerializationStreamWriter extends
 
   private final SerializationPolicy serializationPolicy;
 
+  /**
+   * The index of the first instance written of each group of equivalent
+   * shareable instances, or <code>null</code> if none are shared.
+   */
+  private Map<SharedValueKey, Integer> sharedValues;
+
   private ArrayList<String> tokenList = new ArrayList<String>();
 
   private int tokenListCharCount;
 
+  private ValueEquivalence valueEquivalence;
+
   public ServerSerializationStreamWriter(SerializationPolicy serializationPolicy) {
     this.serializationPolicy = serializationPolicy;
   }
@@ -527,6 +617,9 @@ public final class ServerSerializationStreamWriter extends
     super.prepareToWrite();
     tokenList.clear();
     tokenListCharCount = 0;
+    if (sharedValues != null) {
+      sharedValues.clear();
+    }
   }
 
   public void serializeValue(Object value, Class<?> type)
@@ -540,6 +633,22 @@ public final class ServerSerializationStreamWriter extends
     }
   }
 
+  /**
+   * Sends the instances which are equivalent to one already written as
+   * back-references to it, rather than as copies, shrinking the payload and
+   * the work of the client. Only the instances which the equivalence declares
+   * shareable are considered; others are shared only if they are the same
+   * instance. Must be called before {@link #prepareToWrite()}.
+   * 
+   * @param valueEquivalence the equivalence of shareable instances, or
+   *          <code>null</code> to share only identical instances
+   */
+  public void setValueEquivalence(ValueEquivalence valueEquivalence) {
+    this.valueEquivalence = valueEquivalence;
+    sharedValues = valueEquivalence == null ? null
+        : new HashMap<SharedValueKey, Integer>();
+  }
+
   /**
    * Build an array of JavaScript string literals that can be decoded by the
    * client via the eval function.
@@ -561,6 +670,38 @@ public final class ServerSerializationStreamWriter extends
     return stream.toString();
   }
   
+  /**
+   * Writes the same text as {@link #toString()} to <code>out</code>, without
+   * first building it in memory. Only the serialized tokens themselves are
+   * held, so for large responses this avoids several payload-sized copies.
+   * 
+   * @param out the writer to receive the payload; it is neither flushed nor
+   *          closed
+   * @throws IOException if writing to <code>out</code> fails
+   */
+  public void writeTo(Writer out) throws IOException {
+    LengthConstrainedArrayWriter stream = new LengthConstrainedArrayWriter(out);
+
+    // Payload, in reverse.
+    ListIterator<String> tokenIterator = tokenList.listIterator(tokenList.size());
+    while (tokenIterator.hasPrevious()) {
+      stream.addToken(tokenIterator.previous());
+    }
+
+    // String table, nested as a single token.
+    stream.startToken();
+    LengthConstrainedArrayWriter tableStream = new LengthConstrainedArrayWriter(out);
+    for (String s : getStringTable()) {
+      tableStream.addToken(escapeString(s));
+    }
+    tableStream.close();
+
+    // Header.
+    stream.addToken(String.valueOf(getFlags()));
+    stream.addToken(String.valueOf(getVersion()));
+    stream.close();
+  }
+
   @Override
   public void writeLong(long value) {
     if (getVersion() == SERIALIZATION_STREAM_MIN_VERSION) {
@@ -586,6 +727,18 @@ public final class ServerSerializationStreamWriter extends
     }
   }
 
+  @Override
+  protected int getIndexForObject(Object instance) {
+    int index = super.getIndexForObject(instance);
+    if (index < 0 && sharedValues != null && valueEquivalence.isShareable(instance)) {
+      Integer sharedIndex = sharedValues.get(new SharedValueKey(valueEquivalence, instance));
+      if (sharedIndex != null) {
+        index = sharedIndex;
+      }
+    }
+    return index;
+  }
+
   @Override
   protected String getObjectTypeSignature(Object instance)
       throws SerializationException {
@@ -606,6 +759,15 @@ public final class ServerSerializationStreamWriter extends
     }
   }
 
+  @Override
+  protected void saveIndexForObject(Object instance) {
+    super.saveIndexForObject(instance);
+    if (sharedValues != null && valueEquivalence.isShareable(instance)) {
+      sharedValues.put(new SharedValueKey(valueEquivalence, instance),
+          super.getIndexForObject(instance));
+    }
+  }
+
   @Override
   protected void serialize(Object instance, String typeSignature)
       throws SerializationException {
@@ -645,34 +807,21 @@ public final class ServerSerializationStreamWriter extends
   private void serializeClass(Object instance, Class<?> instanceClass)
       throws SerializationException {
     assert (instance != null);
-    Field[] serializableFields = SerializabilityUtil.applyFieldSerializationPolicy(instanceClass);
+    ClassSerializationPlan plan = ClassSerializationPlan.get(instanceClass, serializationPolicy);
 
     /**
-     * If clientFieldNames is non-null, identify any additional server-only fields and serialize
-     * them separately.  Java serialization is used to construct a byte array, which is encoded
+     * If the class is enhanced, serialize any server-only fields separately.
+     * Java serialization is used to construct a byte array, which is encoded
      * as a String and written prior to the rest of the field data.
      */
-    Set<String> clientFieldNames = serializationPolicy.getClientFieldNamesForEnhancedClass(instanceClass);
-    if (clientFieldNames != null) {
-      List<Field> serverFields = new ArrayList<Field>();
-      for (Field declField : serializableFields) {
-        assert (declField != null);
-        
-        // Identify server-only fields
-        if (!clientFieldNames.contains(declField.getName())) {
-          serverFields.add(declField);
-          continue;
-        }
-      }
-      
+    if (plan.serverOnlyFields != null) {
       // Serialize the server-only fields into a byte array and encode as a String
       try {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeInt(serverFields.size());
-        for (Field f : serverFields) {
+        oos.writeInt(plan.serverOnlyFields.length);
+        for (Field f : plan.serverOnlyFields) {
           oos.writeObject(f.getName());
-          f.setAccessible(true);
           Object fieldData = f.get(instance);
           oos.writeObject(fieldData);
         }
@@ -687,26 +836,15 @@ public final class ServerSerializationStreamWriter extends
         throw new SerializationException(e);
       }
     }
-    
-    // Write the client-visible field data
-    for (Field declField : serializableFields) {
-      if ((clientFieldNames != null) && !clientFieldNames.contains(declField.getName())) {
-        // Skip server-only fields
-        continue;
-      }
-
-      boolean isAccessible = declField.isAccessible();
-      boolean needsAccessOverride = !isAccessible
-          && !Modifier.isPublic(declField.getModifiers());
-      if (needsAccessOverride) {
-        // Override the access restrictions
-        declField.setAccessible(true);
-      }
 
+    // Write the client-visible field data
+    Field[] fields = plan.fields;
+    Class<?>[] fieldTypes = plan.fieldTypes;
+    for (int i = 0; i < fields.length; i++) {
       Object value;
       try {
-        value = declField.get(instance);
-        serializeValue(value, declField.getType());
+        value = fields[i].get(instance);
+        serializeValue(value, fieldTypes[i]);
 
       } catch (IllegalArgumentException e) {
         throw new SerializationException(e);
@@ -716,9 +854,8 @@ public final class ServerSerializationStreamWriter extends
       }
     }
 
-    Class<?> superClass = instanceClass.getSuperclass();
-    if (serializationPolicy.shouldSerializeFields(superClass)) {
-      serializeImpl(instance, superClass);
+    if (plan.serializeSuperclassFields) {
+      serializeImpl(instance, instanceClass.getSuperclass());
     }
   }
 
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+import com.google.gwt.user.server.rpc.ValueEquivalence;
+
+import java.util.Set;
+
+/**
+ * A {@link SerializationPolicy} which defers to another, but whose responses
+ * share the instances found equivalent by a {@link ValueEquivalence}.
+ */
+public class ValueSharingSerializationPolicy extends SerializationPolicy {
+
+  /**
+   * Wraps a policy which obfuscates type names.
+   */
+  private static class Obfuscating extends ValueSharingSerializationPolicy implements
+      TypeNameObfuscator {
+
+    Obfuscating(SerializationPolicy delegate, ValueEquivalence valueEquivalence) {
+      super(delegate, valueEquivalence);
+    }
+
+    public String getClassNameForTypeId(String id) throws SerializationException {
+      return ((TypeNameObfuscator) getDelegate()).getClassNameForTypeId(id);
+    }
+
+    public String getTypeIdForClass(Class<?> clazz) throws SerializationException {
+      return ((TypeNameObfuscator) getDelegate()).getTypeIdForClass(clazz);
+    }
+  }
+
+  /**
+   * Returns a policy which behaves as <code>delegate</code>, including whether
+   * it is a {@link TypeNameObfuscator}, but which shares the instances found
+   * equivalent by <code>valueEquivalence</code>.
+   */
+  public static SerializationPolicy wrap(SerializationPolicy delegate,
+      ValueEquivalence valueEquivalence) {
+    if (delegate instanceof TypeNameObfuscator) {
+      return new Obfuscating(delegate, valueEquivalence);
+    }
+    return new ValueSharingSerializationPolicy(delegate, valueEquivalence);
+  }
+
+  private final SerializationPolicy delegate;
+
+  private final ValueEquivalence valueEquivalence;
+
+  private ValueSharingSerializationPolicy(SerializationPolicy delegate,
+      ValueEquivalence valueEquivalence) {
+    this.delegate = delegate;
+    this.valueEquivalence = valueEquivalence;
+  }
+
+  @Override
+  public Set<String> getClientFieldNamesForEnhancedClass(Class<?> clazz) {
+    return delegate.getClientFieldNamesForEnhancedClass(clazz);
+  }
+
+  public SerializationPolicy getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public ValueEquivalence getValueEquivalence() {
+    return valueEquivalence;
+  }
+
+  @Override
+  public boolean shouldDeserializeFields(Class<?> clazz) {
+    return delegate.shouldDeserializeFields(clazz);
+  }
+
+  @Override
+  public boolean shouldSerializeFields(Class<?> clazz) {
+    return delegate.shouldSerializeFields(clazz);
+  }
+
+  @Override
+  public void validateDeserialize(Class<?> clazz) throws SerializationException {
+    delegate.validateDeserialize(clazz);
+  }
+
+  @Override
+  public void validateSerialize(Class<?> clazz) throws SerializationException {
+    delegate.validateSerialize(clazz);
+  }
+}
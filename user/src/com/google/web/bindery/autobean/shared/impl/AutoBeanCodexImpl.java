@@ -53,6 +53,13 @@ public class AutoBeanCodexImpl {
     Splittable extractSplittable(EncodeState state, Object value);
   }
 
+  /**
+   * Receives an encoded payload, in order, as it is produced.
+   */
+  public interface Output {
+    void append(String text);
+  }
+
   /**
    * Contains transient state for Coder operation.
    */
@@ -61,14 +68,22 @@ public class AutoBeanCodexImpl {
      * Constructs a state object used for decoding payloads.
      */
     public static EncodeState forDecode(AutoBeanFactory factory) {
-      return new EncodeState(factory, null);
+      return new EncodeState(factory, null, null);
     }
 
     /**
      * Constructs a state object used for encoding payloads.
      */
     public static EncodeState forEncode(AutoBeanFactory factory, StringBuilder sb) {
-      return new EncodeState(factory, sb);
+      return new EncodeState(factory, sb, null);
+    }
+
+    /**
+     * Constructs a state object used for encoding payloads, which passes the
+     * payload to <code>out</code> as it is encoded.
+     */
+    public static EncodeState forEncode(AutoBeanFactory factory, Output out) {
+      return new EncodeState(factory, null, out);
     }
 
     /**
@@ -76,19 +91,30 @@ public class AutoBeanCodexImpl {
      * AutoBean implementation details.
      */
     public static EncodeState forTesting() {
-      return new EncodeState(null, null);
+      return new EncodeState(null, null, null);
     }
 
     final EnumMap enumMap;
     final AutoBeanFactory factory;
+    final Output out;
     final StringBuilder sb;
     final Stack<AutoBean<?>> seen;
 
-    private EncodeState(AutoBeanFactory factory, StringBuilder sb) {
+    private EncodeState(AutoBeanFactory factory, StringBuilder sb, Output out) {
       this.factory = factory;
       enumMap = factory instanceof EnumMap ? (EnumMap) factory : null;
       this.sb = sb;
-      this.seen = sb == null ? null : new Stack<AutoBean<?>>();
+      this.out = out;
+      this.seen = sb == null && out == null ? null : new Stack<AutoBean<?>>();
+    }
+
+    void append(String text) {
+      // Encoding to a StringBuilder, as the client always does, is direct.
+      if (sb != null) {
+        sb.append(text);
+      } else {
+        out.append(text);
+      }
     }
   }
 
@@ -153,20 +179,20 @@ public class AutoBeanCodexImpl {
 
     public void encode(EncodeState state, Object value) {
       if (value == null) {
-        state.sb.append("null");
+        state.append("null");
         return;
       }
 
       Iterator<?> it = ((Collection<?>) value).iterator();
-      state.sb.append("[");
+      state.append("[");
       if (it.hasNext()) {
         elementDecoder.encode(state, it.next());
         while (it.hasNext()) {
-          state.sb.append(",");
+          state.append(",");
           elementDecoder.encode(state, it.next());
         }
       }
-      state.sb.append("]");
+      state.append("]");
     }
 
     public Splittable extractSplittable(EncodeState state, Object value) {
@@ -192,10 +218,10 @@ public class AutoBeanCodexImpl {
 
     public void encode(EncodeState state, Object value) {
       if (value == null) {
-        state.sb.append("null");
+        state.append("null");
         return;
       }
-      state.sb.append(StringQuoter.quote(state.enumMap.getToken((Enum<?>) value)));
+      state.append(StringQuoter.quote(state.enumMap.getToken((Enum<?>) value)));
     }
 
     public Splittable extractSplittable(EncodeState state, Object value) {
@@ -245,7 +271,7 @@ public class AutoBeanCodexImpl {
 
     public void encode(EncodeState state, Object value) {
       if (value == null) {
-        state.sb.append("null");
+        state.append("null");
         return;
       }
 
@@ -253,7 +279,7 @@ public class AutoBeanCodexImpl {
       boolean isSimpleMap = keyDecoder instanceof ValueCoder;
       if (isSimpleMap) {
         boolean first = true;
-        state.sb.append("{");
+        state.append("{");
         for (Map.Entry<?, ?> entry : map.entrySet()) {
           Object mapKey = entry.getKey();
           if (mapKey == null) {
@@ -265,19 +291,19 @@ public class AutoBeanCodexImpl {
           if (first) {
             first = false;
           } else {
-            state.sb.append(",");
+            state.append(",");
           }
 
           keyDecoder.encode(state, mapKey);
-          state.sb.append(":");
+          state.append(":");
           if (mapValue == null) {
             // Null values must be preserved
-            state.sb.append("null");
+            state.append("null");
           } else {
             valueDecoder.encode(state, mapValue);
           }
         }
-        state.sb.append("}");
+        state.append("}");
       } else {
         List<Object> keys = new ArrayList<Object>(map.size());
         List<Object> values = new ArrayList<Object>(map.size());
@@ -285,11 +311,11 @@ public class AutoBeanCodexImpl {
           keys.add(entry.getKey());
           values.add(entry.getValue());
         }
-        state.sb.append("[");
+        state.append("[");
         collectionCoder(List.class, keyDecoder).encode(state, keys);
-        state.sb.append(",");
+        state.append(",");
         collectionCoder(List.class, valueDecoder).encode(state, values);
-        state.sb.append("]");
+        state.append("]");
       }
     }
 
@@ -315,7 +341,7 @@ public class AutoBeanCodexImpl {
 
     public void encode(EncodeState state, Object value) {
       if (value == null) {
-        state.sb.append("null");
+        state.append("null");
         return;
       }
       doEncode(state, AutoBeanUtils.getAutoBean(value));
@@ -368,7 +394,7 @@ public class AutoBeanCodexImpl {
 
     @Override
     public void endVisit(AutoBean<?> bean, Context ctx) {
-      state.sb.append("}");
+      state.append("}");
       state.seen.pop();
     }
 
@@ -378,7 +404,7 @@ public class AutoBeanCodexImpl {
         throw new HaltException(new UnsupportedOperationException("Cycles not supported"));
       }
       state.seen.push(bean);
-      state.sb.append("{");
+      state.append("{");
       return true;
     }
 
@@ -406,10 +432,10 @@ public class AutoBeanCodexImpl {
       if (first) {
         first = false;
       } else {
-        state.sb.append(",");
+        state.append(",");
       }
-      state.sb.append(StringQuoter.quote(propertyName));
-      state.sb.append(":");
+      state.append(StringQuoter.quote(propertyName));
+      state.append(":");
       decoder.encode(state, value);
     }
   }
@@ -463,10 +489,10 @@ public class AutoBeanCodexImpl {
 
     public void encode(EncodeState state, Object value) {
       if (value == null) {
-        state.sb.append("null");
+        state.append("null");
         return;
       }
-      state.sb.append(((Splittable) value).getPayload());
+      state.append(((Splittable) value).getPayload());
     }
 
     public Splittable extractSplittable(EncodeState state, Object value) {
@@ -493,7 +519,7 @@ public class AutoBeanCodexImpl {
     }
 
     public void encode(EncodeState state, Object value) {
-      state.sb.append(ValueCodex.encode(type, value).getPayload());
+      state.append(ValueCodex.encode(type, value).getPayload());
     }
 
     public Splittable extractSplittable(EncodeState state, Object value) {
@@ -63,6 +63,22 @@ public class Configuration {
       return this;
     }
 
+    /**
+     * Controls whether the AutoBeans are implemented by classes generated at
+     * runtime, rather than by {@link java.lang.reflect.Proxy} instances which
+     * dispatch each call reflectively. A type for which no class can be
+     * generated, such as a non-public interface, is still implemented by a
+     * Proxy. The default is the value of the
+     * <code>gwt.autobean.generateClasses</code> system property.
+     * 
+     * @param generateClasses <code>true</code> to generate classes
+     * @return the Builder
+     */
+    public Builder setGenerateClasses(boolean generateClasses) {
+      toReturn.generateClasses = generateClasses;
+      return this;
+    }
+
     /**
      * Equivalent to applying a
      * {@link com.google.web.bindery.autobean.shared.AutoBeanFactory.NoWrap
@@ -79,6 +95,8 @@ public class Configuration {
 
   private List<Class<?>> categories = Collections.emptyList();
 
+  private boolean generateClasses = Boolean.getBoolean("gwt.autobean.generateClasses");
+
   private Set<Class<?>> noWrap = new HashSet<Class<?>>();
 
   private Configuration() {
@@ -91,4 +109,8 @@ public class Configuration {
   public Set<Class<?>> getNoWrap() {
     return noWrap;
   }
+
+  public boolean isGeneratingClasses() {
+    return generateClasses;
+  }
 }
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm.impl;
+
+import com.google.gwt.dev.asm.ClassWriter;
+import com.google.gwt.dev.asm.Opcodes;
+import com.google.gwt.dev.asm.Type;
+import com.google.gwt.dev.asm.commons.GeneratorAdapter;
+import com.google.gwt.dev.asm.commons.Method;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates classes which implement the shims and simple peers of
+ * {@link ProxyAutoBean ProxyAutoBeans}, as an alternative to Proxy instances.
+ * The method of a generated shim calls the wrapped object directly, and the
+ * getters and setters of a generated simple peer call the AutoBean directly,
+ * instead of each call being dispatched reflectively through an
+ * InvocationHandler.
+ * <p>
+ * A class is only generated for a public interface whose methods return
+ * public types. Otherwise, the AutoBean uses a Proxy.
+ */
+final class BeanClassGenerator {
+
+  /**
+   * Describes the methods of a generated class.
+   */
+  static final class Info {
+    private final Constructor<?> constructor;
+    private final Object[] defaultValues;
+    private final java.lang.reflect.Method[] methods;
+    private final String[] propertyNames;
+
+    Info(Constructor<?> constructor, List<java.lang.reflect.Method> methods) {
+      this.constructor = constructor;
+      this.methods = methods.toArray(new java.lang.reflect.Method[methods.size()]);
+      defaultValues = new Object[this.methods.length];
+      propertyNames = new String[this.methods.length];
+      for (int i = 0, j = this.methods.length; i < j; i++) {
+        java.lang.reflect.Method method = this.methods[i];
+        if (BeanMethod.GET.matches(method)) {
+          propertyNames[i] = BeanMethod.GET.inferName(method);
+          if (method.getReturnType().isPrimitive()) {
+            defaultValues[i] = TypeUtils.getDefaultPrimitiveValue(method.getReturnType());
+          }
+        } else if (BeanMethod.SET.matches(method) || BeanMethod.SET_BUILDER.matches(method)) {
+          propertyNames[i] = BeanMethod.SET.inferName(method);
+        }
+      }
+    }
+
+    Object getDefaultValue(int index) {
+      return defaultValues[index];
+    }
+
+    java.lang.reflect.Method getMethod(int index) {
+      return methods[index];
+    }
+
+    String getMethodName(int index) {
+      return methods[index].getName();
+    }
+
+    String getPropertyName(int index) {
+      return propertyNames[index];
+    }
+
+    Class<?> getReturnType(int index) {
+      return methods[index].getReturnType();
+    }
+
+    Object newInstance(ProxyAutoBean<?> bean) {
+      try {
+        return constructor.newInstance(bean, this);
+      } catch (InstantiationException e) {
+        throw new RuntimeException(e);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Defines one generated class. The classes of this package are loaded from
+   * the ClassLoader which loaded the generator, and all others from the
+   * ClassLoader of the interface.
+   */
+  private static class DefiningLoader extends ClassLoader {
+    DefiningLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException {
+      if (name.startsWith(SUPPORT_PACKAGE)) {
+        return Class.forName(name, false, BeanClassGenerator.class.getClassLoader());
+      }
+      return super.loadClass(name, resolve);
+    }
+  }
+
+  private static final Type ARGS_TYPE = Type.getType(Object[].class);
+
+  private static final Method CONSTRUCTOR = new Method("<init>", Type.VOID_TYPE, new Type[] {
+      Type.getType(ProxyAutoBean.class), Type.getType(Info.class)});
+
+  /**
+   * Marks an interface for which no class can be generated.
+   */
+  private static final Info FAILED = new Info(null, new ArrayList<java.lang.reflect.Method>());
+
+  private static final String GENERATED_PACKAGE = "com.google.web.bindery.autobean.vm.generated.";
+
+  private static final Logger log = Logger.getLogger(BeanClassGenerator.class.getName());
+
+  private static final Type OBJECT_TYPE = Type.getType(Object.class);
+
+  /**
+   * An Info refers to its interface through its methods and through the
+   * ClassLoader of its generated class, whose parent is that of the interface.
+   * The Infos are held softly, since holding them strongly would keep the keys
+   * of these maps, and the ClassLoaders of the interfaces, from ever being
+   * collected.
+   */
+  private static final Map<Class<?>, Reference<Info>> shims =
+      new WeakHashMap<Class<?>, Reference<Info>>();
+
+  private static final Map<Class<?>, Reference<Info>> simpleBeans =
+      new WeakHashMap<Class<?>, Reference<Info>>();
+
+  private static final String SUPPORT_PACKAGE = BeanClassGenerator.class.getPackage().getName()
+      + ".";
+
+  /**
+   * Returns a generated shim for the bean, or <code>null</code> if a Proxy
+   * must be used.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T createShim(ProxyAutoBean<T> bean) {
+    Info info = getInfo(shims, GeneratedShim.class, bean.getType());
+    return info == FAILED ? null : (T) info.newInstance(bean);
+  }
+
+  /**
+   * Returns a generated simple peer for the bean, or <code>null</code> if a
+   * Proxy must be used.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T createSimpleBean(ProxyAutoBean<T> bean) {
+    Info info = getInfo(simpleBeans, GeneratedSimpleBean.class, bean.getType());
+    return info == FAILED ? null : (T) info.newInstance(bean);
+  }
+
+  /**
+   * Box the top value of the stack using the <code>valueOf</code> methods,
+   * which may share instances.
+   */
+  private static void box(GeneratorAdapter mg, Type type) {
+    if (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY
+        || type.getSort() == Type.VOID) {
+      mg.box(type);
+      return;
+    }
+    Type boxed = Type.getType(TypeUtils.maybeAutobox(getClass(type)));
+    mg.invokeStatic(boxed, new Method("valueOf", boxed, new Type[] {type}));
+  }
+
+  private static Info generate(Class<?> base, Class<?> intf) throws NoSuchMethodException {
+    if (!intf.isInterface() || !isAccessible(intf)) {
+      return FAILED;
+    }
+    // Methods with the name and descriptor of one of the base's helpers
+    Set<String> reserved = new HashSet<String>();
+    for (java.lang.reflect.Method method : base.getDeclaredMethods()) {
+      if (Modifier.isFinal(method.getModifiers())) {
+        reserved.add(method.getName() + Type.getMethodDescriptor(method));
+      }
+    }
+    List<java.lang.reflect.Method> methods = new ArrayList<java.lang.reflect.Method>();
+    Set<String> seen = new HashSet<String>();
+    for (java.lang.reflect.Method method : intf.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers())) {
+        continue;
+      }
+      String descriptor = method.getName() + Type.getMethodDescriptor(method);
+      if (reserved.contains(descriptor)) {
+        return FAILED;
+      }
+      Class<?> returnType = method.getReturnType();
+      while (returnType.isArray()) {
+        returnType = returnType.getComponentType();
+      }
+      if (!returnType.isPrimitive() && !isAccessible(returnType)) {
+        return FAILED;
+      }
+      if (seen.add(descriptor)) {
+        methods.add(method);
+      }
+    }
+
+    String name =
+        GENERATED_PACKAGE + intf.getName().replace('.', '_') + "$" + base.getSimpleName();
+    byte[] bytes =
+        base == GeneratedShim.class ? generateShim(name, intf, methods) : generateSimpleBean(
+            name, intf, methods);
+    Class<?> clazz = new DefiningLoader(intf.getClassLoader()).define(name, bytes);
+    return new Info(clazz.getConstructor(ProxyAutoBean.class, Info.class), methods);
+  }
+
+  private static byte[] generateShim(String name, Class<?> intf,
+      List<java.lang.reflect.Method> methods) {
+    Type baseType = Type.getType(GeneratedShim.class);
+    Type intfType = Type.getType(intf);
+    ClassWriter cw = startClass(name, baseType, intfType);
+    for (int i = 0, j = methods.size(); i < j; i++) {
+      java.lang.reflect.Method method = methods.get(i);
+      Method asmMethod = new Method(method.getName(), Type.getMethodDescriptor(method));
+      GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, asmMethod, null, null, cw);
+      Type returnType = asmMethod.getReturnType();
+
+      mg.loadThis();
+      mg.push(i);
+      // Call the wrapped object
+      mg.loadThis();
+      mg.invokeVirtual(baseType, new Method("__wrapped", OBJECT_TYPE, new Type[0]));
+      mg.checkCast(intfType);
+      mg.loadArgs();
+      mg.invokeInterface(intfType, asmMethod);
+      box(mg, returnType);
+
+      if (BeanMethod.GET.matches(method)) {
+        mg.invokeVirtual(baseType, new Method("__afterGet", OBJECT_TYPE, new Type[] {
+            Type.INT_TYPE, OBJECT_TYPE}));
+      } else if (BeanMethod.SET.matches(method) || BeanMethod.SET_BUILDER.matches(method)) {
+        mg.loadArg(0);
+        box(mg, asmMethod.getArgumentTypes()[0]);
+        mg.invokeVirtual(baseType, new Method("__afterSet", OBJECT_TYPE, new Type[] {
+            Type.INT_TYPE, OBJECT_TYPE, OBJECT_TYPE}));
+      } else {
+        loadArgArray(mg, asmMethod);
+        mg.invokeVirtual(baseType, new Method("__afterCall", OBJECT_TYPE, new Type[] {
+            Type.INT_TYPE, OBJECT_TYPE, ARGS_TYPE}));
+      }
+      returnValue(mg, returnType);
+    }
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static byte[] generateSimpleBean(String name, Class<?> intf,
+      List<java.lang.reflect.Method> methods) {
+    Type baseType = Type.getType(GeneratedSimpleBean.class);
+    ClassWriter cw = startClass(name, baseType, Type.getType(intf));
+    for (int i = 0, j = methods.size(); i < j; i++) {
+      java.lang.reflect.Method method = methods.get(i);
+      Method asmMethod = new Method(method.getName(), Type.getMethodDescriptor(method));
+      GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, asmMethod, null, null, cw);
+      Type returnType = asmMethod.getReturnType();
+
+      mg.loadThis();
+      mg.push(i);
+      // The order of the tests is that of SimpleBeanHandler
+      if (BeanMethod.GET.matches(method)) {
+        mg.invokeVirtual(baseType, new Method("__get", OBJECT_TYPE, new Type[] {Type.INT_TYPE}));
+      } else if (BeanMethod.SET.matches(method) || BeanMethod.SET_BUILDER.matches(method)) {
+        mg.loadArg(0);
+        box(mg, asmMethod.getArgumentTypes()[0]);
+        mg.invokeVirtual(baseType, new Method("__set", Type.VOID_TYPE, new Type[] {
+            Type.INT_TYPE, OBJECT_TYPE}));
+        if (returnType.getSort() == Type.VOID) {
+          mg.returnValue();
+          mg.endMethod();
+          continue;
+        }
+        mg.loadThis();
+        mg.invokeVirtual(baseType, new Method("__as", OBJECT_TYPE, new Type[0]));
+      } else {
+        // Domain methods are found in the categories by SimpleBeanHandler
+        loadArgArray(mg, asmMethod);
+        mg.invokeVirtual(baseType, new Method("__invoke", OBJECT_TYPE, new Type[] {
+            Type.INT_TYPE, ARGS_TYPE}));
+      }
+      returnValue(mg, returnType);
+    }
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  private static Class<?> getClass(Type type) {
+    switch (type.getSort()) {
+      case Type.BOOLEAN:
+        return boolean.class;
+      case Type.BYTE:
+        return byte.class;
+      case Type.CHAR:
+        return char.class;
+      case Type.DOUBLE:
+        return double.class;
+      case Type.FLOAT:
+        return float.class;
+      case Type.INT:
+        return int.class;
+      case Type.LONG:
+        return long.class;
+      case Type.SHORT:
+        return short.class;
+      default:
+        throw new IllegalArgumentException(type.getDescriptor());
+    }
+  }
+
+  private static Info getInfo(Map<Class<?>, Reference<Info>> cache, Class<?> base,
+      Class<?> intf) {
+    synchronized (cache) {
+      Reference<Info> ref = cache.get(intf);
+      Info toReturn = ref == null ? null : ref.get();
+      if (toReturn == null) {
+        Throwable failure = null;
+        try {
+          toReturn = generate(base, intf);
+        } catch (NoSuchMethodException e) {
+          failure = e;
+        } catch (RuntimeException e) {
+          failure = e;
+        } catch (LinkageError e) {
+          failure = e;
+        }
+        if (failure != null) {
+          log.log(Level.WARNING, "Could not generate a class for " + intf.getName(), failure);
+          toReturn = FAILED;
+        }
+        cache.put(intf, new SoftReference<Info>(toReturn));
+      }
+      return toReturn;
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if a class in another package may refer to the
+   * type.
+   */
+  private static boolean isAccessible(Class<?> clazz) {
+    for (Class<?> c = clazz; c != null; c = c.getEnclosingClass()) {
+      if (!Modifier.isPublic(c.getModifiers())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Loads the arguments as an array, or <code>null</code> if there are none,
+   * as a Proxy would pass them.
+   */
+  private static void loadArgArray(GeneratorAdapter mg, Method asmMethod) {
+    if (asmMethod.getArgumentTypes().length == 0) {
+      mg.visitInsn(Opcodes.ACONST_NULL);
+    } else {
+      mg.loadArgArray();
+    }
+  }
+
+  /**
+   * Returns the Object on the top of the stack as the method's return type.
+   */
+  private static void returnValue(GeneratorAdapter mg, Type returnType) {
+    if (returnType.getSort() == Type.VOID) {
+      mg.pop();
+    } else {
+      mg.unbox(returnType);
+    }
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  private static ClassWriter startClass(String name, Type baseType, Type intfType) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+        name.replace('.', '/'), null, baseType.getInternalName(), new String[] {intfType
+            .getInternalName()});
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, CONSTRUCTOR, null, null, cw);
+    mg.loadThis();
+    mg.loadArgs();
+    mg.invokeConstructor(baseType, CONSTRUCTOR);
+    mg.returnValue();
+    mg.endMethod();
+    return cw;
+  }
+
+  private BeanClassGenerator() {
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The superclass of the shims generated by {@link BeanClassGenerator}. A
+ * generated method calls the wrapped object directly, then passes the result
+ * through one of the methods of this type, which behave as {@link ShimHandler}
+ * does.
+ * <p>
+ * This type is public only so that it can be extended by classes defined in
+ * another ClassLoader.
+ *
+ * @param <T> the interface type of the AutoBean
+ */
+public abstract class GeneratedShim<T> {
+  private final ProxyAutoBean<T> bean;
+  private final BeanClassGenerator.Info info;
+  private final Method interceptor;
+
+  protected GeneratedShim(ProxyAutoBean<T> bean, BeanClassGenerator.Info info) {
+    this.bean = bean;
+    this.info = info;
+    interceptor = ShimHandler.findInterceptor(bean.getConfiguration());
+  }
+
+  @Override
+  public boolean equals(Object couldBeShim) {
+    if (couldBeShim == null) {
+      return false;
+    }
+    // Handles the foo.equals(foo) case
+    if (this == couldBeShim) {
+      return true;
+    }
+    return bean.getWrapped().equals(couldBeShim);
+  }
+
+  @Override
+  public int hashCode() {
+    return bean.getWrapped().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return bean.getWrapped().toString();
+  }
+
+  /**
+   * Finishes a call to a domain method.
+   */
+  protected final Object __afterCall(int index, Object returned, Object[] args) throws Throwable {
+    bean.call(info.getMethodName(index), returned, args);
+    return finish(index, returned);
+  }
+
+  /**
+   * Finishes a call to a getter.
+   */
+  protected final Object __afterGet(int index, Object returned) throws Throwable {
+    return finish(index, bean.get(info.getMethodName(index), returned));
+  }
+
+  /**
+   * Finishes a call to a setter.
+   */
+  protected final Object __afterSet(int index, Object returned, Object value) throws Throwable {
+    bean.set(info.getMethodName(index), value);
+    return finish(index, returned);
+  }
+
+  protected final Object __wrapped() {
+    return bean.getWrapped();
+  }
+
+  private Object finish(int index, Object toReturn) throws Throwable {
+    Class<?> intf = info.getReturnType(index);
+    if (!Object.class.equals(intf)) {
+      toReturn = ShimHandler.maybeWrap(bean, intf, toReturn);
+    }
+    if (interceptor != null) {
+      try {
+        toReturn = interceptor.invoke(null, bean, toReturn);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+    return toReturn;
+  }
+}
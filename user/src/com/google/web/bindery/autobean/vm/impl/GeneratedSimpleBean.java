@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm.impl;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * The superclass of the simple peers generated by {@link BeanClassGenerator}.
+ * Generated getters and setters call the AutoBean's properties directly; other
+ * methods are dispatched through a {@link SimpleBeanHandler}, as they would be
+ * from a Proxy.
+ * <p>
+ * This type is public only so that it can be extended by classes defined in
+ * another ClassLoader.
+ *
+ * @param <T> the interface type of the AutoBean
+ */
+public abstract class GeneratedSimpleBean<T> {
+  private static final Method EQUALS;
+  private static final Method HASH_CODE;
+  private static final Method TO_STRING;
+
+  static {
+    try {
+      EQUALS = Object.class.getMethod("equals", Object.class);
+      HASH_CODE = Object.class.getMethod("hashCode");
+      TO_STRING = Object.class.getMethod("toString");
+    } catch (NoSuchMethodException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final SimpleBeanHandler<T> handler;
+  private final BeanClassGenerator.Info info;
+
+  protected GeneratedSimpleBean(ProxyAutoBean<T> bean, BeanClassGenerator.Info info) {
+    this.handler = new SimpleBeanHandler<T>(bean);
+    this.info = info;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return (Boolean) invokeObjectMethod(EQUALS, new Object[] {obj});
+  }
+
+  @Override
+  public int hashCode() {
+    return (Integer) invokeObjectMethod(HASH_CODE, null);
+  }
+
+  @Override
+  public String toString() {
+    return (String) invokeObjectMethod(TO_STRING, null);
+  }
+
+  protected final Object __as() {
+    return handler.getBean().as();
+  }
+
+  /**
+   * Returns the value of a property, or the default value of a primitive
+   * property which has not been set.
+   */
+  protected final Object __get(int index) {
+    Object toReturn = handler.getBean().getOrReify(info.getPropertyName(index));
+    return toReturn == null ? info.getDefaultValue(index) : toReturn;
+  }
+
+  /**
+   * Dispatches a method which is neither a getter nor a setter.
+   */
+  protected final Object __invoke(int index, Object[] args) throws Throwable {
+    return handler.invoke(this, info.getMethod(index), args);
+  }
+
+  protected final void __set(int index, Object value) {
+    handler.getBean().setProperty(info.getPropertyName(index), value);
+  }
+
+  private Object invokeObjectMethod(Method method, Object[] args) {
+    try {
+      return handler.invoke(this, method, args);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new UndeclaredThrowableException(e);
+    }
+  }
+}
@@ -149,6 +149,10 @@ public class JsonSplittable implements Splittable, HasSplittable {
   }
 
   public void assign(Splittable parent, int index) {
+    if (parent instanceof LazyJsonSplittable) {
+      ((LazyJsonSplittable) parent).put(index, isNull ? null : this);
+      return;
+    }
     try {
       ((JsonSplittable) parent).array.put(index, value());
     } catch (JSONException e) {
@@ -157,6 +161,10 @@ public class JsonSplittable implements Splittable, HasSplittable {
   }
 
   public void assign(Splittable parent, String propertyName) {
+    if (parent instanceof LazyJsonSplittable) {
+      ((LazyJsonSplittable) parent).put(propertyName, isNull ? null : this);
+      return;
+    }
     try {
       ((JsonSplittable) parent).obj.put(propertyName, value());
     } catch (JSONException e) {
@@ -0,0 +1,601 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm.impl;
+
+import com.google.web.bindery.autobean.shared.Splittable;
+import com.google.web.bindery.autobean.shared.impl.HasSplittable;
+import com.google.web.bindery.autobean.shared.impl.StringQuoter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A Splittable which reads a JSON payload from a character buffer on demand.
+ * The whole payload is checked against the JSON grammar when it is created,
+ * but the members of an object or array are only found the first time one of
+ * them is used, and each value is only decoded when it is asked for, so the
+ * parts of a payload which are never visited cost no more than a scan. A
+ * payload which is not modified is returned as it was read.
+ * <p>
+ * A LazyJsonSplittable may be assigned into a {@link JsonSplittable} and vice
+ * versa; a LazyJsonSplittable assigned into a JsonSplittable is copied.
+ */
+public class LazyJsonSplittable implements Splittable, HasSplittable {
+
+  private static final int BUFFER_SIZE = 4096;
+
+  /**
+   * The JSON number grammar.
+   */
+  private static final Pattern NUMBER =
+      Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+  /**
+   * Splits a JSON payload, returning <code>null</code> for a <code>null</code>
+   * literal.
+   */
+  public static Splittable create(String payload) {
+    return create(payload.toCharArray(), payload.length());
+  }
+
+  /**
+   * Reads a JSON payload to its end without building it as a String. The
+   * reader is not closed.
+   *
+   * @return the payload, or <code>null</code> for a <code>null</code> literal
+   * @throws IOException if the reader cannot be read
+   */
+  public static Splittable read(Reader reader) throws IOException {
+    char[] buffer = new char[BUFFER_SIZE];
+    int length = 0;
+    int read;
+    while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+      length += read;
+      if (length == buffer.length) {
+        char[] larger = new char[buffer.length * 2];
+        System.arraycopy(buffer, 0, larger, 0, length);
+        buffer = larger;
+      }
+    }
+    return create(buffer, length);
+  }
+
+  private static Splittable create(char[] source, int length) {
+    int start = skipWhitespace(source, 0, length);
+    if (start == length) {
+      throw new RuntimeException("Could not parse empty payload");
+    }
+    int end = checkValue(source, start, length);
+    if (skipWhitespace(source, end, length) != length) {
+      throw parseError(end);
+    }
+    return newChild(null, source, start, end);
+  }
+
+  /**
+   * Returns the position just beyond the token which begins at
+   * <code>position</code>, which must be <code>null</code>,
+   * <code>true</code>, <code>false</code> or a number.
+   */
+  private static int checkLiteral(char[] source, int position, int limit) {
+    int end = skipLiteral(source, position, limit);
+    String token = new String(source, position, end - position);
+    if (!token.equals("null") && !token.equals("true") && !token.equals("false")
+        && !NUMBER.matcher(token).matches()) {
+      throw parseError(position);
+    }
+    return end;
+  }
+
+  /**
+   * Returns the position just beyond the string which begins at
+   * <code>position</code>, checking its escapes.
+   */
+  private static int checkString(char[] source, int position, int limit) {
+    for (int i = position + 1; i < limit; i++) {
+      char c = source[i];
+      if (c == '"') {
+        return i + 1;
+      } else if (c < ' ') {
+        throw parseError(i);
+      } else if (c == '\\') {
+        if (++i == limit) {
+          break;
+        }
+        if (source[i] == 'u') {
+          for (int j = 0; j < 4; j++) {
+            if (++i == limit || Character.digit(source[i], 16) == -1) {
+              throw parseError(i);
+            }
+          }
+        } else if ("\"\\/bfnrt".indexOf(source[i]) == -1) {
+          throw parseError(i);
+        }
+      }
+    }
+    throw parseError(position);
+  }
+
+  /**
+   * Returns the position just beyond the value which begins at
+   * <code>position</code>, checking it and everything it contains.
+   */
+  private static int checkValue(char[] source, int position, int limit) {
+    switch (source[position]) {
+      case '"':
+        return checkString(source, position, limit);
+      case '{':
+      case '[': {
+        boolean keyed = source[position] == '{';
+        char close = keyed ? '}' : ']';
+        int i = skipWhitespace(source, position + 1, limit);
+        if (i < limit && source[i] == close) {
+          return i + 1;
+        }
+        while (true) {
+          if (i == limit) {
+            throw parseError(position);
+          }
+          if (keyed) {
+            if (source[i] != '"') {
+              throw parseError(i);
+            }
+            i = skipWhitespace(source, checkString(source, i, limit), limit);
+            if (i == limit || source[i] != ':') {
+              throw parseError(i);
+            }
+            i = skipWhitespace(source, i + 1, limit);
+            if (i == limit) {
+              throw parseError(position);
+            }
+          }
+          i = skipWhitespace(source, checkValue(source, i, limit), limit);
+          if (i == limit) {
+            throw parseError(position);
+          } else if (source[i] == close) {
+            return i + 1;
+          } else if (source[i] != ',') {
+            throw parseError(i);
+          }
+          i = skipWhitespace(source, i + 1, limit);
+        }
+      }
+      default:
+        return checkLiteral(source, position, limit);
+    }
+  }
+
+  private static Splittable newChild(LazyJsonSplittable parent, char[] source, int start, int end) {
+    if (source[start] == 'n') {
+      return null;
+    }
+    return new LazyJsonSplittable(parent, source, start, end);
+  }
+
+  private static RuntimeException parseError(int position) {
+    return new RuntimeException("Could not parse payload at position " + position);
+  }
+
+  private static int skipWhitespace(char[] source, int position, int limit) {
+    while (position < limit && Character.isWhitespace(source[position])) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Returns the position just beyond the string which begins at
+   * <code>position</code>.
+   */
+  private static int skipString(char[] source, int position, int limit) {
+    for (int i = position + 1; i < limit; i++) {
+      switch (source[i]) {
+        case '\\':
+          i++;
+          break;
+        case '"':
+          return i + 1;
+      }
+    }
+    throw parseError(position);
+  }
+
+  /**
+   * Returns the position just beyond the literal which begins at
+   * <code>position</code>.
+   */
+  private static int skipLiteral(char[] source, int position, int limit) {
+    int i = position;
+    while (i < limit && "{}[],:\"".indexOf(source[i]) == -1
+        && !Character.isWhitespace(source[i])) {
+      i++;
+    }
+    if (i == position) {
+      throw parseError(position);
+    }
+    return i;
+  }
+
+  /**
+   * Returns the position just beyond the value which begins at
+   * <code>position</code>. The payload has already been checked by
+   * {@link #checkValue}, so only the nesting is followed.
+   */
+  private static int skipValue(char[] source, int position, int limit) {
+    switch (source[position]) {
+      case '"':
+        return skipString(source, position, limit);
+      case '{':
+      case '[': {
+        int depth = 0;
+        for (int i = position; i < limit; i++) {
+          switch (source[i]) {
+            case '"':
+              i = skipString(source, i, limit) - 1;
+              break;
+            case '{':
+            case '[':
+              depth++;
+              break;
+            case '}':
+            case ']':
+              if (--depth == 0) {
+                return i + 1;
+              }
+              break;
+          }
+        }
+        throw parseError(position);
+      }
+      default:
+        return skipLiteral(source, position, limit);
+    }
+  }
+
+  private List<Splittable> elements;
+  private final int end;
+  private Map<String, Splittable> members;
+  /**
+   * Set when the members differ from the source.
+   */
+  private volatile boolean modified;
+  private final LazyJsonSplittable parent;
+  private final Map<String, Object> reified = new HashMap<String, Object>();
+  private final char[] source;
+  private final int start;
+  private String string;
+
+  private LazyJsonSplittable(LazyJsonSplittable parent, char[] source, int start, int end) {
+    this.parent = parent;
+    this.source = source;
+    this.start = start;
+    this.end = end;
+  }
+
+  public boolean asBoolean() {
+    if (!isBoolean()) {
+      throw new RuntimeException("Not a boolean");
+    }
+    return source[start] == 't';
+  }
+
+  public double asNumber() {
+    if (!isNumber()) {
+      throw new RuntimeException("Not a number");
+    }
+    return Double.parseDouble(new String(source, start, end - start));
+  }
+
+  public void assign(Splittable parent, int index) {
+    if (parent instanceof LazyJsonSplittable) {
+      ((LazyJsonSplittable) parent).put(index, this);
+    } else {
+      StringQuoter.split(getPayload()).assign(parent, index);
+    }
+  }
+
+  public void assign(Splittable parent, String propertyName) {
+    if (parent instanceof LazyJsonSplittable) {
+      ((LazyJsonSplittable) parent).put(propertyName, this);
+    } else {
+      StringQuoter.split(getPayload()).assign(parent, propertyName);
+    }
+  }
+
+  public String asString() {
+    if (string == null && isString()) {
+      string = decodeString(start, end);
+    }
+    return string;
+  }
+
+  public Splittable deepCopy() {
+    return create(getPayload());
+  }
+
+  public Splittable get(int index) {
+    return elements().get(index);
+  }
+
+  public Splittable get(String key) {
+    Map<String, Splittable> map = members();
+    if (!map.containsKey(key)) {
+      throw new RuntimeException(key);
+    }
+    return map.get(key);
+  }
+
+  public String getPayload() {
+    if (!modified) {
+      return new String(source, start, end - start);
+    }
+    StringBuilder sb = new StringBuilder();
+    write(sb);
+    return sb.toString();
+  }
+
+  public List<String> getPropertyKeys() {
+    return Collections.unmodifiableList(new ArrayList<String>(members().keySet()));
+  }
+
+  public Object getReified(String key) {
+    return reified.get(key);
+  }
+
+  public Splittable getSplittable() {
+    return this;
+  }
+
+  public boolean isBoolean() {
+    return source[start] == 't' || source[start] == 'f';
+  }
+
+  public boolean isIndexed() {
+    return source[start] == '[';
+  }
+
+  public boolean isKeyed() {
+    return source[start] == '{';
+  }
+
+  public boolean isNull(int index) {
+    List<Splittable> list = elements();
+    return index >= list.size() || list.get(index) == null;
+  }
+
+  public boolean isNull(String key) {
+    // Treat undefined and null as the same
+    return members().get(key) == null;
+  }
+
+  public boolean isNumber() {
+    char c = source[start];
+    return c == '-' || (c >= '0' && c <= '9');
+  }
+
+  public boolean isReified(String key) {
+    return reified.containsKey(key);
+  }
+
+  public boolean isString() {
+    return source[start] == '"';
+  }
+
+  public boolean isUndefined(String key) {
+    return !members().containsKey(key);
+  }
+
+  public void setReified(String key, Object object) {
+    reified.put(key, object);
+  }
+
+  public void setSize(int size) {
+    List<Splittable> list = elements();
+    synchronized (this) {
+      while (list.size() > size) {
+        list.remove(list.size() - 1);
+      }
+      while (list.size() < size) {
+        list.add(null);
+      }
+      markModified();
+    }
+  }
+
+  public int size() {
+    return elements().size();
+  }
+
+  /**
+   * Called by {@link JsonSplittable#assign(Splittable, int)}.
+   */
+  void put(int index, Splittable value) {
+    List<Splittable> list = elements();
+    synchronized (this) {
+      while (list.size() <= index) {
+        list.add(null);
+      }
+      list.set(index, value);
+      markModified();
+    }
+  }
+
+  /**
+   * Called by {@link JsonSplittable#assign(Splittable, String)}.
+   */
+  void put(String key, Splittable value) {
+    Map<String, Splittable> map = members();
+    synchronized (this) {
+      map.put(key, value);
+      markModified();
+    }
+  }
+
+  private String decodeString(int from, int to) {
+    StringBuilder sb = new StringBuilder(to - from);
+    for (int i = from + 1, j = to - 1; i < j; i++) {
+      char c = source[i];
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      c = source[++i];
+      switch (c) {
+        case 'b':
+          sb.append('\b');
+          break;
+        case 'f':
+          sb.append('\f');
+          break;
+        case 'n':
+          sb.append('\n');
+          break;
+        case 'r':
+          sb.append('\r');
+          break;
+        case 't':
+          sb.append('\t');
+          break;
+        case 'u':
+          if (i + 4 >= j) {
+            throw parseError(i);
+          }
+          try {
+            sb.append((char) Integer.parseInt(new String(source, i + 1, 4), 16));
+          } catch (NumberFormatException e) {
+            throw parseError(i);
+          }
+          i += 4;
+          break;
+        default:
+          // Includes \" \\ and \/
+          sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private synchronized List<Splittable> elements() {
+    if (elements == null) {
+      if (!isIndexed()) {
+        throw new RuntimeException("Not an array");
+      }
+      List<Splittable> list = new ArrayList<Splittable>();
+      int i = skipWhitespace(source, start + 1, end);
+      if (source[i] != ']') {
+        while (true) {
+          int valueEnd = skipValue(source, i, end);
+          list.add(newChild(this, source, i, valueEnd));
+          i = skipWhitespace(source, valueEnd, end);
+          if (source[i] == ']') {
+            break;
+          } else if (source[i] != ',') {
+            throw parseError(i);
+          }
+          i = skipWhitespace(source, i + 1, end);
+        }
+      }
+      elements = list;
+    }
+    return elements;
+  }
+
+  private void markModified() {
+    for (LazyJsonSplittable s = this; s != null; s = s.parent) {
+      s.modified = true;
+    }
+  }
+
+  private synchronized Map<String, Splittable> members() {
+    if (members == null) {
+      if (!isKeyed()) {
+        throw new RuntimeException("Not an object");
+      }
+      Map<String, Splittable> map = new LinkedHashMap<String, Splittable>();
+      int i = skipWhitespace(source, start + 1, end);
+      if (source[i] != '}') {
+        while (true) {
+          if (source[i] != '"') {
+            throw parseError(i);
+          }
+          int keyEnd = skipString(source, i, end);
+          String key = decodeString(i, keyEnd);
+          i = skipWhitespace(source, keyEnd, end);
+          if (source[i] != ':') {
+            throw parseError(i);
+          }
+          i = skipWhitespace(source, i + 1, end);
+          int valueEnd = skipValue(source, i, end);
+          map.put(key, newChild(this, source, i, valueEnd));
+          i = skipWhitespace(source, valueEnd, end);
+          if (source[i] == '}') {
+            break;
+          } else if (source[i] != ',') {
+            throw parseError(i);
+          }
+          i = skipWhitespace(source, i + 1, end);
+        }
+      }
+      members = map;
+    }
+    return members;
+  }
+
+  private synchronized void write(StringBuilder sb) {
+    if (!modified) {
+      sb.append(source, start, end - start);
+    } else if (members != null) {
+      sb.append("{");
+      boolean needsComma = false;
+      for (Map.Entry<String, Splittable> entry : members.entrySet()) {
+        if (needsComma) {
+          sb.append(",");
+        } else {
+          needsComma = true;
+        }
+        sb.append(StringQuoter.quote(entry.getKey())).append(":");
+        writeValue(sb, entry.getValue());
+      }
+      sb.append("}");
+    } else {
+      sb.append("[");
+      for (int i = 0, j = elements.size(); i < j; i++) {
+        if (i > 0) {
+          sb.append(",");
+        }
+        writeValue(sb, elements.get(i));
+      }
+      sb.append("]");
+    }
+  }
+
+  private void writeValue(StringBuilder sb, Splittable value) {
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof LazyJsonSplittable) {
+      ((LazyJsonSplittable) value).write(sb);
+    } else {
+      sb.append(value.getPayload());
+    }
+  }
+}
@@ -235,7 +235,12 @@ public class ProxyAutoBean<T> extends AbstractAutoBean<T> {
   @Override
   protected T getWrapped() {
     if (wrapped == null && isUsingSimplePeer()) {
-      wrapped = (T) ProxyAutoBean.makeProxy(beanType, new SimpleBeanHandler<T>(this));
+      if (configuration.isGeneratingClasses()) {
+        wrapped = BeanClassGenerator.createSimpleBean(this);
+      }
+      if (wrapped == null) {
+        wrapped = (T) ProxyAutoBean.makeProxy(beanType, new SimpleBeanHandler<T>(this));
+      }
     }
     return super.getWrapped();
   }
@@ -338,7 +343,13 @@ public class ProxyAutoBean<T> extends AbstractAutoBean<T> {
   }
 
   private T createShim() {
-    T toReturn = ProxyAutoBean.makeProxy(beanType, new ShimHandler<T>(this, getWrapped()));
+    T toReturn = null;
+    if (configuration.isGeneratingClasses()) {
+      toReturn = BeanClassGenerator.createShim(this);
+    }
+    if (toReturn == null) {
+      toReturn = ProxyAutoBean.makeProxy(beanType, new ShimHandler<T>(this, getWrapped()));
+    }
     WeakMapping.setWeak(toReturn, AutoBean.class.getName(), this);
     return toReturn;
   }
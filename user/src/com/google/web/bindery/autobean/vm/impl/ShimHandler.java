@@ -17,6 +17,7 @@ package com.google.web.bindery.autobean.vm.impl;
 
 import com.google.web.bindery.autobean.shared.AutoBean;
 import com.google.web.bindery.autobean.shared.AutoBeanUtils;
+import com.google.web.bindery.autobean.vm.Configuration;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
@@ -30,22 +31,56 @@ import java.lang.reflect.Proxy;
  * @param <T> the interface type of the AutoBean
  */
 class ShimHandler<T> implements InvocationHandler {
-  private final ProxyAutoBean<T> bean;
-  private final Method interceptor;
-
-  public ShimHandler(ProxyAutoBean<T> bean, T toWrap) {
-    this.bean = bean;
-
-    Method maybe = null;
-    for (Class<?> clazz : bean.getConfiguration().getCategories()) {
+  /**
+   * Returns the <code>__intercept</code> method of the categories, or
+   * <code>null</code>.
+   */
+  static Method findInterceptor(Configuration configuration) {
+    for (Class<?> clazz : configuration.getCategories()) {
       try {
-        maybe = clazz.getMethod("__intercept", AutoBean.class, Object.class);
-        break;
+        return clazz.getMethod("__intercept", AutoBean.class, Object.class);
       } catch (SecurityException expected) {
       } catch (NoSuchMethodException expected) {
       }
     }
-    interceptor = maybe;
+    return null;
+  }
+
+  /**
+   * Returns the shim of a value returned through <code>bean</code>'s shim,
+   * wrapping the value if it is not a value type.
+   */
+  static Object maybeWrap(ProxyAutoBean<?> bean, Class<?> intf, Object toReturn) {
+    if (toReturn == null) {
+      return null;
+    }
+    AutoBean<?> returnBean = AutoBeanUtils.getAutoBean(toReturn);
+    if (returnBean != null) {
+      return returnBean.as();
+    }
+    if (TypeUtils.isValueType(intf) || TypeUtils.isValueType(toReturn.getClass())
+        || bean.getConfiguration().getNoWrap().contains(intf)) {
+      return toReturn;
+    }
+    if (toReturn.getClass().isArray()) {
+      /*
+       * We can't reliably wrap arrays, but the only time we typically see an
+       * array is with toArray() call on a collection, since arrays aren't
+       * supported property types.
+       */
+      return toReturn;
+    }
+    ProxyAutoBean<Object> newBean =
+        new ProxyAutoBean<Object>(bean.getFactory(), intf, bean.getConfiguration(), toReturn);
+    return newBean.as();
+  }
+
+  private final ProxyAutoBean<T> bean;
+  private final Method interceptor;
+
+  public ShimHandler(ProxyAutoBean<T> bean, T toWrap) {
+    this.bean = bean;
+    interceptor = findInterceptor(bean.getConfiguration());
   }
 
   @Override
@@ -88,7 +123,7 @@ class ShimHandler<T> implements InvocationHandler {
       Class<?> intf = method.getReturnType();
       if (!Object.class.equals(intf)) {
         // XXX Need to deal with resolving generic T return types
-        toReturn = maybeWrap(intf, toReturn);
+        toReturn = maybeWrap(bean, intf, toReturn);
       }
       if (interceptor != null) {
         toReturn = interceptor.invoke(null, bean, toReturn);
@@ -103,29 +138,4 @@ class ShimHandler<T> implements InvocationHandler {
   public String toString() {
     return bean.getWrapped().toString();
   }
-
-  private Object maybeWrap(Class<?> intf, Object toReturn) {
-    if (toReturn == null) {
-      return null;
-    }
-    AutoBean<?> returnBean = AutoBeanUtils.getAutoBean(toReturn);
-    if (returnBean != null) {
-      return returnBean.as();
-    }
-    if (TypeUtils.isValueType(intf) || TypeUtils.isValueType(toReturn.getClass())
-        || bean.getConfiguration().getNoWrap().contains(intf)) {
-      return toReturn;
-    }
-    if (toReturn.getClass().isArray()) {
-      /*
-       * We can't reliably wrap arrays, but the only time we typically see an
-       * array is with toArray() call on a collection, since arrays aren't
-       * supported property types.
-       */
-      return toReturn;
-    }
-    ProxyAutoBean<Object> newBean =
-        new ProxyAutoBean<Object>(bean.getFactory(), intf, bean.getConfiguration(), toReturn);
-    return newBean.as();
-  }
 }
@@ -27,6 +27,8 @@ import com.google.web.bindery.requestfactory.shared.ServiceName;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Adds support to the ServiceLayer chain for using {@link Locator} and
@@ -90,6 +92,11 @@ final class LocatorServiceLayer extends ServiceLayerDecorator {
     return doLoadDomainObject(clazz, domainId);
   }
 
+  @Override
+  public <T> List<T> loadDomainObjects(Class<T> clazz, List<Object> domainIds) {
+    return doLoadDomainObjects(clazz, domainIds);
+  }
+
   /**
    * Returns true if the context method returns a {@link Request} and the domain
    * method is non-static.
@@ -198,6 +205,28 @@ final class LocatorServiceLayer extends ServiceLayerDecorator {
     return l.find(clazz, id);
   }
 
+  private <T, I> List<T> doLoadDomainObjects(Class<T> clazz, List<Object> domainIds) {
+    @SuppressWarnings("unchecked")
+    Locator<T, I> l = (Locator<T, I>) getLocator(clazz);
+    if (l == null || !overridesFindAll(l)) {
+      /*
+       * Load each object through the top of the chain, so that decorators of
+       * loadDomainObject() see them.
+       */
+      return super.loadDomainObjects(clazz, domainIds);
+    }
+    List<I> ids = new ArrayList<I>(domainIds.size());
+    for (Object domainId : domainIds) {
+      ids.add(l.getIdType().cast(domainId));
+    }
+    List<T> toReturn = l.findAll(clazz, ids);
+    if (toReturn == null || toReturn.size() != ids.size()) {
+      die(null, "%s.findAll() returned %s objects for %d ids", l.getClass().getCanonicalName(),
+          toReturn == null ? null : toReturn.size(), ids.size());
+    }
+    return toReturn;
+  }
+
   @SuppressWarnings("unchecked")
   private <T, I> Locator<T, I> getLocator(Class<T> domainType) {
     Class<? extends Locator<?, ?>> locatorType = getTop().resolveLocator(domainType);
@@ -207,6 +236,23 @@ final class LocatorServiceLayer extends ServiceLayerDecorator {
     return (Locator<T, I>) getTop().createLocator(locatorType);
   }
 
+  /**
+   * Returns true if the Locator provides its own {@link Locator#findAll}.
+   */
+  private boolean overridesFindAll(Locator<?, ?> l) {
+    Throwable ex;
+    try {
+      return !Locator.class.equals(l.getClass().getMethod("findAll", Class.class, List.class)
+          .getDeclaringClass());
+    } catch (SecurityException e) {
+      ex = e;
+    } catch (NoSuchMethodException e) {
+      ex = e;
+    }
+    return this.<Boolean> die(ex, "Could not retrieve %s.findAll() method", l.getClass()
+        .getCanonicalName());
+  }
+
   private <T> T newInstance(Class<T> clazz, Class<? super T> base) {
     Throwable ex;
     try {
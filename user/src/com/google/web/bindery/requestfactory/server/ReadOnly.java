@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.requestfactory.server;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation on domain service methods which neither modify domain objects nor
+ * depend on the side-effects of other invocations. When a
+ * {@link SimpleRequestProcessor} has an invocation executor, consecutive
+ * invocations of ReadOnly methods in a request are run concurrently; the
+ * results are still returned in the order in which the methods were invoked.
+ * <p>
+ * Such methods run on the executor's pool threads, so anything bound to the
+ * thread processing the request is not visible to them: an
+ * open-session-in-view EntityManager, a transaction begun by a filter, or any
+ * other ThreadLocal. The executor installed by {@link RequestFactoryServlet}
+ * only propagates the values returned by
+ * {@link RequestFactoryServlet#getThreadLocalServletContext()},
+ * {@link RequestFactoryServlet#getThreadLocalRequest()} and
+ * {@link RequestFactoryServlet#getThreadLocalResponse()}. Only annotate methods
+ * which obtain their resources on their own.
+ *
+ * @see SimpleRequestProcessor#setInvocationExecutor(java.util.concurrent.Executor)
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ReadOnly {
+}
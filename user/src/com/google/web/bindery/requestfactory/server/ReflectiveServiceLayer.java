@@ -28,9 +28,13 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -214,11 +218,46 @@ final class ReflectiveServiceLayer extends ServiceLayerDecorator {
       die(null, "Size mismatch in paramaters. classes.size() = %d domainIds.size=%d", classes
           .size(), domainIds.size());
     }
-    List<Object> toReturn = new ArrayList<Object>(classes.size());
+    // Group the ids by type, remembering where each came from
+    Map<Class<?>, List<Integer>> indexesByClass = new LinkedHashMap<Class<?>, List<Integer>>();
+    Map<Class<?>, List<Object>> idsByClass = new HashMap<Class<?>, List<Object>>();
     Iterator<Class<?>> classIt = classes.iterator();
     Iterator<Object> idIt = domainIds.iterator();
-    while (classIt.hasNext()) {
-      toReturn.add(getTop().loadDomainObject(classIt.next(), idIt.next()));
+    for (int i = 0; classIt.hasNext(); i++) {
+      Class<?> clazz = classIt.next();
+      List<Integer> indexes = indexesByClass.get(clazz);
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>();
+        indexesByClass.put(clazz, indexes);
+        idsByClass.put(clazz, new ArrayList<Object>());
+      }
+      indexes.add(i);
+      idsByClass.get(clazz).add(idIt.next());
+    }
+
+    // Load each type at once
+    Object[] toReturn = new Object[classes.size()];
+    for (Map.Entry<Class<?>, List<Integer>> entry : indexesByClass.entrySet()) {
+      Class<?> clazz = entry.getKey();
+      List<Integer> indexes = entry.getValue();
+      List<?> loaded = getTop().loadDomainObjects(clazz, idsByClass.get(clazz));
+      if (loaded == null || loaded.size() != indexes.size()) {
+        die(null, "Expected %d objects of type %s to be loaded, got %s", indexes.size(), clazz
+            .getCanonicalName(), loaded == null ? null : loaded.size());
+      }
+      Iterator<?> loadedIt = loaded.iterator();
+      for (int index : indexes) {
+        toReturn[index] = loadedIt.next();
+      }
+    }
+    return new ArrayList<Object>(Arrays.asList(toReturn));
+  }
+
+  @Override
+  public <T> List<T> loadDomainObjects(Class<T> clazz, List<Object> domainIds) {
+    List<T> toReturn = new ArrayList<T>(domainIds.size());
+    for (Object id : domainIds) {
+      toReturn.add(getTop().loadDomainObject(clazz, id));
     }
     return toReturn;
   }
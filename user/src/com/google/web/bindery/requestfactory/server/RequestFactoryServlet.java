@@ -20,9 +20,19 @@ import com.google.web.bindery.requestfactory.shared.RequestFactory;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -35,6 +45,37 @@ import javax.servlet.http.HttpServletResponse;
 @SuppressWarnings("serial")
 public class RequestFactoryServlet extends HttpServlet {
 
+  /**
+   * Runs tasks with the thread-local values of the thread which submitted them.
+   */
+  private static class RequestScopedExecutor implements Executor {
+    private final Executor executor;
+
+    RequestScopedExecutor(Executor executor) {
+      this.executor = executor;
+    }
+
+    public void execute(final Runnable command) {
+      final ServletContext context = perThreadContext.get();
+      final HttpServletRequest request = perThreadRequest.get();
+      final HttpServletResponse response = perThreadResponse.get();
+      executor.execute(new Runnable() {
+        public void run() {
+          perThreadContext.set(context);
+          perThreadRequest.set(request);
+          perThreadResponse.set(response);
+          try {
+            command.run();
+          } finally {
+            perThreadContext.set(null);
+            perThreadRequest.set(null);
+            perThreadResponse.set(null);
+          }
+        }
+      });
+    }
+  }
+
   private static final boolean DUMP_PAYLOAD = Boolean.getBoolean("gwt.rpc.dumpPayload");
   private static final String JSON_CHARSET = "UTF-8";
   private static final String JSON_CONTENT_TYPE = "application/json";
@@ -79,7 +120,10 @@ public class RequestFactoryServlet extends HttpServlet {
     return perThreadContext.get();
   }
 
+  private ObjectName cacheName;
+  private ExecutorService invocationExecutor;
   private final SimpleRequestProcessor processor;
+  private final ServiceLayer serviceLayer;
 
   /**
    * Constructs a new {@link RequestFactoryServlet} with a
@@ -100,10 +144,106 @@ public class RequestFactoryServlet extends HttpServlet {
    */
   public RequestFactoryServlet(ExceptionHandler exceptionHandler,
       ServiceLayerDecorator... serviceDecorators) {
-    processor = new SimpleRequestProcessor(ServiceLayer.create(serviceDecorators));
+    serviceLayer = ServiceLayer.create(serviceDecorators);
+    processor = new SimpleRequestProcessor(serviceLayer);
     processor.setExceptionHandler(exceptionHandler);
   }
 
+  /**
+   * Shuts down the threads which run concurrent invocations and unregisters
+   * the cache's MBean. Subclasses which override this method must call
+   * <code>super.destroy()</code>.
+   */
+  @Override
+  public void destroy() {
+    if (invocationExecutor != null) {
+      invocationExecutor.shutdown();
+      invocationExecutor = null;
+    }
+    if (cacheName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(cacheName);
+      } catch (JMException e) {
+        log.log(Level.WARNING, "Could not unregister " + cacheName, e);
+      }
+      cacheName = null;
+    }
+    super.destroy();
+  }
+
+  /**
+   * Starts the threads which run invocations of {@link ReadOnly} methods
+   * concurrently, if the <code>invocationThreads</code> init-param is a
+   * positive number. Resolves the operations of the RequestFactory types whose
+   * binary names are listed, separated by commas, in the
+   * <code>preloadRequestFactories</code> init-param, and registers a
+   * {@link ServiceLayerCacheMBean} with the platform MBeanServer. Subclasses
+   * which override this method must call <code>super.init()</code>.
+   */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    invocationExecutor = createInvocationExecutor();
+    if (invocationExecutor != null) {
+      processor.setInvocationExecutor(new RequestScopedExecutor(invocationExecutor));
+    }
+    if (serviceLayer instanceof ServiceLayerCache) {
+      ServiceLayerCache cache = (ServiceLayerCache) serviceLayer;
+      String preload = getServletConfig().getInitParameter("preloadRequestFactories");
+      if (preload != null) {
+        for (String binaryName : preload.split(",")) {
+          binaryName = binaryName.trim();
+          if (binaryName.length() > 0) {
+            try {
+              cache.preload(binaryName);
+            } catch (RuntimeException e) {
+              log.log(Level.WARNING, "Could not preload " + binaryName, e);
+            }
+          }
+        }
+      }
+      registerCacheMBean(cache);
+    }
+  }
+
+  /**
+   * Creates the ExecutorService used to run invocations of {@link ReadOnly}
+   * methods concurrently. The ExecutorService is shut down when the servlet is
+   * destroyed.
+   * <p>
+   * This implementation returns a pool with the number of threads given by the
+   * <code>invocationThreads</code> init-param, or <code>null</code> to run
+   * invocations one at a time if the init-param is not set.
+   * </p>
+   * 
+   * @return an ExecutorService, or <code>null</code>
+   * @throws ServletException if the init-param is not a number
+   */
+  protected ExecutorService createInvocationExecutor() throws ServletException {
+    String threads = getServletConfig().getInitParameter("invocationThreads");
+    if (threads == null) {
+      return null;
+    }
+    int count;
+    try {
+      count = Integer.parseInt(threads.trim());
+    } catch (NumberFormatException e) {
+      throw new ServletException("The invocationThreads init-param is not a number: " + threads,
+          e);
+    }
+    if (count <= 0) {
+      return null;
+    }
+    final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+    return Executors.newFixedThreadPool(count, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = defaultFactory.newThread(r);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
   /**
    * Processes a POST to the server.
    * 
@@ -123,6 +263,25 @@ public class RequestFactoryServlet extends HttpServlet {
     // No new code should be placed outside of this try block.
     try {
       ensureConfig();
+      if (shouldStreamPayloads(request) && !DUMP_PAYLOAD) {
+        // The headers are set when the response is first written
+        Reader reader =
+            RPCServletUtils.createContentReader(request, JSON_CONTENT_TYPE, JSON_CHARSET);
+        Writer writer =
+            RPCServletUtils.createResponseWriter(response, RPCServletUtils
+                .acceptsGzipEncoding(request));
+        try {
+          processor.process(reader, writer);
+          writer.close();
+        } catch (RuntimeException e) {
+          if (!response.isCommitted()) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+          }
+          log.log(Level.SEVERE, "Unexpected error", e);
+        }
+        return;
+      }
+
       String jsonRequestString =
           RPCServletUtils.readContent(request, JSON_CONTENT_TYPE, JSON_CHARSET);
       if (DUMP_PAYLOAD) {
@@ -151,10 +310,57 @@ public class RequestFactoryServlet extends HttpServlet {
     }
   }
 
+  /**
+   * Determines whether the request should be parsed as it is read and the
+   * response written as it is encoded, rather than each being held as a
+   * String. Streaming reduces the memory needed for large payloads, though each
+   * invocation result is still encoded on its own before it is written (see
+   * {@link SimpleRequestProcessor#process(Reader, Writer)}).
+   * The response is compressed whenever the client accepts gzip, and an error
+   * found while the response is being written cannot be reported to the
+   * client. Payloads are never streamed when <code>gwt.rpc.dumpPayload</code>
+   * is set.
+   * <p>
+   * This implementation returns <code>true</code> if the
+   * <code>streamPayloads</code> init-param is <code>true</code>.
+   * </p>
+   * 
+   * @param request the request being processed
+   * @return <code>true</code> to stream the payloads of the request
+   */
+  protected boolean shouldStreamPayloads(HttpServletRequest request) {
+    return Boolean.parseBoolean(getServletConfig().getInitParameter("streamPayloads"));
+  }
+
   private void ensureConfig() {
     String symbolMapsDirectory = getServletConfig().getInitParameter("symbolMapsDirectory");
     if (symbolMapsDirectory != null) {
       Logging.setSymbolMapsDirectory(symbolMapsDirectory);
     }
   }
+
+  /**
+   * Registers the cache under a name made of the names of the servlet and its
+   * web application. A failure is logged, since the statistics are not needed
+   * to serve requests, and some environments do not allow MBeans to be
+   * registered.
+   */
+  private void registerCacheMBean(ServiceLayerCache cache) {
+    try {
+      ObjectName name =
+          new ObjectName("com.google.web.bindery.requestfactory:type=ServiceLayerCache,context="
+              + ObjectName.quote(String.valueOf(getServletContext().getServletContextName()))
+              + ",name=" + ObjectName.quote(getServletName()));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          new StandardMBean(cache, ServiceLayerCacheMBean.class), name);
+      cacheName = name;
+    } catch (JMException e) {
+      log.log(Level.WARNING, "Could not register the ServiceLayerCache MBean", e);
+    } catch (SecurityException e) {
+      log.log(Level.WARNING, "Could not register the ServiceLayerCache MBean", e);
+    } catch (NoClassDefFoundError e) {
+      // java.lang.management is not available on all platforms
+      log.log(Level.WARNING, "Could not register the ServiceLayerCache MBean", e);
+    }
+  }
 }
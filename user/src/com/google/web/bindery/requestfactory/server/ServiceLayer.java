@@ -54,16 +54,30 @@ public abstract class ServiceLayer {
   /**
    * Create a RequestFactory ServiceLayer that is optionally modified by the
    * given decorators.
+   * <p>
+   * Each ServiceLayer has its own cache of the results of its idempotent
+   * methods, made of one map for each cached method, holding up to
+   * <code>gwt.rf.ServiceLayerCache.maxSize</code> values each. Nothing is
+   * shared between instances, so a ServiceLayer built for every request starts
+   * with an empty cache each time; create one and reuse it instead.
    * 
    * @param decorators the decorators that will modify the behavior of the core
    *          service layer implementation
    * @return a ServiceLayer instance
    */
   public static ServiceLayer create(ServiceLayerDecorator... decorators) {
-    List<ServiceLayerDecorator> list = new ArrayList<ServiceLayerDecorator>();
     // Always hit the cache first
-    ServiceLayerDecorator cache =
-        ENABLE_CACHE ? new ServiceLayerCache() : new ServiceLayerDecorator();
+    return createWithCache(ENABLE_CACHE ? new ServiceLayerCache() : new ServiceLayerDecorator(),
+        decorators);
+  }
+
+  /**
+   * Create a ServiceLayer whose top-most layer is <code>cache</code>. Visible
+   * for testing.
+   */
+  static ServiceLayer createWithCache(ServiceLayerDecorator cache,
+      ServiceLayerDecorator... decorators) {
+    List<ServiceLayerDecorator> list = new ArrayList<ServiceLayerDecorator>();
     list.add(cache);
     // The the user-provided decorators
     if (decorators != null) {
@@ -252,13 +266,33 @@ public abstract class ServiceLayer {
    */
   public abstract <T> T loadDomainObject(Class<T> clazz, Object domainId);
 
+  /**
+   * Load multiple objects of one type from the backing store. This method is
+   * intended to allow the objects of each type referenced in an incoming
+   * payload to be retrieved at once.
+   * <p>
+   * The default implementation of this method will use
+   * {@link com.google.web.bindery.requestfactory.shared.Locator#findAll(Class, List)
+   * Locator.findAll()} for types whose Locator overrides it, and otherwise
+   * delegate to {@link #loadDomainObject(Class, Object)} for each id. A
+   * decorator which overrides {@link #loadDomainObject(Class, Object)} for such
+   * a type should also override this method.
+   * 
+   * @param <T> the type of object to load
+   * @param clazz the type of object to load
+   * @param domainIds the ids previously returned from {@link #getId(Object)}
+   * @return the requested objects, in the order of their ids, elements of which
+   *         may be {@code null} if the requested objects were irretrievable
+   */
+  public abstract <T> List<T> loadDomainObjects(Class<T> clazz, List<Object> domainIds);
+
   /**
    * Load multiple objects from the backing store. This method is intended to
    * allow more efficient access to the backing store by providing all objects
    * referenced in an incoming payload.
    * <p>
-   * The default implementation of this method will delegate to
-   * {@link #loadDomainObject(Class, Object)}.
+   * The default implementation of this method groups the ids by type and
+   * delegates to {@link #loadDomainObjects(Class, List)} once for each type.
    * 
    * @param classes type type of each object to load
    * @param domainIds the ids previously returned from {@link #getId(Object)}
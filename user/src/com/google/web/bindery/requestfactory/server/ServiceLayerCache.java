@@ -16,25 +16,41 @@
 package com.google.web.bindery.requestfactory.server;
 
 import com.google.gwt.rpc.server.Pair;
+import com.google.gwt.user.server.BoundedCache;
 import com.google.web.bindery.requestfactory.shared.BaseProxy;
+import com.google.web.bindery.requestfactory.shared.JsonRpcService;
 import com.google.web.bindery.requestfactory.shared.Locator;
+import com.google.web.bindery.requestfactory.shared.Request;
 import com.google.web.bindery.requestfactory.shared.RequestContext;
 import com.google.web.bindery.requestfactory.shared.RequestFactory;
 import com.google.web.bindery.requestfactory.shared.ServiceLocator;
+import com.google.web.bindery.requestfactory.vm.impl.OperationKey;
 
-import java.lang.ref.SoftReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A cache for idempotent methods in {@link ServiceLayer}. The caching is
  * separate from {@link ReflectiveServiceLayer} so that the cache can be applied
  * to any decorators injected by the user.
+ * <p>
+ * Each instance has its own cache, with one {@link BoundedCache} segment per
+ * cached method, which evicts its least recently used values once it holds a
+ * fixed number of them.
  */
-class ServiceLayerCache extends ServiceLayerDecorator {
+class ServiceLayerCache extends ServiceLayerDecorator implements ServiceLayerCacheMBean {
+
+  /**
+   * The default bound of each segment, which may be changed with the
+   * <code>gwt.rf.ServiceLayerCache.maxSize</code> system property.
+   */
+  static final int DEFAULT_MAX_SIZE = 2048;
 
   /**
    * ConcurrentHashMaps don't allow null keys or values, but sometimes we want
@@ -42,7 +58,7 @@ class ServiceLayerCache extends ServiceLayerDecorator {
    */
   private static final Object NULL_MARKER = new Object();
 
-  private static SoftReference<Map<Method, Map<Object, Object>>> methodCache;
+  private static final Logger log = Logger.getLogger(ServiceLayerCache.class.getName());
 
   private static final Method createLocator;
   private static final Method createServiceInstance;
@@ -86,15 +102,6 @@ class ServiceLayerCache extends ServiceLayerDecorator {
     resolveTypeToken = getMethod("resolveTypeToken", Class.class);
   }
 
-  private static Map<Method, Map<Object, Object>> getCache() {
-    Map<Method, Map<Object, Object>> toReturn = methodCache == null ? null : methodCache.get();
-    if (toReturn == null) {
-      toReturn = new ConcurrentHashMap<Method, Map<Object, Object>>();
-      methodCache = new SoftReference<Map<Method, Map<Object, Object>>>(toReturn);
-    }
-    return toReturn;
-  }
-
   private static Method getMethod(String name, Class<?>... argTypes) {
     try {
       return ServiceLayer.class.getMethod(name, argTypes);
@@ -105,7 +112,41 @@ class ServiceLayerCache extends ServiceLayerDecorator {
     }
   }
 
-  private final Map<Method, Map<Object, Object>> methodMap = getCache();
+  private final int maxSize;
+
+  /**
+   * Never modified once constructed.
+   */
+  private final Map<Method, BoundedCache<Object, Object>> segments =
+      new HashMap<Method, BoundedCache<Object, Object>>();
+
+  ServiceLayerCache() {
+    this(Integer.getInteger("gwt.rf.ServiceLayerCache.maxSize", DEFAULT_MAX_SIZE));
+  }
+
+  /**
+   * @param maxSize the most values to cache for each method, which must be
+   *          positive
+   */
+  ServiceLayerCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    for (Method method : Arrays.asList(createLocator, createServiceInstance, getDomainClassLoader,
+        getGetter, getIdType, getRequestReturnType, getSetter, requiresServiceLocator,
+        resolveClass, resolveClientType, resolveDomainClass, resolveDomainMethod, resolveLocator,
+        resolveRequestContext, resolveRequestContextMethod, resolveRequestFactory,
+        resolveServiceClass, resolveServiceLocator, resolveTypeToken)) {
+      segments.put(method, new BoundedCache<Object, Object>(maxSize));
+    }
+  }
+
+  public void clear() {
+    for (BoundedCache<Object, Object> segment : segments.values()) {
+      segment.clear();
+    }
+  }
 
   @Override
   public <T extends Locator<?, ?>> T createLocator(Class<T> clazz) {
@@ -122,17 +163,45 @@ class ServiceLayerCache extends ServiceLayerDecorator {
     return getOrCache(getDomainClassLoader, NULL_MARKER, ClassLoader.class);
   }
 
+  public long getEvictionCount() {
+    long toReturn = 0;
+    for (BoundedCache<Object, Object> segment : segments.values()) {
+      toReturn += segment.getEvictionCount();
+    }
+    return toReturn;
+  }
+
   @Override
   public Method getGetter(Class<?> domainType, String property) {
     return getOrCache(getGetter, new Pair<Class<?>, String>(domainType, property), Method.class,
         domainType, property);
   }
 
+  public long getHitCount() {
+    long toReturn = 0;
+    for (BoundedCache<Object, Object> segment : segments.values()) {
+      toReturn += segment.getHitCount();
+    }
+    return toReturn;
+  }
+
   @Override
   public Class<?> getIdType(Class<?> domainType) {
     return getOrCache(getIdType, domainType, Class.class, domainType);
   }
 
+  public int getMaxSizePerMethod() {
+    return maxSize;
+  }
+
+  public long getMissCount() {
+    long toReturn = 0;
+    for (BoundedCache<Object, Object> segment : segments.values()) {
+      toReturn += segment.getMissCount();
+    }
+    return toReturn;
+  }
+
   @Override
   public Type getRequestReturnType(Method contextMethod) {
     return getOrCache(getRequestReturnType, contextMethod, Type.class, contextMethod);
@@ -144,6 +213,61 @@ class ServiceLayerCache extends ServiceLayerDecorator {
         domainType, property);
   }
 
+  public int getSize() {
+    int toReturn = 0;
+    for (BoundedCache<Object, Object> segment : segments.values()) {
+      toReturn += segment.size();
+    }
+    return toReturn;
+  }
+
+  /**
+   * Resolves every operation of a RequestFactory type, so that the first
+   * requests which use the type find the results cached. An operation which
+   * cannot be resolved is logged and skipped.
+   * 
+   * @param binaryName the binary name of a RequestFactory type
+   * @return the number of operations resolved
+   */
+  int preload(String binaryName) {
+    Class<? extends RequestFactory> factory = resolveRequestFactory(binaryName);
+    int count = 0;
+    for (Method factoryMethod : factory.getMethods()) {
+      Class<?> contextType = factoryMethod.getReturnType();
+      if (!RequestContext.class.isAssignableFrom(contextType)
+          || RequestContext.class.equals(contextType)
+          || contextType.isAnnotationPresent(JsonRpcService.class)) {
+        continue;
+      }
+      for (Method contextMethod : contextType.getMethods()) {
+        if (RequestContext.class.equals(contextMethod.getDeclaringClass())
+            || !Request.class.isAssignableFrom(contextMethod.getReturnType())) {
+          continue;
+        }
+        // The same descriptor as that of the client, whose return type is ignored
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Class<?> param : contextMethod.getParameterTypes()) {
+          descriptor.append(com.google.gwt.dev.asm.Type.getDescriptor(param));
+        }
+        descriptor.append(")V");
+        String operation =
+            new OperationKey(contextType.getName(), contextMethod.getName(), descriptor
+                .toString()).get();
+        try {
+          Method resolvedContextMethod = resolveRequestContextMethod(operation);
+          Method domainMethod = resolveDomainMethod(operation);
+          getRequestReturnType(resolvedContextMethod);
+          requiresServiceLocator(resolvedContextMethod, domainMethod);
+          count++;
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "Could not preload " + contextType.getName() + "."
+              + contextMethod.getName(), e);
+        }
+      }
+    }
+    return count;
+  }
+
   @Override
   public boolean requiresServiceLocator(Method contextMethod, Method domainMethod) {
     return getOrCache(requiresServiceLocator,
@@ -217,12 +341,8 @@ class ServiceLayerCache extends ServiceLayerDecorator {
   }
 
   private <K, T> T getOrCache(Method method, K key, Class<T> valueType, Object... args) {
-    Map<Object, Object> map = methodMap.get(method);
-    if (map == null) {
-      map = new ConcurrentHashMap<Object, Object>();
-      methodMap.put(method, map);
-    }
-    Object raw = map.get(key);
+    BoundedCache<Object, Object> segment = segments.get(method);
+    Object raw = segment.get(key);
     if (raw == NULL_MARKER) {
       return null;
     }
@@ -231,7 +351,7 @@ class ServiceLayerCache extends ServiceLayerDecorator {
       Throwable ex = null;
       try {
         toReturn = valueType.cast(method.invoke(getNext(), args));
-        map.put(key, toReturn == null ? NULL_MARKER : toReturn);
+        segment.put(key, toReturn == null ? NULL_MARKER : toReturn);
       } catch (InvocationTargetException e) {
         // The next layer threw an exception
         Throwable cause = e.getCause();
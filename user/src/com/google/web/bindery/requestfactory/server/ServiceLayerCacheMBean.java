@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.requestfactory.server;
+
+/**
+ * The management interface of the cache which sits in front of a
+ * {@link ServiceLayer}. {@link RequestFactoryServlet} registers one with the
+ * platform MBeanServer for each servlet instance.
+ */
+public interface ServiceLayerCacheMBean {
+
+  /**
+   * Discards every cached value. Values are computed again as they are needed.
+   */
+  void clear();
+
+  /**
+   * Returns the number of values discarded to keep the cache within its bound.
+   */
+  long getEvictionCount();
+
+  /**
+   * Returns the number of lookups which found a cached value.
+   */
+  long getHitCount();
+
+  /**
+   * Returns the most values cached for each {@link ServiceLayer} method.
+   */
+  int getMaxSizePerMethod();
+
+  /**
+   * Returns the number of lookups which had to compute a value.
+   */
+  long getMissCount();
+
+  /**
+   * Returns the number of values currently cached.
+   */
+  int getSize();
+}
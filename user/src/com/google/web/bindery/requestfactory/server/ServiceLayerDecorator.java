@@ -121,6 +121,11 @@ public class ServiceLayerDecorator extends ServiceLayer {
     return getNext().loadDomainObject(clazz, domainId);
   }
 
+  @Override
+  public <T> List<T> loadDomainObjects(Class<T> clazz, List<Object> domainIds) {
+    return getNext().loadDomainObjects(clazz, domainIds);
+  }
+
   @Override
   public List<Object> loadDomainObjects(List<Class<?>> classes, List<Object> domainIds) {
     return getNext().loadDomainObjects(classes, domainIds);
@@ -22,8 +22,12 @@ import com.google.web.bindery.autobean.shared.AutoBeanUtils;
 import com.google.web.bindery.autobean.shared.AutoBeanVisitor;
 import com.google.web.bindery.autobean.shared.Splittable;
 import com.google.web.bindery.autobean.shared.ValueCodex;
+import com.google.web.bindery.autobean.shared.impl.AutoBeanCodexImpl;
+import com.google.web.bindery.autobean.shared.impl.AutoBeanCodexImpl.EncodeState;
+import com.google.web.bindery.autobean.shared.impl.AutoBeanCodexImpl.Output;
 import com.google.web.bindery.autobean.vm.AutoBeanFactorySource;
 import com.google.web.bindery.autobean.vm.Configuration;
+import com.google.web.bindery.autobean.vm.impl.LazyJsonSplittable;
 import com.google.web.bindery.autobean.vm.impl.TypeUtils;
 import com.google.web.bindery.requestfactory.shared.BaseProxy;
 import com.google.web.bindery.requestfactory.shared.EntityProxyId;
@@ -48,7 +52,12 @@ import com.google.web.bindery.requestfactory.shared.messages.ResponseMessage;
 import com.google.web.bindery.requestfactory.shared.messages.ServerFailureMessage;
 import com.google.web.bindery.requestfactory.shared.messages.ViolationMessage;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
@@ -62,6 +71,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.validation.ConstraintViolation;
 
@@ -70,6 +87,72 @@ import javax.validation.ConstraintViolation;
  * is stateless. A single instance may be reused and is thread-safe.
  */
 public class SimpleRequestProcessor {
+  /**
+   * A call to a domain method whose arguments have been decoded.
+   */
+  private class Invocation implements Callable<Object> {
+    private final Object[] args;
+    private final Method domainMethod;
+    private final int index;
+
+    Invocation(int index, Method domainMethod, Object[] args) {
+      this.index = index;
+      this.domainMethod = domainMethod;
+      this.args = args;
+    }
+
+    public Object call() {
+      return service.invoke(domainMethod, args);
+    }
+  }
+
+  /**
+   * Runs an Invocation, queueing itself once it is done.
+   */
+  private static class InvocationTask extends FutureTask<Object> {
+    private final BlockingQueue<InvocationTask> completed;
+    private final int index;
+
+    InvocationTask(Invocation invocation, BlockingQueue<InvocationTask> completed) {
+      super(invocation);
+      this.completed = completed;
+      this.index = invocation.index;
+    }
+
+    @Override
+    protected void done() {
+      completed.add(this);
+    }
+  }
+
+  /**
+   * Passes an encoded payload to a Writer, keeping the first failure.
+   */
+  private static class WriterOutput implements Output {
+    private IOException error;
+    private final Writer out;
+
+    WriterOutput(Writer out) {
+      this.out = out;
+    }
+
+    public void append(String text) {
+      if (error == null) {
+        try {
+          out.write(text);
+        } catch (IOException e) {
+          error = e;
+        }
+      }
+    }
+
+    void checkError() throws IOException {
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+
   /**
    * This parameterization is so long, it improves readability to have a
    * specific type.
@@ -108,6 +191,7 @@ public class SimpleRequestProcessor {
   }
 
   private ExceptionHandler exceptionHandler = new DefaultExceptionHandler();
+  private Executor invocationExecutor;
   private final ServiceLayer service;
 
   public SimpleRequestProcessor(ServiceLayer serviceLayer) {
@@ -121,7 +205,36 @@ public class SimpleRequestProcessor {
    * @return a payload to return to the client
    */
   public String process(String payload) {
-    RequestMessage req = AutoBeanCodex.decode(FACTORY, RequestMessage.class, payload).as();
+    StringWriter out = new StringWriter();
+    try {
+      process(new StringReader(payload), out);
+    } catch (IOException e) {
+      // Not thrown by in-memory streams
+      throw new UnexpectedException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Process a payload sent by a RequestFactory client, writing the response
+   * as it is encoded. The request is read into a character buffer rather than
+   * a String and checked as JSON, and its parts are only decoded when they are
+   * used. Nothing is written if the request cannot be read.
+   * <p>
+   * Only the response envelope is encoded to <code>out</code> as it goes. Each
+   * invocation result and each entity operation is still encoded by
+   * {@link EntityCodex} into a Splittable of its own first, since the message
+   * beans carry them as Splittables, so the largest of them is held in memory
+   * twice.
+   * 
+   * @param payload reads the payload sent by the client
+   * @param out receives the payload to return to the client
+   * @throws IOException if the payload cannot be read or written
+   */
+  public void process(Reader payload, Writer out) throws IOException {
+    RequestMessage req =
+        AutoBeanCodex.decode(FACTORY, RequestMessage.class, LazyJsonSplittable.read(payload))
+            .as();
     AutoBean<ResponseMessage> responseBean = FACTORY.response();
     try {
       process(req, responseBean.as());
@@ -130,14 +243,33 @@ public class SimpleRequestProcessor {
       responseBean = FACTORY.response();
       responseBean.as().setGeneralFailure(createFailureMessage(e).as());
     }
-    // Return a JSON-formatted payload
-    return AutoBeanCodex.encode(responseBean).getPayload();
+    WriterOutput output = new WriterOutput(out);
+    AutoBeanCodexImpl.doEncode(EncodeState.forEncode(FACTORY, output), responseBean);
+    output.checkError();
   }
 
   public void setExceptionHandler(ExceptionHandler exceptionHandler) {
     this.exceptionHandler = exceptionHandler;
   }
 
+  /**
+   * Sets the Executor used to run invocations of methods annotated with
+   * {@link ReadOnly} concurrently. Invocations are run one at a time, on the
+   * thread processing the request, if the Executor is <code>null</code>, which
+   * is the default.
+   * <p>
+   * ReadOnly methods then run on the Executor's threads, which do not see
+   * resources bound to the thread processing the request, such as an
+   * open-session-in-view EntityManager or a transaction. The Executor installed
+   * by {@link RequestFactoryServlet} only carries over RequestFactory's own
+   * thread-locals: the servlet context, request and response.
+   * 
+   * @param invocationExecutor an Executor, or <code>null</code>
+   */
+  public void setInvocationExecutor(Executor invocationExecutor) {
+    this.invocationExecutor = invocationExecutor;
+  }
+
   /**
    * Encode a list of objects into a self-contained message that can be used for
    * out-of-band communication.
@@ -241,6 +373,28 @@ public class SimpleRequestProcessor {
     }
   }
 
+  /**
+   * Interrupts the tasks and waits for all of them to finish, so that none is
+   * still using the request's state once the failure is reported.
+   */
+  private void cancel(List<InvocationTask> tasks, CountDownLatch finished) {
+    for (InvocationTask task : tasks) {
+      task.cancel(true);
+    }
+    boolean interrupted = false;
+    while (true) {
+      try {
+        finished.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private AutoBean<ServerFailureMessage> createFailureMessage(ReportableException e) {
     ServerFailure failure =
         exceptionHandler.createServerFailure(e.getCause() == null ? e : e.getCause());
@@ -415,6 +569,70 @@ public class SimpleRequestProcessor {
     return args;
   }
 
+  /**
+   * Runs invocations of {@link ReadOnly} methods, storing their results in the
+   * slots given by their indexes. The last invocation runs on the current
+   * thread, as do any which the Executor rejects. If an invocation fails with
+   * an unexpected exception, the others are interrupted and awaited before the
+   * exception is rethrown.
+   */
+  private void invokeConcurrently(List<Invocation> invocations, Object[] results, boolean[] ok) {
+    BlockingQueue<InvocationTask> completed = new LinkedBlockingQueue<InvocationTask>();
+    List<InvocationTask> tasks = new ArrayList<InvocationTask>(invocations.size());
+    final CountDownLatch finished = new CountDownLatch(invocations.size());
+    for (int i = 0, j = invocations.size(); i < j; i++) {
+      final InvocationTask task = new InvocationTask(invocations.get(i), completed);
+      tasks.add(task);
+      Runnable runner = new Runnable() {
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            finished.countDown();
+          }
+        }
+      };
+      if (i == j - 1) {
+        runner.run();
+      } else {
+        try {
+          invocationExecutor.execute(runner);
+        } catch (RejectedExecutionException e) {
+          runner.run();
+        }
+      }
+    }
+
+    // Collect the results as they complete, so that a failure is seen promptly
+    for (int i = 0, j = tasks.size(); i < j; i++) {
+      InvocationTask task = null;
+      try {
+        task = completed.take();
+        results[task.index] = task.get();
+        ok[task.index] = true;
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ReportableException) {
+          results[task.index] =
+              AutoBeanCodex.encode(createFailureMessage((ReportableException) cause));
+          ok[task.index] = false;
+        } else {
+          cancel(tasks, finished);
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          } else if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new UnexpectedException(cause);
+        }
+      } catch (InterruptedException e) {
+        cancel(tasks, finished);
+        Thread.currentThread().interrupt();
+        throw new UnexpectedException("Interrupted while waiting for invocations", e);
+      }
+    }
+  }
+
   private void processInvocationMessages(RequestState state, RequestMessage req,
       List<Splittable> results, List<Boolean> success, RequestState returnState) {
     List<InvocationMessage> invocations = req.getInvocations();
@@ -422,12 +640,14 @@ public class SimpleRequestProcessor {
       // No method invocations which can happen via RequestContext.fire()
       return;
     }
-    List<Method> contextMethods = new ArrayList<Method>(invocations.size());
-    List<Object> invocationResults = new ArrayList<Object>(invocations.size());
+    int size = invocations.size();
+    Method[] contextMethods = new Method[size];
+    Object[] invocationResults = new Object[size];
+    boolean[] ok = new boolean[size];
     Map<Object, SortedSet<String>> allPropertyRefs = new HashMap<Object, SortedSet<String>>();
-    for (InvocationMessage invocation : invocations) {
-      Object domainReturnValue;
-      boolean ok;
+    List<Invocation> readOnly = new ArrayList<Invocation>();
+    for (int i = 0; i < size; i++) {
+      InvocationMessage invocation = invocations.get(i);
       try {
         // Find the Method
         String operation = invocation.getOperation();
@@ -436,7 +656,7 @@ public class SimpleRequestProcessor {
           throw new UnexpectedException("Cannot resolve operation " + invocation.getOperation(),
               null);
         }
-        contextMethods.add(contextMethod);
+        contextMethods[i] = contextMethod;
         Method domainMethod = service.resolveDomainMethod(operation);
         if (domainMethod == null) {
           throw new UnexpectedException(
@@ -451,35 +671,43 @@ public class SimpleRequestProcessor {
           Object serviceInstance = service.createServiceInstance(requestContext);
           args.add(0, serviceInstance);
         }
-        // Invoke it
-        domainReturnValue = service.invoke(domainMethod, args.toArray());
-        if (invocation.getPropertyRefs() != null) {
-          SortedSet<String> paths = allPropertyRefs.get(domainReturnValue);
-          if (paths == null) {
-            paths = new TreeSet<String>();
-            allPropertyRefs.put(domainReturnValue, paths);
-          }
-          paths.addAll(invocation.getPropertyRefs());
+
+        Invocation toInvoke = new Invocation(i, domainMethod, args.toArray());
+        if (invocationExecutor != null && domainMethod.isAnnotationPresent(ReadOnly.class)) {
+          // Wait for the next invocation which may have side-effects
+          readOnly.add(toInvoke);
+          continue;
         }
-        ok = true;
+        invokeConcurrently(readOnly, invocationResults, ok);
+        readOnly.clear();
+
+        // Invoke it
+        invocationResults[i] = toInvoke.call();
+        ok[i] = true;
       } catch (ReportableException e) {
-        domainReturnValue = AutoBeanCodex.encode(createFailureMessage(e));
-        ok = false;
+        invocationResults[i] = AutoBeanCodex.encode(createFailureMessage(e));
+        ok[i] = false;
       }
-      invocationResults.add(domainReturnValue);
-      success.add(ok);
-    }
-    Iterator<Method> contextMethodIt = contextMethods.iterator();
-    Iterator<Object> objects = invocationResults.iterator();
-    Iterator<Boolean> successes = success.iterator();
-    while (successes.hasNext()) {
-      assert contextMethodIt.hasNext();
-      assert objects.hasNext();
-      Method contextMethod = contextMethodIt.next();
-      Object returnValue = objects.next();
-      if (successes.next()) {
+    }
+    invokeConcurrently(readOnly, invocationResults, ok);
+
+    for (int i = 0; i < size; i++) {
+      success.add(ok[i]);
+      Set<String> propertyRefs = invocations.get(i).getPropertyRefs();
+      if (ok[i] && propertyRefs != null) {
+        SortedSet<String> paths = allPropertyRefs.get(invocationResults[i]);
+        if (paths == null) {
+          paths = new TreeSet<String>();
+          allPropertyRefs.put(invocationResults[i], paths);
+        }
+        paths.addAll(propertyRefs);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      Object returnValue = invocationResults[i];
+      if (ok[i]) {
         // Convert domain object to client object
-        Type requestReturnType = service.getRequestReturnType(contextMethod);
+        Type requestReturnType = service.getRequestReturnType(contextMethods[i]);
         returnValue =
             state.getResolver().resolveClientValue(returnValue, requestReturnType,
                 allPropertyRefs.get(returnValue));
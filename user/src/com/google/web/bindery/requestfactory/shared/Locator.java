@@ -15,6 +15,9 @@
  */
 package com.google.web.bindery.requestfactory.shared;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * A Locator allows entity types that do not conform to the RequestFactory
  * entity protocol to be used. Instead of attempting to use a {@code findFoo()},
@@ -50,6 +53,28 @@ public abstract class Locator<T, I> {
    */
   public abstract T find(Class<? extends T> clazz, I id);
 
+  /**
+   * Retrieve several objects of the same type at once. RequestFactory calls
+   * this method once for each type of object referenced by an incoming payload,
+   * so overriding it allows the objects to be fetched in a single query.
+   * <p>
+   * The default implementation of this method calls
+   * {@link #find(Class, Object)} for each id. RequestFactory only calls this
+   * method if it is overridden, and otherwise loads each object on its own.
+   * 
+   * @param clazz the type of objects to retrieve
+   * @param ids ids previously returned from {@link #getId(Object)}
+   * @return the requested objects, in the order of {@code ids}, elements of
+   *         which may be {@code null} if they could not be found
+   */
+  public List<T> findAll(Class<? extends T> clazz, List<I> ids) {
+    List<T> toReturn = new ArrayList<T>(ids.size());
+    for (I id : ids) {
+      toReturn.add(find(clazz, id));
+    }
+    return toReturn;
+  }
+
   /**
    * Returns the {@code T} type.
    */
@@ -31,7 +31,11 @@ public class ClientWriterFactory {
   public static SerializationStreamReader createReader(String payload)
       throws IncompatibleRemoteServiceException, RemoteException {
     CommandClientSerializationStreamReader toReturn = new CommandClientSerializationStreamReader();
-    toReturn.prepareToRead(payload);
+    if (BinaryPayloadSink.isBinaryPayload(payload)) {
+      toReturn.prepareToRead(WebModeBinaryPayloadDecoder.decode(payload));
+    } else {
+      toReturn.prepareToRead(payload);
+    }
     return toReturn;
   }
 
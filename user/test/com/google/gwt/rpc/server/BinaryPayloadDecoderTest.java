@@ -0,0 +1,238 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.rpc.server;
+
+import com.google.gwt.rpc.client.RpcService;
+import com.google.gwt.rpc.client.impl.BinaryPayloadSink;
+import com.google.gwt.rpc.client.impl.ClientWriterFactory;
+import com.google.gwt.rpc.client.impl.CommandToStringWriter;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamReader;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Tests the binary deRPC payload written by {@link BinaryPayloadSink} and read
+ * by {@link BinaryPayloadDecoder}.
+ */
+public class BinaryPayloadDecoderTest extends TestCase {
+
+  /**
+   * A service used to test the servlet.
+   */
+  public interface ScaleService extends RpcService {
+    double[] scale(double[] values, int factor);
+  }
+
+  /**
+   * An object with a field shared by another.
+   */
+  public static class Point implements Serializable {
+    String name;
+    Point next;
+    long[] coordinates;
+  }
+
+  enum Color {
+    RED, GREEN
+  }
+
+  private static class ScaleServiceImpl implements ScaleService {
+    public double[] scale(double[] values, int factor) {
+      double[] toReturn = new double[values.length];
+      for (int i = 0; i < values.length; i++) {
+        toReturn[i] = values[i] * factor;
+      }
+      return toReturn;
+    }
+  }
+
+  public void testObjectGraph() throws Exception {
+    Point a = new Point();
+    a.name = "a";
+    a.coordinates = new long[] {Long.MIN_VALUE, -1, 0, Long.MAX_VALUE};
+    Point b = new Point();
+    b.name = "a";
+    b.next = a;
+    b.coordinates = a.coordinates;
+    a.next = b;
+
+    CommandToStringWriter writer = new CommandToStringWriter(null, true);
+    writer.writeObject(a);
+    writer.writeObject(Color.GREEN);
+    writer.writeObject(new Point[][] {{a}, {}});
+    String payload = writer.toString();
+    assertTrue(BinaryPayloadSink.isBinaryPayload(payload));
+
+    SerializationStreamReader reader = ClientWriterFactory.createReader(payload);
+    Point readA = (Point) reader.readObject();
+    Point readB = readA.next;
+    assertSame(readA, readB.next);
+    assertEquals("a", readA.name);
+    assertEquals("a", readB.name);
+    assertSame(readA.coordinates, readB.coordinates);
+    assertTrue(Arrays.equals(a.coordinates, readA.coordinates));
+
+    assertSame(Color.GREEN, reader.readObject());
+
+    Point[][] readArray = (Point[][]) reader.readObject();
+    assertEquals(2, readArray.length);
+    assertSame(readA, readArray[0][0]);
+    assertEquals(0, readArray[1].length);
+  }
+
+  public void testPrimitives() throws SerializationException {
+    String unicode = "\u00e9\u20ac\ud800\u0000";
+
+    CommandToStringWriter writer = new CommandToStringWriter(null, true);
+    writer.writeBoolean(true);
+    writer.writeByte(Byte.MIN_VALUE);
+    writer.writeChar('\uffff');
+    writer.writeDouble(-0.0);
+    writer.writeDouble(Double.NaN);
+    writer.writeDouble(0.1);
+    writer.writeDouble(-42);
+    writer.writeFloat(1.5f);
+    writer.writeInt(Integer.MIN_VALUE);
+    writer.writeLong(Long.MAX_VALUE);
+    writer.writeShort((short) -1);
+    writer.writeString(unicode);
+    writer.writeString(null);
+    writer.writeObject(new int[] {Integer.MAX_VALUE, -1, 0});
+    writer.writeObject(new double[] {Double.NEGATIVE_INFINITY, 1e300});
+    writer.writeObject(new double[] {-1, Integer.MAX_VALUE});
+    writer.writeObject(new double[] {1, -0.0});
+    writer.writeObject(new char[] {'a', '\u20ac'});
+    writer.writeObject(new boolean[] {true, false});
+    String payload = writer.toString();
+
+    SerializationStreamReader reader = ClientWriterFactory.createReader(payload);
+    assertTrue(reader.readBoolean());
+    assertEquals(Byte.MIN_VALUE, reader.readByte());
+    assertEquals('\uffff', reader.readChar());
+    assertEquals(Double.doubleToLongBits(-0.0),
+        Double.doubleToLongBits(reader.readDouble()));
+    assertTrue(Double.isNaN(reader.readDouble()));
+    assertEquals(0.1, reader.readDouble());
+    assertEquals(-42.0, reader.readDouble());
+    assertEquals(1.5f, reader.readFloat());
+    assertEquals(Integer.MIN_VALUE, reader.readInt());
+    assertEquals(Long.MAX_VALUE, reader.readLong());
+    assertEquals(-1, reader.readShort());
+    assertEquals(unicode, reader.readString());
+    assertNull(reader.readString());
+    assertTrue(Arrays.equals(new int[] {Integer.MAX_VALUE, -1, 0},
+        (int[]) reader.readObject()));
+    assertTrue(Arrays.equals(new double[] {Double.NEGATIVE_INFINITY, 1e300},
+        (double[]) reader.readObject()));
+    assertTrue(Arrays.equals(new double[] {-1, Integer.MAX_VALUE},
+        (double[]) reader.readObject()));
+    assertTrue(Arrays.equals(new double[] {1, -0.0},
+        (double[]) reader.readObject()));
+    assertTrue(Arrays.equals(new char[] {'a', '\u20ac'},
+        (char[]) reader.readObject()));
+    assertTrue(Arrays.equals(new boolean[] {true, false},
+        (boolean[]) reader.readObject()));
+  }
+
+  /**
+   * A Development Mode client which sends a binary request receives a binary
+   * response.
+   */
+  public void testServlet() throws Exception {
+    CommandToStringWriter writer = new CommandToStringWriter(null, true);
+    writer.writeString(ScaleService.class.getName());
+    writer.writeString("scale");
+    writer.writeInt(2);
+    writer.writeString("[D");
+    writer.writeString(" I");
+    writer.writeObject(new double[] {1, 2.5});
+    writer.writeInt(3);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new RpcServlet(new ScaleServiceImpl()).processCall(
+        new HostedModeClientOracle(), writer.toString(), out);
+    String response = out.toString("UTF-8");
+    assertTrue(BinaryPayloadSink.isBinaryPayload(response));
+
+    SerializationStreamReader reader = ClientWriterFactory.createReader(response);
+    assertTrue(Arrays.equals(new double[] {3, 7.5}, (double[]) reader.readObject()));
+  }
+
+  public void testSevenBitCharacters() throws SerializationException {
+    CommandToStringWriter writer = new CommandToStringWriter(null, true);
+    writer.writeDouble(Double.MIN_VALUE);
+    writer.writeString("\uffff\u0080");
+    writer.writeLong(Long.MIN_VALUE);
+    String payload = writer.toString();
+    for (int i = 2; i < payload.length(); i++) {
+      assertTrue(payload.charAt(i) < 0x80);
+    }
+
+    SerializationStreamReader reader = ClientWriterFactory.createReader(payload);
+    assertEquals(Double.MIN_VALUE, reader.readDouble());
+    assertEquals("\uffff\u0080", reader.readString());
+    assertEquals(Long.MIN_VALUE, reader.readLong());
+  }
+
+  public void testSize() throws UnsupportedEncodingException {
+    double[] fractional = new double[100];
+    double[] integral = new double[100];
+    for (int i = 0; i < fractional.length; i++) {
+      fractional[i] = i / 3.0;
+      integral[i] = i * 1000;
+    }
+    String repeated = "a string which is sent several times";
+
+    for (double[] values : Arrays.asList(fractional, integral)) {
+      CommandToStringWriter simple = new CommandToStringWriter(null, false);
+      CommandToStringWriter binary = new CommandToStringWriter(null, true);
+      for (CommandToStringWriter writer : Arrays.asList(simple, binary)) {
+        try {
+          writer.writeObject(values);
+          for (int i = 0; i < 10; i++) {
+            writer.writeString(repeated);
+          }
+        } catch (SerializationException e) {
+          fail(e.getMessage());
+        }
+      }
+
+      // The payload is ASCII, so it takes one byte per character
+      String payload = binary.toString();
+      assertEquals(payload.length(), payload.getBytes("UTF-8").length);
+      assertTrue(payload.getBytes("UTF-8").length
+          < simple.toString().getBytes("UTF-8").length);
+    }
+
+    /*
+     * Each fractional double takes 8 bytes, and the string is written once.
+     * Each character carries 7 bits.
+     */
+    CommandToStringWriter writer = new CommandToStringWriter(null, true);
+    try {
+      writer.writeObject(fractional);
+    } catch (SerializationException e) {
+      fail(e.getMessage());
+    }
+    assertTrue(writer.toString().length() < fractional.length * 8 * 8 / 7 + 20);
+  }
+}
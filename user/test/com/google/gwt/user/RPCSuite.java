@@ -17,6 +17,11 @@ package com.google.gwt.user;
 
 import com.google.gwt.dev.BootStrapPlatform;
 import com.google.gwt.junit.tools.GWTTestSuite;
+import com.google.gwt.rpc.client.RpcBinaryCollectionsTest;
+import com.google.gwt.rpc.client.RpcBinaryCustomFieldSerializerTest;
+import com.google.gwt.rpc.client.RpcBinaryEnumsTest;
+import com.google.gwt.rpc.client.RpcBinaryObjectGraphTest;
+import com.google.gwt.rpc.client.RpcBinaryValueTypesTest;
 import com.google.gwt.rpc.client.RpcCollectionsTest;
 import com.google.gwt.rpc.client.RpcCustomFieldSerializerTest;
 import com.google.gwt.rpc.client.RpcEnumsTest;
@@ -26,6 +31,8 @@ import com.google.gwt.rpc.client.RpcRemoteServiceServletTest;
 import com.google.gwt.rpc.client.RpcRunTimeSerializationErrorsTest;
 import com.google.gwt.rpc.client.RpcUnicodeEscapingTest;
 import com.google.gwt.rpc.client.RpcValueTypesTest;
+import com.google.gwt.rpc.server.BinaryPayloadDecoderTest;
+import com.google.gwt.user.client.rpc.BatchingRpcRequestBuilderTest;
 import com.google.gwt.user.client.rpc.CollectionsTest;
 import com.google.gwt.user.client.rpc.CollectionsTestWithTypeObfuscation;
 import com.google.gwt.user.client.rpc.CoreJavaTest;
@@ -41,6 +48,7 @@ import com.google.gwt.user.client.rpc.InheritanceTestWithTypeObfuscation;
 import com.google.gwt.user.client.rpc.ObjectGraphTest;
 import com.google.gwt.user.client.rpc.ObjectGraphTestWithTypeObfuscation;
 import com.google.gwt.user.client.rpc.RecursiveClassTest;
+import com.google.gwt.user.client.rpc.RpcBatchPayloadTest;
 import com.google.gwt.user.client.rpc.RpcTokenTest;
 import com.google.gwt.user.client.rpc.RunTimeSerializationErrorsTest;
 import com.google.gwt.user.client.rpc.TypeCheckedObjectsTest;
@@ -53,13 +61,17 @@ import com.google.gwt.user.rebind.rpc.BlacklistTypeFilterTest;
 import com.google.gwt.user.rebind.rpc.SerializableTypeOracleBuilderTest;
 import com.google.gwt.user.rebind.rpc.TypeHierarchyUtilsTest;
 import com.google.gwt.user.server.Base64Test;
+import com.google.gwt.user.server.BoundedCacheTest;
 import com.google.gwt.user.server.UtilTest;
 import com.google.gwt.user.server.rpc.AbstractXsrfProtectedServiceServletTest;
 import com.google.gwt.user.server.rpc.RPCRequestTest;
 import com.google.gwt.user.server.rpc.RPCServletUtilsTest;
 import com.google.gwt.user.server.rpc.RPCTest;
+import com.google.gwt.user.server.rpc.RpcResponseCacheTest;
 import com.google.gwt.user.server.rpc.SerializationPolicyLoaderTest;
+import com.google.gwt.user.server.rpc.impl.ClassSerializationPlanTest;
 import com.google.gwt.user.server.rpc.impl.LegacySerializationPolicyTest;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamReaderTest;
 import com.google.gwt.user.server.rpc.impl.StandardSerializationPolicyTest;
 
 import junit.framework.Test;
@@ -95,9 +107,15 @@ public class RPCSuite {
     suite.addTestSuite(RPCRequestTest.class);
     suite.addTestSuite(FailedRequestTest.class);
     suite.addTestSuite(FailingRequestBuilderTest.class);
+    suite.addTestSuite(RpcBatchPayloadTest.class);
     suite.addTestSuite(Base64Test.class);
+    suite.addTestSuite(BoundedCacheTest.class);
     suite.addTestSuite(UtilTest.class);
     suite.addTestSuite(AbstractXsrfProtectedServiceServletTest.class);
+    suite.addTestSuite(ServerSerializationStreamReaderTest.class);
+    suite.addTestSuite(ClassSerializationPlanTest.class);
+    suite.addTestSuite(RpcResponseCacheTest.class);
+    suite.addTestSuite(BinaryPayloadDecoderTest.class);
 
     // GWTTestCases
     suite.addTestSuite(ValueTypesTest.class);
@@ -115,6 +133,7 @@ public class RPCSuite {
     suite.addTestSuite(RecursiveClassTest.class);
     suite.addTestSuite(TypeCheckedObjectsTest.class);
     suite.addTestSuite(XsrfProtectionTest.class);
+    suite.addTestSuite(BatchingRpcRequestBuilderTest.class);
 
     // This test turns on the type-elision feature of RPC
     suite.addTestSuite(ValueTypesTestWithTypeObfuscation.class);
@@ -137,6 +156,13 @@ public class RPCSuite {
     suite.addTestSuite(RpcRemoteServiceServletTest.class);
     suite.addTestSuite(RpcUnicodeEscapingTest.class);
     suite.addTestSuite(RpcRunTimeSerializationErrorsTest.class);
+
+    // The same, with the binary format
+    suite.addTestSuite(RpcBinaryValueTypesTest.class);
+    suite.addTestSuite(RpcBinaryEnumsTest.class);
+    suite.addTestSuite(RpcBinaryCollectionsTest.class);
+    suite.addTestSuite(RpcBinaryCustomFieldSerializerTest.class);
+    suite.addTestSuite(RpcBinaryObjectGraphTest.class);
     return suite;
   }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.client.rpc;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.core.client.testing.StubScheduler;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link BatchingRpcRequestBuilder}. Ticks of the event loop are
+ * simulated with a {@link StubScheduler}.
+ * <p>
+ * This test works in conjunction with
+ * {@link com.google.gwt.user.server.rpc.RemoteServiceServletTestServiceImpl}.
+ * </p>
+ */
+public class BatchingRpcRequestBuilderTest extends RpcTestBase {
+
+  /**
+   * Records the batches it sends.
+   */
+  private static class TestBatchingRpcRequestBuilder extends BatchingRpcRequestBuilder {
+    final List<RequestBuilder> batches = new ArrayList<RequestBuilder>();
+    final StubScheduler scheduler = new StubScheduler();
+
+    /**
+     * Runs the commands scheduled in the current tick.
+     */
+    void flush() {
+      List<ScheduledCommand> commands = new ArrayList<ScheduledCommand>(
+          scheduler.getScheduledCommands());
+      scheduler.getScheduledCommands().clear();
+      for (ScheduledCommand command : commands) {
+        command.execute();
+      }
+    }
+
+    @Override
+    protected RequestBuilder createBatchRequestBuilder(String url) {
+      RequestBuilder rb = super.createBatchRequestBuilder(url);
+      batches.add(rb);
+      return rb;
+    }
+
+    @Override
+    protected Scheduler getScheduler() {
+      return scheduler;
+    }
+  }
+
+  /**
+   * Finishes the test once every expected callback has been called.
+   */
+  private class CountingCallback implements AsyncCallback<Void> {
+    private final boolean expectFailure;
+
+    CountingCallback(boolean expectFailure) {
+      this.expectFailure = expectFailure;
+      expectedCallbacks++;
+    }
+
+    public void onFailure(Throwable caught) {
+      if (!expectFailure) {
+        TestSetValidator.rethrowException(caught);
+      }
+      assertTrue(caught.toString(), caught instanceof InvocationException);
+      called();
+    }
+
+    public void onSuccess(Void result) {
+      assertFalse("Should have failed", expectFailure);
+      called();
+    }
+
+    private void called() {
+      if (--expectedCallbacks == 0) {
+        finishTest();
+      }
+    }
+  }
+
+  private TestBatchingRpcRequestBuilder batcher;
+
+  private int expectedCallbacks;
+
+  private RemoteServiceServletTestServiceAsync service;
+
+  public void testCallsInOneTickAreBatched() {
+    service.test(new CountingCallback(false));
+    service.test(new CountingCallback(false));
+    service.test(new CountingCallback(false));
+    assertEquals(1, batcher.scheduler.getScheduledCommands().size());
+    assertTrue(batcher.batches.isEmpty());
+
+    delayTestFinishForRpc();
+    batcher.flush();
+    assertEquals(1, batcher.batches.size());
+    assertEquals("3", batcher.batches.get(0).getHeader(RpcRequestBuilder.BATCH_HEADER));
+  }
+
+  public void testCallsInLaterTickAreSentSeparately() {
+    service.test(new CountingCallback(false));
+    service.test(new CountingCallback(false));
+    batcher.flush();
+    assertEquals(1, batcher.batches.size());
+
+    delayTestFinishForRpc();
+    service.test(new CountingCallback(false));
+    service.test(new CountingCallback(false));
+    assertEquals(1, batcher.scheduler.getScheduledCommands().size());
+    batcher.flush();
+    assertEquals(2, batcher.batches.size());
+  }
+
+  public void testCanceledCallIsNotSent() {
+    Request canceled = service.test(new AsyncCallback<Void>() {
+      public void onFailure(Throwable caught) {
+        fail("Canceled call should not be called back");
+      }
+
+      public void onSuccess(Void result) {
+        fail("Canceled call should not be called back");
+      }
+    });
+    service.test(new CountingCallback(false));
+    assertTrue(canceled.isPending());
+    canceled.cancel();
+    assertFalse(canceled.isPending());
+
+    delayTestFinishForRpc();
+    batcher.flush();
+    // The remaining call is sent on its own.
+    assertTrue(batcher.batches.isEmpty());
+  }
+
+  public void testDifferentHeadersAreNotBatched() throws RequestException {
+    service.test(new CountingCallback(false));
+    service.test(new CountingCallback(false));
+    for (int i = 0; i < 2; i++) {
+      RequestBuilder rb = service.testExpectCustomHeader(new CountingCallback(false));
+      rb.setHeader("X-Custom-Header", "true");
+      rb.send();
+    }
+
+    delayTestFinishForRpc();
+    batcher.flush();
+    assertEquals(2, batcher.batches.size());
+    assertNull(batcher.batches.get(0).getHeader("X-Custom-Header"));
+    assertEquals("true", batcher.batches.get(1).getHeader("X-Custom-Header"));
+    assertNotNull(batcher.batches.get(1).getHeader(RpcRequestBuilder.CONTENT_TYPE_HEADER));
+  }
+
+  public void testFailureIsPassedToItsCallOnly() {
+    service.test(new CountingCallback(false));
+    service.throwUnknownRuntimeException(new CountingCallback(true));
+    service.test(new CountingCallback(false));
+
+    delayTestFinishForRpc();
+    batcher.flush();
+    assertEquals(1, batcher.batches.size());
+  }
+
+  public void testSingleCallIsSentAlone() {
+    service.test(new CountingCallback(false));
+
+    delayTestFinishForRpc();
+    batcher.flush();
+    assertTrue(batcher.batches.isEmpty());
+  }
+
+  @Override
+  protected void gwtSetUp() {
+    batcher = new TestBatchingRpcRequestBuilder();
+    expectedCallbacks = 0;
+    service = GWT.create(RemoteServiceServletTestService.class);
+    ((ServiceDefTarget) service).setServiceEntryPoint(GWT.getModuleBaseURL() + "servlettest");
+    ((ServiceDefTarget) service).setRpcRequestBuilder(batcher);
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.client.rpc;
+
+import com.google.gwt.user.client.rpc.impl.RpcBatchPayload;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the {@link RpcBatchPayload} class.
+ */
+public class RpcBatchPayloadTest extends TestCase {
+
+  public void testJoinAndSplit() throws SerializationException {
+    List<String> payloads = Arrays.asList("7|0|4|a:b|", "", "12:34", "\u00e9\uffff");
+    String joined = RpcBatchPayload.join(payloads);
+    assertEquals("10:7|0|4|a:b|0:5:12:342:\u00e9\uffff", joined);
+    assertEquals(payloads, RpcBatchPayload.split(joined));
+    assertEquals(Collections.emptyList(), RpcBatchPayload.split(""));
+  }
+
+  public void testMalformed() {
+    for (String joined : new String[] {"5", "x:abc", "-1:", "4:abc"}) {
+      try {
+        RpcBatchPayload.split(joined);
+        fail("Expected a SerializationException for " + joined);
+      } catch (SerializationException e) {
+        // expected
+      }
+    }
+  }
+}
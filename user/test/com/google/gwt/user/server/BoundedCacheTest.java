@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link BoundedCache}.
+ */
+public class BoundedCacheTest extends TestCase {
+
+  public void testBadSize() {
+    try {
+      new BoundedCache<String, String>(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testEvictsLeastRecentlyUsed() {
+    BoundedCache<String, String> cache = new BoundedCache<String, String>(2);
+    cache.put("a", "A");
+    cache.put("b", "B");
+    assertEquals("A", cache.get("a"));
+    cache.put("c", "C");
+    assertEquals(2, cache.size());
+    assertEquals(1L, cache.getEvictionCount());
+    assertNull(cache.get("b"));
+    assertEquals("A", cache.get("a"));
+    assertEquals("C", cache.get("c"));
+  }
+
+  public void testHitsAndMisses() {
+    BoundedCache<String, String> cache = new BoundedCache<String, String>(10);
+    assertNull(cache.get("a"));
+    cache.put("a", "A");
+    assertEquals("A", cache.get("a"));
+    assertEquals("A", cache.get("a"));
+    assertEquals(2L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertNull(cache.get("a"));
+  }
+
+  public void testUsesBetweenMissesAreEquallyRecent() {
+    BoundedCache<String, String> cache = new BoundedCache<String, String>(2);
+    cache.put("a", "A");
+    cache.put("b", "B");
+    // Both were used after b was cached, so the first one found goes
+    cache.get("b");
+    cache.get("a");
+    cache.put("c", "C");
+    assertEquals(2, cache.size());
+    assertEquals("C", cache.get("c"));
+  }
+}
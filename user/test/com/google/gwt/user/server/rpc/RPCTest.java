@@ -25,11 +25,16 @@ import com.google.gwt.user.client.rpc.SerializableException;
 import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
 import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamReader;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter;
 import com.google.gwt.user.server.rpc.impl.TypeNameObfuscator;
+import com.google.gwt.user.server.rpc.impl.ValueSharingSerializationPolicy;
 
 import junit.framework.TestCase;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.util.Set;
 
@@ -75,6 +80,11 @@ public class RPCTest extends TestCase {
     long echo(long val);
   }
 
+  @SuppressWarnings("rpc-validation")
+  private static interface E extends RemoteService {
+    String[] strings() throws SerializableException;
+  }
+
   /**
    * Test error message for an out=of-range int value.
    * 
@@ -88,6 +98,37 @@ public class RPCTest extends TestCase {
     public Wrapper() { }
   }
 
+  /**
+   * An immutable value.
+   * 
+   * @see RPCTest#testValueEquivalence()
+   */
+  private static class Unit implements IsSerializable {
+    private String name;
+
+    public Unit() {
+    }
+
+    Unit(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Unit && name.equals(((Unit) obj).name);
+    }
+
+    @Override
+    public int hashCode() {
+      return name.hashCode();
+    }
+  }
+
+  @SuppressWarnings("rpc-validation")
+  private static interface UnitService extends RemoteService {
+    Unit[] units();
+  }
+
   @SuppressWarnings("rpc-validation")
   private static interface WrapperIF extends RemoteService {
     void method1(Wrapper w);
@@ -741,6 +782,83 @@ public class RPCTest extends TestCase {
     RPC.encodeResponseForSuccess(A_method2, new Integer(1));
   }
 
+  /**
+   * Tests that responses written to a {@link Writer} match the encoded
+   * strings, including payloads and string tables too long for a single
+   * JavaScript array literal.
+   */
+  public void testEncodeResponseToWriter() throws NoSuchMethodException,
+      SerializationException, IOException {
+    // Like the default policy, but allows String[].
+    class TestPolicy extends SerializationPolicy {
+      private final SerializationPolicy legacy = RPC.getDefaultSerializationPolicy();
+
+      @Override
+      public boolean shouldDeserializeFields(Class<?> clazz) {
+        return legacy.shouldDeserializeFields(clazz);
+      }
+
+      @Override
+      public boolean shouldSerializeFields(Class<?> clazz) {
+        return legacy.shouldSerializeFields(clazz);
+      }
+
+      @Override
+      public void validateDeserialize(Class<?> clazz) {
+      }
+
+      @Override
+      public void validateSerialize(Class<?> clazz) {
+      }
+    }
+
+    Method E_strings = E.class.getMethod("strings");
+    SerializationPolicy policy = new TestPolicy();
+    int flags = AbstractSerializationStream.DEFAULT_FLAGS;
+
+    String[] small = new String[] {"a", "b\"c", "a", null};
+    StringWriter writer = new StringWriter();
+    RPC.encodeResponseForSuccess(E_strings, small, policy, flags, writer);
+    assertEquals(RPC.encodeResponseForSuccess(E_strings, small, policy, flags),
+        writer.toString());
+
+    String[] large = new String[ServerSerializationStreamWriter.LengthConstrainedArray
+        .MAXIMUM_ARRAY_LENGTH * 2];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = "s" + i;
+    }
+    writer = new StringWriter();
+    RPC.encodeResponseForSuccess(E_strings, large, policy, flags, writer);
+    String expected = RPC.encodeResponseForSuccess(E_strings, large, policy, flags);
+    assertTrue(expected.contains("].concat(["));
+    assertEquals(expected, writer.toString());
+
+    SerializableException cause = new SerializableException("failed");
+    writer = new StringWriter();
+    RPC.encodeResponseForFailure(E_strings, cause, policy, flags, writer);
+    assertEquals(RPC.encodeResponseForFailure(E_strings, cause, policy, flags),
+        writer.toString());
+
+    writer = new StringWriter();
+    RPC.invokeAndEncodeResponse(new E() {
+      public String[] strings() {
+        return new String[] {"x"};
+      }
+    }, E_strings, null, policy, flags, writer);
+    assertEquals(RPC.encodeResponseForSuccess(E_strings, new String[] {"x"}, policy, flags),
+        writer.toString());
+
+    // Nothing is written if serialization fails.
+    writer = new StringWriter();
+    try {
+      RPC.encodeResponseForSuccess(E_strings, new Object[] {new Object()}, policy, flags, writer);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected to get here
+    }
+    assertEquals("", writer.toString());
+  }
+
   /**
    * Tests for {@link RPC#invokeAndEncodeResponse(Object, Method, Object[])}.
    * 
@@ -836,6 +954,81 @@ public class RPCTest extends TestCase {
     }, A_method1, null);
   }
 
+  /**
+   * Tests that equivalent instances are sent once when the policy has a
+   * {@link ValueEquivalence}.
+   */
+  public void testValueEquivalence() throws NoSuchMethodException,
+      SerializationException {
+    class TestPolicy extends SerializationPolicy implements TypeNameObfuscator {
+      private final SerializationPolicy legacy = RPC.getDefaultSerializationPolicy();
+
+      public String getClassNameForTypeId(String id) {
+        return id;
+      }
+
+      public String getTypeIdForClass(Class<?> clazz) {
+        return clazz.getName();
+      }
+
+      @Override
+      public boolean shouldDeserializeFields(Class<?> clazz) {
+        return legacy.shouldDeserializeFields(clazz);
+      }
+
+      @Override
+      public boolean shouldSerializeFields(Class<?> clazz) {
+        return legacy.shouldSerializeFields(clazz);
+      }
+
+      @Override
+      public void validateDeserialize(Class<?> clazz) {
+      }
+
+      @Override
+      public void validateSerialize(Class<?> clazz) {
+      }
+    }
+
+    Method units = UnitService.class.getMethod("units");
+    int flags = AbstractSerializationStream.DEFAULT_FLAGS;
+    SerializationPolicy policy = new TestPolicy();
+    SerializationPolicy sharing = ValueSharingSerializationPolicy.wrap(policy,
+        ValueEquivalence.byEquals(Unit.class));
+    assertTrue(sharing instanceof TypeNameObfuscator);
+    assertFalse(ValueSharingSerializationPolicy.wrap(new SerializationPolicy() {
+      @Override
+      public boolean shouldDeserializeFields(Class<?> clazz) {
+        return false;
+      }
+
+      @Override
+      public boolean shouldSerializeFields(Class<?> clazz) {
+        return false;
+      }
+
+      @Override
+      public void validateDeserialize(Class<?> clazz) {
+      }
+
+      @Override
+      public void validateSerialize(Class<?> clazz) {
+      }
+    }, ValueEquivalence.byEquals(Unit.class)) instanceof TypeNameObfuscator);
+
+    // Distinct values are all written.
+    Unit[] distinct = new Unit[] {new Unit("kg"), new Unit("m"), new Unit("s")};
+    assertEquals(RPC.encodeResponseForSuccess(units, distinct, policy, flags),
+        RPC.encodeResponseForSuccess(units, distinct, sharing, flags));
+
+    // Equal values are written once, as an identical one would be.
+    Unit kg = new Unit("kg");
+    String expected = RPC.encodeResponseForSuccess(units, new Unit[] {kg, kg, kg}, policy, flags);
+    Unit[] equal = new Unit[] {new Unit("kg"), new Unit("kg"), new Unit("kg")};
+    assertFalse(expected.equals(RPC.encodeResponseForSuccess(units, equal, policy, flags)));
+    assertEquals(expected, RPC.encodeResponseForSuccess(units, equal, sharing, flags));
+  }
+
   public void testSerializationStreamDequote() throws SerializationException {
     ServerSerializationStreamReader reader = new ServerSerializationStreamReader(
         null, null);
@@ -16,30 +16,52 @@
 package com.google.gwt.user.server.rpc;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
+import com.google.gwt.user.client.rpc.RemoteService;
+import com.google.gwt.user.client.rpc.RpcRequestBuilder;
 import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.client.rpc.impl.RpcBatchPayload;
 
 import junit.framework.TestCase;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Test some of the failure modes associated with
- * {@link RemoteServiceServlet#doGetSerializationPolicy(HttpServletRequest, String, String)}.
- * 
- * TODO: test caching of policies?
+ * {@link RemoteServiceServlet#doGetSerializationPolicy(HttpServletRequest, String, String)},
+ * and the caching and preloading of policies.
  */
 public class RemoteServiceServletTest extends TestCase {
 
@@ -52,6 +74,152 @@ public class RemoteServiceServletTest extends TestCase {
   private static class Foo implements IsSerializable {
   }
 
+  @SuppressWarnings("rpc-validation")
+  private static interface CountingService extends RemoteService {
+    int broken();
+
+    @CacheableResponse(maxAgeSeconds = 60)
+    int cached();
+
+    int uncached();
+  }
+
+  /**
+   * Counts invocations of its service methods.
+   */
+  private static class CountingServlet extends PermissiveServlet implements CountingService {
+    private final AtomicInteger invocations = new AtomicInteger();
+
+    public int broken() {
+      throw new IllegalStateException("broken");
+    }
+
+    public int cached() {
+      return invocations.incrementAndGet();
+    }
+
+    public int uncached() {
+      return invocations.incrementAndGet();
+    }
+  }
+
+  @SuppressWarnings("rpc-validation")
+  private static interface DeferringService extends RemoteService {
+    int failLater() throws DeferredException;
+
+    int later();
+
+    int never();
+
+    int now();
+  }
+
+  /**
+   * Defers its responses.
+   */
+  private static class DeferringServlet extends PermissiveServlet implements DeferringService {
+    DeferredResponse<Integer> neverCompleted;
+
+    public int failLater() {
+      completeLater(DeferredResponse.<Integer> defer(), null);
+      return 0;
+    }
+
+    public int later() {
+      completeLater(DeferredResponse.<Integer> defer(), 42);
+      return 0;
+    }
+
+    public int never() {
+      neverCompleted = DeferredResponse.<Integer> defer();
+      return 0;
+    }
+
+    public int now() {
+      DeferredResponse.<Integer> defer().complete(7);
+      return 0;
+    }
+
+    private void completeLater(final DeferredResponse<Integer> response, final Integer result) {
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+            // Answer sooner.
+          }
+          if (result == null) {
+            response.fail(new DeferredException());
+          } else {
+            response.complete(result);
+          }
+        }
+      }.start();
+    }
+  }
+
+  private static class DeferredException extends Exception implements IsSerializable {
+  }
+
+  /**
+   * A servlet which accepts any request and serializes any type.
+   */
+  private abstract static class PermissiveServlet extends RemoteServiceServlet {
+    @Override
+    protected void checkPermutationStrongName() {
+    }
+
+    @Override
+    protected SerializationPolicy doGetSerializationPolicy(HttpServletRequest request,
+        String moduleBaseURL, String strongName) {
+      return RPC.getDefaultSerializationPolicy();
+    }
+  }
+
+  /**
+   * A request carrying an RPC payload.
+   */
+  private static class MockHttpServletRequestPayload extends MockHttpServletRequest {
+    private String batchHeader;
+    private final byte[] payload;
+
+    MockHttpServletRequestPayload(String payload) throws UnsupportedEncodingException {
+      this.payload = payload.getBytes("UTF-8");
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return null;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+      return "UTF-8";
+    }
+
+    @Override
+    public String getContentType() {
+      return "text/x-gwt-rpc; charset=utf-8";
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return RpcRequestBuilder.BATCH_HEADER.equals(name) ? batchHeader : null;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      final InputStream in = new ByteArrayInputStream(payload);
+      return new ServletInputStream() {
+        @Override
+        public int read() throws IOException {
+          return in.read();
+        }
+      };
+    }
+  }
+
   private static class MockHttpServletRequestContextPath extends
       MockHttpServletRequest {
     private String contextPath;
@@ -64,13 +232,14 @@ public class RemoteServiceServletTest extends TestCase {
 
   private static class MockServletConfig implements ServletConfig {
     private ServletContext context;
+    private final Map<String, String> initParameters = new HashMap<String, String>();
 
     public MockServletConfig(ServletContext context) {
       this.context = context;
     }
 
-    public String getInitParameter(String arg0) {
-      throw new UnsupportedOperationException();
+    public String getInitParameter(String name) {
+      return initParameters.get(name);
     }
 
     public Enumeration<String> getInitParameterNames() {
@@ -109,7 +278,7 @@ public class RemoteServiceServletTest extends TestCase {
     }
 
     public String getInitParameter(String arg0) {
-      throw new UnsupportedOperationException();
+      return null;
     }
 
     public Enumeration<String> getInitParameterNames() {
@@ -192,6 +361,255 @@ public class RemoteServiceServletTest extends TestCase {
     }
   }
 
+  /**
+   * Policies are cached per module and strong name, and the least recently
+   * used are evicted once the cache is full.
+   */
+  public void testCachedSerializationPolicies() throws ServletException {
+    final List<String> loaded = new ArrayList<String>();
+    RemoteServiceServlet rss = new RemoteServiceServlet() {
+      @Override
+      protected SerializationPolicy doGetSerializationPolicy(HttpServletRequest request,
+          String moduleBaseURL, String strongName) {
+        loaded.add(strongName);
+        return RPC.getDefaultSerializationPolicy();
+      }
+    };
+    MockServletConfig mockConfig = new MockServletConfig(new MockServletContext());
+    mockConfig.initParameters.put(RemoteServiceServlet.POLICY_CACHE_SIZE_PARAM, "2");
+    rss.init(mockConfig);
+
+    String moduleBaseURL = "http://www.google.com/MyModule/";
+    rss.getSerializationPolicy(moduleBaseURL, "A");
+    rss.getSerializationPolicy(moduleBaseURL, "B");
+    rss.getSerializationPolicy(moduleBaseURL, "A");
+    assertEquals(Arrays.asList("A", "B"), loaded);
+
+    // Evicts B, which was used least recently.
+    rss.getSerializationPolicy(moduleBaseURL, "C");
+    rss.getSerializationPolicy(moduleBaseURL, "A");
+    rss.getSerializationPolicy(moduleBaseURL, "C");
+    assertEquals(Arrays.asList("A", "B", "C"), loaded);
+    rss.getSerializationPolicy(moduleBaseURL, "B");
+    assertEquals(Arrays.asList("A", "B", "C", "B"), loaded);
+  }
+
+  public void testCachedSerializationPolicies_InvalidSize() {
+    MockServletConfig mockConfig = new MockServletConfig(new MockServletContext());
+    mockConfig.initParameters.put(RemoteServiceServlet.POLICY_CACHE_SIZE_PARAM, "none");
+    try {
+      new RemoteServiceServlet().init(mockConfig);
+      fail("Expected ServletException");
+    } catch (ServletException expected) {
+    }
+  }
+
+  /**
+   * Preloaded policy files are not read again when first requested.
+   */
+  public void testPreloadSerializationPolicies() throws Exception {
+    final String resourcePath = "/MyModule/"
+        + SerializationPolicyLoader.getSerializationPolicyFileName("12345");
+    final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+    MockServletContext mockContext = new MockServletContext() {
+      public InputStream getResourceAsStream(String resource) {
+        opened.add(resource);
+        try {
+          return new ByteArrayInputStream((Foo.class.getName() + ",true\n").getBytes(
+              SerializationPolicyLoader.SERIALIZATION_POLICY_FILE_ENCODING));
+        } catch (UnsupportedEncodingException e) {
+          return null;
+        }
+      }
+
+      public Set<String> getResourcePaths(String path) {
+        assertEquals("/MyModule/", path);
+        return new HashSet<String>(Arrays.asList(resourcePath, "/MyModule/MyModule.nocache.js"));
+      }
+    };
+    MockServletConfig mockConfig = new MockServletConfig(mockContext);
+    mockConfig.initParameters.put(RemoteServiceServlet.PRELOAD_POLICIES_PARAM, "MyModule");
+    RemoteServiceServlet rss = new RemoteServiceServlet();
+    rss.init(mockConfig);
+
+    assertTrue(rss.awaitPreloading(10000));
+    assertEquals(Collections.singletonList(resourcePath), opened);
+
+    MockHttpServletRequestContextPath mockRequest = new MockHttpServletRequestContextPath();
+    mockRequest.contextPath = "";
+    SerializationPolicy serializationPolicy = rss.doGetSerializationPolicy(
+        mockRequest, "http://www.google.com/MyModule/", "12345");
+    assertNotNull(serializationPolicy);
+    assertDeserializeFields(serializationPolicy, Foo.class);
+    assertEquals(1, opened.size());
+
+    // Once requested, the policy is up to the servlet's cache.
+    rss.doGetSerializationPolicy(mockRequest, "http://www.google.com/MyModule/", "12345");
+    assertEquals(2, opened.size());
+    rss.destroy();
+  }
+
+  /**
+   * A policy requested while it is still being preloaded is not kept by the
+   * preloader as well.
+   */
+  public void testPreloadSerializationPolicies_RequestedWhileLoading() throws Exception {
+    final String resourcePath = "/MyModule/"
+        + SerializationPolicyLoader.getSerializationPolicyFileName("12345");
+    final List<String> opened = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch requested = new CountDownLatch(1);
+    MockServletContext mockContext = new MockServletContext() {
+      public InputStream getResourceAsStream(String resource) {
+        opened.add(resource);
+        if (Thread.currentThread().getName().equals("SerializationPolicy preloader")) {
+          try {
+            requested.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            return null;
+          }
+        }
+        try {
+          return new ByteArrayInputStream((Foo.class.getName() + ",true\n").getBytes(
+              SerializationPolicyLoader.SERIALIZATION_POLICY_FILE_ENCODING));
+        } catch (UnsupportedEncodingException e) {
+          return null;
+        }
+      }
+
+      public Set<String> getResourcePaths(String path) {
+        return Collections.singleton(resourcePath);
+      }
+    };
+    MockServletConfig mockConfig = new MockServletConfig(mockContext);
+    mockConfig.initParameters.put(RemoteServiceServlet.PRELOAD_POLICIES_PARAM, "MyModule");
+    RemoteServiceServlet rss = new RemoteServiceServlet();
+    rss.init(mockConfig);
+
+    // Wait for the preloader to start reading the policy.
+    for (int i = 0; i < 1000 && opened.isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, opened.size());
+
+    MockHttpServletRequestContextPath mockRequest = new MockHttpServletRequestContextPath();
+    mockRequest.contextPath = "";
+    assertNotNull(rss.doGetSerializationPolicy(mockRequest, "http://www.google.com/MyModule/",
+        "12345"));
+    assertEquals(2, opened.size());
+    requested.countDown();
+    assertTrue(rss.awaitPreloading(10000));
+
+    // The preloaded copy was dropped rather than kept for a later request.
+    rss.doGetSerializationPolicy(mockRequest, "http://www.google.com/MyModule/", "12345");
+    assertEquals(3, opened.size());
+    rss.destroy();
+  }
+
+  /**
+   * The calls in a batch are answered together, and fail independently.
+   */
+  public void testBatchedCalls() throws Exception {
+    CountingServlet servlet = new CountingServlet();
+    servlet.init(new MockServletConfig(new MockServletContext()));
+    List<String> responses = postBatch(servlet, encodeRequest(CountingService.class, "uncached"),
+        encodeRequest(CountingService.class, "broken"),
+        encodeRequest(CountingService.class, "uncached"));
+    assertEquals(Arrays.asList("//OK[1,[],0,7]", RPCServletUtils.GENERIC_FAILURE_MSG,
+        "//OK[2,[],0,7]"), responses);
+  }
+
+  /**
+   * The calls in a batch can be processed in parallel.
+   */
+  public void testBatchedCalls_Parallel() throws Exception {
+    CountingServlet servlet = new CountingServlet();
+    MockServletConfig config = new MockServletConfig(new MockServletContext());
+    config.initParameters.put(RemoteServiceServlet.BATCH_THREADS_PARAM, "3");
+    servlet.init(config);
+    String[] calls = new String[10];
+    Arrays.fill(calls, encodeRequest(CountingService.class, "uncached"));
+    List<String> responses = postBatch(servlet, calls);
+
+    assertEquals(calls.length, responses.size());
+    Set<String> distinct = new HashSet<String>();
+    for (String response : responses) {
+      assertTrue(response, response.startsWith("//OK"));
+      distinct.add(response);
+    }
+    assertEquals(calls.length, distinct.size());
+    servlet.destroy();
+  }
+
+  /**
+   * Successful responses of {@link CacheableResponse} methods are reused.
+   */
+  public void testCachedResponses() throws SerializationException {
+    CountingServlet servlet = new CountingServlet();
+    String cachedRequest = encodeRequest(CountingService.class, "cached");
+    String response = servlet.processCall(cachedRequest);
+    assertTrue(response, response.startsWith("//OK"));
+    assertEquals(response, servlet.processCall(cachedRequest));
+    assertEquals(1, servlet.invocations.get());
+    assertEquals(1, servlet.getResponseCache().getHitCount());
+    assertEquals(1, servlet.getResponseCache().getMissCount());
+
+    String uncachedRequest = encodeRequest(CountingService.class, "uncached");
+    servlet.processCall(uncachedRequest);
+    servlet.processCall(uncachedRequest);
+    assertEquals(3, servlet.invocations.get());
+    assertEquals(1, servlet.getResponseCache().getEntryCount());
+  }
+
+  /**
+   * Service methods can send their response after they return.
+   */
+  public void testDeferredResponse() throws Exception {
+    DeferringServlet servlet = new DeferringServlet();
+    servlet.init(new MockServletConfig(new MockServletContext()));
+    assertEquals("//OK[42,[],0,7]", post(servlet, encodeRequest(DeferringService.class, "later")));
+    assertEquals("//OK[7,[],0,7]", post(servlet, encodeRequest(DeferringService.class, "now")));
+    String failure = post(servlet, encodeRequest(DeferringService.class, "failLater"));
+    assertTrue(failure, failure.startsWith("//EX"));
+  }
+
+  /**
+   * A deferred response which is never sent fails once it times out.
+   */
+  public void testDeferredResponse_Timeout() throws Exception {
+    DeferringServlet servlet = new DeferringServlet();
+    MockServletConfig config = new MockServletConfig(new MockServletContext());
+    config.initParameters.put(RemoteServiceServlet.DEFERRED_RESPONSE_TIMEOUT_PARAM, "50");
+    servlet.init(config);
+    assertEquals(RPCServletUtils.GENERIC_FAILURE_MSG, post(servlet, encodeRequest(
+        DeferringService.class, "never")));
+    assertTrue(servlet.neverCompleted.isDone());
+
+    // Too late to matter.
+    servlet.neverCompleted.complete(1);
+  }
+
+  public void testDeferredResponse_InvalidTimeout() {
+    MockServletConfig config = new MockServletConfig(new MockServletContext());
+    config.initParameters.put(RemoteServiceServlet.DEFERRED_RESPONSE_TIMEOUT_PARAM, "-1");
+    try {
+      new RemoteServiceServlet().init(config);
+      fail("Expected ServletException");
+    } catch (ServletException expected) {
+    }
+  }
+
+  /**
+   * Only calls which will be sent by processPost can be deferred.
+   */
+  public void testDeferredResponse_NotInProcessPost() throws SerializationException {
+    try {
+      new DeferringServlet().processCall(encodeRequest(DeferringService.class, "now"));
+      fail("Expected an UnexpectedException");
+    } catch (UnexpectedException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
   public void testDoGetSerializationPolicy_FailToOpenMD5Resource()
       throws ServletException {
     MockServletContext mockContext = new MockServletContext() {
@@ -289,6 +707,66 @@ public class RemoteServiceServletTest extends TestCase {
     assertNotValidDeserialize(serializationPolicy, Baz.class);
   }
 
+  /**
+   * Encodes a request to invoke a service method without parameters.
+   */
+  private String encodeRequest(Class<? extends RemoteService> serviceInterface,
+      String methodName) {
+    char separator = AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+    return AbstractSerializationStream.SERIALIZATION_STREAM_VERSION + "" + separator
+        + "0" + separator // flags
+        + "4" + separator // string table entry count
+        + serviceInterface.getName() + separator
+        + methodName + separator
+        + "http://www.google.com/MyModule/" + separator
+        + "12345" + separator
+        + "3" + separator // module base URL
+        + "4" + separator // strong name
+        + "1" + separator // interface name
+        + "2" + separator // method name
+        + "0" + separator; // param count
+  }
+
+  /**
+   * Posts a request to a servlet, and returns the response.
+   */
+  private String post(RemoteServiceServlet servlet, String requestPayload) throws Exception {
+    return post(servlet, new MockHttpServletRequestPayload(requestPayload));
+  }
+
+  private String post(RemoteServiceServlet servlet, HttpServletRequest request)
+      throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getOutputStream")) {
+              return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                  output.write(b);
+                }
+              };
+            }
+            return null;
+          }
+        });
+    servlet.processPost(request, response);
+    return output.toString("UTF-8");
+  }
+
+  /**
+   * Posts a batch of calls to a servlet, and returns their responses.
+   */
+  private List<String> postBatch(RemoteServiceServlet servlet, String... calls)
+      throws Exception {
+    MockHttpServletRequestPayload request = new MockHttpServletRequestPayload(
+        RpcBatchPayload.join(Arrays.asList(calls)));
+    request.batchHeader = String.valueOf(calls.length);
+    return RpcBatchPayload.split(post(servlet, request));
+  }
+
   private void assertDeserializeFields(SerializationPolicy policy,
       Class<?> clazz) {
     assertTrue(policy.shouldDeserializeFields(clazz));
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests {@link RpcResponseCache}.
+ */
+public class RpcResponseCacheTest extends TestCase {
+
+  /**
+   * A cache whose clock only moves when told to.
+   */
+  private static class ManualClockCache extends RpcResponseCache {
+    long now = 1000;
+
+    ManualClockCache(long maxBytes) {
+      super(maxBytes);
+    }
+
+    @Override
+    long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  private static String gunzip(byte[] bytes) throws IOException {
+    InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+    StringBuilder result = new StringBuilder();
+    byte[] buf = new byte[256];
+    int count;
+    while ((count = in.read(buf)) != -1) {
+      result.append(new String(buf, 0, count, "UTF-8"));
+    }
+    return result.toString();
+  }
+
+  public void testExpiry() {
+    ManualClockCache cache = new ManualClockCache(1000);
+    assertNull(cache.get("request"));
+    cache.put("request", "//OK[1]", 100);
+    assertEquals("//OK[1]", cache.get("request").getResponse());
+
+    cache.now += 99;
+    assertNotNull(cache.get("request"));
+    cache.now += 1;
+    assertNull(cache.get("request"));
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0, cache.getSizeBytes());
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testGzippedResponse() throws IOException {
+    RpcResponseCache cache = new RpcResponseCache(10000);
+    RpcResponseCache.Entry entry = cache.put("request", "//OK[\"\u00e9t\u00e9\"]", 1000);
+    long sizeBefore = cache.getSizeBytes();
+    byte[] gzipped = cache.getGzippedResponse(entry);
+    assertSame(gzipped, cache.getGzippedResponse(entry));
+    assertEquals("//OK[\"\u00e9t\u00e9\"]", gunzip(gzipped));
+    // The compressed copy counts against the limit.
+    assertEquals(sizeBefore + gzipped.length, cache.getSizeBytes());
+  }
+
+  public void testSizeLimit() {
+    // Each entry is 2 * (7 + 10) bytes.
+    RpcResponseCache cache = new ManualClockCache(70);
+    cache.put("request", "//OK[1]...", 1000);
+    cache.put("reques2", "//OK[2]...", 1000);
+    assertEquals(68, cache.getSizeBytes());
+    assertNotNull(cache.get("request"));
+
+    // Evicts reques2, which was used least recently.
+    cache.put("reques3", "//OK[3]...", 1000);
+    assertEquals(2, cache.getEntryCount());
+    assertEquals(1, cache.getEvictionCount());
+    assertNull(cache.get("reques2"));
+    assertNotNull(cache.get("request"));
+    assertNotNull(cache.get("reques3"));
+
+    // Replacing an entry doesn't count it twice.
+    cache.put("reques3", "//OK[4]...", 1000);
+    assertEquals(68, cache.getSizeBytes());
+    assertEquals("//OK[4]...", cache.get("reques3").getResponse());
+
+    // Too big to cache at all.
+    StringBuilder big = new StringBuilder("//OK[");
+    for (int i = 0; i < 100; i++) {
+      big.append(i);
+    }
+    assertEquals(big.toString(), cache.put("big", big.toString(), 1000).getResponse());
+    assertNull(cache.get("big"));
+    assertEquals(2, cache.getEntryCount());
+
+    cache.clear();
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0, cache.getSizeBytes());
+  }
+}
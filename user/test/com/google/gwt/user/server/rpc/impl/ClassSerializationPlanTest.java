@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import com.google.gwt.user.client.rpc.IsSerializable;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests {@link ClassSerializationPlan}.
+ */
+public class ClassSerializationPlanTest extends TestCase {
+
+  /**
+   * Treats {@link Enhanced} as an enhanced class whose <code>serverOnly</code>
+   * field the client doesn't know about.
+   */
+  private static class EnhancingPolicy extends SerializationPolicy {
+    @Override
+    public Set<String> getClientFieldNamesForEnhancedClass(Class<?> clazz) {
+      if (clazz == Enhanced.class) {
+        return new HashSet<String>(Arrays.asList("name", "values"));
+      }
+      return null;
+    }
+
+    @Override
+    public boolean shouldDeserializeFields(Class<?> clazz) {
+      return clazz == Base.class;
+    }
+
+    @Override
+    public boolean shouldSerializeFields(Class<?> clazz) {
+      return false;
+    }
+
+    @Override
+    public void validateDeserialize(Class<?> clazz) {
+    }
+
+    @Override
+    public void validateSerialize(Class<?> clazz) {
+    }
+  }
+
+  private static class Base implements IsSerializable {
+    @SuppressWarnings("unused")
+    private int id;
+  }
+
+  private static class Enhanced extends Base {
+    @SuppressWarnings("unused")
+    private String name;
+    @SuppressWarnings("unused")
+    private long serverOnly;
+    @SuppressWarnings("unused")
+    private transient int skipped;
+    private List<String> values;
+
+    @SuppressWarnings("unused")
+    public void setValues(List<String> values) {
+      this.values = values;
+    }
+  }
+
+  public void testEnhancedClass() throws Exception {
+    SerializationPolicy policy = new EnhancingPolicy();
+    ClassSerializationPlan plan = ClassSerializationPlan.get(Enhanced.class, policy);
+    assertSame(plan, ClassSerializationPlan.get(Enhanced.class, policy));
+    assertNotSame(plan, ClassSerializationPlan.get(Enhanced.class, new EnhancingPolicy()));
+
+    // Client fields come in canonical order.
+    assertEquals(2, plan.fields.length);
+    assertEquals("name", plan.fields[0].getName());
+    assertEquals("values", plan.fields[1].getName());
+    assertEquals(String.class, plan.fieldTypes[0]);
+    assertEquals(List.class, plan.fieldTypes[1]);
+    assertEquals(Enhanced.class.getDeclaredField("values").getGenericType(),
+        plan.fieldGenericTypes[1]);
+    assertNull(plan.fieldSetters[0]);
+    assertEquals(Enhanced.class.getMethod("setValues", List.class), plan.fieldSetters[1]);
+
+    assertEquals(1, plan.serverOnlyFields.length);
+    assertEquals("serverOnly", plan.serverOnlyFields[0].getName());
+
+    assertTrue(plan.deserializeSuperclassFields);
+    assertFalse(plan.serializeSuperclassFields);
+
+    // The fields are ready to use.
+    Enhanced instance = new Enhanced();
+    plan.fields[0].set(instance, "foo");
+    assertEquals("foo", plan.fields[0].get(instance));
+  }
+
+  public void testPlainClass() {
+    ClassSerializationPlan plan = ClassSerializationPlan.get(Base.class, new EnhancingPolicy());
+    assertEquals(1, plan.fields.length);
+    assertEquals("id", plan.fields[0].getName());
+    assertEquals(int.class, plan.fieldTypes[0]);
+    assertNull(plan.fieldSetters[0]);
+    assertNull(plan.serverOnlyFields);
+    assertFalse(plan.deserializeSuperclassFields);
+  }
+}
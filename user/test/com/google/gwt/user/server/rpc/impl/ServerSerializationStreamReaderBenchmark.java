@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time and memory {@link ServerSerializationStreamReader} takes to
+ * read a request made up mostly of numbers, against the former approach of
+ * splitting the request into a list of token strings and parsing each one.
+ * <p>
+ * Run as a Java application; allocation is measured only on JVMs which
+ * implement <code>com.sun.management.ThreadMXBean</code>.
+ */
+public class ServerSerializationStreamReaderBenchmark {
+
+  private static final int ITERATIONS = 2000;
+
+  private static final int VALUES = 10000;
+
+  private static final char SEPARATOR = AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
+  public static void main(String[] args) throws Exception {
+    String request = makeRequest();
+    ServerSerializationStreamReader reader =
+        new ServerSerializationStreamReader(
+            ServerSerializationStreamReaderBenchmark.class.getClassLoader(), null);
+
+    // Warm up both paths.
+    long check = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      check += readInPlace(reader, request) + readSplit(request);
+    }
+
+    long startAllocated = getCurrentThreadAllocatedBytes();
+    long startTime = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      check += readSplit(request);
+    }
+    report("split", startTime, startAllocated);
+
+    startAllocated = getCurrentThreadAllocatedBytes();
+    startTime = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      check += readInPlace(reader, request);
+    }
+    report("in place", startTime, startAllocated);
+
+    // Keep the results live.
+    System.out.println("(checksum " + check + ")");
+  }
+
+  private static long getCurrentThreadAllocatedBytes() {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    try {
+      Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+      Method method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+      return (Long) method.invoke(threadBean, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A request whose payload alternates ints and integral doubles, as sent for
+   * an <code>int[]</code> and a <code>double[]</code> of coordinates.
+   */
+  private static String makeRequest() {
+    StringBuilder request = new StringBuilder();
+    request.append(AbstractSerializationStream.SERIALIZATION_STREAM_VERSION).append(SEPARATOR);
+    request.append("0").append(SEPARATOR);
+    request.append("2").append(SEPARATOR);
+    request.append("http://example.com/").append(SEPARATOR);
+    request.append("ABCDEF").append(SEPARATOR);
+    request.append("1").append(SEPARATOR);
+    request.append("2").append(SEPARATOR);
+    for (int i = 0; i < VALUES; i++) {
+      request.append(i * 7919).append(SEPARATOR);
+      request.append(-i * 31).append(SEPARATOR);
+    }
+    return request.toString();
+  }
+
+  private static long readInPlace(ServerSerializationStreamReader reader, String request)
+      throws SerializationException {
+    reader.prepareToRead(request);
+    long sum = 0;
+    for (int i = 0; i < VALUES; i++) {
+      sum += reader.readInt();
+      sum += (long) reader.readDouble();
+    }
+    return sum;
+  }
+
+  /**
+   * Reads the request the way the reader used to: every token becomes a
+   * string before it is parsed.
+   */
+  private static long readSplit(String request) {
+    List<String> tokens = new ArrayList<String>();
+    int idx = 0, nextIdx;
+    while (-1 != (nextIdx = request.indexOf(SEPARATOR, idx))) {
+      tokens.add(request.substring(idx, nextIdx));
+      idx = nextIdx + 1;
+    }
+    long sum = 0;
+    // Skip the header.
+    for (int i = 7; i < tokens.size(); i += 2) {
+      sum += Integer.parseInt(tokens.get(i));
+      sum += (long) Double.parseDouble(tokens.get(i + 1));
+    }
+    return sum;
+  }
+
+  private static void report(String name, long startTime, long startAllocated) {
+    long nanos = System.nanoTime() - startTime;
+    long allocated = getCurrentThreadAllocatedBytes();
+    StringBuilder line = new StringBuilder(name).append(": ");
+    line.append(nanos / ITERATIONS / 1000).append(" us/request");
+    if (startAllocated >= 0 && allocated >= 0) {
+      line.append(", ").append((allocated - startAllocated) / ITERATIONS).append(
+          " bytes allocated/request");
+    }
+    System.out.println(line);
+  }
+}
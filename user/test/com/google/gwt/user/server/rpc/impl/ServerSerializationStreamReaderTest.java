@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.gwt.user.server.rpc.impl;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.impl.AbstractSerializationStream;
+import com.google.gwt.user.server.Base64Utils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of primitive values by {@link ServerSerializationStreamReader}.
+ */
+public class ServerSerializationStreamReaderTest extends TestCase {
+
+  private static final char SEPARATOR = AbstractSerializationStream.RPC_SEPARATOR_CHAR;
+
+  /**
+   * Prepares a reader positioned after the header of a request whose string
+   * table holds <code>strings</code> and whose payload is <code>tokens</code>.
+   */
+  private static ServerSerializationStreamReader prepare(String[] strings, String... tokens)
+      throws SerializationException {
+    StringBuilder request = new StringBuilder();
+    append(request, String.valueOf(AbstractSerializationStream.SERIALIZATION_STREAM_VERSION));
+    append(request, "0");
+    append(request, String.valueOf(strings.length + 2));
+    append(request, "http://example.com/");
+    append(request, "ABCDEF");
+    for (String string : strings) {
+      append(request, string);
+    }
+    append(request, "1");
+    append(request, "2");
+    for (String token : tokens) {
+      append(request, token);
+    }
+    ServerSerializationStreamReader reader =
+        new ServerSerializationStreamReader(ServerSerializationStreamReaderTest.class
+            .getClassLoader(), null);
+    reader.prepareToRead(request.toString());
+    return reader;
+  }
+
+  private static ServerSerializationStreamReader prepare(String... tokens)
+      throws SerializationException {
+    return prepare(new String[0], tokens);
+  }
+
+  private static void append(StringBuilder request, String token) {
+    request.append(token).append(SEPARATOR);
+  }
+
+  public void testReadBoolean() throws SerializationException {
+    ServerSerializationStreamReader reader = prepare("0", "1", "00");
+    assertFalse(reader.readBoolean());
+    assertTrue(reader.readBoolean());
+    assertTrue(reader.readBoolean());
+  }
+
+  public void testReadDouble() throws SerializationException {
+    ServerSerializationStreamReader reader =
+        prepare("0", "-17", "123456789012345", "1234567890123456789", "2.5", "-1.0E-10", "NaN",
+            "Infinity", "-0", "1.5");
+    assertEquals(0.0, reader.readDouble());
+    assertEquals(-17.0, reader.readDouble());
+    assertEquals(123456789012345.0, reader.readDouble());
+    assertEquals(1234567890123456789.0, reader.readDouble());
+    assertEquals(2.5, reader.readDouble());
+    assertEquals(-1.0E-10, reader.readDouble());
+    assertTrue(Double.isNaN(reader.readDouble()));
+    assertEquals(Double.POSITIVE_INFINITY, reader.readDouble());
+    double negativeZero = reader.readDouble();
+    assertEquals(Double.NEGATIVE_INFINITY, 1 / negativeZero);
+    assertEquals(1.5f, reader.readFloat());
+  }
+
+  public void testReadInt() throws SerializationException {
+    ServerSerializationStreamReader reader =
+        prepare("0", "-1", "2147483647", "-2147483648", "007", "+5", "127", "-128", "32767",
+            "-32768");
+    assertEquals(0, reader.readInt());
+    assertEquals(-1, reader.readInt());
+    assertEquals(Integer.MAX_VALUE, reader.readInt());
+    assertEquals(Integer.MIN_VALUE, reader.readInt());
+    assertEquals(7, reader.readInt());
+    assertEquals(5, reader.readInt());
+    assertEquals(Byte.MAX_VALUE, reader.readByte());
+    assertEquals(Byte.MIN_VALUE, reader.readByte());
+    assertEquals(Short.MAX_VALUE, reader.readShort());
+    assertEquals(Short.MIN_VALUE, reader.readShort());
+  }
+
+  public void testReadIntOutOfRange() throws SerializationException {
+    assertNumberFormatException(prepare("2147483648"), "int");
+    assertNumberFormatException(prepare("-99999999999"), "int");
+    assertNumberFormatException(prepare("1.5"), "int");
+    assertNumberFormatException(prepare(""), "int");
+    assertNumberFormatException(prepare("-"), "int");
+    assertNumberFormatException(prepare("128"), "byte");
+    assertNumberFormatException(prepare("-32769"), "short");
+  }
+
+  public void testReadLong() throws SerializationException {
+    long[] values = {0, 1, -1, Long.MAX_VALUE, Long.MIN_VALUE, 1234567890123L};
+    String[] tokens = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      tokens[i] = Base64Utils.toBase64(values[i]);
+    }
+    ServerSerializationStreamReader reader = prepare(tokens);
+    for (long value : values) {
+      assertEquals(value, reader.readLong());
+    }
+  }
+
+  public void testReadString() throws SerializationException {
+    ServerSerializationStreamReader reader =
+        prepare(new String[] {"foo", "a\\!b", ""}, "3", "4", "5", "0");
+    assertEquals("foo", reader.readString());
+    assertEquals("a" + SEPARATOR + "b", reader.readString());
+    assertEquals("", reader.readString());
+    assertNull(reader.readString());
+  }
+
+  public void testTooFewTokens() throws SerializationException {
+    ServerSerializationStreamReader reader = prepare("1");
+    assertEquals(1, reader.readInt());
+    try {
+      reader.readInt();
+      fail("Expected SerializationException");
+    } catch (SerializationException expected) {
+    }
+  }
+
+  private void assertNumberFormatException(ServerSerializationStreamReader reader, String type)
+      throws SerializationException {
+    try {
+      if ("byte".equals(type)) {
+        reader.readByte();
+      } else if ("short".equals(type)) {
+        reader.readShort();
+      } else {
+        reader.readInt();
+      }
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException expected) {
+      assertTrue(expected.getMessage(), expected.getMessage().contains("'" + type + "'"));
+    }
+  }
+}
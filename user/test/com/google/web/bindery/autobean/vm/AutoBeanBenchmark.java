@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm;
+
+import com.google.web.bindery.autobean.shared.AutoBean;
+import com.google.web.bindery.autobean.shared.AutoBeanCodex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the time and memory taken to call the properties of an AutoBean and
+ * to encode it, when the AutoBean is implemented by Proxy instances and when it
+ * is implemented by generated classes.
+ * <p>
+ * Run as a Java application; allocation is measured only on JVMs which
+ * implement <code>com.sun.management.ThreadMXBean</code>.
+ */
+public class AutoBeanBenchmark {
+
+  /**
+   * The type of the measured AutoBean.
+   */
+  public interface Bean {
+    int getCount();
+
+    String getName();
+
+    boolean isActive();
+
+    void setActive(boolean active);
+
+    void setCount(int count);
+
+    void setName(String name);
+  }
+
+  private static final int CALLS = 1000;
+
+  private static final int ITERATIONS = 2000;
+
+  public static void main(String[] args) {
+    Configuration proxies = new Configuration.Builder().setGenerateClasses(false).build();
+    Configuration classes = new Configuration.Builder().setGenerateClasses(true).build();
+
+    // Warm up both paths.
+    long check = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      check += run(proxies) + run(classes);
+    }
+
+    long startAllocated = getCurrentThreadAllocatedBytes();
+    long startTime = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      check += run(proxies);
+    }
+    report("proxy", startTime, startAllocated);
+
+    startAllocated = getCurrentThreadAllocatedBytes();
+    startTime = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      check += run(classes);
+    }
+    report("generated", startTime, startAllocated);
+
+    // Keep the results live.
+    System.out.println("(checksum " + check + ")");
+  }
+
+  private static long getCurrentThreadAllocatedBytes() {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    try {
+      Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+      Method method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+      return (Long) method.invoke(threadBean, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static void report(String name, long startTime, long startAllocated) {
+    long nanos = System.nanoTime() - startTime;
+    long allocated = getCurrentThreadAllocatedBytes();
+    StringBuilder line = new StringBuilder(name).append(": ");
+    line.append(nanos / ITERATIONS / 1000).append(" us/bean");
+    if (startAllocated >= 0 && allocated >= 0) {
+      line.append(", ").append((allocated - startAllocated) / ITERATIONS).append(
+          " bytes allocated/bean");
+    }
+    System.out.println(line);
+  }
+
+  /**
+   * Creates a bean, calls its getters and setters, then encodes it.
+   */
+  private static long run(Configuration configuration) {
+    AutoBean<Bean> bean = AutoBeanFactorySource.createBean(Bean.class, configuration);
+    Bean shim = bean.as();
+    long sum = 0;
+    for (int i = 0; i < CALLS; i++) {
+      shim.setCount(i);
+      shim.setActive(i % 2 == 0);
+      shim.setName("name");
+      sum += shim.getCount() + shim.getName().length() + (shim.isActive() ? 1 : 0);
+    }
+    return sum + AutoBeanCodex.encode(bean).getPayload().length();
+  }
+}
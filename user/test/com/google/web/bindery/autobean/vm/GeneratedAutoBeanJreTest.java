@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm;
+
+import com.google.web.bindery.autobean.shared.AutoBean;
+import com.google.web.bindery.autobean.shared.AutoBeanCodex;
+import com.google.web.bindery.autobean.shared.AutoBeanFactory;
+import com.google.web.bindery.autobean.shared.AutoBeanFactory.Category;
+import com.google.web.bindery.autobean.shared.AutoBeanUtils;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Runs the AutoBeanTests against the JRE implementation, with generated classes
+ * in place of Proxy instances.
+ */
+public class GeneratedAutoBeanJreTest extends AutoBeanJreTest {
+
+  /**
+   * Implements {@link PublicBean#describe(String)}.
+   */
+  public static class DescribeCategory {
+    public static String describe(AutoBean<PublicBean> bean, String prefix) {
+      return prefix + bean.as().getName();
+    }
+  }
+
+  /**
+   * A factory of public types, for which classes can be generated.
+   */
+  @Category(DescribeCategory.class)
+  public interface PublicFactory extends AutoBeanFactory {
+    AutoBean<PublicBean> bean();
+
+    AutoBean<PublicBean> bean(PublicBean toWrap);
+  }
+
+  /**
+   * A public bean type.
+   */
+  public interface PublicBean {
+    String describe(String prefix);
+
+    PublicBean getChild();
+
+    long getCount();
+
+    List<String> getNames();
+
+    String getName();
+
+    boolean isActive();
+
+    void setActive(boolean active);
+
+    void setChild(PublicBean child);
+
+    PublicBean setCount(long count);
+
+    void setName(String name);
+
+    void setNames(List<String> names);
+  }
+
+  /**
+   * A hand-written implementation to be wrapped.
+   */
+  public static class RealBean implements PublicBean {
+    private String name;
+
+    public String describe(String prefix) {
+      return prefix + "real";
+    }
+
+    public PublicBean getChild() {
+      return null;
+    }
+
+    public long getCount() {
+      return 7;
+    }
+
+    public List<String> getNames() {
+      return null;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isActive() {
+      return true;
+    }
+
+    public void setActive(boolean active) {
+    }
+
+    public void setChild(PublicBean child) {
+    }
+
+    public PublicBean setCount(long count) {
+      return this;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public void setNames(List<String> names) {
+    }
+  }
+
+  private static final String GENERATE_CLASSES = "gwt.autobean.generateClasses";
+
+  private final List<LogRecord> failures = new ArrayList<LogRecord>();
+
+  private final Handler failureHandler = new Handler() {
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+      failures.add(record);
+    }
+  };
+
+  private PublicFactory publicFactory;
+
+  public void testGeneratedProperties() {
+    AutoBean<PublicBean> bean = publicFactory.bean();
+    PublicBean shim = bean.as();
+    assertFalse(Proxy.isProxyClass(shim.getClass()));
+
+    // Default values
+    assertEquals(0L, shim.getCount());
+    assertFalse(shim.isActive());
+    assertNull(shim.getName());
+
+    shim.setName("foo");
+    assertSame(shim, shim.setCount(42));
+    shim.setActive(true);
+    List<String> names = new ArrayList<String>();
+    names.add("a");
+    shim.setNames(names);
+    PublicBean child = publicFactory.bean().as();
+    child.setName("child");
+    shim.setChild(child);
+
+    assertEquals("foo", shim.getName());
+    assertEquals(42L, shim.getCount());
+    assertTrue(shim.isActive());
+    assertEquals("child", shim.getChild().getName());
+    assertEquals("a", shim.getNames().get(0));
+    assertEquals("x-foo", shim.describe("x-"));
+    assertSame(bean, AutoBeanUtils.getAutoBean(shim));
+    assertTrue(shim.equals(shim));
+
+    // The payload is the same as that of a bean implemented by a Proxy
+    AutoBean<PublicBean> decoded =
+        AutoBeanCodex.decode(publicFactory, PublicBean.class, AutoBeanCodex.encode(bean));
+    assertEquals(AutoBeanCodex.encode(bean).getPayload(), AutoBeanCodex.encode(decoded)
+        .getPayload());
+    assertEquals("child", decoded.as().getChild().getName());
+
+    bean.setFrozen(true);
+    try {
+      shim.setName("bar");
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+
+    // The simple peer was generated too
+    assertTrue(failures.isEmpty());
+  }
+
+  public void testGeneratedWrapper() {
+    RealBean real = new RealBean();
+    AutoBean<PublicBean> bean = publicFactory.bean(real);
+    PublicBean shim = bean.as();
+    assertFalse(Proxy.isProxyClass(shim.getClass()));
+    shim.setName("wrapped");
+    assertEquals("wrapped", real.getName());
+    assertEquals(7L, shim.getCount());
+    assertEquals("x-real", shim.describe("x-"));
+    assertSame(real, bean.unwrap());
+  }
+
+  @Override
+  protected void gwtSetUp() throws Exception {
+    getGeneratorLogger().addHandler(failureHandler);
+    String old = System.setProperty(GENERATE_CLASSES, "true");
+    try {
+      factory = AutoBeanFactorySource.create(Factory.class);
+      publicFactory = AutoBeanFactorySource.create(PublicFactory.class);
+    } finally {
+      if (old == null) {
+        System.clearProperty(GENERATE_CLASSES);
+      } else {
+        System.setProperty(GENERATE_CLASSES, old);
+      }
+    }
+  }
+
+  @Override
+  protected void gwtTearDown() throws Exception {
+    getGeneratorLogger().removeHandler(failureHandler);
+  }
+
+  private Logger getGeneratorLogger() {
+    return Logger.getLogger("com.google.web.bindery.autobean.vm.impl.BeanClassGenerator");
+  }
+}
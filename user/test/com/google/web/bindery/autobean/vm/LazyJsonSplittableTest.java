@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.autobean.vm;
+
+import com.google.web.bindery.autobean.shared.Splittable;
+import com.google.web.bindery.autobean.vm.impl.LazyJsonSplittable;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Tests {@link LazyJsonSplittable}.
+ */
+public class LazyJsonSplittableTest extends TestCase {
+
+  public void testArray() throws IOException {
+    Splittable data = read("[1, \"two\", null, [true]]");
+    assertTrue(data.isIndexed());
+    assertEquals(4, data.size());
+    assertEquals(1.0, data.get(0).asNumber());
+    assertEquals("two", data.get(1).asString());
+    assertNull(data.get(2));
+    assertTrue(data.isNull(2));
+    assertTrue(data.isNull(4));
+    assertTrue(data.get(3).get(0).asBoolean());
+
+    data.get(1).assign(data, 5);
+    assertEquals(6, data.size());
+    data.setSize(2);
+    assertEquals("[1,\"two\"]", data.getPayload());
+  }
+
+  public void testMalformed() throws IOException {
+    for (String payload : Arrays.asList("", "{", "[1,", "\"abc", "{} {}", "{\"a\" 1}",
+        "[1 2]", "{\"a\": 1]", "[1,]", "nope", "nulll", "tru", "truthy", "+1", "01", "1.",
+        ".5", "1e", "0x10", "NaN", "[undefined]", "{\"a\": [falsey]}", "\"\\x\"",
+        "\"\\u12\"", "\"a\nb\"", "{a: 1}")) {
+      try {
+        read(payload);
+        fail(payload);
+      } catch (RuntimeException expected) {
+      }
+    }
+  }
+
+  public void testWrongType() throws IOException {
+    Splittable data = read("[1, \"true\", true]");
+    try {
+      data.get(0).asBoolean();
+      fail();
+    } catch (RuntimeException expected) {
+    }
+    try {
+      data.get(1).asBoolean();
+      fail();
+    } catch (RuntimeException expected) {
+    }
+    try {
+      data.get(2).asNumber();
+      fail();
+    } catch (RuntimeException expected) {
+    }
+  }
+
+  public void testModifiedChild() throws IOException {
+    Splittable data = read("{\"a\": {\"b\": 1}, \"c\": [2]}");
+    Splittable a = data.get("a");
+    assertSame(a, data.get("a"));
+    data.get("c").get(0).assign(a, "d");
+    assertEquals("{\"b\":1,\"d\":2}", a.getPayload());
+    assertEquals("{\"a\":{\"b\":1,\"d\":2},\"c\":[2]}", data.getPayload());
+  }
+
+  public void testObject() throws IOException {
+    String payload = " {\"a\": \"x\\\"y\\u0041\", \"b\" : 2.5, \"c\": null, \"d\": {\"e\": [false]}} ";
+    Splittable data = read(payload);
+    assertTrue(data.isKeyed());
+    assertEquals(Arrays.asList("a", "b", "c", "d"), data.getPropertyKeys());
+    assertEquals("x\"yA", data.get("a").asString());
+    assertEquals(2.5, data.get("b").asNumber());
+    assertTrue(data.isNull("c"));
+    assertFalse(data.isUndefined("c"));
+    assertTrue(data.isUndefined("z"));
+    assertTrue(data.isNull("z"));
+    assertFalse(data.get("d").get("e").get(0).asBoolean());
+
+    // An unmodified payload is returned as it was read
+    assertEquals(payload.trim(), data.getPayload());
+    assertEquals("{\"e\": [false]}", data.get("d").getPayload());
+  }
+
+  public void testPrimitives() throws IOException {
+    assertNull(read("null"));
+    assertEquals("a\nb", read("\"a\\nb\"").asString());
+    assertEquals(-1.5e3, read("-1.5e3").asNumber());
+    assertTrue(read("true").isBoolean());
+    assertTrue(read("42").isNumber());
+    assertEquals(-1.0, read("-1").asNumber());
+    assertEquals(1e-7, read("1E-7").asNumber());
+    assertEquals("\u00e9/", read("\"\\u00E9\\/\"").asString());
+  }
+
+  public void testReadLargePayload() throws IOException {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < 10000; i++) {
+      sb.append(i).append(",");
+    }
+    sb.append("\"end\"]");
+    Splittable data = read(sb.toString());
+    assertEquals(10001, data.size());
+    assertEquals(9999.0, data.get(9999).asNumber());
+    assertEquals(sb.toString(), data.getPayload());
+  }
+
+  private Splittable read(String payload) throws IOException {
+    return LazyJsonSplittable.read(new StringReader(payload));
+  }
+}
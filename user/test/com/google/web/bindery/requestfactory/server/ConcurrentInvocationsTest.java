@@ -0,0 +1,274 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.requestfactory.server;
+
+import com.google.web.bindery.event.shared.SimpleEventBus;
+import com.google.web.bindery.requestfactory.server.testing.InProcessRequestTransport;
+import com.google.web.bindery.requestfactory.shared.Receiver;
+import com.google.web.bindery.requestfactory.shared.Request;
+import com.google.web.bindery.requestfactory.shared.RequestContext;
+import com.google.web.bindery.requestfactory.shared.RequestFactory;
+import com.google.web.bindery.requestfactory.shared.ServerFailure;
+import com.google.web.bindery.requestfactory.shared.Service;
+import com.google.web.bindery.requestfactory.vm.RequestFactorySource;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the concurrent invocation of {@link ReadOnly} methods.
+ */
+public class ConcurrentInvocationsTest extends TestCase {
+
+  /**
+   * The RequestContext under test.
+   */
+  @Service(Domain.class)
+  interface Context extends RequestContext {
+    Request<String> block(String value);
+
+    Request<String> crash(String value);
+
+    Request<String> fail(String value);
+
+    Request<String> read(String value);
+
+    Request<String> readTogether(String value);
+
+    Request<String> write(String value);
+  }
+
+  /**
+   * The domain service.
+   */
+  static class Domain {
+    static CyclicBarrier barrier;
+    static List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    static CountDownLatch started;
+
+    /**
+     * Returns when interrupted.
+     */
+    @ReadOnly
+    public static String block(String value) {
+      started.countDown();
+      try {
+        Thread.sleep(10000);
+        events.add("finished");
+      } catch (InterruptedException e) {
+        events.add("interrupted");
+      }
+      return value;
+    }
+
+    /**
+     * Never called, see {@link CrashingServiceLayer}.
+     */
+    @ReadOnly
+    public static String crash(String value) {
+      return value;
+    }
+
+    @ReadOnly
+    public static String fail(String value) {
+      throw new IllegalArgumentException(value);
+    }
+
+    @ReadOnly
+    public static String read(String value) {
+      events.add(value);
+      return value;
+    }
+
+    /**
+     * Returns only if another invocation is running at the same time.
+     */
+    @ReadOnly
+    public static String readTogether(String value) throws Exception {
+      barrier.await(10, TimeUnit.SECONDS);
+      return value;
+    }
+
+    public static String write(String value) {
+      events.add(value);
+      return value;
+    }
+  }
+
+  /**
+   * Fails invocations of {@link Domain#crash} with an unexpected exception once
+   * {@link Domain#block} is running.
+   */
+  static class CrashingServiceLayer extends ServiceLayerDecorator {
+    @Override
+    public Object invoke(Method domainMethod, Object... args) {
+      if ("crash".equals(domainMethod.getName())) {
+        try {
+          Domain.started.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new IllegalStateException("crash");
+      }
+      return super.invoke(domainMethod, args);
+    }
+  }
+
+  /**
+   * The RequestFactory under test.
+   */
+  interface Factory extends RequestFactory {
+    Context context();
+  }
+
+  /**
+   * Records the result of a Request.
+   */
+  static class Result extends Receiver<String> {
+    String failure;
+    String value;
+
+    @Override
+    public void onFailure(ServerFailure error) {
+      failure = error.getMessage();
+    }
+
+    @Override
+    public void onSuccess(String response) {
+      value = response;
+    }
+  }
+
+  private int executed;
+
+  public void testConcurrentInvocations() {
+    Domain.barrier = new CyclicBarrier(3);
+    Context context = createFactory(true).context();
+    Result a = new Result();
+    Result b = new Result();
+    Result c = new Result();
+    context.readTogether("a").to(a);
+    context.readTogether("b").to(b);
+    context.readTogether("c").to(c);
+    context.fire();
+
+    assertEquals("a", a.value);
+    assertEquals("b", b.value);
+    assertEquals("c", c.value);
+    // The last invocation runs on the request thread
+    assertEquals(2, executed);
+  }
+
+  public void testFailure() {
+    Context context = createFactory(true).context();
+    Result a = new Result();
+    Result b = new Result();
+    Result c = new Result();
+    context.read("a").to(a);
+    context.fail("b").to(b);
+    context.read("c").to(c);
+    context.fire();
+
+    assertEquals("a", a.value);
+    assertNull(b.value);
+    assertNotNull(b.failure);
+    assertEquals("c", c.value);
+  }
+
+  public void testUnexpectedFailureInterruptsAndAwaitsOthers() {
+    Domain.started = new CountDownLatch(1);
+    Context context = createFactory(true, new CrashingServiceLayer()).context();
+    Result a = new Result();
+    Result b = new Result();
+    context.block("a").to(a);
+    context.crash("b").to(b);
+    context.fire();
+
+    assertNull(a.value);
+    assertNotNull(a.failure);
+    assertNull(b.value);
+    // The blocked invocation has finished before the failure was reported
+    assertEquals(Arrays.asList("interrupted"), Domain.events);
+  }
+
+  public void testInvocationsWithSideEffects() {
+    Context context = createFactory(true).context();
+    List<Result> results = new ArrayList<Result>();
+    for (String value : Arrays.asList("a", "b", "c", "d", "e")) {
+      Result result = new Result();
+      results.add(result);
+      if ("c".equals(value)) {
+        context.write(value).to(result);
+      } else {
+        context.read(value).to(result);
+      }
+    }
+    context.fire();
+
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(String.valueOf((char) ('a' + i)), results.get(i).value);
+    }
+    // The read-only invocations on either side of the write are not reordered
+    assertEquals("c", Domain.events.get(2));
+    assertTrue(Domain.events.subList(0, 2).containsAll(Arrays.asList("a", "b")));
+    assertEquals(2, executed);
+  }
+
+  public void testWithoutExecutor() {
+    Context context = createFactory(false).context();
+    Result a = new Result();
+    Result b = new Result();
+    context.read("a").to(a);
+    context.read("b").to(b);
+    context.fire();
+
+    assertEquals("a", a.value);
+    assertEquals("b", b.value);
+    assertEquals(Arrays.asList("a", "b"), Domain.events);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    Domain.events.clear();
+    executed = 0;
+  }
+
+  private Factory createFactory(boolean concurrent, ServiceLayerDecorator... decorators) {
+    SimpleRequestProcessor processor = new SimpleRequestProcessor(ServiceLayer.create(decorators));
+    if (concurrent) {
+      processor.setInvocationExecutor(new Executor() {
+        public void execute(Runnable command) {
+          executed++;
+          Thread thread = new Thread(command);
+          thread.setDaemon(true);
+          thread.start();
+        }
+      });
+    }
+    Factory factory = RequestFactorySource.create(Factory.class);
+    factory.initialize(new SimpleEventBus(), new InProcessRequestTransport(processor));
+    return factory;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.requestfactory.server;
+
+import com.google.web.bindery.requestfactory.shared.Locator;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that the objects referenced by a payload are loaded once per type.
+ */
+public class LoadDomainObjectsTest extends TestCase {
+
+  /**
+   * A domain type with a Locator which loads several objects at once.
+   */
+  static class Bulk {
+    final String id;
+
+    Bulk(String id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Counts the calls to each find method.
+   */
+  public static class BulkLocator extends Locator<Bulk, String> {
+    static List<List<String>> bulkFinds = new ArrayList<List<String>>();
+    static int finds;
+
+    @Override
+    public Bulk create(Class<? extends Bulk> clazz) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Bulk find(Class<? extends Bulk> clazz, String id) {
+      finds++;
+      return new Bulk(id);
+    }
+
+    @Override
+    public List<Bulk> findAll(Class<? extends Bulk> clazz, List<String> ids) {
+      bulkFinds.add(ids);
+      List<Bulk> toReturn = new ArrayList<Bulk>();
+      for (String id : ids) {
+        toReturn.add("missing".equals(id) ? null : new Bulk(id));
+      }
+      return toReturn;
+    }
+
+    @Override
+    public Class<Bulk> getDomainType() {
+      return Bulk.class;
+    }
+
+    @Override
+    public String getId(Bulk domainObject) {
+      return domainObject.id;
+    }
+
+    @Override
+    public Class<String> getIdType() {
+      return String.class;
+    }
+
+    @Override
+    public Object getVersion(Bulk domainObject) {
+      return 0;
+    }
+  }
+
+  /**
+   * A domain type with a Locator which loads one object at a time.
+   */
+  static class Plain {
+    final String id;
+
+    Plain(String id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Counts the calls to {@link #find}.
+   */
+  public static class PlainLocator extends Locator<Plain, String> {
+    static int finds;
+
+    @Override
+    public Plain create(Class<? extends Plain> clazz) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Plain find(Class<? extends Plain> clazz, String id) {
+      finds++;
+      return new Plain(id);
+    }
+
+    @Override
+    public Class<Plain> getDomainType() {
+      return Plain.class;
+    }
+
+    @Override
+    public String getId(Plain domainObject) {
+      return domainObject.id;
+    }
+
+    @Override
+    public Class<String> getIdType() {
+      return String.class;
+    }
+
+    @Override
+    public Object getVersion(Plain domainObject) {
+      return 0;
+    }
+  }
+
+  /**
+   * A domain type without a Locator.
+   */
+  static class Single {
+    final Object id;
+
+    Single(Object id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Resolves the Locators of {@link Bulk} and {@link Plain}, loads
+   * {@link Single} objects and counts the loads of {@link Plain} objects.
+   */
+  static class TestLayer extends ServiceLayerDecorator {
+    final List<Object> plainLoads = new ArrayList<Object>();
+    int singleLoads;
+
+    @Override
+    public <T> T loadDomainObject(Class<T> clazz, Object domainId) {
+      if (Single.class.equals(clazz)) {
+        singleLoads++;
+        return clazz.cast(new Single(domainId));
+      }
+      if (Plain.class.equals(clazz)) {
+        plainLoads.add(domainId);
+      }
+      return super.loadDomainObject(clazz, domainId);
+    }
+
+    @Override
+    public Class<? extends Locator<?, ?>> resolveLocator(Class<?> domainType) {
+      if (Bulk.class.equals(domainType)) {
+        return BulkLocator.class;
+      }
+      return Plain.class.equals(domainType) ? PlainLocator.class : null;
+    }
+  }
+
+  /**
+   * A decorator of loadDomainObject() sees the objects of a type whose Locator
+   * does not override findAll().
+   */
+  public void testDecoratorSeesLocatorLoads() {
+    TestLayer testLayer = new TestLayer();
+    ServiceLayer layer = ServiceLayer.create(testLayer);
+    List<Class<?>> classes = new ArrayList<Class<?>>();
+    classes.addAll(Arrays.<Class<?>> asList(Plain.class, Bulk.class, Plain.class));
+    List<Object> ids = new ArrayList<Object>();
+    ids.addAll(Arrays.<Object> asList("x", "a", "y"));
+
+    List<Object> loaded = layer.loadDomainObjects(classes, ids);
+    assertEquals("x", ((Plain) loaded.get(0)).id);
+    assertEquals("a", ((Bulk) loaded.get(1)).id);
+    assertEquals("y", ((Plain) loaded.get(2)).id);
+
+    assertEquals(Arrays.<Object> asList("x", "y"), testLayer.plainLoads);
+    assertEquals(2, PlainLocator.finds);
+    assertEquals(1, BulkLocator.bulkFinds.size());
+  }
+
+  public void testLoadOncePerType() {
+    TestLayer testLayer = new TestLayer();
+    ServiceLayer layer = ServiceLayer.create(testLayer);
+    List<Class<?>> classes = new ArrayList<Class<?>>();
+    classes.addAll(Arrays.<Class<?>> asList(Bulk.class, Single.class, Bulk.class, Single.class,
+        Bulk.class));
+    List<Object> ids = new ArrayList<Object>();
+    ids.addAll(Arrays.<Object> asList("a", 1, "missing", 2, "b"));
+
+    List<Object> loaded = layer.loadDomainObjects(classes, ids);
+    assertEquals(5, loaded.size());
+    assertEquals("a", ((Bulk) loaded.get(0)).id);
+    assertEquals(1, ((Single) loaded.get(1)).id);
+    assertNull(loaded.get(2));
+    assertEquals(2, ((Single) loaded.get(3)).id);
+    assertEquals("b", ((Bulk) loaded.get(4)).id);
+
+    // One query for the Locator, the per-id path for the other type
+    assertEquals(1, BulkLocator.bulkFinds.size());
+    assertEquals(Arrays.asList("a", "missing", "b"), BulkLocator.bulkFinds.get(0));
+    assertEquals(0, BulkLocator.finds);
+    assertEquals(2, testLayer.singleLoads);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    BulkLocator.bulkFinds.clear();
+    BulkLocator.finds = 0;
+    PlainLocator.finds = 0;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.requestfactory.server;
+
+import com.google.web.bindery.event.shared.SimpleEventBus;
+import com.google.web.bindery.requestfactory.shared.RequestTransport;
+import com.google.web.bindery.requestfactory.shared.ServerFailure;
+import com.google.web.bindery.requestfactory.shared.SimpleRequestFactory;
+import com.google.web.bindery.requestfactory.vm.RequestFactorySource;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Runs the RequestFactory tests in-process through
+ * {@link SimpleRequestProcessor#process(java.io.Reader, java.io.Writer)}.
+ */
+public class RequestFactoryStreamingJreTest extends RequestFactoryJreTest {
+
+  /**
+   * A RequestTransport which streams the payloads, reading the request a few
+   * characters at a time.
+   */
+  static class StreamingRequestTransport implements RequestTransport {
+    private final SimpleRequestProcessor processor;
+
+    StreamingRequestTransport(SimpleRequestProcessor processor) {
+      this.processor = processor;
+    }
+
+    public void send(String payload, TransportReceiver receiver) {
+      StringWriter out = new StringWriter();
+      try {
+        processor.process(new FilterReader(new StringReader(payload)) {
+          @Override
+          public int read(char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, 7));
+          }
+        }, out);
+      } catch (IOException e) {
+        receiver.onTransportFailure(new ServerFailure(e.getMessage()));
+        return;
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+        receiver.onTransportFailure(new ServerFailure(e.getMessage()));
+        return;
+      }
+      receiver.onTransportSuccess(out.toString());
+    }
+  }
+
+  @Override
+  protected SimpleRequestFactory createFactory() {
+    SimpleRequestFactory req = RequestFactorySource.create(SimpleRequestFactory.class);
+    req.initialize(new SimpleEventBus(), new StreamingRequestTransport(
+        new SimpleRequestProcessor(ServiceLayer.create())));
+    return req;
+  }
+}
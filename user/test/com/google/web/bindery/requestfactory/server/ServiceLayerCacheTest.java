@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.web.bindery.requestfactory.server;
+
+import com.google.web.bindery.requestfactory.shared.BaseProxy;
+import com.google.web.bindery.requestfactory.shared.Request;
+import com.google.web.bindery.requestfactory.shared.RequestContext;
+import com.google.web.bindery.requestfactory.shared.RequestFactory;
+import com.google.web.bindery.requestfactory.shared.Service;
+import com.google.web.bindery.requestfactory.vm.impl.OperationKey;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Tests {@link ServiceLayerCache}.
+ */
+public class ServiceLayerCacheTest extends TestCase {
+
+  interface A extends BaseProxy {
+  }
+
+  interface B extends BaseProxy {
+  }
+
+  interface C extends BaseProxy {
+  }
+
+  /**
+   * The RequestContext whose operations are preloaded.
+   */
+  @Service(Domain.class)
+  interface Context extends RequestContext {
+    Request<String> echo(String value);
+
+    Request<Void> reset();
+  }
+
+  /**
+   * The domain service.
+   */
+  static class Domain {
+    public static String echo(String value) {
+      return value;
+    }
+
+    public static void reset() {
+    }
+  }
+
+  /**
+   * The RequestFactory whose operations are preloaded.
+   */
+  interface Factory extends RequestFactory {
+    Context context();
+  }
+
+  /**
+   * Counts the calls which reach the layers behind the cache.
+   */
+  static class CountingLayer extends ServiceLayerDecorator {
+    int calls;
+
+    @Override
+    public String resolveTypeToken(Class<? extends BaseProxy> clazz) {
+      calls++;
+      return super.resolveTypeToken(clazz);
+    }
+  }
+
+  private CountingLayer counter;
+
+  public void testEvictsLeastRecentlyUsed() {
+    ServiceLayerCache cache = createCache(2);
+    assertEquals(2, cache.getMaxSizePerMethod());
+    cache.resolveTypeToken(A.class);
+    cache.resolveTypeToken(B.class);
+    cache.resolveTypeToken(A.class);
+    cache.resolveTypeToken(C.class);
+    assertEquals(3, counter.calls);
+    assertEquals(1L, cache.getEvictionCount());
+    assertEquals(2, cache.getSize());
+
+    // A was used more recently than B
+    cache.resolveTypeToken(A.class);
+    assertEquals(3, counter.calls);
+    cache.resolveTypeToken(B.class);
+    assertEquals(4, counter.calls);
+  }
+
+  public void testHitsAndMisses() {
+    ServiceLayerCache cache = createCache(10);
+    String token = cache.resolveTypeToken(A.class);
+    assertEquals(token, cache.resolveTypeToken(A.class));
+    assertEquals(1, counter.calls);
+    assertEquals(1L, cache.getHitCount());
+    assertEquals(1L, cache.getMissCount());
+    assertEquals(1, cache.getSize());
+
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    cache.resolveTypeToken(A.class);
+    assertEquals(2, counter.calls);
+  }
+
+  public void testMBean() throws Exception {
+    ServiceLayerCache cache = createCache(10);
+    cache.resolveTypeToken(A.class);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.google.web.bindery.requestfactory:type=Test");
+    server.registerMBean(new StandardMBean(cache, ServiceLayerCacheMBean.class), name);
+    try {
+      assertEquals(1, server.getAttribute(name, "Size"));
+      assertEquals(1L, server.getAttribute(name, "MissCount"));
+      server.invoke(name, "clear", null, null);
+      assertEquals(0, cache.getSize());
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  public void testNotShared() {
+    ServiceLayerCache first = createCache(10);
+    first.resolveTypeToken(A.class);
+    createCache(10).resolveTypeToken(A.class);
+    assertEquals(1, counter.calls);
+    assertEquals(1, first.getSize());
+  }
+
+  public void testPreload() {
+    ServiceLayerCache cache = createCache(10);
+    assertEquals(2, cache.preload(Factory.class.getName()));
+
+    String operation =
+        new OperationKey(Context.class.getName(), "echo", "(Ljava/lang/String;)V").get();
+    long misses = cache.getMissCount();
+    assertNotNull(cache.resolveDomainMethod(operation));
+    assertNotNull(cache.resolveRequestContextMethod(operation));
+    assertEquals(misses, cache.getMissCount());
+  }
+
+  private ServiceLayerCache createCache(int maxSize) {
+    ServiceLayerCache cache = new ServiceLayerCache(maxSize);
+    counter = new CountingLayer();
+    ServiceLayer.createWithCache(cache, counter);
+    return cache;
+  }
+}